@@ -20,12 +20,17 @@ package org.xnio.dns;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.util.concurrent.Executor;
 import org.xnio.AbstractConvertingIoFuture;
 import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.dns.record.HttpsRecord;
 import org.xnio.dns.record.TxtRecord;
 import org.xnio.dns.record.PtrRecord;
 import org.xnio.dns.record.ARecord;
@@ -36,20 +41,69 @@ import org.xnio.dns.record.AaaaRecord;
  */
 public abstract class AbstractResolver implements Resolver {
 
-    /** {@inheritDoc} */
+    private volatile NameWatcher watcher;
+
+    /**
+     * Get the executor on which to notify the callers of lookups which combine several queries, such as
+     * {@link #resolveDualStack(Domain)}.  Resolvers which have an executor for asynchronous notifications should return
+     * it; the default runs notifiers directly on the thread which completes the lookup.
+     *
+     * @return the executor
+     */
+    protected Executor getNotifierExecutor() {
+        return IoUtils.directExecutor();
+    }
+
+    /** {@inheritDoc}  The watches of this resolver share one {@link NameWatcher}. */
+    public NameWatcher.Subscription watch(final Query query, final NameWatcher.Listener listener) {
+        NameWatcher watcher = this.watcher;
+        if (watcher == null) {
+            synchronized (this) {
+                watcher = this.watcher;
+                if (watcher == null) {
+                    watcher = this.watcher = new NameWatcher(this);
+                }
+            }
+        }
+        return watcher.watch(query, listener);
+    }
+
+    /** {@inheritDoc}  The IPv6 and IPv4 addresses are looked up concurrently. */
     public IoFuture<List<InetAddress>> resolveAllInet(final Domain name) {
+        return resolveDualStack(name).getAllAddresses();
+    }
+
+    /** {@inheritDoc}  The IPv6 and IPv4 addresses are looked up concurrently. */
+    public IoFuture<List<InetAddress>> resolveAllInet(final Domain name, final AddressSorter sorter) {
+        if (sorter == null) {
+            throw new NullPointerException("sorter is null");
+        }
+        return new FutureSortedInetAddressList(resolveAllInet(name), sorter);
+    }
+
+    /** {@inheritDoc}  The IPv6 and IPv4 addresses are looked up concurrently, and the first address of the
+     * {@linkplain DualStackLookup#getFirstAddresses() first family to answer} is returned. */
+    public IoFuture<InetAddress> resolveInet(final Domain name) {
+        return new FutureFirstInetAddress(resolveDualStack(name).getFirstAddresses());
+    }
+
+    /** {@inheritDoc} */
+    public DualStackLookup resolveDualStack(final Domain name) {
         if (name == null) {
             throw new NullPointerException("name is null");
         }
-        return new FutureInetAddressList(resolve(name, RRClass.IN, RRType.ANY));
+        final IoFuture<List<Inet6Address>> futureInet6 = resolveAllInet6(name);
+        final IoFuture<List<Inet4Address>> futureInet4 = resolveAllInet4(name);
+        return new DualStackLookup(futureInet6, futureInet4, getNotifierExecutor());
     }
 
-    /** {@inheritDoc} */
-    public IoFuture<InetAddress> resolveInet(final Domain name) {
+    /** {@inheritDoc}  The HTTPS query is sent before the address queries. */
+    public HttpsLookup resolveHttps(final Domain name) {
         if (name == null) {
             throw new NullPointerException("name is null");
         }
-        return new FutureInetAddress(resolve(name, RRClass.IN, RRType.ANY));
+        final IoFuture<List<HttpsRecord>> futureRecords = new FutureHttpsRecords(resolve(name, RRClass.IN, RRType.HTTPS));
+        return new HttpsLookup(futureRecords, resolveDualStack(name), getNotifierExecutor());
     }
 
     /** {@inheritDoc} */
@@ -100,6 +154,74 @@ public abstract class AbstractResolver implements Resolver {
         return new FutureText(resolve(name, RRClass.IN, RRType.TXT));
     }
 
+    /**
+     * Get the IPv4 addresses in an answer.
+     *
+     * @param answer the answer
+     * @return the addresses
+     * @throws DNSException if the answer has an error result code
+     */
+    static List<Inet4Address> inet4Addresses(final Answer answer) throws DNSException {
+        final int resultCode = answer.getResultCode();
+        if (resultCode != ResultCode.NOERROR) {
+            throw new DNSException(resultCode);
+        }
+        final List<Record> answers = answer.getAnswerRecords();
+        List<Inet4Address> list = new ArrayList<Inet4Address>(answers.size());
+        for (Record record : answers) {
+            if (record instanceof ARecord) {
+                final ARecord aRecord = (ARecord) record;
+                list.add(aRecord.getAddress());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the IPv6 addresses in an answer.
+     *
+     * @param answer the answer
+     * @return the addresses
+     * @throws DNSException if the answer has an error result code
+     */
+    static List<Inet6Address> inet6Addresses(final Answer answer) throws DNSException {
+        final int resultCode = answer.getResultCode();
+        if (resultCode != ResultCode.NOERROR) {
+            throw new DNSException(resultCode);
+        }
+        final List<Record> answers = answer.getAnswerRecords();
+        List<Inet6Address> list = new ArrayList<Inet6Address>(answers.size());
+        for (Record record : answers) {
+            if (record instanceof AaaaRecord) {
+                final AaaaRecord aaaaRecord = (AaaaRecord) record;
+                list.add(aaaaRecord.getAddress());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the target of the first {@code PTR} record in an answer.
+     *
+     * @param answer the answer
+     * @return the target, or {@code null} if there is none
+     * @throws DNSException if the answer has an error result code
+     */
+    static Domain ptrDomain(final Answer answer) throws DNSException {
+        final int resultCode = answer.getResultCode();
+        if (resultCode != ResultCode.NOERROR) {
+            throw new DNSException(resultCode);
+        }
+        final List<Record> answers = answer.getAnswerRecords();
+        for (Record record : answers) {
+            if (record instanceof PtrRecord) {
+                return ((PtrRecord)record).getTarget();
+            }
+        }
+        // not found...
+        return null;
+    }
+
     private static final class FutureText extends AbstractConvertingIoFuture<List<String>, Answer> {
 
         protected FutureText(final IoFuture<? extends Answer> delegate) {
@@ -107,7 +229,7 @@ public abstract class AbstractResolver implements Resolver {
         }
 
         protected List<String> convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
+            final int resultCode = arg.getResultCode();
             if (resultCode != ResultCode.NOERROR) {
                 throw new DNSException(resultCode);
             }
@@ -122,99 +244,78 @@ public abstract class AbstractResolver implements Resolver {
         }
     }
 
-    private static final class FuturePtrDomain extends AbstractConvertingIoFuture<Domain, Answer> {
+    private static final class FutureHttpsRecords extends AbstractConvertingIoFuture<List<HttpsRecord>, Answer> {
 
-        protected FuturePtrDomain(final IoFuture<? extends Answer> delegate) {
+        private static final Comparator<HttpsRecord> PRIORITY_ORDER = new Comparator<HttpsRecord>() {
+            public int compare(final HttpsRecord o1, final HttpsRecord o2) {
+                return Integer.compare(o1.getPriority(), o2.getPriority());
+            }
+        };
+
+        protected FutureHttpsRecords(final IoFuture<? extends Answer> delegate) {
             super(delegate);
         }
 
-        protected Domain convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
+        protected List<HttpsRecord> convert(final Answer arg) throws IOException {
+            final int resultCode = arg.getResultCode();
             if (resultCode != ResultCode.NOERROR) {
                 throw new DNSException(resultCode);
             }
             final List<Record> answers = arg.getAnswerRecords();
+            final List<HttpsRecord> records = new ArrayList<HttpsRecord>(answers.size());
             for (Record answer : answers) {
-                if (answer instanceof PtrRecord) {
-                    return ((PtrRecord)answer).getTarget();
+                if (answer instanceof HttpsRecord) {
+                    records.add((HttpsRecord) answer);
                 }
             }
-            // not found...
-            return null;
+            Collections.sort(records, PRIORITY_ORDER);
+            return Collections.unmodifiableList(records);
         }
     }
 
-    static final class FutureInetAddressList extends AbstractConvertingIoFuture<List<InetAddress>, Answer> {
+    private static final class FuturePtrDomain extends AbstractConvertingIoFuture<Domain, Answer> {
 
-        protected FutureInetAddressList(final IoFuture<? extends Answer> delegate) {
+        protected FuturePtrDomain(final IoFuture<? extends Answer> delegate) {
             super(delegate);
         }
 
-        protected List<InetAddress> convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
-            if (resultCode != ResultCode.NOERROR) {
-                throw new DNSException(resultCode);
-            }
-            final List<Record> answers = arg.getAnswerRecords();
-            final List<InetAddress> list = new ArrayList<InetAddress>(answers.size());
-            for (Record record : answers) {
-                if (record instanceof ARecord) {
-                    final ARecord aRecord = (ARecord) record;
-                    list.add(aRecord.getAddress());
-                } else if (record instanceof AaaaRecord) {
-                    final AaaaRecord aaaaRecord = (AaaaRecord) record;
-                    list.add(aaaaRecord.getAddress());
-                }
-            }
-            return list;
+        protected Domain convert(final Answer arg) throws IOException {
+            return ptrDomain(arg);
         }
     }
 
-    private static final class FutureInetAddress extends AbstractConvertingIoFuture<InetAddress, Answer> {
+    private static final class FutureSortedInetAddressList extends AbstractConvertingIoFuture<List<InetAddress>, List<InetAddress>> {
+        private final AddressSorter sorter;
 
-        protected FutureInetAddress(final IoFuture<? extends Answer> delegate) {
+        protected FutureSortedInetAddressList(final IoFuture<? extends List<InetAddress>> delegate, final AddressSorter sorter) {
             super(delegate);
+            this.sorter = sorter;
         }
 
-        protected InetAddress convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
-            if (resultCode != ResultCode.NOERROR) {
-                throw new DNSException(resultCode);
-            }
-            final List<Record> answers = arg.getAnswerRecords();
-            for (Record record : answers) {
-                if (record instanceof ARecord) {
-                    final ARecord aRecord = (ARecord) record;
-                    return aRecord.getAddress();
-                } else if (record instanceof AaaaRecord) {
-                    final AaaaRecord aaaaRecord = (AaaaRecord) record;
-                    return aaaaRecord.getAddress();
-                }
-            }
-            return null;
+        protected List<InetAddress> convert(final List<InetAddress> arg) {
+            return sorter.sort(arg);
         }
     }
 
-    private static final class FutureInet4AddressList extends AbstractConvertingIoFuture<List<Inet4Address>, Answer> {
+    private static final class FutureFirstInetAddress extends AbstractConvertingIoFuture<InetAddress, List<InetAddress>> {
+
+        protected FutureFirstInetAddress(final IoFuture<? extends List<InetAddress>> delegate) {
+            super(delegate);
+        }
+
+        protected InetAddress convert(final List<InetAddress> arg) {
+            return arg.isEmpty() ? null : arg.get(0);
+        }
+    }
+
+    static final class FutureInet4AddressList extends AbstractConvertingIoFuture<List<Inet4Address>, Answer> {
 
         protected FutureInet4AddressList(final IoFuture<? extends Answer> delegate) {
             super(delegate);
         }
 
         protected List<Inet4Address> convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
-            if (resultCode != ResultCode.NOERROR) {
-                throw new DNSException(resultCode);
-            }
-            final List<Record> answers = arg.getAnswerRecords();
-            List<Inet4Address> list = new ArrayList<Inet4Address>(answers.size());
-            for (Record record : answers) {
-                if (record instanceof ARecord) {
-                    final ARecord aRecord = (ARecord) record;
-                    list.add(aRecord.getAddress());
-                }
-            }
-            return list;
+            return inet4Addresses(arg);
         }
     }
 
@@ -225,7 +326,7 @@ public abstract class AbstractResolver implements Resolver {
         }
 
         protected Inet4Address convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
+            final int resultCode = arg.getResultCode();
             if (resultCode != ResultCode.NOERROR) {
                 throw new DNSException(resultCode);
             }
@@ -240,26 +341,14 @@ public abstract class AbstractResolver implements Resolver {
         }
     }
 
-    private static final class FutureInet6AddressList extends AbstractConvertingIoFuture<List<Inet6Address>, Answer> {
+    static final class FutureInet6AddressList extends AbstractConvertingIoFuture<List<Inet6Address>, Answer> {
 
         protected FutureInet6AddressList(final IoFuture<? extends Answer> delegate) {
             super(delegate);
         }
 
         protected List<Inet6Address> convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
-            if (resultCode != ResultCode.NOERROR) {
-                throw new DNSException(resultCode);
-            }
-            final List<Record> answers = arg.getAnswerRecords();
-            List<Inet6Address> list = new ArrayList<Inet6Address>(answers.size());
-            for (Record record : answers) {
-                if (record instanceof AaaaRecord) {
-                    final AaaaRecord aaaaRecord = (AaaaRecord) record;
-                    list.add(aaaaRecord.getAddress());
-                }
-            }
-            return list;
+            return inet6Addresses(arg);
         }
     }
 
@@ -270,7 +359,7 @@ public abstract class AbstractResolver implements Resolver {
         }
 
         protected Inet6Address convert(final Answer arg) throws IOException {
-            final ResultCode resultCode = arg.getResultCode();
+            final int resultCode = arg.getResultCode();
             if (resultCode != ResultCode.NOERROR) {
                 throw new DNSException(resultCode);
             }
@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.wildfly.common.Assert;
+
+/**
+ * A sorter which orders destination addresses according to RFC 6724, section 6, using the default policy table of
+ * section 2.1.  Rules 3, 4 and 7 (deprecated, home and native-transport addresses) are not applied, since that
+ * information is not available to Java programs; rule 9 (longest matching prefix) is only applied to IPv6 addresses,
+ * as it would otherwise defeat round-robin DNS over IPv4.
+ * <p>
+ * The source address for a destination is found by connecting a UDP socket to it, which consults the routing table
+ * without sending any packets.  The result is cached per destination prefix (the /64 of an IPv6 address, or the /24
+ * of an IPv4 address), so that sorting a list of addresses normally involves no system calls.
+ */
+public final class AddressSorter {
+
+    private static final AddressSorter DEFAULT = new AddressSorter(60L, TimeUnit.SECONDS);
+
+    private static final int SCOPE_LINK_LOCAL = 0x2;
+    private static final int SCOPE_SITE_LOCAL = 0x5;
+    private static final int SCOPE_GLOBAL = 0xe;
+
+    private static final int MAX_CACHE_SIZE = 1024;
+    // the discard port; nothing is ever sent to it
+    private static final int PROBE_PORT = 9;
+
+    // ordered by prefix length, longest first
+    private static final Policy[] POLICY_TABLE = {
+        new Policy(128, 50, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1),    // ::1/128
+        new Policy(96, 35, 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0xff, 0xff),           // ::ffff:0:0/96
+        new Policy(96, 1, 3),                                                       // ::/96
+        new Policy(32, 5, 5, 0x20, 0x01, 0, 0),                                     // 2001::/32
+        new Policy(16, 30, 2, 0x20, 0x02),                                          // 2002::/16
+        new Policy(16, 1, 12, 0x3f, 0xfe),                                          // 3ffe::/16
+        new Policy(10, 1, 11, 0xfe, 0xc0),                                          // fec0::/10
+        new Policy(7, 3, 13, 0xfc),                                                 // fc00::/7
+        new Policy(0, 40, 1),                                                       // ::/0
+    };
+
+    private final long sourceCacheNanos;
+    private final ConcurrentHashMap<ByteBuffer, Source> sourceCache = new ConcurrentHashMap<ByteBuffer, Source>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param sourceCacheTime the amount of time for which to cache the source address of a destination prefix
+     * @param unit the time unit
+     */
+    public AddressSorter(final long sourceCacheTime, final TimeUnit unit) {
+        Assert.checkMinimumParameter("sourceCacheTime", 0L, sourceCacheTime);
+        Assert.checkNotNullParam("unit", unit);
+        sourceCacheNanos = unit.toNanos(sourceCacheTime);
+    }
+
+    /**
+     * Get the default address sorter, which caches source addresses for one minute.
+     *
+     * @return the default address sorter
+     */
+    public static AddressSorter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sort destination addresses, most preferred first.  Addresses which compare equal keep their relative order.
+     *
+     * @param addresses the addresses to sort
+     * @return a new sorted list
+     */
+    public List<InetAddress> sort(Collection<? extends InetAddress> addresses) {
+        Assert.checkNotNullParam("addresses", addresses);
+        final int size = addresses.size();
+        if (size <= 1) {
+            return new ArrayList<InetAddress>(addresses);
+        }
+        final List<Candidate> candidates = new ArrayList<Candidate>(size);
+        for (InetAddress address : addresses) {
+            candidates.add(new Candidate(address, getSourceAddress(address)));
+        }
+        Collections.sort(candidates, CandidateComparator.INSTANCE);
+        final List<InetAddress> list = new ArrayList<InetAddress>(size);
+        for (Candidate candidate : candidates) {
+            list.add(candidate.destination);
+        }
+        return list;
+    }
+
+    /**
+     * Get the source address which would be used to reach a destination.
+     *
+     * @param destination the destination address
+     * @return the source address, or {@code null} if the destination is unreachable
+     */
+    public InetAddress getSourceAddress(InetAddress destination) {
+        Assert.checkNotNullParam("destination", destination);
+        final ByteBuffer key = prefixKey(destination);
+        final long now = System.nanoTime();
+        Source source = sourceCache.get(key);
+        if (source == null || now - source.expiry >= 0L) {
+            if (sourceCache.size() >= MAX_CACHE_SIZE) {
+                sourceCache.clear();
+            }
+            source = new Source(probe(destination), now + sourceCacheNanos);
+            sourceCache.put(key, source);
+        }
+        return source.address;
+    }
+
+    /**
+     * Discard all cached source addresses, for example after a change in network configuration.
+     */
+    public void clearCache() {
+        sourceCache.clear();
+    }
+
+    private static InetAddress probe(final InetAddress destination) {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(destination, PROBE_PORT));
+            final InetAddress local = socket.getLocalAddress();
+            return local == null || local.isAnyLocalAddress() ? null : local;
+        } catch (SocketException | SecurityException e) {
+            // no route
+            return null;
+        }
+    }
+
+    private static ByteBuffer prefixKey(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            // link-local prefixes are only unique per interface
+            final ByteBuffer key = ByteBuffer.allocate(12);
+            key.put(bytes, 0, 8).putInt(((Inet6Address) address).getScopeId()).flip();
+            return key;
+        } else {
+            return ByteBuffer.wrap(bytes, 0, 3).slice();
+        }
+    }
+
+    static byte[] toIPv6(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (bytes.length == 16) {
+            return bytes;
+        }
+        final byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        System.arraycopy(bytes, 0, mapped, 12, 4);
+        return mapped;
+    }
+
+    static int scopeOf(final InetAddress address) {
+        if (address instanceof Inet6Address) {
+            final byte[] bytes = address.getAddress();
+            if ((bytes[0] & 0xff) == 0xff) {
+                // multicast
+                return bytes[1] & 0x0f;
+            }
+        }
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress()) {
+            return SCOPE_LINK_LOCAL;
+        } else if (address instanceof Inet6Address && address.isSiteLocalAddress()) {
+            return SCOPE_SITE_LOCAL;
+        } else {
+            return SCOPE_GLOBAL;
+        }
+    }
+
+    static int commonPrefixLength(final byte[] a, final byte[] b) {
+        int bits = 0;
+        for (int i = 0; i < 8; i ++) {
+            final int x = (a[i] ^ b[i]) & 0xff;
+            if (x != 0) {
+                return bits + Integer.numberOfLeadingZeros(x) - 24;
+            }
+            bits += 8;
+        }
+        // RFC 6724 only compares up to the prefix length of the source, which is at most 64 in practice
+        return bits;
+    }
+
+    static Policy policyOf(final byte[] address) {
+        for (Policy policy : POLICY_TABLE) {
+            if (policy.matches(address)) {
+                return policy;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    static final class Policy {
+        private final byte[] prefix;
+        private final int bits;
+        final int precedence;
+        final int label;
+
+        Policy(final int bits, final int precedence, final int label, final int... prefix) {
+            this.prefix = new byte[16];
+            for (int i = 0; i < prefix.length; i ++) {
+                this.prefix[i] = (byte) prefix[i];
+            }
+            this.bits = bits;
+            this.precedence = precedence;
+            this.label = label;
+        }
+
+        boolean matches(final byte[] address) {
+            final int bytes = bits >> 3;
+            for (int i = 0; i < bytes; i ++) {
+                if (address[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            final int rem = bits & 7;
+            return rem == 0 || ((address[bytes] ^ prefix[bytes]) & (0xff00 >> rem)) == 0;
+        }
+    }
+
+    static final class Source {
+        final InetAddress address;
+        final long expiry;
+
+        Source(final InetAddress address, final long expiry) {
+            this.address = address;
+            this.expiry = expiry;
+        }
+    }
+
+    static final class Candidate {
+        final InetAddress destination;
+        final InetAddress source;
+        final byte[] destinationBytes;
+        final byte[] sourceBytes;
+        final int destinationScope;
+        final int sourceScope;
+        final Policy destinationPolicy;
+        final Policy sourcePolicy;
+
+        Candidate(final InetAddress destination, final InetAddress source) {
+            this.destination = destination;
+            this.source = source;
+            destinationBytes = toIPv6(destination);
+            destinationScope = scopeOf(destination);
+            destinationPolicy = policyOf(destinationBytes);
+            if (source == null) {
+                sourceBytes = null;
+                sourceScope = 0;
+                sourcePolicy = null;
+            } else {
+                sourceBytes = toIPv6(source);
+                sourceScope = scopeOf(source);
+                sourcePolicy = policyOf(sourceBytes);
+            }
+        }
+    }
+
+    static final class CandidateComparator implements Comparator<Candidate> {
+        static final CandidateComparator INSTANCE = new CandidateComparator();
+
+        public int compare(final Candidate a, final Candidate b) {
+            // rule 1: avoid unusable destinations
+            if (a.source == null || b.source == null) {
+                return a.source == null ? b.source == null ? 0 : 1 : -1;
+            }
+            // rule 2: prefer matching scope
+            final boolean aScope = a.destinationScope == a.sourceScope;
+            final boolean bScope = b.destinationScope == b.sourceScope;
+            if (aScope != bScope) {
+                return aScope ? -1 : 1;
+            }
+            // rule 5: prefer matching label
+            final boolean aLabel = a.destinationPolicy.label == a.sourcePolicy.label;
+            final boolean bLabel = b.destinationPolicy.label == b.sourcePolicy.label;
+            if (aLabel != bLabel) {
+                return aLabel ? -1 : 1;
+            }
+            // rule 6: prefer higher precedence
+            if (a.destinationPolicy.precedence != b.destinationPolicy.precedence) {
+                return a.destinationPolicy.precedence > b.destinationPolicy.precedence ? -1 : 1;
+            }
+            // rule 8: prefer smaller scope
+            if (a.destinationScope != b.destinationScope) {
+                return a.destinationScope < b.destinationScope ? -1 : 1;
+            }
+            // rule 9: use longest matching prefix
+            if (a.destination instanceof Inet6Address && b.destination instanceof Inet6Address && a.source instanceof Inet6Address && b.source instanceof Inet6Address) {
+                final int aLen = commonPrefixLength(a.destinationBytes, a.sourceBytes);
+                final int bLen = commonPrefixLength(b.destinationBytes, b.sourceBytes);
+                if (aLen != bLen) {
+                    return aLen > bLen ? -1 : 1;
+                }
+            }
+            // rule 10: otherwise, leave the order unchanged
+            return 0;
+        }
+    }
+}
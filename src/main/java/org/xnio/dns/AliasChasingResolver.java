@@ -0,0 +1,217 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.DNameRecord;
+
+/**
+ * A resolver which follows {@code CNAME} and {@code DNAME} aliases.  When an answer from the next resolver ends in an
+ * alias without the requested data, the query is restarted at the alias target, and the answers are merged into one
+ * answer for the original query.  Any part of the chain which the next resolver already returned is used as-is, so a
+ * chain which the upstream server followed completely costs a single query.  Queries for {@code CNAME},
+ * {@code DNAME} and {@code ANY} records are passed through unchanged.
+ */
+public final class AliasChasingResolver extends AbstractResolver {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.resolver.alias");
+
+    private static final int DEFAULT_MAX_CHAIN_LENGTH = 16;
+
+    private final Resolver next;
+    private final Executor executor;
+    private final int maxChainLength;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param next the resolver to send queries to
+     * @param executor the executor to use for asynchronous notifications
+     */
+    public AliasChasingResolver(final Resolver next, final Executor executor) {
+        this(next, executor, DEFAULT_MAX_CHAIN_LENGTH);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param next the resolver to send queries to
+     * @param executor the executor to use for asynchronous notifications
+     * @param maxChainLength the maximum number of aliases to follow for one query
+     */
+    public AliasChasingResolver(final Resolver next, final Executor executor, final int maxChainLength) {
+        Assert.checkNotNullParam("next", next);
+        Assert.checkNotNullParam("executor", executor);
+        Assert.checkMinimumParameter("maxChainLength", 1, maxChainLength);
+        this.next = next;
+        this.executor = executor;
+        this.maxChainLength = maxChainLength;
+    }
+
+    /** {@inheritDoc} */
+    protected Executor getNotifierExecutor() {
+        return executor;
+    }
+
+    public IoFuture<Answer> resolve(final Query query) {
+        final int rrType = query.getRRType();
+        if (rrType == RRType.CNAME || rrType == RRType.DNAME || rrType == RRType.ANY) {
+            return next.resolve(query);
+        }
+        final FutureResult<Answer> futureResult = new FutureResult<Answer>(executor);
+        DeadlineTimer.schedule(query, futureResult);
+        new Chase(query, futureResult).send(query);
+        return futureResult.getIoFuture();
+    }
+
+    private static boolean hasData(final List<Record> records, final Domain name, final int rrType) {
+        for (Record record : records) {
+            if (record.getRrType() == rrType && record.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Record findAlias(final List<Record> records, final Domain name) {
+        DNameRecord dname = null;
+        for (Record record : records) {
+            if (record instanceof CNameRecord && record.getName().equals(name)) {
+                return record;
+            } else if (record instanceof DNameRecord && ! record.getName().equals(name) && name.isSubdomainOf(record.getName())) {
+                dname = (DNameRecord) record;
+            }
+        }
+        return dname;
+    }
+
+    /**
+     * The state of following the alias chain of one query.
+     */
+    private final class Chase extends IoFuture.HandlingNotifier<Answer, Query> {
+        private final Query query;
+        private final FutureResult<Answer> result;
+        private final List<Record> chain = new ArrayList<Record>();
+        private final Set<Domain> visited = new HashSet<Domain>();
+
+        Chase(final Query query, final FutureResult<Answer> result) {
+            this.query = query;
+            this.result = result;
+            visited.add(query.getDomain());
+        }
+
+        void send(final Query hopQuery) {
+            if (hopQuery.isExpired()) {
+                result.setException(DeadlineTimer.deadlineExceeded(hopQuery));
+                return;
+            }
+            final IoFuture<Answer> futureAnswer = next.resolve(hopQuery);
+            result.addCancelHandler(futureAnswer);
+            futureAnswer.addNotifier(this, hopQuery);
+        }
+
+        public void handleCancelled(final Query hopQuery) {
+            DeadlineTimer.cancelled(query, result);
+        }
+
+        public void handleFailed(final IOException exception, final Query hopQuery) {
+            result.setException(exception);
+        }
+
+        public void handleDone(final Answer answer, final Query hopQuery) {
+            final List<Record> records = answer.getAnswerRecords();
+            final int rrType = query.getRRType();
+            final List<Record> synthesized = new ArrayList<Record>(0);
+            Domain name = hopQuery.getDomain();
+            // walk the part of the chain which is contained in this answer
+            while (! hasData(records, name, rrType)) {
+                final Record alias = findAlias(records, name);
+                if (alias == null) {
+                    break;
+                }
+                final Domain target;
+                if (alias instanceof CNameRecord) {
+                    target = ((CNameRecord) alias).getCname();
+                } else {
+                    try {
+                        target = ((DNameRecord) alias).redirect(name);
+                    } catch (IllegalArgumentException e) {
+                        // the substituted name is too long (RFC 6672, section 2.2)
+                        finish(answer, synthesized, ResultCode.YXDOMAIN);
+                        return;
+                    }
+                    synthesized.add(new CNameRecord(name, alias.getRrClass(), alias.getTtlSpec(), target));
+                }
+                if (! visited.add(target)) {
+                    log.tracef("Alias loop at %s resolving %s", target, query);
+                    finish(answer, synthesized, ResultCode.SERVER_FAILURE);
+                    return;
+                }
+                // the original name is in the set too
+                if (visited.size() > maxChainLength + 1) {
+                    log.tracef("Alias chain too long resolving %s", query);
+                    finish(answer, synthesized, ResultCode.SERVER_FAILURE);
+                    return;
+                }
+                name = target;
+            }
+            if (answer.getResultCode() != ResultCode.NOERROR || name.equals(hopQuery.getDomain()) || hasData(records, name, rrType)) {
+                finish(answer, synthesized, answer.getResultCode());
+                return;
+            }
+            // the chain continues past this answer
+            chain.addAll(records);
+            chain.addAll(synthesized);
+            send(query.subQuery(name, query.getRRClass(), rrType, query.getQueryFlags()));
+        }
+
+        void finish(final Answer last, final List<Record> synthesized, final int resultCode) {
+            if (chain.isEmpty() && synthesized.isEmpty() && resultCode == last.getResultCode()) {
+                result.setResult(last);
+                return;
+            }
+            final Answer.Builder builder = Answer.builder();
+            builder.setHeaderInfo(query.getDomain(), query.getRRClass(), query.getRRType(), resultCode);
+            builder.addFlag(last.getFlags());
+            for (Record record : chain) {
+                builder.addAnswerRecord(record);
+            }
+            for (Record record : last.getAnswerRecords()) {
+                builder.addAnswerRecord(record);
+            }
+            for (Record record : synthesized) {
+                builder.addAnswerRecord(record);
+            }
+            builder.setAuthorityRecords(last.getAuthorityRecords());
+            builder.setAdditionalRecords(last.getAdditionalRecords());
+            result.setResult(builder.create());
+        }
+    }
+}
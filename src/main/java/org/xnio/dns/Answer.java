@@ -18,20 +18,35 @@
 
 package org.xnio.dns;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Collections;
 import java.util.Set;
 import java.util.ArrayList;
 
+import org.xnio.dns.record.SoaRecord;
+
 /**
  * A query answer.
  */
 public final class Answer {
+
+    /**
+     * The time in milliseconds for which an answer without records may be used.  Such answers, for example server
+     * failures, carry no TTL of their own; RFC 2308 (section 7) allows a server failure to be cached for at most five
+     * minutes.
+     */
+    private static final long NO_RECORDS_LIFETIME = 30000L;
+
+    private final Domain queryDomain;
+    private final int queryRRClass;
+    private final int queryRRType;
     private final int resultCode;
     private final List<Record> answerRecords;
     private final List<Record> authorityRecords;
     private final List<Record> additionalRecords;
     private final int flags;
+    private final long created = System.currentTimeMillis();
 
     private Answer(final Domain queryDomain, final int queryRRClass, final int queryRRType, final int resultCode, final List<Record> answerRecords, final List<Record> authorityRecords, final List<Record> additionalRecords, final int flags) {
         this.queryDomain = queryDomain;
@@ -253,6 +268,87 @@ public final class Answer {
         return flags;
     }
 
+    /**
+     * Get the time (in milliseconds) at which this answer expires, which is the earliest EOL of its answer records or,
+     * for a negative answer, of its authority records.  The lifetime of a negative answer is further limited by the
+     * {@code MINIMUM} field of its SOA record (RFC 2308 section 5).  An answer with neither expires shortly after it
+     * was created.
+     *
+     * @return the EOL timestamp
+     */
+    long getEol() {
+        long eol = Long.MAX_VALUE;
+        if (! answerRecords.isEmpty()) {
+            for (Record record : answerRecords) {
+                eol = Math.min(eol, record.getTtlSpec().getEol());
+            }
+            return eol;
+        }
+        if (authorityRecords.isEmpty()) {
+            return created + NO_RECORDS_LIFETIME;
+        }
+        for (Record record : authorityRecords) {
+            eol = Math.min(eol, record.getTtlSpec().getEol());
+            if (record instanceof SoaRecord) {
+                eol = Math.min(eol, created + ((SoaRecord) record).getMinimum().getTtl() * 1000L);
+            }
+        }
+        return eol;
+    }
+
+    /**
+     * Write the result code, flags, and records of this answer to the given buffer.  Record TTLs are written
+     * relative to the given base timestamp.
+     *
+     * @param buffer the target buffer
+     * @param baseTimeStamp the timestamp (in milliseconds) to which the TTLs are relative
+     */
+    void writeTo(final ByteBuffer buffer, final long baseTimeStamp) {
+        buffer.putShort((short) resultCode);
+        buffer.putShort((short) flags);
+        buffer.putShort((short) answerRecords.size());
+        buffer.putShort((short) authorityRecords.size());
+        buffer.putShort((short) additionalRecords.size());
+        for (Record record : answerRecords) {
+            record.writeTo(buffer, baseTimeStamp);
+        }
+        for (Record record : authorityRecords) {
+            record.writeTo(buffer, baseTimeStamp);
+        }
+        for (Record record : additionalRecords) {
+            record.writeTo(buffer, baseTimeStamp);
+        }
+    }
+
+    /**
+     * Read an answer which was written by {@link #writeTo(ByteBuffer, long)}.
+     *
+     * @param buffer the source buffer
+     * @param queryDomain the query domain
+     * @param queryRRClass the query class
+     * @param queryRRType the query type
+     * @param baseTimeStamp the timestamp (in milliseconds) to which the TTLs are relative
+     * @return the answer
+     */
+    static Answer fromBytes(final ByteBuffer buffer, final Domain queryDomain, final int queryRRClass, final int queryRRType, final long baseTimeStamp) {
+        final Builder builder = builder();
+        builder.setHeaderInfo(queryDomain, queryRRClass, queryRRType, buffer.getShort());
+        builder.addFlag(buffer.getShort() & 0xffff);
+        final int ancnt = buffer.getShort() & 0xffff;
+        final int nscnt = buffer.getShort() & 0xffff;
+        final int arcnt = buffer.getShort() & 0xffff;
+        for (int i = 0; i < ancnt; i ++) {
+            builder.addAnswerRecord(Record.fromBytes(buffer, baseTimeStamp));
+        }
+        for (int i = 0; i < nscnt; i ++) {
+            builder.addAuthorityRecord(Record.fromBytes(buffer, baseTimeStamp));
+        }
+        for (int i = 0; i < arcnt; i ++) {
+            builder.addAdditionalRecord(Record.fromBytes(buffer, baseTimeStamp));
+        }
+        return builder.create();
+    }
+
     public final class Flag {
         private Flag() {}
 
@@ -0,0 +1,298 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wildfly.common.Assert;
+import org.xnio.Cancellable;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+
+/**
+ * A resolver for large batches of queries.  Queries are taken from the batch only as room becomes available in a
+ * bounded window of queries in flight, so a batch of any size uses a fixed amount of memory, and results are passed to
+ * a listener as each query completes.  Identical queries in a batch are only sent once while in flight, and the
+ * answers of recently completed queries are reused.
+ */
+public final class BatchResolver {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final Resolver resolver;
+    private final int maxInFlight;
+    private final int maxRecent;
+
+    /**
+     * Construct a new instance with a window of 256 queries.
+     *
+     * @param resolver the resolver to send queries to
+     */
+    public BatchResolver(final Resolver resolver) {
+        this(resolver, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the resolver to send queries to
+     * @param maxInFlight the maximum number of queries in flight at once
+     */
+    public BatchResolver(final Resolver resolver, final int maxInFlight) {
+        Assert.checkNotNullParam("resolver", resolver);
+        Assert.checkMinimumParameter("maxInFlight", 1, maxInFlight);
+        this.resolver = resolver;
+        this.maxInFlight = maxInFlight;
+        maxRecent = maxInFlight * 4;
+    }
+
+    /**
+     * Resolve a batch of queries.  The listener is called once for each query taken from the batch, including
+     * duplicates, from whichever thread completes the query; it should not block.  Cancelling the returned future
+     * stops taking queries from the batch and cancels the queries in flight.
+     *
+     * @param queries the queries
+     * @param listener the listener for results
+     * @return the future number of queries which were resolved
+     */
+    public IoFuture<Long> resolveAll(Iterable<Query> queries, Listener listener) {
+        Assert.checkNotNullParam("queries", queries);
+        Assert.checkNotNullParam("listener", listener);
+        final Batch batch = new Batch(queries.iterator(), listener);
+        batch.pump();
+        return batch.result.getIoFuture();
+    }
+
+    /**
+     * A listener for the results of a batch.
+     */
+    public interface Listener {
+
+        /**
+         * Handle the answer to a query.
+         *
+         * @param query the query
+         * @param answer the answer
+         */
+        void handleAnswer(Query query, Answer answer);
+
+        /**
+         * Handle a query which failed or was cancelled.
+         *
+         * @param query the query
+         * @param exception the failure reason
+         */
+        void handleFailed(Query query, IOException exception);
+    }
+
+    private final class Batch implements IoFuture.Notifier<Answer, Query>, Cancellable {
+        private final Iterator<Query> iterator;
+        private final Listener listener;
+        private final FutureResult<Long> result = new FutureResult<Long>();
+
+        // these fields are protected by {@code this}
+        private final Map<Query, Pending> inFlight = new HashMap<Query, Pending>();
+        private final Map<Query, Answer> recent = new LinkedHashMap<Query, Answer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<Query, Answer> eldest) {
+                return size() > maxRecent;
+            }
+        };
+        private boolean pumping;
+        private boolean repump;
+        private boolean exhausted;
+        private boolean cancelled;
+        private long count;
+        /** The number of calls to the listener which have been counted but not yet made. */
+        private int delivering;
+
+        Batch(final Iterator<Query> iterator, final Listener listener) {
+            this.iterator = iterator;
+            this.listener = listener;
+            result.addCancelHandler(this);
+        }
+
+        /**
+         * Take queries from the batch until the window is full.  Only one thread pumps at a time, so the iterator is
+         * never used concurrently; a query which completes during a pump makes the pumping thread go around again
+         * instead of recursing.
+         */
+        void pump() {
+            synchronized (this) {
+                if (pumping) {
+                    repump = true;
+                    return;
+                }
+                pumping = true;
+            }
+            for (;;) {
+                synchronized (this) {
+                    if (cancelled || exhausted || inFlight.size() >= maxInFlight) {
+                        if (repump && ! cancelled && ! exhausted) {
+                            repump = false;
+                            continue;
+                        }
+                        pumping = false;
+                        return;
+                    }
+                    repump = false;
+                }
+                if (! iterator.hasNext()) {
+                    final boolean done;
+                    synchronized (this) {
+                        exhausted = true;
+                        pumping = false;
+                        done = isDone();
+                    }
+                    if (done) {
+                        complete();
+                    }
+                    return;
+                }
+                final Query query = iterator.next();
+                final Answer recentAnswer;
+                final Pending pending;
+                synchronized (this) {
+                    final Pending existing = inFlight.get(query);
+                    if (existing != null) {
+                        existing.duplicates ++;
+                        continue;
+                    }
+                    recentAnswer = getRecent(query);
+                    if (recentAnswer != null) {
+                        count ++;
+                        delivering ++;
+                        pending = null;
+                    } else {
+                        pending = new Pending();
+                        inFlight.put(query, pending);
+                    }
+                }
+                if (recentAnswer != null) {
+                    listener.handleAnswer(query, recentAnswer);
+                    synchronized (this) {
+                        delivering --;
+                    }
+                } else {
+                    final IoFuture<Answer> future = resolver.resolve(query);
+                    synchronized (this) {
+                        pending.future = future;
+                    }
+                    future.addNotifier(this, query);
+                }
+            }
+        }
+
+        public void notify(final IoFuture<? extends Answer> future, final Query query) {
+            Answer answer = null;
+            IOException exception = null;
+            if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                exception = new IOException("Query was cancelled");
+            } else try {
+                answer = future.get();
+            } catch (IOException e) {
+                exception = e;
+            }
+            final int times;
+            final boolean done;
+            synchronized (this) {
+                final Pending pending = inFlight.remove(query);
+                times = pending.duplicates + 1;
+                count += times;
+                delivering += times;
+                if (answer != null) {
+                    recent.put(query, answer);
+                }
+            }
+            for (int i = 0; i < times; i ++) {
+                if (answer != null) {
+                    listener.handleAnswer(query, answer);
+                } else {
+                    listener.handleFailed(query, exception);
+                }
+            }
+            synchronized (this) {
+                delivering -= times;
+                done = isDone();
+            }
+            if (done) {
+                complete();
+            } else {
+                pump();
+            }
+        }
+
+        /**
+         * Get a recently received answer which has not expired.
+         */
+        private Answer getRecent(final Query query) {
+            assert Thread.holdsLock(this);
+            final Answer answer = recent.get(query);
+            if (answer != null && answer.getEol() <= System.currentTimeMillis()) {
+                recent.remove(query);
+                return null;
+            }
+            return answer;
+        }
+
+        /**
+         * Determine whether the batch is complete, which is once every query has been taken from it and every result
+         * has been passed to the listener.
+         */
+        private boolean isDone() {
+            assert Thread.holdsLock(this);
+            return exhausted && inFlight.isEmpty() && delivering == 0;
+        }
+
+        private void complete() {
+            final long count;
+            synchronized (this) {
+                count = this.count;
+            }
+            result.setResult(Long.valueOf(count));
+        }
+
+        public Cancellable cancel() {
+            final List<IoFuture<Answer>> futures = new ArrayList<IoFuture<Answer>>();
+            synchronized (this) {
+                cancelled = true;
+                for (Pending pending : inFlight.values()) {
+                    if (pending.future != null) {
+                        futures.add(pending.future);
+                    }
+                }
+            }
+            for (IoFuture<Answer> future : futures) {
+                future.cancel();
+            }
+            result.setCancelled();
+            return this;
+        }
+    }
+
+    static final class Pending {
+        IoFuture<Answer> future;
+        int duplicates;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.wildfly.common.Assert;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+
+/**
+ * A blocking facade over an asynchronous resolver.  Answers which are {@linkplain Resolver#tryResolveCached(Query)
+ * available without waiting} are returned directly.  Otherwise the calling thread parks until the answer arrives
+ * instead of waiting on a monitor, so that a virtual thread which blocks here does not pin its carrier thread.
+ * An interrupted wait cancels the query and throws {@link InterruptedIOException}.
+ * <p>
+ * The methods with a timeout also give their queries a {@linkplain Query#withTimeout(long, TimeUnit) deadline}, so that
+ * the resolver gives up on them, rather than only the caller, when the time elapses.  Names are then looked up with
+ * {@link Resolver#resolve(Query)}.
+ */
+public final class BlockingResolver {
+
+    private final Resolver resolver;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the asynchronous resolver
+     */
+    public BlockingResolver(final Resolver resolver) {
+        Assert.checkNotNullParam("resolver", resolver);
+        this.resolver = resolver;
+    }
+
+    /**
+     * Execute a DNS query and wait for the answer.
+     *
+     * @param query the DNS query
+     * @return the answer
+     * @throws IOException if the query failed
+     */
+    public Answer resolve(Query query) throws IOException {
+        Assert.checkNotNullParam("query", query);
+        final Answer cached = resolver.tryResolveCached(query);
+        return cached != null ? cached : await(resolver.resolve(query), -1L, null);
+    }
+
+    /**
+     * Execute a DNS query and wait for the answer for at most the given time.
+     *
+     * @param query the DNS query
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the answer
+     * @throws IOException if the query failed or the time elapsed, in which case the query is cancelled
+     */
+    public Answer resolve(Query query, long timeout, TimeUnit unit) throws IOException {
+        Assert.checkNotNullParam("query", query);
+        Assert.checkNotNullParam("unit", unit);
+        final Answer cached = resolver.tryResolveCached(query);
+        return cached != null ? cached : await(resolver.resolve(query.withTimeout(timeout, unit)), timeout, unit);
+    }
+
+    /**
+     * Get all the IP addresses (IPv4 or IPv6) for the given domain name.
+     *
+     * @param name the domain name
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed
+     * @see Resolver#resolveAllInet(Domain)
+     */
+    public List<InetAddress> resolveAllInet(Domain name) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        final List<InetAddress> cached = resolver.tryResolveAllInetCached(name);
+        return cached != null ? cached : await(resolver.resolveAllInet(name), -1L, null);
+    }
+
+    /**
+     * Get all the IP addresses (IPv4 or IPv6) for the given domain name, waiting for at most the given time.
+     *
+     * @param name the domain name
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed or the time elapsed
+     * @see Resolver#resolveAllInet(Domain)
+     */
+    public List<InetAddress> resolveAllInet(Domain name, long timeout, TimeUnit unit) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        Assert.checkNotNullParam("unit", unit);
+        final List<InetAddress> cached = resolver.tryResolveAllInetCached(name);
+        if (cached != null) {
+            return cached;
+        }
+        final IoFuture<List<Inet6Address>> futureInet6 = new AbstractResolver.FutureInet6AddressList(resolver.resolve(new Query(name, RRClass.IN, RRType.AAAA, 0).withTimeout(timeout, unit)));
+        final IoFuture<List<Inet4Address>> futureInet4 = new AbstractResolver.FutureInet4AddressList(resolver.resolve(new Query(name, RRClass.IN, RRType.A, 0).withTimeout(timeout, unit)));
+        return await(new DualStackLookup(futureInet6, futureInet4, IoUtils.directExecutor()).getAllAddresses(), timeout, unit);
+    }
+
+    /**
+     * Get all the IPv4 addresses for the given domain name.
+     *
+     * @param name the domain name
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed
+     * @see Resolver#resolveAllInet4(Domain)
+     */
+    public List<Inet4Address> resolveAllInet4(Domain name) throws IOException {
+        return resolveAllInet4(name, -1L, null);
+    }
+
+    /**
+     * Get all the IPv4 addresses for the given domain name, waiting for at most the given time.
+     *
+     * @param name the domain name
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed or the time elapsed
+     * @see Resolver#resolveAllInet4(Domain)
+     */
+    public List<Inet4Address> resolveAllInet4(Domain name, long timeout, TimeUnit unit) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        final Query query = new Query(name, RRClass.IN, RRType.A, 0);
+        final Answer cached = resolver.tryResolveCached(query);
+        if (cached != null) {
+            return AbstractResolver.inet4Addresses(cached);
+        }
+        return unit == null ? await(resolver.resolveAllInet4(name), -1L, null) : AbstractResolver.inet4Addresses(await(resolver.resolve(query.withTimeout(timeout, unit)), timeout, unit));
+    }
+
+    /**
+     * Get all the IPv6 addresses for the given domain name.
+     *
+     * @param name the domain name
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed
+     * @see Resolver#resolveAllInet6(Domain)
+     */
+    public List<Inet6Address> resolveAllInet6(Domain name) throws IOException {
+        return resolveAllInet6(name, -1L, null);
+    }
+
+    /**
+     * Get all the IPv6 addresses for the given domain name, waiting for at most the given time.
+     *
+     * @param name the domain name
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the list of IP addresses
+     * @throws IOException if the lookup failed or the time elapsed
+     * @see Resolver#resolveAllInet6(Domain)
+     */
+    public List<Inet6Address> resolveAllInet6(Domain name, long timeout, TimeUnit unit) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        final Query query = new Query(name, RRClass.IN, RRType.AAAA, 0);
+        final Answer cached = resolver.tryResolveCached(query);
+        if (cached != null) {
+            return AbstractResolver.inet6Addresses(cached);
+        }
+        return unit == null ? await(resolver.resolveAllInet6(name), -1L, null) : AbstractResolver.inet6Addresses(await(resolver.resolve(query.withTimeout(timeout, unit)), timeout, unit));
+    }
+
+    /**
+     * Get an IP address (IPv4 or IPv6) for the given domain name.
+     *
+     * @param name the domain name
+     * @return the IP address, or {@code null} if there is none
+     * @throws IOException if the lookup failed
+     * @see Resolver#resolveInet(Domain)
+     */
+    public InetAddress resolveInet(Domain name) throws IOException {
+        Assert.checkNotNullParam("name", name);
+        final List<InetAddress> cached = resolver.tryResolveAllInetCached(name);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached.get(0);
+        }
+        return await(resolver.resolveInet(name), -1L, null);
+    }
+
+    /**
+     * Perform a reverse lookup of an IP address.
+     *
+     * @param address the IP address (IPv4 or IPv6)
+     * @return the domain name, or {@code null} if there is none
+     * @throws IOException if the lookup failed
+     * @see Resolver#resolveReverse(InetAddress)
+     */
+    public Domain resolveReverse(InetAddress address) throws IOException {
+        return resolveReverse(address, -1L, null);
+    }
+
+    /**
+     * Perform a reverse lookup of an IP address, waiting for at most the given time.
+     *
+     * @param address the IP address (IPv4 or IPv6)
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the domain name, or {@code null} if there is none
+     * @throws IOException if the lookup failed or the time elapsed
+     * @see Resolver#resolveReverse(InetAddress)
+     */
+    public Domain resolveReverse(InetAddress address, long timeout, TimeUnit unit) throws IOException {
+        Assert.checkNotNullParam("address", address);
+        final Query query = new Query(Domain.reverseArpa(address), RRClass.IN, RRType.PTR, 0);
+        final Answer cached = resolver.tryResolveCached(query);
+        if (cached != null) {
+            return AbstractResolver.ptrDomain(cached);
+        }
+        return unit == null ? await(resolver.resolveReverse(address), -1L, null) : AbstractResolver.ptrDomain(await(resolver.resolve(query.withTimeout(timeout, unit)), timeout, unit));
+    }
+
+    /**
+     * Get the underlying asynchronous resolver.
+     *
+     * @return the resolver
+     */
+    public Resolver getResolver() {
+        return resolver;
+    }
+
+    private static <T> T await(final IoFuture<T> future, final long timeout, final TimeUnit unit) throws IOException {
+        final CompletableFuture<T> stage = IoFutureStages.toStage(future);
+        try {
+            return unit == null ? stage.get() : stage.get(timeout, unit);
+        } catch (InterruptedException e) {
+            future.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an answer");
+        } catch (TimeoutException e) {
+            future.cancel();
+            throw new InterruptedIOException("Timed out waiting for an answer");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The binary snapshot format of a {@link CachingResolver}.  A snapshot consists of a header followed by one entry per
+ * cached answer.  All record TTLs are relative to the snapshot timestamp in the header, which makes every EOL absolute
+ * while keeping records in plain wire format.  Each entry carries its length and EOL so that expired entries are
+ * skipped without being decoded.
+ * <pre>
+ * header: magic (4) version (4) timestamp (8) entry count (4)
+ * entry:  length (4) EOL (8) query name (var) query type (2) query class (2) answer (var)
+ * </pre>
+ */
+final class CacheSnapshot {
+    private CacheSnapshot() {}
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.cache");
+
+    private static final int MAGIC = 0x58444e53; // "XDNS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int MAP_CHUNK_SIZE = 1 << 22;
+    private static final int MAX_ENTRY_SIZE = 1 << 16;
+
+    /**
+     * Write a snapshot file.  The snapshot is written to a temporary file in the same directory which then atomically
+     * replaces the target, so a failed write never destroys a previous snapshot.
+     *
+     * @param path the file to write (replaced if it exists)
+     * @param entries the entries to write
+     * @return the number of entries written
+     * @throws IOException if writing the file failed
+     */
+    static int write(final Path path, final List<Map.Entry<RecordIdentifier, Answer>> entries) throws IOException {
+        final Path target = path.toAbsolutePath();
+        final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            final int count = writeFile(temp, entries);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return count;
+        } catch (Throwable t) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                t.addSuppressed(e);
+            }
+            throw t;
+        }
+    }
+
+    private static int writeFile(final Path path, final List<Map.Entry<RecordIdentifier, Answer>> entries) throws IOException {
+        final long now = System.currentTimeMillis();
+        final ByteBuffer scratch = ByteBuffer.allocate(MAX_ENTRY_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long mapStart = 0;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, MAP_CHUNK_SIZE);
+            map.position(HEADER_SIZE);
+            int count = 0;
+            for (Map.Entry<RecordIdentifier, Answer> entry : entries) {
+                final RecordIdentifier key = entry.getKey();
+                final Answer answer = entry.getValue();
+                final long eol = answer.getEol();
+                // an answer without records, such as a server failure, is transient and not worth restoring
+                if (eol <= now || answer.getAnswerRecords().isEmpty() && answer.getAuthorityRecords().isEmpty()) {
+                    continue;
+                }
+                scratch.clear();
+                try {
+                    scratch.putInt(0);
+                    scratch.putLong(eol);
+                    key.getDomain().writeTo(scratch);
+                    scratch.putShort((short) key.getRRType());
+                    scratch.putShort((short) key.getRRClass());
+                    answer.writeTo(scratch, now);
+                } catch (BufferOverflowException e) {
+                    log.debugf("Omitting oversized cache entry for %s from snapshot", key.getDomain());
+                    continue;
+                }
+                scratch.putInt(0, scratch.position() - 4);
+                scratch.flip();
+                if (map.remaining() < scratch.remaining()) {
+                    map.force();
+                    mapStart += map.position();
+                    map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, MAP_CHUNK_SIZE);
+                }
+                map.put(scratch);
+                count ++;
+            }
+            map.force();
+            final long size = mapStart + map.position();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(now).putInt(count).flip();
+            channel.write(header, 0);
+            channel.truncate(size);
+            return count;
+        }
+    }
+
+    /**
+     * Read the unexpired entries of a snapshot file.
+     *
+     * @param path the file to read
+     * @return the unexpired entries
+     * @throws IOException if reading the file failed or the file is not a valid snapshot
+     */
+    static List<Map.Entry<RecordIdentifier, Answer>> read(final Path path) throws IOException {
+        final long now = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                    throw new StreamCorruptedException("Not a valid DNS cache snapshot: " + path);
+                }
+                final long baseTimeStamp = map.getLong();
+                final int count = map.getInt();
+                final List<Map.Entry<RecordIdentifier, Answer>> list = new ArrayList<Map.Entry<RecordIdentifier, Answer>>(count);
+                for (int i = 0; i < count; i ++) {
+                    final int length = map.getInt();
+                    final int next = map.position() + length;
+                    if (map.getLong() > now) {
+                        final ByteBuffer entry = map.duplicate();
+                        entry.limit(next);
+                        final Domain domain = Domain.fromBytes(entry);
+                        final int rrType = entry.getShort() & 0xffff;
+                        final int rrClass = entry.getShort() & 0xffff;
+                        final Answer answer = Answer.fromBytes(entry, domain, rrClass, rrType, baseTimeStamp);
+                        list.add(new SnapshotEntry(new RecordIdentifier(domain, rrClass, rrType), answer));
+                    }
+                    map.position(next);
+                }
+                return list;
+            } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+                final StreamCorruptedException ex = new StreamCorruptedException("Corrupt DNS cache snapshot: " + path);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+
+    static final class SnapshotEntry implements Map.Entry<RecordIdentifier, Answer> {
+        private final RecordIdentifier key;
+        private final Answer value;
+
+        SnapshotEntry(final RecordIdentifier key, final Answer value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public RecordIdentifier getKey() {
+            return key;
+        }
+
+        public Answer getValue() {
+            return value;
+        }
+
+        public Answer setValue(final Answer value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
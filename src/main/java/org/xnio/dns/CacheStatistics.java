@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+/**
+ * A point-in-time snapshot of the statistics of a {@link CachingResolver}.  The counters are cumulative over the
+ * life of the resolver.
+ */
+public final class CacheStatistics {
+    private final long hitCount;
+    private final long missCount;
+    private final long coalescedCount;
+    private final long secondTierHitCount;
+    private final long evictionCount;
+    private final long secondTierEvictionCount;
+    private final long expirationCount;
+    private final int size;
+    private final int secondTierSize;
+
+    CacheStatistics(final long hitCount, final long missCount, final long coalescedCount, final long secondTierHitCount, final long evictionCount, final long secondTierEvictionCount, final long expirationCount, final int size, final int secondTierSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.coalescedCount = coalescedCount;
+        this.secondTierHitCount = secondTierHitCount;
+        this.evictionCount = evictionCount;
+        this.secondTierEvictionCount = secondTierEvictionCount;
+        this.expirationCount = expirationCount;
+        this.size = size;
+        this.secondTierSize = secondTierSize;
+    }
+
+    /**
+     * Get the number of requests which were answered from a completed cache entry.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of requests which caused a query to be sent to the underlying resolver.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of requests which joined a query which was already in progress for the same question.
+     *
+     * @return the coalesced request count
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Get the number of requests which were answered from the off-heap second tier.
+     *
+     * @return the second tier hit count
+     */
+    public long getSecondTierHitCount() {
+        return secondTierHitCount;
+    }
+
+    /**
+     * Get the number of entries which were evicted from the heap to keep the cache within its size limit, including
+     * those which were moved to the second tier.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of entries which were evicted from the off-heap second tier to make room for new entries.
+     *
+     * @return the second tier eviction count, or 0 if there is no second tier
+     */
+    public long getSecondTierEvictionCount() {
+        return secondTierEvictionCount;
+    }
+
+    /**
+     * Get the number of entries which were found to have expired when requested.
+     *
+     * @return the expiration count
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Get the number of entries on the heap, including those with a query in progress.
+     *
+     * @return the entry count
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of entries in the off-heap second tier.
+     *
+     * @return the entry count, or 0 if there is no second tier
+     */
+    public int getSecondTierSize() {
+        return secondTierSize;
+    }
+
+    /**
+     * Get the total number of requests which went through the cache.
+     *
+     * @return the request count
+     */
+    public long getRequestCount() {
+        return hitCount + missCount + coalescedCount + secondTierHitCount;
+    }
+
+    /**
+     * Get the fraction of requests which did not cause a query to the underlying resolver.
+     *
+     * @return the hit ratio, between 0.0 and 1.0
+     */
+    public double getHitRatio() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 0.0 : (double) (requestCount - missCount) / requestCount;
+    }
+
+    /**
+     * Get the fraction of requests which caused a query to the underlying resolver.
+     *
+     * @return the miss ratio, between 0.0 and 1.0
+     */
+    public double getMissRatio() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    public String toString() {
+        return String.format("Cache statistics: %d hits, %d misses, %d coalesced, %d second tier hits, %d evictions (%d from second tier), %d expirations, %d entries (%d in second tier)", hitCount, missCount, coalescedCount, secondTierHitCount, evictionCount, secondTierEvictionCount, expirationCount, size, secondTierSize);
+    }
+}
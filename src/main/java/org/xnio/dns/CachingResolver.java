@@ -18,33 +18,86 @@
 
 package org.xnio.dns;
 
+import org.wildfly.common.Assert;
 import org.xnio.Bits;
 import org.xnio.IoFuture;
 import org.xnio.FutureResult;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import java.io.IOException;
+import java.nio.file.Path;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+/**
+ * A resolver which caches the answers of another resolver until they expire.  Concurrent requests for the same question
+ * share a single upstream query.  Optionally, entries evicted from the cache are spilled into an
+ * {@link OffHeapAnswerCache} from which they are restored on a later hit.
+ */
 public final class CachingResolver extends AbstractResolver implements Resolver {
 
     private final Map<RecordIdentifier, FutureResult<Answer>> cache;
     private final Resolver realResolver;
     private final Executor executor;
+    private final OffHeapAnswerCache secondTier;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder secondTierHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
 
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the resolver whose answers should be cached
+     * @param executor the executor to use for asynchronous notifications
+     * @param cacheSize the maximum number of entries to keep on the heap
+     */
     public CachingResolver(final Resolver resolver, final Executor executor, final int cacheSize) {
-        cache = new CacheMap<RecordIdentifier, FutureResult<Answer>>(cacheSize);
+        this(resolver, executor, cacheSize, null);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the resolver whose answers should be cached
+     * @param executor the executor to use for asynchronous notifications
+     * @param cacheSize the maximum number of entries to keep on the heap
+     * @param secondTier the off-heap cache to spill evicted entries to, or {@code null} for none
+     */
+    public CachingResolver(final Resolver resolver, final Executor executor, final int cacheSize, final OffHeapAnswerCache secondTier) {
+        cache = new CacheMap(cacheSize, secondTier, evictions);
         realResolver = resolver;
         this.executor = executor;
+        this.secondTier = secondTier;
     }
 
     /** {@inheritDoc} */
-    public IoFuture<Answer> resolve(final Domain name, final int rrClass, final int rrType, final int flags) {
+    protected Executor getNotifierExecutor() {
+        return executor;
+    }
+
+    /** {@inheritDoc} */
+    public IoFuture<Answer> resolve(final Query query) {
+        final int flags = query.getQueryFlags();
         if (Bits.allAreSet(flags, Query.Flag.BYPASS_CACHE)) {
             // skip the cache, do not record results
-            return realResolver.resolve(name, rrClass, rrType, flags);
+            return realResolver.resolve(query);
         } else {
+            final Domain name = query.getDomain();
+            final int rrClass = query.getRRClass();
+            final int rrType = query.getRRType();
             final RecordIdentifier key = new RecordIdentifier(name, rrClass, rrType);
             final FutureResult<Answer> newAnswer;
             synchronized (cache) {
@@ -53,29 +106,27 @@ public final class CachingResolver extends AbstractResolver implements Resolver
                     final IoFuture.Status status = future.getIoFuture().getStatus();
                     if (status == IoFuture.Status.WAITING) {
                         // still waiting for result
+                        coalesced.increment();
                         return future.getIoFuture();
                     } else if (status == IoFuture.Status.DONE) {
-                        try {
-                            boolean expired = false;
-                            for (Record record : future.getIoFuture().get().getAnswerRecords()) {
-                                if (record.getTtlSpec().isExpired()) {
-                                    expired = true;
-                                    break;
-                                }
-                            }
-                            if (! expired) {
-                                return future.getIoFuture();
-                            }
-                        } catch (IOException e) {
-                            // fall out and re-query, the future has gone bad
-                            // technically shouldn't be possible because status was "done"
+                        if (getLiveAnswer(future) != null) {
+                            hits.increment();
+                            return future.getIoFuture();
                         }
+                        expirations.increment();
+                    }
+                } else if (secondTier != null) {
+                    final Answer spilled = secondTier.get(name, rrClass, rrType);
+                    if (spilled != null) {
+                        secondTierHits.increment();
+                        return promote(key, spilled).getIoFuture();
                     }
                 }
                 newAnswer = new FutureResult<Answer>(executor);
                 cache.put(key, newAnswer);
             }
-            final IoFuture<Answer> realFuture = realResolver.resolve(name, rrClass, rrType, flags);
+            misses.increment();
+            final IoFuture<Answer> realFuture = realResolver.resolve(query);
             realFuture.addNotifier(new IoFuture.HandlingNotifier<Answer, FutureResult<Answer>>() {
                 public void handleCancelled(final FutureResult<Answer> attachment) {
                     synchronized (cache) {
@@ -103,19 +154,236 @@ public final class CachingResolver extends AbstractResolver implements Resolver
         }
     }
 
-    private static final class CacheMap<K, V> extends LinkedHashMap<K, V> {
+    /**
+     * Get the answer to a query if it is in the cache and has not expired, without allocating a future.  A query in
+     * progress does not count as cached.
+     *
+     * @param query the DNS query
+     * @return the cached answer, or {@code null} if there is none
+     */
+    public Answer tryResolveCached(final Query query) {
+        if (Bits.allAreSet(query.getQueryFlags(), Query.Flag.BYPASS_CACHE)) {
+            return null;
+        }
+        final Domain name = query.getDomain();
+        final int rrClass = query.getRRClass();
+        final int rrType = query.getRRType();
+        final RecordIdentifier key = new RecordIdentifier(name, rrClass, rrType);
+        synchronized (cache) {
+            final FutureResult<Answer> future = cache.get(key);
+            if (future != null) {
+                final Answer answer = getLiveAnswer(future);
+                if (answer != null) {
+                    hits.increment();
+                }
+                return answer;
+            } else if (secondTier != null) {
+                final Answer spilled = secondTier.get(name, rrClass, rrType);
+                if (spilled != null) {
+                    secondTierHits.increment();
+                    promote(key, spilled);
+                }
+                return spilled;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the answer of a cache entry if it is complete and has not {@linkplain Answer#getEol() expired}.
+     */
+    private static Answer getLiveAnswer(final FutureResult<Answer> future) {
+        final IoFuture<Answer> ioFuture = future.getIoFuture();
+        if (ioFuture.getStatus() != IoFuture.Status.DONE) {
+            return null;
+        }
+        final Answer answer;
+        try {
+            answer = ioFuture.get();
+        } catch (IOException e) {
+            // technically shouldn't be possible because status was "done"
+            return null;
+        }
+        return answer.getEol() > System.currentTimeMillis() ? answer : null;
+    }
+
+    /**
+     * Move an answer from the second tier back onto the heap.
+     */
+    private FutureResult<Answer> promote(final RecordIdentifier key, final Answer spilled) {
+        assert Thread.holdsLock(cache);
+        final FutureResult<Answer> promoted = new FutureResult<Answer>(executor);
+        promoted.setResult(spilled);
+        cache.put(key, promoted);
+        return promoted;
+    }
+
+    /**
+     * Get a snapshot of the statistics of this cache.  The counters are maintained without locking, so the values
+     * in the snapshot are not guaranteed to be mutually consistent.
+     *
+     * @return the statistics snapshot
+     */
+    public CacheStatistics getStatistics() {
+        final int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        final OffHeapAnswerCache secondTier = this.secondTier;
+        return new CacheStatistics(hits.sum(), misses.sum(), coalesced.sum(), secondTierHits.sum(), evictions.sum(), secondTier == null ? 0L : secondTier.getEvictionCount(), expirations.sum(), size, secondTier == null ? 0 : secondTier.size());
+    }
+
+    /**
+     * Register a management bean for this cache.
+     *
+     * @param server the MBean server to register with
+     * @param name the object name to register under
+     * @return the registered instance
+     * @throws JMException if registration failed
+     */
+    public ObjectInstance registerMBean(final MBeanServer server, final ObjectName name) throws JMException {
+        Assert.checkNotNullParam("server", server);
+        Assert.checkNotNullParam("name", name);
+        return server.registerMBean(new MXBeanImpl(), name);
+    }
+
+    /**
+     * Write all of the live, unexpired entries of this cache, including those of the off-heap tier, to a snapshot file, so that they can be restored by
+     * {@link #readSnapshot(Path)} after a restart.  Record lifetimes are stored as absolute EOLs.
+     *
+     * @param path the snapshot file to write (replaced if it exists)
+     * @return the number of entries written
+     * @throws IOException if the snapshot could not be written
+     */
+    public int writeSnapshot(final Path path) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        final List<Map.Entry<RecordIdentifier, Answer>> entries;
+        synchronized (cache) {
+            entries = new ArrayList<Map.Entry<RecordIdentifier, Answer>>(cache.size());
+            for (Map.Entry<RecordIdentifier, FutureResult<Answer>> entry : cache.entrySet()) {
+                final IoFuture<Answer> future = entry.getValue().getIoFuture();
+                if (future.getStatus() == IoFuture.Status.DONE) {
+                    entries.add(new CacheSnapshot.SnapshotEntry(entry.getKey(), future.get()));
+                }
+            }
+        }
+        if (secondTier != null) {
+            final Set<RecordIdentifier> seen = new HashSet<RecordIdentifier>();
+            for (Map.Entry<RecordIdentifier, Answer> entry : entries) {
+                seen.add(entry.getKey());
+            }
+            for (Map.Entry<RecordIdentifier, Answer> entry : secondTier.entries()) {
+                if (seen.add(entry.getKey())) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return CacheSnapshot.write(path, entries);
+    }
+
+    /**
+     * Populate this cache from a snapshot file written by {@link #writeSnapshot(Path)}.  Entries which have expired
+     * since the snapshot was taken are dropped, and entries which are already present in the cache are not replaced.
+     *
+     * @param path the snapshot file to read
+     * @return the number of entries restored
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    public int readSnapshot(final Path path) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        final List<Map.Entry<RecordIdentifier, Answer>> entries = CacheSnapshot.read(path);
+        int count = 0;
+        synchronized (cache) {
+            for (Map.Entry<RecordIdentifier, Answer> entry : entries) {
+                if (! cache.containsKey(entry.getKey())) {
+                    final FutureResult<Answer> restored = new FutureResult<Answer>(executor);
+                    restored.setResult(entry.getValue());
+                    cache.put(entry.getKey(), restored);
+                    count ++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static final class CacheMap extends LinkedHashMap<RecordIdentifier, FutureResult<Answer>> {
 
         private static final long serialVersionUID = 733255475501069288L;
 
         private final int max;
+        private final transient OffHeapAnswerCache secondTier;
+        private final transient LongAdder evictions;
 
-        CacheMap(final int max) {
+        CacheMap(final int max, final OffHeapAnswerCache secondTier, final LongAdder evictions) {
             super(64, 0.6f, true);
             this.max = max;
+            this.secondTier = secondTier;
+            this.evictions = evictions;
+        }
+
+        protected boolean removeEldestEntry(final Map.Entry<RecordIdentifier, FutureResult<Answer>> eldest) {
+            if (size() > max) {
+                final IoFuture<Answer> future = eldest.getValue().getIoFuture();
+                if (secondTier != null && future.getStatus() == IoFuture.Status.DONE) {
+                    final RecordIdentifier key = eldest.getKey();
+                    try {
+                        secondTier.put(key.getDomain(), key.getRRClass(), key.getRRType(), future.get());
+                    } catch (IOException e) {
+                        // not possible because status was "done"
+                    }
+                }
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final class MXBeanImpl implements CachingResolverMXBean {
+
+        public long getHitCount() {
+            return hits.sum();
+        }
+
+        public long getMissCount() {
+            return misses.sum();
+        }
+
+        public long getCoalescedCount() {
+            return coalesced.sum();
+        }
+
+        public long getSecondTierHitCount() {
+            return secondTierHits.sum();
+        }
+
+        public long getEvictionCount() {
+            return evictions.sum();
+        }
+
+        public long getSecondTierEvictionCount() {
+            final OffHeapAnswerCache secondTier = CachingResolver.this.secondTier;
+            return secondTier == null ? 0L : secondTier.getEvictionCount();
+        }
+
+        public long getExpirationCount() {
+            return expirations.sum();
+        }
+
+        public int getSize() {
+            return getStatistics().getSize();
+        }
+
+        public int getSecondTierSize() {
+            return getStatistics().getSecondTierSize();
+        }
+
+        public double getHitRatio() {
+            return getStatistics().getHitRatio();
         }
 
-        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
-            return size() > max;
+        public double getMissRatio() {
+            return getStatistics().getMissRatio();
         }
     }
 }
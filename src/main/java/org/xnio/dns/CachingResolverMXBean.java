@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+/**
+ * The management interface of a {@link CachingResolver}.  See {@link CacheStatistics} for the meaning of each
+ * attribute.
+ *
+ * @see CachingResolver#registerMBean(javax.management.MBeanServer, javax.management.ObjectName)
+ */
+public interface CachingResolverMXBean {
+    long getHitCount();
+
+    long getMissCount();
+
+    long getCoalescedCount();
+
+    long getSecondTierHitCount();
+
+    long getEvictionCount();
+
+    long getSecondTierEvictionCount();
+
+    long getExpirationCount();
+
+    int getSize();
+
+    int getSecondTierSize();
+
+    double getHitRatio();
+
+    double getMissRatio();
+}
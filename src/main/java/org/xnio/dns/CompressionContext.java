@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+/**
+ * The names written so far into a DNS message, for name compression (RFC 1035, section 4.1.4).  Each name suffix is
+ * recorded with its offset in the message in an open-addressed hash table, so finding the longest suffix which has
+ * already been written costs one probe per label.
+ * <p>
+ * A context belongs to one message at a time, and can be {@linkplain #reset(int) reset} and reused for the next
+ * message, so that encoding does not allocate.  Instances are not thread-safe.
+ */
+public final class CompressionContext {
+
+    /** The largest offset which a compression pointer can hold. */
+    private static final int MAX_OFFSET = 0x3fff;
+    private static final int TABLE_SIZE = 256;
+    /** Suffixes beyond this many are written uncompressed, which keeps the table sparse enough to probe quickly. */
+    private static final int MAX_ENTRIES = TABLE_SIZE * 3 / 4;
+
+    private final Domain[] domains = new Domain[TABLE_SIZE];
+    private final int[] labelIndexes = new int[TABLE_SIZE];
+    private final int[] offsets = new int[TABLE_SIZE];
+    private final int[] hashes = new int[TABLE_SIZE];
+    /** The table slots in order of insertion, so that the most recent entries can be removed again. */
+    private final int[] slots = new int[MAX_ENTRIES];
+    private int size;
+    private int messageStart;
+
+    /**
+     * Construct a new instance for a message which starts at position 0 of its buffer.
+     */
+    public CompressionContext() {
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param messageStart the position of the start of the message in its buffer
+     */
+    public CompressionContext(final int messageStart) {
+        this.messageStart = messageStart;
+    }
+
+    /**
+     * Forget all names, ready for a new message.
+     *
+     * @param messageStart the position of the start of the new message in its buffer
+     */
+    public void reset(final int messageStart) {
+        truncate(0);
+        this.messageStart = messageStart;
+    }
+
+    /**
+     * Get a mark which can be passed to {@link #truncate(int)} to forget the names recorded after this call, for
+     * example when a record which did not fit in the message is removed again.
+     *
+     * @return the mark
+     */
+    public int mark() {
+        return size;
+    }
+
+    /**
+     * Forget the names recorded since the given mark.
+     *
+     * @param mark the mark
+     */
+    public void truncate(final int mark) {
+        // removing entries in the reverse order of insertion never breaks the probe sequence of an older entry
+        while (size > mark) {
+            domains[slots[-- size]] = null;
+        }
+    }
+
+    /**
+     * Record a name which was written to the message without using this context, such as a copied question.
+     *
+     * @param domain the name
+     * @param position the position of the name in its buffer
+     */
+    public void add(final Domain domain, int position) {
+        final int count = domain.getLabelCount();
+        for (int i = 0; i < count; i ++) {
+            if (findOrAdd(domain, i, position) != -1) {
+                return;
+            }
+            position += 1 + domain.getLabelLength(i);
+        }
+    }
+
+    /**
+     * Find a suffix of a name which has already been written, or record that it is being written at a position if
+     * it has not.  A suffix at a position out of reach of a compression pointer, or beyond the capacity of the
+     * table, is not recorded.
+     *
+     * @param domain the name
+     * @param labelIndex the index of the first label of the suffix
+     * @param position the position in the buffer at which the suffix would be written
+     * @return the offset of the earlier copy of the suffix in the message, or -1 if there is none
+     */
+    int findOrAdd(final Domain domain, final int labelIndex, final int position) {
+        final int hash = domain.suffixHash(labelIndex);
+        final Domain[] domains = this.domains;
+        int slot = spread(hash);
+        while (domains[slot] != null) {
+            if (hashes[slot] == hash && domain.suffixEquals(labelIndex, domains[slot], labelIndexes[slot])) {
+                return offsets[slot];
+            }
+            slot = slot + 1 & TABLE_SIZE - 1;
+        }
+        final int offset = position - messageStart;
+        if (offset <= MAX_OFFSET && size < MAX_ENTRIES) {
+            domains[slot] = domain;
+            labelIndexes[slot] = labelIndex;
+            offsets[slot] = offset;
+            hashes[slot] = hash;
+            slots[size ++] = slot;
+        }
+        return -1;
+    }
+
+    private static int spread(final int hash) {
+        final int h = hash * 0x9e3779b9;
+        return (h ^ h >>> 16) & TABLE_SIZE - 1;
+    }
+
+}
@@ -26,7 +26,7 @@ import java.io.IOException;
 public class DNSException extends IOException {
 
     private static final long serialVersionUID = 3313733955232311955L;
-    private final ResultCode code;
+    private final int code;
 
     /**
      * Constructs a <tt>DNSException</tt> with no detail message. The cause is not initialized, and may subsequently be
@@ -34,7 +34,7 @@ public class DNSException extends IOException {
      *
      * @param code the reason code
      */
-    public DNSException(final ResultCode code) {
+    public DNSException(final int code) {
         this.code = code;
     }
 
@@ -45,7 +45,7 @@ public class DNSException extends IOException {
      * @param code the reason code
      * @param msg the detail message
      */
-    public DNSException(final ResultCode code, final String msg) {
+    public DNSException(final int code, final String msg) {
         super(msg);
         this.code = code;
     }
@@ -59,7 +59,7 @@ public class DNSException extends IOException {
      * @param code the reason code
      * @param cause the cause (which is saved for later retrieval by the {@link #getCause()} method)
      */
-    public DNSException(final ResultCode code, final Throwable cause) {
+    public DNSException(final int code, final Throwable cause) {
         initCause(cause);
         this.code = code;
     }
@@ -71,7 +71,7 @@ public class DNSException extends IOException {
      * @param msg the detail message
      * @param cause the cause (which is saved for later retrieval by the {@link #getCause()} method)
      */
-    public DNSException(final ResultCode code, final String msg, final Throwable cause) {
+    public DNSException(final int code, final String msg, final Throwable cause) {
         super(msg);
         initCause(cause);
         this.code = code;
@@ -81,8 +81,9 @@ public class DNSException extends IOException {
      * Get the reason code.
      *
      * @return the reason code
+     * @see ResultCode
      */
-    public ResultCode getCode() {
+    public int getCode() {
         return code;
     }
 }
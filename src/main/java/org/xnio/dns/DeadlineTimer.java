@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+
+/**
+ * The timer which enforces query deadlines.  When the deadline of a query passes, its pending result is cancelled,
+ * which cancels all of the outstanding work registered with it, and then fails with an
+ * {@link InterruptedIOException}.  The timer also runs the other short delays of the resolvers.
+ */
+final class DeadlineTimer {
+    private DeadlineTimer() {}
+
+    private static final ScheduledThreadPoolExecutor timer;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "xnio-dns deadline timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Enforce the deadline of a query on its result.  Does nothing if the query has no deadline.
+     *
+     * @param query the query
+     * @param result the pending result of the query
+     */
+    static void schedule(final Query query, final FutureResult<?> result) {
+        if (query.getDeadline() == Query.NO_DEADLINE) {
+            return;
+        }
+        final IoFuture<?> ioFuture = result.getIoFuture();
+        final ScheduledFuture<?> task = timer.schedule(new Runnable() {
+            public void run() {
+                ioFuture.cancel();
+                result.setException(deadlineExceeded(query));
+            }
+        }, query.getRemainingTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        ioFuture.addNotifier(new IoFuture.Notifier<Object, ScheduledFuture<?>>() {
+            public void notify(final IoFuture<?> future, final ScheduledFuture<?> task) {
+                task.cancel(false);
+            }
+        }, task);
+    }
+
+    /**
+     * Run a task after a delay.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @param unit the delay unit
+     * @return the scheduled task
+     */
+    static ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    /**
+     * Complete a result whose outstanding work was cancelled, failing it if the cancellation was caused by the query
+     * deadline.
+     *
+     * @param query the query
+     * @param result the pending result of the query
+     */
+    static void cancelled(final Query query, final FutureResult<?> result) {
+        if (query.isExpired()) {
+            result.setException(deadlineExceeded(query));
+        } else {
+            result.setCancelled();
+        }
+    }
+
+    static InterruptedIOException deadlineExceeded(final Query query) {
+        return new InterruptedIOException("Deadline exceeded for " + query);
+    }
+}
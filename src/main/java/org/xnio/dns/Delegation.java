@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.NsRecord;
+
+/**
+ * A zone cut: the name servers which are authoritative for a zone, along with any known addresses of those servers.
+ * Instances are immutable.
+ */
+final class Delegation {
+    private final Domain zone;
+    private final Map<Domain, List<InetAddress>> servers;
+    private final long eol;
+
+    private Delegation(final Domain zone, final Map<Domain, List<InetAddress>> servers, final long eol) {
+        this.zone = zone;
+        this.servers = servers;
+        this.eol = eol;
+    }
+
+    /**
+     * Create a delegation from NS records and glue address records.  Only NS records owned by the given zone
+     * are used, and only glue records which lie within the given bailiwick are trusted.
+     *
+     * @param zone the delegated zone
+     * @param nsRecords the records to search for NS records
+     * @param glueRecords the records to search for glue address records
+     * @param bailiwick the domain within which glue records are trusted
+     * @return the delegation, or {@code null} if no NS records were found for the zone
+     */
+    static Delegation create(final Domain zone, final List<Record> nsRecords, final List<Record> glueRecords, final Domain bailiwick) {
+        final Map<Domain, List<InetAddress>> servers = new LinkedHashMap<Domain, List<InetAddress>>();
+        long eol = Long.MAX_VALUE;
+        for (Record record : nsRecords) {
+            if (record instanceof NsRecord && record.getName().equals(zone)) {
+                servers.put(((NsRecord) record).getServer(), new ArrayList<InetAddress>(2));
+                eol = Math.min(eol, record.getTtlSpec().getEol());
+            }
+        }
+        if (servers.isEmpty()) {
+            return null;
+        }
+        for (Record record : glueRecords) {
+            final InetAddress address;
+            if (record instanceof ARecord) {
+                address = ((ARecord) record).getAddress();
+            } else if (record instanceof AaaaRecord) {
+                address = ((AaaaRecord) record).getAddress();
+            } else {
+                continue;
+            }
+            final Domain server = record.getName();
+            final List<InetAddress> addresses = servers.get(server);
+            if (addresses != null && server.isSubdomainOf(bailiwick)) {
+                addresses.add(address);
+                eol = Math.min(eol, record.getTtlSpec().getEol());
+            }
+        }
+        for (Map.Entry<Domain, List<InetAddress>> entry : servers.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return new Delegation(zone, Collections.unmodifiableMap(servers), eol);
+    }
+
+    /**
+     * Find a referral in an answer.  A referral is a set of NS records in the authority section for a zone which is
+     * strictly below the current zone and which encloses the query name.
+     *
+     * @param answer the answer
+     * @param name the query name
+     * @param current the zone which was queried
+     * @return the new delegation, or {@code null} if the answer is not a valid referral
+     */
+    static Delegation findReferral(final Answer answer, final Domain name, final Domain current) {
+        for (Record record : answer.getAuthorityRecords()) {
+            if (record instanceof NsRecord) {
+                final Domain zone = record.getName();
+                if (! zone.equals(current) && zone.isSubdomainOf(current) && name.isSubdomainOf(zone)) {
+                    return create(zone, answer.getAuthorityRecords(), answer.getAdditionalRecords(), current);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a copy of this delegation with the addresses of one of its servers replaced.
+     *
+     * @param server the server name
+     * @param addresses the server addresses
+     * @param addressEol the EOL of the server addresses
+     * @return the new delegation
+     */
+    Delegation withAddresses(final Domain server, final List<InetAddress> addresses, final long addressEol) {
+        final Map<Domain, List<InetAddress>> newServers = new LinkedHashMap<Domain, List<InetAddress>>(servers);
+        newServers.put(server, Collections.unmodifiableList(new ArrayList<InetAddress>(addresses)));
+        return new Delegation(zone, Collections.unmodifiableMap(newServers), Math.min(eol, addressEol));
+    }
+
+    Domain getZone() {
+        return zone;
+    }
+
+    /**
+     * Get the name servers of the zone, mapped to their known addresses.  Servers for which no glue was
+     * available map to an empty list.
+     *
+     * @return the servers map
+     */
+    Map<Domain, List<InetAddress>> getServers() {
+        return servers;
+    }
+
+    long getEol() {
+        return eol;
+    }
+
+    boolean isExpired() {
+        return eol <= System.currentTimeMillis();
+    }
+
+    public String toString() {
+        return String.format("Delegation of %s to %s", zone, servers);
+    }
+}
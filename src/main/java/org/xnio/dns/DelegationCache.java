@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An infrastructure cache which maps zone cuts to their delegations, so that an iterative resolution can start from the
+ * deepest delegation known for a name instead of walking down from the top each time.
+ */
+final class DelegationCache {
+    private final ConcurrentHashMap<Domain, Delegation> delegations = new ConcurrentHashMap<Domain, Delegation>();
+    private final int maxSize;
+
+    DelegationCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Find the deepest unexpired delegation which encloses the given name.
+     *
+     * @param name the name
+     * @return the delegation, or {@code null} if none is known
+     */
+    Delegation findClosest(final Domain name) {
+        for (Domain search = name; search != null; search = search.getParent()) {
+            final Delegation delegation = delegations.get(search);
+            if (delegation != null) {
+                if (! delegation.isExpired()) {
+                    return delegation;
+                }
+                delegations.remove(search, delegation);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add or replace a delegation.
+     *
+     * @param delegation the delegation
+     */
+    void put(final Delegation delegation) {
+        if (delegation.isExpired()) {
+            return;
+        }
+        if (delegations.size() >= maxSize) {
+            purge();
+        }
+        delegations.put(delegation.getZone(), delegation);
+    }
+
+    private void purge() {
+        // drop expired entries first, then arbitrary ones until there is room
+        final Iterator<Delegation> iterator = delegations.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) {
+                iterator.remove();
+            }
+        }
+        final Iterator<Domain> keys = delegations.keySet().iterator();
+        while (delegations.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
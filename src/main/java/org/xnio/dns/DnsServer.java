@@ -0,0 +1,717 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+import org.xnio.ChannelListener;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.StreamConnection;
+import org.xnio.XnioWorker;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.MulticastMessageChannel;
+import org.xnio.channels.SocketAddressBuffer;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+
+/**
+ * A DNS server which answers queries over UDP and TCP from a resolver, typically a {@link LocalZoneResolver}.
+ * <p>
+ * Each bound channel is serviced by its own XNIO I/O thread, so binding several addresses spreads the load over
+ * several threads.  Each UDP channel reads datagrams in batches into buffers which belong to the channel, and answers
+ * which are available immediately are encoded and sent from the I/O thread without allocating buffers.  Other answers
+ * are sent from the thread which completes them.  TCP connections may pipeline queries; answers are sent in the
+ * order in which they complete, as allowed by RFC 7766.  Idle TCP connections are closed after a timeout, and the
+ * number of open TCP connections is limited.  If a {@link ResponseCache} is given, repeated questions are
+ * answered from it without a lookup.
+ * <p>
+ * A caching forwarder is a server over a {@link CachingResolver}, which coalesces concurrent misses, over a
+ * {@link UdpNetworkResolver} with shared upstream channels.
+ */
+public final class DnsServer implements Closeable {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.server");
+
+    /** The maximum number of datagrams handled per read notification, so that other channels on the thread get a turn. */
+    private static final int READ_BATCH = 64;
+    private static final int UDP_BUFFER_SIZE = 4096;
+    /** The maximum number of unanswered queries on one TCP connection before reading from it is suspended. */
+    private static final int MAX_PIPELINED = 64;
+    /** The default time after which a TCP connection without outstanding queries is closed (RFC 7766 section 6.2.3). */
+    private static final long DEFAULT_TCP_IDLE_TIMEOUT_MILLIS = 10000L;
+    private static final int DEFAULT_MAX_TCP_CONNECTIONS = 1024;
+
+    private final XnioWorker worker;
+    private final Resolver resolver;
+    private final boolean recursionAvailable;
+    private final ResponseCache responseCache;
+    private volatile long tcpIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TCP_IDLE_TIMEOUT_MILLIS);
+    private volatile int maxTcpConnections = DEFAULT_MAX_TCP_CONNECTIONS;
+    // protected by {@code this}
+    private final List<Closeable> channels = new ArrayList<Closeable>();
+    private int tcpConnections;
+    private boolean closed;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param worker the worker whose I/O threads should service the channels
+     * @param resolver the resolver which answers queries
+     * @param recursionAvailable {@code true} if the resolver resolves names recursively, which is advertised to clients
+     */
+    public DnsServer(final XnioWorker worker, final Resolver resolver, final boolean recursionAvailable) {
+        this(worker, resolver, recursionAvailable, null);
+    }
+
+    /**
+     * Construct a new instance which answers repeated questions from a cache of encoded responses.
+     *
+     * @param worker the worker whose I/O threads should service the channels
+     * @param resolver the resolver which answers queries
+     * @param recursionAvailable {@code true} if the resolver resolves names recursively, which is advertised to clients
+     * @param responseCache the response cache, or {@code null} for none
+     */
+    public DnsServer(final XnioWorker worker, final Resolver resolver, final boolean recursionAvailable, final ResponseCache responseCache) {
+        Assert.checkNotNullParam("worker", worker);
+        Assert.checkNotNullParam("resolver", resolver);
+        this.worker = worker;
+        this.resolver = resolver;
+        this.recursionAvailable = recursionAvailable;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Set the time after which a TCP connection without outstanding queries is closed.  The default is 10 seconds.
+     * The new timeout applies to connections as their current timeout expires.
+     *
+     * @param timeout the idle timeout
+     * @param unit the idle timeout unit
+     */
+    public void setTcpIdleTimeout(final long timeout, final TimeUnit unit) {
+        Assert.checkMinimumParameter("timeout", 1L, timeout);
+        Assert.checkNotNullParam("unit", unit);
+        tcpIdleTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Set the maximum number of open TCP connections, over all bound addresses.  Connections accepted beyond the
+     * maximum are closed at once.  The default is 1024.
+     *
+     * @param maxTcpConnections the maximum number of TCP connections
+     */
+    public void setMaxTcpConnections(final int maxTcpConnections) {
+        Assert.checkMinimumParameter("maxTcpConnections", 1, maxTcpConnections);
+        this.maxTcpConnections = maxTcpConnections;
+    }
+
+    /**
+     * Listen for queries on a UDP address.
+     *
+     * @param address the address to bind to
+     * @return the bound address, which differs from the given address if it had port 0
+     * @throws IOException if the channel could not be bound
+     */
+    public InetSocketAddress bindUdp(InetSocketAddress address) throws IOException {
+        Assert.checkNotNullParam("address", address);
+        final MulticastMessageChannel channel = worker.createUdpServer(address, OptionMap.EMPTY);
+        register(channel);
+        channel.getReadSetter().set(new UdpHandler());
+        channel.resumeReads();
+        return channel.getLocalAddress(InetSocketAddress.class);
+    }
+
+    /**
+     * Listen for connections on a TCP address.
+     *
+     * @param address the address to bind to
+     * @return the bound address, which differs from the given address if it had port 0
+     * @throws IOException if the channel could not be bound
+     */
+    public InetSocketAddress bindTcp(InetSocketAddress address) throws IOException {
+        Assert.checkNotNullParam("address", address);
+        final AcceptingChannel<StreamConnection> channel = worker.createStreamConnectionServer(address, new ChannelListener<AcceptingChannel<StreamConnection>>() {
+            public void handleEvent(final AcceptingChannel<StreamConnection> channel) {
+                StreamConnection connection;
+                try {
+                    while ((connection = channel.accept()) != null) {
+                        if (reserveTcpConnection()) {
+                            new TcpConnection(connection).start();
+                        } else {
+                            log.debugf("Refusing a connection from %s because the limit of %d connections is reached", connection.getPeerAddress(), Integer.valueOf(maxTcpConnections));
+                            IoUtils.safeClose(connection);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.debugf(e, "Failed to accept a connection on %s", channel);
+                }
+            }
+        }, OptionMap.EMPTY);
+        register(channel);
+        channel.resumeAccepts();
+        return channel.getLocalAddress(InetSocketAddress.class);
+    }
+
+    /**
+     * Stop listening and close all connections.
+     */
+    public void close() {
+        final List<Closeable> channels;
+        synchronized (this) {
+            closed = true;
+            channels = new ArrayList<Closeable>(this.channels);
+            this.channels.clear();
+        }
+        for (Closeable channel : channels) {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    private void register(final Closeable channel) {
+        synchronized (this) {
+            if (! closed) {
+                channels.add(channel);
+                return;
+            }
+        }
+        IoUtils.safeClose(channel);
+        throw new IllegalStateException("Server is closed");
+    }
+
+    private void unregister(final Closeable channel) {
+        synchronized (this) {
+            channels.remove(channel);
+        }
+    }
+
+    private boolean reserveTcpConnection() {
+        synchronized (this) {
+            if (tcpConnections >= maxTcpConnections) {
+                return false;
+            }
+            tcpConnections ++;
+            return true;
+        }
+    }
+
+    private void releaseTcpConnection() {
+        synchronized (this) {
+            tcpConnections --;
+        }
+    }
+
+    /**
+     * Write the cached response to a request, if there is one.
+     *
+     * @param request the successfully parsed request
+     * @param buffer the target buffer, whose limit is the maximum message size
+     * @return {@code true} if the response was written
+     */
+    boolean writeCached(final Request request, final ByteBuffer buffer) {
+        final ResponseCache responseCache = this.responseCache;
+        return responseCache != null && responseCache.writeCached(request, buffer);
+    }
+
+    /**
+     * Encode the response to a request, and add it to the response cache if there is one.
+     *
+     * @param request the request
+     * @param resultCode the result of {@link Request#parse(ByteBuffer)}
+     * @param answer the answer, if the result code is {@link ResultCode#NOERROR}
+     * @param buffer the target buffer, whose limit is the maximum message size
+     */
+    void encode(final Request request, final int resultCode, final Answer answer, final ByteBuffer buffer) {
+        final int start = buffer.position();
+        request.writeResponse(buffer, resultCode, answer, recursionAvailable);
+        final ResponseCache responseCache = this.responseCache;
+        // a recursing server answers RD=0 requests differently, so those responses cannot be shared
+        if (responseCache != null && resultCode == ResultCode.NOERROR && (! recursionAvailable || (request.flags & MessageEncoder.FLAG_RD) != 0)) {
+            final ByteBuffer response = buffer.duplicate();
+            response.limit(response.position()).position(start);
+            responseCache.store(request, answer, response);
+        }
+    }
+
+    Answer failureAnswer(final Query query) {
+        return Answer.builder().populateFromQuery(query).setResultCode(ResultCode.SERVER_FAILURE).create();
+    }
+
+    /**
+     * A request being decoded.  Instances are reused for each message received on a channel.
+     */
+    static final class Request {
+        /** The result of {@link #parse(ByteBuffer)} for a message which should not be answered at all. */
+        static final int DROP = -2;
+
+        int id;
+        int flags;
+        ByteBuffer question;
+        Domain name;
+        int rrType;
+        int rrClass;
+        boolean edns;
+        int udpPayloadSize;
+        int ednsFlags;
+        final ResponseCache.Key cacheKey = new ResponseCache.Key();
+        private CompressionContext compressionContext;
+
+        /**
+         * Decode a request message.  The message must start at position 0 of the buffer, which is where compression
+         * pointers are relative to.
+         *
+         * @param buffer the message
+         * @return the result code to answer with, or {@link #DROP}
+         */
+        int parse(final ByteBuffer buffer) {
+            question = null;
+            name = null;
+            edns = false;
+            udpPayloadSize = MessageEncoder.MAX_UDP_PAYLOAD;
+            ednsFlags = 0;
+            if (buffer.remaining() < MessageEncoder.HEADER_LENGTH) {
+                return DROP;
+            }
+            id = buffer.getShort() & 0xffff;
+            flags = buffer.getShort() & 0xffff;
+            if ((flags & MessageEncoder.FLAG_QR) != 0) {
+                // never answer a response
+                return DROP;
+            }
+            final int qdcount = buffer.getShort() & 0xffff;
+            final int ancount = buffer.getShort() & 0xffff;
+            final int nscount = buffer.getShort() & 0xffff;
+            final int arcount = buffer.getShort() & 0xffff;
+            if ((flags & MessageEncoder.OPCODE_MASK) != 0) {
+                return ResultCode.NOT_IMPLEMENTED;
+            }
+            if (qdcount != 1) {
+                return ResultCode.FORMAT_ERROR;
+            }
+            try {
+                final int questionStart = buffer.position();
+                name = Domain.fromBytes(buffer);
+                rrType = buffer.getShort() & 0xffff;
+                rrClass = buffer.getShort() & 0xffff;
+                final ByteBuffer question = buffer.duplicate();
+                question.position(questionStart).limit(buffer.position());
+                this.question = question;
+                for (int i = 0; i < ancount + nscount; i ++) {
+                    skipName(buffer);
+                    buffer.position(buffer.position() + 8);
+                    buffer.position(buffer.position() + (buffer.getShort() & 0xffff));
+                }
+                for (int i = 0; i < arcount; i ++) {
+                    skipName(buffer);
+                    final int type = buffer.getShort() & 0xffff;
+                    final int rrClass = buffer.getShort() & 0xffff;
+                    final int ttl = buffer.getInt();
+                    buffer.position(buffer.position() + (buffer.getShort() & 0xffff));
+                    if (type == MessageEncoder.RR_TYPE_OPT) {
+                        edns = true;
+                        udpPayloadSize = Math.max(MessageEncoder.MAX_UDP_PAYLOAD, Math.min(MessageEncoder.EDNS_UDP_PAYLOAD, rrClass));
+                        ednsFlags = ttl & 0xffff;
+                    }
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+                return ResultCode.FORMAT_ERROR;
+            }
+            return ResultCode.NOERROR;
+        }
+
+        private static void skipName(final ByteBuffer buffer) {
+            for (;;) {
+                final int b = buffer.get() & 0xff;
+                if (b == 0) {
+                    return;
+                } else if ((b & 0xc0) == 0xc0) {
+                    buffer.get();
+                    return;
+                } else {
+                    buffer.position(buffer.position() + b);
+                }
+            }
+        }
+
+        Query toQuery() {
+            // a non-recursive answer (a referral, a refusal or nothing at all) must never be cached for recursive clients
+            return new Query(name, rrClass, rrType, (flags & MessageEncoder.FLAG_RD) == 0 ? Query.Flag.NO_RECURSION | Query.Flag.BYPASS_CACHE : 0);
+        }
+
+        /**
+         * Encode the response to this request.
+         *
+         * @param buffer the target buffer, whose limit is the maximum message size
+         * @param resultCode the result of {@link #parse(ByteBuffer)}
+         * @param answer the answer, if the result code is {@link ResultCode#NOERROR}
+         * @param recursionAvailable {@code true} to set the RA flag
+         */
+        void writeResponse(final ByteBuffer buffer, final int resultCode, final Answer answer, final boolean recursionAvailable) {
+            if (resultCode != ResultCode.NOERROR) {
+                MessageEncoder.writeErrorResponse(buffer, id, flags, question, resultCode);
+            } else {
+                CompressionContext compressionContext = this.compressionContext;
+                if (compressionContext == null) {
+                    // created on first use, since copies of requests only write one response
+                    this.compressionContext = compressionContext = new CompressionContext();
+                }
+                MessageEncoder.writeResponse(buffer, compressionContext, id, flags, question, name, answer, recursionAvailable, edns, ednsFlags & MessageEncoder.EDNS_FLAG_DO);
+            }
+        }
+
+        /**
+         * Copy this request so that it can be answered later, after this instance has been reused.
+         *
+         * @return the copy
+         */
+        Request copy() {
+            final Request copy = new Request();
+            copy.id = id;
+            copy.flags = flags;
+            if (question != null) {
+                final ByteBuffer question = ByteBuffer.allocate(this.question.remaining());
+                question.put(this.question.duplicate()).flip();
+                copy.question = question;
+            }
+            copy.name = name;
+            copy.rrType = rrType;
+            copy.rrClass = rrClass;
+            copy.edns = edns;
+            copy.udpPayloadSize = udpPayloadSize;
+            copy.ednsFlags = ednsFlags;
+            return copy;
+        }
+    }
+
+    /**
+     * The read listener of a UDP channel.  It is only ever called on the channel's I/O thread, so its buffers can be
+     * reused for every datagram.
+     */
+    final class UdpHandler implements ChannelListener<MulticastMessageChannel> {
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(UDP_BUFFER_SIZE);
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(UDP_BUFFER_SIZE);
+        private final SocketAddressBuffer addressBuffer = new SocketAddressBuffer();
+        private final Request request = new Request();
+
+        public void handleEvent(final MulticastMessageChannel channel) {
+            for (int i = 0; i < READ_BATCH; i ++) {
+                receiveBuffer.clear();
+                try {
+                    if (channel.receiveFrom(addressBuffer, receiveBuffer) == 0) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    log.debugf(e, "Failed to receive a datagram on %s", channel);
+                    return;
+                }
+                receiveBuffer.flip();
+                handleDatagram(channel, addressBuffer.getSourceAddress());
+            }
+            // the selector is level-triggered, so any datagrams left over are handled on the next notification
+        }
+
+        private void handleDatagram(final MulticastMessageChannel channel, final SocketAddress client) {
+            final int resultCode = request.parse(receiveBuffer);
+            if (resultCode == Request.DROP) {
+                return;
+            }
+            if (resultCode != ResultCode.NOERROR) {
+                send(channel, client, request, resultCode, null, sendBuffer);
+                return;
+            }
+            sendBuffer.clear();
+            sendBuffer.limit(request.udpPayloadSize);
+            if (writeCached(request, sendBuffer)) {
+                sendBuffer.flip();
+                transmit(channel, client, sendBuffer);
+                return;
+            }
+            final Query query = request.toQuery();
+            final IoFuture<Answer> future = resolver.resolve(query);
+            if (future.getStatus() == IoFuture.Status.DONE) {
+                send(channel, client, request, resultCode, getAnswer(future, query), sendBuffer);
+                return;
+            }
+            final Request saved = request.copy();
+            future.addNotifier(new IoFuture.Notifier<Answer, Query>() {
+                public void notify(final IoFuture<? extends Answer> future, final Query query) {
+                    send(channel, client, saved, ResultCode.NOERROR, getAnswer(future, query), ByteBuffer.allocate(saved.udpPayloadSize));
+                }
+            }, query);
+        }
+
+        private void send(final MulticastMessageChannel channel, final SocketAddress client, final Request request, final int resultCode, final Answer answer, final ByteBuffer buffer) {
+            buffer.clear();
+            buffer.limit(request.udpPayloadSize);
+            encode(request, resultCode, answer, buffer);
+            buffer.flip();
+            transmit(channel, client, buffer);
+        }
+
+        private void transmit(final MulticastMessageChannel channel, final SocketAddress client, final ByteBuffer buffer) {
+            try {
+                if (! channel.sendTo(client, buffer)) {
+                    log.tracef("Dropped response to %s because the send buffer is full", client);
+                }
+            } catch (IOException e) {
+                log.debugf(e, "Failed to send a response to %s", client);
+            }
+        }
+    }
+
+    Answer getAnswer(final IoFuture<? extends Answer> future, final Query query) {
+        if (future.getStatus() == IoFuture.Status.DONE) try {
+            return future.get();
+        } catch (IOException e) {
+            // not possible
+        }
+        return failureAnswer(query);
+    }
+
+    /**
+     * A TCP connection.  Messages are prefixed by their two-byte length.  The connection is its own idle timeout,
+     * which closes it once it has had no outstanding queries and no traffic for the idle timeout.
+     */
+    final class TcpConnection extends TimerWheel.Timeout implements ChannelListener<ConduitStreamSourceChannel> {
+        private final StreamConnection connection;
+        private final Request request = new Request();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(512);
+        // responses are encoded here, and only their bytes are copied into the output queue
+        private final ByteBuffer encodeBuffer = ByteBuffer.allocate(2 + MessageEncoder.MAX_TCP_PAYLOAD);
+
+        // these fields are protected by {@code this}
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        private int pending;
+        private boolean readsDone;
+        private volatile long lastActivity = System.nanoTime();
+
+        TcpConnection(final StreamConnection connection) {
+            this.connection = connection;
+        }
+
+        void start() {
+            try {
+                register(connection);
+            } catch (IllegalStateException e) {
+                releaseTcpConnection();
+                return;
+            }
+            connection.setCloseListener(new ChannelListener<StreamConnection>() {
+                public void handleEvent(final StreamConnection channel) {
+                    unregister(channel);
+                    releaseTcpConnection();
+                    TimerWheel.INSTANCE.cancel(TcpConnection.this);
+                }
+            });
+            connection.getSourceChannel().getReadSetter().set(this);
+            connection.getSinkChannel().getWriteSetter().set(new ChannelListener<ConduitStreamSinkChannel>() {
+                public void handleEvent(final ConduitStreamSinkChannel channel) {
+                    flush(channel);
+                }
+            });
+            connection.getSourceChannel().resumeReads();
+            TimerWheel.INSTANCE.schedule(this, tcpIdleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void run() {
+            if (! connection.isOpen()) {
+                return;
+            }
+            final long timeout = tcpIdleTimeoutNanos;
+            final boolean busy;
+            synchronized (this) {
+                busy = pending > 0 || ! output.isEmpty();
+            }
+            final long idle = System.nanoTime() - lastActivity;
+            if (! busy && idle >= timeout) {
+                log.debugf("Closing idle connection %s", connection);
+                IoUtils.safeClose(connection);
+            } else {
+                TimerWheel.INSTANCE.schedule(this, busy ? timeout : timeout - idle, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        public void handleEvent(final ConduitStreamSourceChannel channel) {
+            for (;;) {
+                // answer complete messages already in the buffer first
+                readBuffer.flip();
+                try {
+                    while (readBuffer.remaining() >= 2) {
+                        synchronized (this) {
+                            if (pending >= MAX_PIPELINED) {
+                                channel.suspendReads();
+                                return;
+                            }
+                        }
+                        final int length = readBuffer.getShort(readBuffer.position()) & 0xffff;
+                        if (readBuffer.remaining() < length + 2) {
+                            if (readBuffer.capacity() < length + 2) {
+                                final ByteBuffer newBuffer = ByteBuffer.allocate(length + 2);
+                                newBuffer.put(readBuffer);
+                                newBuffer.flip();
+                                readBuffer = newBuffer;
+                            }
+                            break;
+                        }
+                        final ByteBuffer message = readBuffer.duplicate();
+                        message.position(readBuffer.position() + 2).limit(readBuffer.position() + 2 + length);
+                        readBuffer.position(message.limit());
+                        handleMessage(message.slice());
+                    }
+                } finally {
+                    readBuffer.compact();
+                }
+                final int res;
+                try {
+                    res = channel.read(readBuffer);
+                } catch (IOException e) {
+                    log.debugf(e, "Closing connection %s due to a read error", connection);
+                    IoUtils.safeClose(connection);
+                    return;
+                }
+                if (res == 0) {
+                    return;
+                } else if (res > 0) {
+                    lastActivity = System.nanoTime();
+                } else {
+                    channel.suspendReads();
+                    final boolean done;
+                    synchronized (this) {
+                        readsDone = true;
+                        done = pending == 0 && output.isEmpty();
+                    }
+                    if (done) {
+                        IoUtils.safeClose(connection);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void handleMessage(final ByteBuffer message) {
+            final int resultCode = request.parse(message);
+            if (resultCode == Request.DROP) {
+                return;
+            }
+            synchronized (this) {
+                pending ++;
+            }
+            if (resultCode != ResultCode.NOERROR) {
+                send(request, resultCode, null);
+                return;
+            }
+            ByteBuffer cached = null;
+            synchronized (encodeBuffer) {
+                encodeBuffer.clear().position(2);
+                if (writeCached(request, encodeBuffer)) {
+                    cached = copyEncoded();
+                }
+            }
+            if (cached != null) {
+                enqueue(cached);
+                return;
+            }
+            final Query query = request.toQuery();
+            final IoFuture<Answer> future = resolver.resolve(query);
+            if (future.getStatus() == IoFuture.Status.DONE) {
+                send(request, resultCode, getAnswer(future, query));
+                return;
+            }
+            final Request saved = request.copy();
+            future.addNotifier(new IoFuture.Notifier<Answer, Query>() {
+                public void notify(final IoFuture<? extends Answer> future, final Query query) {
+                    send(saved, ResultCode.NOERROR, getAnswer(future, query));
+                }
+            }, query);
+        }
+
+        private void send(final Request request, final int resultCode, final Answer answer) {
+            final ByteBuffer buffer;
+            synchronized (encodeBuffer) {
+                encodeBuffer.clear().position(2);
+                encode(request, resultCode, answer, encodeBuffer);
+                buffer = copyEncoded();
+            }
+            enqueue(buffer);
+        }
+
+        private ByteBuffer copyEncoded() {
+            assert Thread.holdsLock(encodeBuffer);
+            encodeBuffer.flip();
+            return ByteBuffer.allocate(encodeBuffer.remaining()).put(encodeBuffer);
+        }
+
+        private void enqueue(final ByteBuffer buffer) {
+            buffer.putShort(0, (short) (buffer.position() - 2));
+            buffer.flip();
+            final boolean resume;
+            synchronized (this) {
+                output.add(buffer);
+                resume = pending-- == MAX_PIPELINED && ! readsDone;
+            }
+            // writes are always done by the write listener, on the I/O thread
+            connection.getSinkChannel().wakeupWrites();
+            if (resume) {
+                connection.getSourceChannel().wakeupReads();
+            }
+        }
+
+        void flush(final ConduitStreamSinkChannel channel) {
+            try {
+                for (;;) {
+                    final ByteBuffer buffer;
+                    synchronized (this) {
+                        buffer = output.peek();
+                        if (buffer == null) {
+                            if (channel.flush()) {
+                                channel.suspendWrites();
+                                if (readsDone && pending == 0) {
+                                    IoUtils.safeClose(connection);
+                                }
+                            }
+                            return;
+                        }
+                    }
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    synchronized (this) {
+                        output.poll();
+                    }
+                    lastActivity = System.nanoTime();
+                }
+            } catch (IOException e) {
+                log.debugf(e, "Closing connection %s due to a write error", connection);
+                IoUtils.safeClose(connection);
+            }
+        }
+    }
+}
@@ -225,28 +225,127 @@ public class Domain implements Serializable {
         if (depth > 32) {
             throw new IllegalStateException("Nested level too deep");
         }
-        final byte leadByte = buffer.get();
-        for (;;) switch (leadByte & 0xc0) {
-            case 0x00: {
-                if (leadByte == 0) {
-                    if (labels.size() == 0) {
-                        return ROOT;
-                    } else {
-                        return new Domain(labels.toArray(new Label[labels.size()]));
+        for (;;) {
+            final byte leadByte = buffer.get();
+            switch (leadByte & 0xc0) {
+                case 0x00: {
+                    if (leadByte == 0) {
+                        if (labels.size() == 0) {
+                            return ROOT;
+                        } else {
+                            return new Domain(labels.toArray(new Label[labels.size()]));
+                        }
                     }
+                    labels.add(Label.fromBytes(leadByte & 0x3f, buffer));
+                    break;
+                }
+                case 0xc0: {
+                    final int offs = ((leadByte & 0x3F) << 8) | (buffer.get() & 0xff);
+                    final ByteBuffer newBuf = buffer.duplicate();
+                    newBuf.position(offs);
+                    return fromBytes(newBuf, labels, depth + 1);
+                }
+                default: {
+                    throw new IllegalStateException("Invalid label byte");
                 }
-                labels.add(Label.fromBytes(leadByte & 0x1f, buffer));
             }
-            case 0xc0: {
-                final int offs = ((leadByte & 0x3F) << 8) | (buffer.get() & 0xff);
-                final ByteBuffer newBuf = buffer.duplicate();
-                newBuf.position(offs);
-                return fromBytes(newBuf, labels, depth + 1);
+        }
+    }
+
+    /**
+     * Write this domain to the given buffer in uncompressed wire format.
+     *
+     * @param buffer the target buffer
+     */
+    public void writeTo(ByteBuffer buffer) {
+        for (Label part : parts) {
+            buffer.put((byte) part.length());
+            part.writeTo(buffer);
+        }
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * Write this domain to the given buffer in wire format, replacing the longest suffix which has already been
+     * written to the message with a compression pointer.
+     *
+     * @param buffer the target buffer
+     * @param context the compression context of the message, or {@code null} to write the name uncompressed
+     */
+    public void writeTo(ByteBuffer buffer, CompressionContext context) {
+        if (context == null) {
+            writeTo(buffer);
+            return;
+        }
+        final Label[] parts = this.parts;
+        for (int i = 0; i < parts.length; i ++) {
+            final int offset = context.findOrAdd(this, i, buffer.position());
+            if (offset != -1) {
+                buffer.putShort((short) (0xc000 | offset));
+                return;
             }
-            default: {
-                throw new IllegalStateException("Invalid label byte");
+            buffer.put((byte) parts[i].length());
+            parts[i].writeTo(buffer);
+        }
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * Get the length of this domain in uncompressed wire format.
+     *
+     * @return the length in bytes
+     */
+    int getWireLength() {
+        int length = 1;
+        for (Label part : parts) {
+            length += 1 + part.length();
+        }
+        return length;
+    }
+
+    int getLabelCount() {
+        return parts.length;
+    }
+
+    int getLabelLength(int index) {
+        return parts[index].length();
+    }
+
+    /**
+     * Get the hash code of the suffix of this domain which starts at the given label.
+     *
+     * @param start the index of the first label of the suffix
+     * @return the hash code
+     */
+    int suffixHash(int start) {
+        final Label[] parts = this.parts;
+        int hc = 1;
+        for (int i = start; i < parts.length; i ++) {
+            hc = 31 * hc + parts[i].hashCode();
+        }
+        return hc;
+    }
+
+    /**
+     * Determine whether a suffix of this domain is equal to a suffix of another domain.
+     *
+     * @param start the index of the first label of the suffix of this domain
+     * @param other the other domain
+     * @param otherStart the index of the first label of the suffix of the other domain
+     * @return {@code true} if the suffixes are equal
+     */
+    boolean suffixEquals(int start, Domain other, int otherStart) {
+        final Label[] parts = this.parts;
+        final Label[] otherParts = other.parts;
+        if (parts.length - start != otherParts.length - otherStart) {
+            return false;
+        }
+        for (int i = start, j = otherStart; i < parts.length; i ++, j ++) {
+            if (! parts[i].equals(otherParts[j])) {
+                return false;
             }
         }
+        return true;
     }
 
     public int hashCode() {
@@ -290,7 +389,7 @@ public class Domain implements Serializable {
     public Domain getParent() {
         final Label[] parts = this.parts;
         final int len = parts.length;
-        if (len == 0) {
+        if (len <= 1) {
             return ROOT;
         }
         final Label[] newParts = new Label[len - 1];
@@ -310,12 +409,43 @@ public class Domain implements Serializable {
         return new Domain(newParts);
     }
 
+    /**
+     * Get the domain which results from replacing a suffix of this domain with another domain.
+     *
+     * @param oldSuffix the suffix to remove, which this domain must be a strict subdomain of
+     * @param newSuffix the suffix to append in its place
+     * @return the resultant domain
+     * @throws IllegalArgumentException if this domain is not a strict subdomain of the old suffix, or if the resultant
+     *     domain would be longer than 255 bytes in wire format
+     */
+    public Domain replaceSuffix(Domain oldSuffix, Domain newSuffix) {
+        Assert.checkNotNullParam("oldSuffix", oldSuffix);
+        Assert.checkNotNullParam("newSuffix", newSuffix);
+        final Label[] parts = this.parts;
+        final int keep = parts.length - oldSuffix.parts.length;
+        if (keep <= 0 || ! isSubdomainOf(oldSuffix)) {
+            throw new IllegalArgumentException(this + " is not a subdomain of " + oldSuffix);
+        }
+        final Label[] suffixParts = newSuffix.parts;
+        final Label[] newParts = new Label[keep + suffixParts.length];
+        System.arraycopy(parts, 0, newParts, 0, keep);
+        System.arraycopy(suffixParts, 0, newParts, keep, suffixParts.length);
+        int wireLength = 1;
+        for (Label label : newParts) {
+            wireLength += label.length() + 1;
+        }
+        if (wireLength > 255) {
+            throw new IllegalArgumentException("Domain name is too long");
+        }
+        return new Domain(newParts);
+    }
+
     public boolean isSubdomainOf(Domain parent) {
         final Label[] parts = this.parts;
         final int len = parts.length;
         final Label[] parentParts = parent.parts;
         final int parentLen = parentParts.length;
-        if (len > parentLen) {
+        if (len < parentLen) {
             return false;
         } else if (len == parentLen) {
             return Arrays.equals(parts, parentParts);
@@ -351,6 +481,11 @@ public class Domain implements Serializable {
         return false;
     }
 
+    private static boolean isLabelStartChar(char ch) {
+        // underscored labels name services and attributes (RFC 8552)
+        return ch == '_' || isLabelEndChar(ch);
+    }
+
     private static boolean isLabelEndChar(char ch) {
         switch (ch) {
             case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
@@ -384,7 +519,7 @@ public class Domain implements Serializable {
             Assert.checkNotEmptyParam("charSequence", charSequence);
             final int len = charSequence.length();
             final byte[] bytes = new byte[len];
-            if (! isLabelEndChar(charSequence.charAt(0))) {
+            if (! (len == 1 ? isLabelEndChar(charSequence.charAt(0)) : isLabelStartChar(charSequence.charAt(0)))) {
                 throw new DomainParseException("Invalid label start character '" + charSequence.charAt(0) + "'", 0);
             }
             bytes[0] = (byte) toLowerCase(charSequence.charAt(0));
@@ -406,7 +541,7 @@ public class Domain implements Serializable {
             final byte[] bytes = new byte[length];
             for (int i = 0; i < bytes.length; i++) {
                 char ch = (char) buffer.get();
-                if (!(i == 0 || i == bytes.length - 1 ? isLabelEndChar(ch) : isLabelChar(ch))) {
+                if (!(i == bytes.length - 1 ? isLabelEndChar(ch) : i == 0 ? isLabelStartChar(ch) : isLabelChar(ch))) {
                     throw new DomainParseException("Invalid character '" + ch + "'", i);
                 }
                 bytes[i] = (byte) toLowerCase(ch);
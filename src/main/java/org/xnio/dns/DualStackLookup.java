@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+
+/**
+ * A concurrent lookup of the IPv6 and IPv4 addresses of a domain name, following RFC 8305 ("Happy Eyeballs").  The
+ * {@linkplain #getFirstAddresses() first addresses} are those of the first family to answer with addresses, except
+ * that an IPv4 answer is held back for a short resolution delay to give a pending IPv6 answer the chance to be
+ * used instead.
+ * <p>
+ * The futures are completed outside of the lock of the lookup, and their notifiers run on the executor given by the
+ * resolver, so a notifier may safely wait for the other future.
+ */
+public final class DualStackLookup {
+
+    /**
+     * The resolution delay in milliseconds (RFC 8305, section 3).
+     */
+    private static final long RESOLUTION_DELAY = 50L;
+
+    private final IoFuture<List<Inet6Address>> futureInet6;
+    private final IoFuture<List<Inet4Address>> futureInet4;
+    private final FutureResult<List<InetAddress>> first;
+    private final FutureResult<List<InetAddress>> all;
+
+    // these fields are protected by {@code this}
+    private List<Inet6Address> inet6;
+    private List<Inet4Address> inet4;
+    private IOException inet6Exception;
+    private IOException inet4Exception;
+    private IOException failure;
+    private boolean inet6Done;
+    private boolean inet4Done;
+    private ScheduledFuture<?> delayTask;
+    // the outcomes, which are decided under the lock but published outside of it
+    private List<InetAddress> firstResult;
+    private IOException firstException;
+    private List<InetAddress> allResult;
+    private IOException allException;
+
+    DualStackLookup(final IoFuture<List<Inet6Address>> futureInet6, final IoFuture<List<Inet4Address>> futureInet4, final Executor executor) {
+        this.futureInet6 = futureInet6;
+        this.futureInet4 = futureInet4;
+        first = new FutureResult<List<InetAddress>>(executor);
+        all = new FutureResult<List<InetAddress>>(executor);
+        first.addCancelHandler(futureInet6);
+        first.addCancelHandler(futureInet4);
+        all.addCancelHandler(futureInet6);
+        all.addCancelHandler(futureInet4);
+        // the lookups are converting futures which may fail on conversion, so check the result directly
+        futureInet6.addNotifier(new IoFuture.Notifier<List<Inet6Address>, Void>() {
+            public void notify(final IoFuture<? extends List<Inet6Address>> future, final Void attachment) {
+                List<Inet6Address> result = null;
+                IOException exception = null;
+                if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                    exception = new IOException("Operation was cancelled");
+                } else try {
+                    result = future.get();
+                } catch (IOException e) {
+                    exception = e;
+                }
+                inet6Complete(result, exception);
+            }
+        }, null);
+        futureInet4.addNotifier(new IoFuture.Notifier<List<Inet4Address>, Void>() {
+            public void notify(final IoFuture<? extends List<Inet4Address>> future, final Void attachment) {
+                List<Inet4Address> result = null;
+                IOException exception = null;
+                if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                    exception = new IOException("Operation was cancelled");
+                } else try {
+                    result = future.get();
+                } catch (IOException e) {
+                    exception = e;
+                }
+                inet4Complete(result, exception);
+            }
+        }, null);
+    }
+
+    /**
+     * Get the IPv6 addresses.
+     *
+     * @return the future list of IPv6 addresses
+     */
+    public IoFuture<List<Inet6Address>> getInet6Addresses() {
+        return futureInet6;
+    }
+
+    /**
+     * Get the IPv4 addresses.
+     *
+     * @return the future list of IPv4 addresses
+     */
+    public IoFuture<List<Inet4Address>> getInet4Addresses() {
+        return futureInet4;
+    }
+
+    /**
+     * Get the addresses of the first family to answer with addresses.  The list is empty if neither family has
+     * any addresses; the future fails only if both lookups fail.
+     *
+     * @return the future list of addresses of a single family
+     */
+    public IoFuture<List<InetAddress>> getFirstAddresses() {
+        return first.getIoFuture();
+    }
+
+    /**
+     * Get the addresses of both families, IPv6 first.  The future fails only if both lookups fail.
+     *
+     * @return the future list of all addresses
+     */
+    public IoFuture<List<InetAddress>> getAllAddresses() {
+        return all.getIoFuture();
+    }
+
+    void inet6Complete(final List<Inet6Address> result, final IOException exception) {
+        final ScheduledFuture<?> delayTask;
+        synchronized (this) {
+            inet6Done = true;
+            inet6 = result;
+            inet6Exception = exception;
+            delayTask = this.delayTask;
+            if (result != null && ! result.isEmpty()) {
+                setFirst(Collections.<InetAddress>unmodifiableList(result));
+            } else if (inet4Done) {
+                firstFromInet4();
+            }
+            if (inet4Done) {
+                complete();
+            }
+        }
+        if (delayTask != null) {
+            delayTask.cancel(false);
+        }
+        publish();
+    }
+
+    void inet4Complete(final List<Inet4Address> result, final IOException exception) {
+        synchronized (this) {
+            inet4Done = true;
+            inet4 = result;
+            inet4Exception = exception;
+            if (inet6Done) {
+                firstFromInet4();
+                complete();
+            } else if (result != null && ! result.isEmpty()) {
+                // give IPv6 a chance to answer
+                delayTask = DeadlineTimer.schedule(new Runnable() {
+                    public void run() {
+                        synchronized (DualStackLookup.this) {
+                            firstFromInet4();
+                        }
+                        publish();
+                    }
+                }, RESOLUTION_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+        publish();
+    }
+
+    private void firstFromInet4() {
+        assert Thread.holdsLock(this);
+        if (inet4 != null && ! inet4.isEmpty()) {
+            setFirst(Collections.<InetAddress>unmodifiableList(inet4));
+        } else if (inet6Done) {
+            if (inet4 == null && inet6 == null) {
+                if (firstResult == null) {
+                    firstException = bothFailed();
+                }
+            } else {
+                setFirst(Collections.<InetAddress>emptyList());
+            }
+        }
+    }
+
+    private void setFirst(final List<InetAddress> result) {
+        assert Thread.holdsLock(this);
+        if (firstResult == null && firstException == null) {
+            firstResult = result;
+        }
+    }
+
+    /**
+     * Complete the futures with the outcomes decided so far.  Completing a future twice has no effect.
+     */
+    private void publish() {
+        assert ! Thread.holdsLock(this);
+        final List<InetAddress> firstResult, allResult;
+        final IOException firstException, allException;
+        synchronized (this) {
+            firstResult = this.firstResult;
+            firstException = this.firstException;
+            allResult = this.allResult;
+            allException = this.allException;
+        }
+        if (firstResult != null) {
+            first.setResult(firstResult);
+        } else if (firstException != null) {
+            first.setException(firstException);
+        }
+        if (allResult != null) {
+            all.setResult(allResult);
+        } else if (allException != null) {
+            all.setException(allException);
+        }
+    }
+
+    /**
+     * Get the exception for the failure of both lookups, which is that of the IPv4 lookup with the IPv6 failure
+     * suppressed, unless only the IPv6 lookup actually failed rather than being cancelled.
+     */
+    private IOException bothFailed() {
+        assert Thread.holdsLock(this);
+        // computed once, as both futures may fail with it
+        if (failure == null) {
+            IOException secondary = inet6Exception;
+            if (futureInet4.getStatus() == IoFuture.Status.CANCELLED && futureInet6.getStatus() == IoFuture.Status.FAILED) {
+                failure = secondary;
+                secondary = inet4Exception;
+            } else {
+                failure = inet4Exception;
+            }
+            if (secondary != null && secondary != failure) {
+                failure.addSuppressed(secondary);
+            }
+        }
+        return failure;
+    }
+
+    private void complete() {
+        assert Thread.holdsLock(this);
+        if (inet4 == null && inet6 == null) {
+            allException = bothFailed();
+            return;
+        }
+        final List<InetAddress> list = new ArrayList<InetAddress>();
+        if (inet6 != null) list.addAll(inet6);
+        if (inet4 != null) list.addAll(inet4);
+        allResult = Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.HttpsRecord;
+import org.xnio.dns.record.SvcParams;
+
+/**
+ * A lookup of the {@link RRType#HTTPS} records of an origin concurrently with its IPv6 and IPv4 addresses
+ * ({@rfc 9460}).  The HTTPS records tell a client which protocols and ports the origin supports, and their address
+ * hints let it start connecting before the address lookups return: the {@linkplain #getFirstAddresses() first
+ * addresses} are the hints of the most preferred service record if the records arrive first, and otherwise those of
+ * the {@linkplain DualStackLookup#getFirstAddresses() first address family to answer}.  Alias mode records are
+ * reported but not followed.
+ * <p>
+ * As with {@link DualStackLookup}, the future is completed outside of the lock of the lookup and notifies its
+ * listeners on the executor given by the resolver.
+ */
+public final class HttpsLookup {
+
+    private final IoFuture<List<HttpsRecord>> futureRecords;
+    private final DualStackLookup addresses;
+    private final FutureResult<List<InetAddress>> first;
+
+    // these fields are protected by {@code this}
+    private boolean recordsDone;
+    private boolean addressesDone;
+    private List<InetAddress> addressList;
+    private IOException addressException;
+    // the outcome, which is decided under the lock but published outside of it
+    private List<InetAddress> firstResult;
+    private IOException firstException;
+
+    HttpsLookup(final IoFuture<List<HttpsRecord>> futureRecords, final DualStackLookup addresses, final Executor executor) {
+        this.futureRecords = futureRecords;
+        this.addresses = addresses;
+        first = new FutureResult<List<InetAddress>>(executor);
+        final IoFuture<List<InetAddress>> firstAddresses = addresses.getFirstAddresses();
+        first.addCancelHandler(futureRecords);
+        first.addCancelHandler(firstAddresses);
+        futureRecords.addNotifier(new IoFuture.Notifier<List<HttpsRecord>, Void>() {
+            public void notify(final IoFuture<? extends List<HttpsRecord>> future, final Void attachment) {
+                List<HttpsRecord> result = null;
+                if (future.getStatus() != IoFuture.Status.CANCELLED) try {
+                    result = future.get();
+                } catch (IOException ignored) {
+                }
+                recordsComplete(result);
+            }
+        }, null);
+        firstAddresses.addNotifier(new IoFuture.Notifier<List<InetAddress>, Void>() {
+            public void notify(final IoFuture<? extends List<InetAddress>> future, final Void attachment) {
+                List<InetAddress> result = null;
+                IOException exception = null;
+                if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                    exception = new IOException("Operation was cancelled");
+                } else try {
+                    result = future.get();
+                } catch (IOException e) {
+                    exception = e;
+                }
+                addressesComplete(result, exception);
+            }
+        }, null);
+    }
+
+    /**
+     * Get the HTTPS records, in order of priority.  The list is empty if the origin has none.
+     *
+     * @return the future list of records
+     */
+    public IoFuture<List<HttpsRecord>> getRecords() {
+        return futureRecords;
+    }
+
+    /**
+     * Get the address lookup.
+     *
+     * @return the address lookup
+     */
+    public DualStackLookup getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * Get the addresses to which to connect first.  The future fails only if the address lookups fail and there are no
+     * address hints.
+     *
+     * @return the future list of addresses
+     */
+    public IoFuture<List<InetAddress>> getFirstAddresses() {
+        return first.getIoFuture();
+    }
+
+    void recordsComplete(final List<HttpsRecord> result) {
+        final List<InetAddress> hints = result == null ? null : hints(result);
+        synchronized (this) {
+            recordsDone = true;
+            if (hints != null && ! hints.isEmpty()) {
+                setFirst(hints, null);
+            } else if (addressesDone) {
+                firstFromAddresses();
+            }
+        }
+        publish();
+    }
+
+    void addressesComplete(final List<InetAddress> result, final IOException exception) {
+        synchronized (this) {
+            addressesDone = true;
+            addressList = result;
+            addressException = exception;
+            if (recordsDone || result != null && ! result.isEmpty()) {
+                firstFromAddresses();
+            }
+        }
+        publish();
+    }
+
+    private void firstFromAddresses() {
+        assert Thread.holdsLock(this);
+        setFirst(addressList, addressList == null ? addressException : null);
+    }
+
+    private void setFirst(final List<InetAddress> result, final IOException exception) {
+        assert Thread.holdsLock(this);
+        if (firstResult == null && firstException == null) {
+            firstResult = result;
+            firstException = exception;
+        }
+    }
+
+    private void publish() {
+        assert ! Thread.holdsLock(this);
+        final List<InetAddress> firstResult;
+        final IOException firstException;
+        synchronized (this) {
+            firstResult = this.firstResult;
+            firstException = this.firstException;
+        }
+        if (firstResult != null) {
+            first.setResult(firstResult);
+        } else if (firstException != null) {
+            first.setException(firstException);
+        }
+    }
+
+    /**
+     * Get the address hints of the most preferred service mode record, IPv6 first.
+     *
+     * @param records the records in order of priority
+     * @return the hints
+     */
+    static List<InetAddress> hints(final List<HttpsRecord> records) {
+        for (HttpsRecord record : records) {
+            if (record.isAliasMode()) {
+                continue;
+            }
+            final SvcParams params = record.getParams();
+            final List<InetAddress> list = new ArrayList<InetAddress>();
+            list.addAll(params.getIpv6Hints());
+            list.addAll(params.getIpv4Hints());
+            return Collections.unmodifiableList(list);
+        }
+        return Collections.emptyList();
+    }
+}
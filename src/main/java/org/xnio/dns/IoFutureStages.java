@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import org.xnio.IoFuture;
+
+/**
+ * Adapters from {@link IoFuture} to {@link CompletableFuture}.
+ */
+final class IoFutureStages {
+
+    private IoFutureStages() {
+    }
+
+    /**
+     * Get a completable future which follows the given future.  A future which has already finished is converted
+     * on the calling thread; otherwise the completable future is completed by a notifier, which runs wherever the
+     * given future runs its notifiers.  Cancelling the completable future cancels the given future.
+     *
+     * @param future the future
+     * @param <T> the result type
+     * @return the completable future
+     */
+    static <T> CompletableFuture<T> toStage(final IoFuture<T> future) {
+        switch (future.getStatus()) {
+            case DONE: {
+                try {
+                    return CompletableFuture.completedFuture(future.get());
+                } catch (IOException e) {
+                    // not possible
+                    break;
+                }
+            }
+            case FAILED: {
+                final CompletableFuture<T> stage = new CompletableFuture<T>();
+                stage.completeExceptionally(future.getException());
+                return stage;
+            }
+            case CANCELLED: {
+                final CompletableFuture<T> stage = new CompletableFuture<T>();
+                stage.cancel(false);
+                return stage;
+            }
+        }
+        final CompletableFuture<T> stage = new CompletableFuture<T>() {
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                future.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        future.addNotifier(new IoFuture.Notifier<T, CompletableFuture<T>>() {
+            public void notify(final IoFuture<? extends T> ioFuture, final CompletableFuture<T> attachment) {
+                switch (ioFuture.getStatus()) {
+                    case DONE: {
+                        try {
+                            attachment.complete(ioFuture.get());
+                        } catch (IOException e) {
+                            attachment.completeExceptionally(e);
+                        }
+                        break;
+                    }
+                    case FAILED: {
+                        attachment.completeExceptionally(ioFuture.getException());
+                        break;
+                    }
+                    default: {
+                        attachment.completeExceptionally(new CancellationException());
+                        break;
+                    }
+                }
+            }
+        }, stage);
+        return stage;
+    }
+}
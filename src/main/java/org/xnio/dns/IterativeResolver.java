@@ -18,111 +18,471 @@
 
 package org.xnio.dns;
 
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
 import org.xnio.Bits;
 import org.xnio.IoFuture;
 import org.xnio.FinishedIoFuture;
 import org.xnio.FutureResult;
-import org.xnio.dns.record.NsRecord;
 import org.xnio.dns.record.ARecord;
 import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.CNameRecord;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 import java.net.InetAddress;
 
 /**
- * A resolver which queries servers iteratively until the complete answer is acquired.
+ * A resolver which queries servers iteratively until the complete answer is acquired.  The delegations learned from
+ * referrals are kept in an infrastructure cache, so that each resolution starts at the deepest zone cut known for the
+ * query name.  Resolution starts from the {@linkplain RootHints root hints} until a priming query has returned the
+ * current root name server set; the primed set is cached like any other delegation, and is primed again once it
+ * expires.
  */
 public final class IterativeResolver extends AbstractResolver {
 
+    private static final Logger log = Logger.getLogger("org.xnio.dns.resolver.iterative");
+
+    // todo configurable?
+    private static final int MAX_REFERRALS = 16;
+    private static final int MAX_DELEGATIONS = 4096;
+    private static final int MAX_SUB_QUERIES = 16;
+    private static final int MAX_GLUELESS_DEPTH = 3;
+    /** The maximum number of CNAMEs followed when looking up the address of a name server. */
+    private static final int MAX_GLUELESS_ALIASES = 8;
+
+    private static final Query PRIMING_QUERY = new Query(Domain.ROOT, RRClass.IN, RRType.NS, Query.Flag.NO_RECURSION);
+
     private final NetworkResolver networkResolver;
-    private final Resolver localResolver;
+    private final RootHints rootHints;
     private final Executor executor;
+    private final DelegationCache delegationCache = new DelegationCache(MAX_DELEGATIONS);
+    private final List<ConcurrentMap<Query, IoFuture<Answer>>> subQueries = new ArrayList<ConcurrentMap<Query, IoFuture<Answer>>>(MAX_GLUELESS_DEPTH);
+
+    private IoFuture<Answer> priming;
 
-    public IterativeResolver(final NetworkResolver networkResolver, final Resolver localResolver, final Executor executor) {
+    /**
+     * Construct a new instance which uses the built-in root hints.
+     *
+     * @param networkResolver the network resolver to use to contact name servers
+     * @param executor the executor to use for asynchronous notifications
+     */
+    public IterativeResolver(final NetworkResolver networkResolver, final Executor executor) {
+        this(networkResolver, RootHints.getDefault(), executor);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param networkResolver the network resolver to use to contact name servers
+     * @param rootHints the root hints to start resolution from
+     * @param executor the executor to use for asynchronous notifications
+     */
+    public IterativeResolver(final NetworkResolver networkResolver, final RootHints rootHints, final Executor executor) {
+        Assert.checkNotNullParam("networkResolver", networkResolver);
+        Assert.checkNotNullParam("rootHints", rootHints);
+        Assert.checkNotNullParam("executor", executor);
         this.networkResolver = networkResolver;
-        this.localResolver = localResolver;
+        this.rootHints = rootHints;
         this.executor = executor;
+        for (int i = 0; i < MAX_GLUELESS_DEPTH; i ++) {
+            subQueries.add(new ConcurrentHashMap<Query, IoFuture<Answer>>());
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected Executor getNotifierExecutor() {
+        return executor;
     }
 
     public IoFuture<Answer> resolve(final Query query) {
         final Domain name = query.getDomain();
-        final int rrClass = query.getRRClass();
-        final int rrType = query.getRRType();
         final int flags = query.getQueryFlags();
-        if (name.equals(Domain.ROOT) || Bits.allAreSet(flags, Query.Flag.NO_RECURSION)) {
+        if (Bits.allAreSet(flags, Query.Flag.NO_RECURSION)) {
             return new FinishedIoFuture<Answer>(
-                    Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.NXDOMAIN).create()
+                    Answer.builder().setHeaderInfo(name, query.getRRClass(), query.getRRType(), ResultCode.NXDOMAIN).create()
             );
         }
         final FutureResult<Answer> futureResult = new FutureResult<Answer>(executor);
-        final IoFuture<Answer> futureParentNs = localResolver.resolve(name.getParent(), RRClass.IN, RRType.NS);
-        futureParentNs.addNotifier(new IoFuture.HandlingNotifier<Answer, FutureResult<Answer>>() {
-            // todo configurable?
-            private final AtomicInteger ttl = new AtomicInteger(16);
+        DeadlineTimer.schedule(query, futureResult);
+        new Resolution(query, futureResult, 0, new AtomicInteger(MAX_SUB_QUERIES)).start();
+        return futureResult.getIoFuture();
+    }
 
-            public void handleCancelled(final FutureResult<Answer> result) {
-                result.setCancelled();
+    /**
+     * Prime the root name server set by sending a query for the root {@code NS} records to a randomly chosen hinted
+     * server.  If a priming query is already in progress, its future is returned.  Priming happens automatically
+     * whenever a resolution finds no unexpired root delegation, so calling this method is only needed to prime
+     * ahead of the first resolution.
+     *
+     * @return the future priming answer
+     */
+    public IoFuture<Answer> prime() {
+        IoFuture<Answer> priming;
+        synchronized (this) {
+            priming = this.priming;
+            if (priming != null) {
+                return priming;
+            }
+            final List<InetAddress> addresses = new ArrayList<InetAddress>();
+            for (List<InetAddress> list : rootHints.getDelegation().getServers().values()) {
+                addresses.addAll(list);
+            }
+            if (addresses.isEmpty()) {
+                return new FinishedIoFuture<Answer>(Answer.builder().setHeaderInfo(Domain.ROOT, RRClass.IN, RRType.NS, ResultCode.SERVER_FAILURE).create());
+            }
+            final InetAddress address = addresses.get(ThreadLocalRandom.current().nextInt(addresses.size()));
+            log.tracef("Priming root name servers from %s", address);
+            this.priming = priming = networkResolver.resolverFor(address).resolve(PRIMING_QUERY);
+        }
+        priming.addNotifier(new IoFuture.HandlingNotifier<Answer, Void>() {
+            public void handleCancelled(final Void attachment) {
+                finishPriming();
             }
 
-            public void handleFailed(final IOException exception, final FutureResult<Answer> result) {
-                result.setException(exception);
+            public void handleFailed(final IOException exception, final Void attachment) {
+                log.debugf(exception, "Priming query for root name servers failed");
+                finishPriming();
+            }
+
+            public void handleDone(final Answer answer, final Void attachment) {
+                final Delegation root = Delegation.create(Domain.ROOT, answer.getAnswerRecords(), answer.getAdditionalRecords(), Domain.ROOT);
+                if (answer.getResultCode() == ResultCode.NOERROR && root != null) {
+                    log.debugf("Primed %s", root);
+                    delegationCache.put(root);
+                } else {
+                    log.debugf("Priming query for root name servers returned no servers (%s)", ResultCode.toString(answer.getResultCode()));
+                }
+                finishPriming();
+            }
+        }, null);
+        return priming;
+    }
+
+    private synchronized void finishPriming() {
+        priming = null;
+    }
+
+    /**
+     * Start or join a sub-query for the address of a name server.  Sub-queries are only joined at the same depth, so
+     * a sub-query never waits on one which is (transitively) waiting on it.
+     *
+     * @param query the sub-query
+     * @param depth the depth of the sub-query, starting at 1
+     * @param budget the remaining sub-query budget of the top-level resolution
+     * @return the future answer, or {@code null} if the budget is exhausted
+     */
+    IoFuture<Answer> subQuery(final Query query, final int depth, final AtomicInteger budget) {
+        final ConcurrentMap<Query, IoFuture<Answer>> inFlight = subQueries.get(depth - 1);
+        IoFuture<Answer> future = inFlight.get(query);
+        if (future != null) {
+            return future;
+        }
+        if (budget.getAndDecrement() <= 0) {
+            return null;
+        }
+        final FutureResult<Answer> futureResult = new FutureResult<Answer>(executor);
+        final IoFuture<Answer> ioFuture = futureResult.getIoFuture();
+        future = inFlight.putIfAbsent(query, ioFuture);
+        if (future != null) {
+            return future;
+        }
+        ioFuture.addNotifier(new IoFuture.Notifier<Answer, Query>() {
+            public void notify(final IoFuture<? extends Answer> future, final Query query) {
+                inFlight.remove(query, future);
+            }
+        }, query);
+        log.tracef("Starting sub-query %s", query);
+        DeadlineTimer.schedule(query, futureResult);
+        new Resolution(query, futureResult, depth, budget).start();
+        return ioFuture;
+    }
+
+    /**
+     * The state of a single iterative resolution.
+     */
+    private final class Resolution {
+        private final Query query;
+        private final Query serverQuery;
+        private final FutureResult<Answer> result;
+        private final int depth;
+        private final AtomicInteger budget;
+        private int referralsLeft = MAX_REFERRALS;
+
+        Resolution(final Query query, final FutureResult<Answer> result, final int depth, final AtomicInteger budget) {
+            this.query = query;
+            serverQuery = query.withFlags(query.getQueryFlags() | Query.Flag.NO_RECURSION);
+            this.result = result;
+            this.depth = depth;
+            this.budget = budget;
+        }
+
+        void start() {
+            Delegation delegation = delegationCache.findClosest(query.getDomain());
+            if (delegation == null) {
+                // no unexpired root delegation; use the hints for now
+                prime();
+                delegation = rootHints.getDelegation();
+            }
+            queryServers(delegation);
+        }
+
+        /**
+         * Send the query to the name servers of the given delegation.  Servers with known addresses are tried in
+         * turn; if none answers, the addresses of the remaining servers are resolved.
+         *
+         * @param delegation the delegation
+         */
+        void queryServers(final Delegation delegation) {
+            final List<InetAddress> addresses = new ArrayList<InetAddress>();
+            final List<Domain> glueless = new ArrayList<Domain>();
+            for (Map.Entry<Domain, List<InetAddress>> entry : delegation.getServers().entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    glueless.add(entry.getKey());
+                } else {
+                    addresses.addAll(entry.getValue());
+                }
+            }
+            queryAddresses(delegation, addresses.iterator(), glueless.isEmpty() ? null : new GluelessLookup(delegation, glueless));
+        }
+
+        /**
+         * Send the query to each of the given addresses in turn until one answers.
+         *
+         * @param delegation the delegation
+         * @param addresses the addresses to try
+         * @param glueless the lookup of servers without glue to fall back on, or {@code null} if there are none
+         */
+        void queryAddresses(final Delegation delegation, final Iterator<InetAddress> addresses, final GluelessLookup glueless) {
+            if (! addresses.hasNext()) {
+                if (glueless == null) {
+                    log.tracef("No more servers to try for %s", delegation);
+                    fail(ResultCode.SERVER_FAILURE);
+                } else {
+                    glueless.next();
+                }
+                return;
+            }
+            if (query.isExpired()) {
+                result.setException(DeadlineTimer.deadlineExceeded(query));
+                return;
+            }
+            if (query.getBudget().getRemaining() == 0) {
+                log.tracef("Upstream query budget exhausted resolving %s", query);
+                fail(ResultCode.SERVER_FAILURE);
+                return;
             }
+            final InetAddress address = addresses.next();
+            final IoFuture<Answer> futureAnswer = networkResolver.resolverFor(address).resolve(serverQuery);
+            result.addCancelHandler(futureAnswer);
+            futureAnswer.addNotifier(new ResultNotifier<InetAddress>() {
+                public void handleFailed(final IOException exception, final InetAddress address) {
+                    log.tracef(exception, "Query to %s failed", address);
+                    queryAddresses(delegation, addresses, glueless);
+                }
 
-            public void handleDone(final Answer answer, final FutureResult<Answer> result) {
-                if (answer.getResultCode() != ResultCode.NOERROR) {
-                    result.setResult(answer);
-                    return;
+                public void handleDone(final Answer answer, final InetAddress address) {
+                    switch (answer.getResultCode()) {
+                        case ResultCode.FORMAT_ERROR:
+                        case ResultCode.SERVER_FAILURE:
+                        case ResultCode.NOT_IMPLEMENTED:
+                        case ResultCode.REFUSED: {
+                            log.tracef("Server %s returned %s", address, ResultCode.toString(answer.getResultCode()));
+                            queryAddresses(delegation, addresses, glueless);
+                            return;
+                        }
+                    }
+                    handleResponse(delegation, answer);
                 }
-                if (ttl.decrementAndGet() == 0) {
-                    result.setResult(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.SERVER_FAILURE).create());
+            }, address);
+        }
+
+        /**
+         * The lookup of the addresses of the name servers of a delegation for which no glue was given.  The IPv4 and
+         * IPv6 addresses of all servers are looked up concurrently once the servers with glue have all failed, and the
+         * addresses are tried as they arrive until a server answers or none remain.
+         */
+        final class GluelessLookup {
+            private final Delegation delegation;
+            private final List<Domain> servers;
+            // these fields are protected by {@code this}
+            private final List<InetAddress> ready = new ArrayList<InetAddress>();
+            /** The delegation with the addresses of every glueless server resolved so far. */
+            private Delegation resolved;
+            private boolean started;
+            private boolean waiting;
+            private int pending;
+
+            GluelessLookup(final Delegation delegation, final List<Domain> servers) {
+                this.delegation = delegation;
+                this.servers = servers;
+                resolved = delegation;
+            }
+
+            /**
+             * Query the next addresses which have been found, or wait for more.
+             */
+            void next() {
+                final boolean start;
+                synchronized (this) {
+                    start = ! started;
+                    started = true;
+                    // hold off completion until every lookup has been started
+                    if (start) pending ++;
                 }
-                final List<Record> answerRecords = answer.getAnswerRecords();
-                if (answerRecords.isEmpty()) {
-                    // iteration needed...
-                    final List<Record> additionalRecords = answer.getAdditionalRecords();
-                    final Map<Domain, InetAddress> possibleServers = new HashMap<Domain, InetAddress>();
-                    for (Record record : additionalRecords) {
-                        if (record instanceof ARecord) {
-                            possibleServers.put(record.getName(), ((ARecord)record).getAddress());
-                        } else if (record instanceof AaaaRecord) {
-                            possibleServers.put(record.getName(), ((AaaaRecord)record).getAddress());
+                if (start && depth < MAX_GLUELESS_DEPTH) {
+                    for (Domain server : servers) {
+                        if (server.isSubdomainOf(delegation.getZone())) {
+                            // an in-bailiwick server cannot be resolved without glue
+                            continue;
+                        }
+                        if (! lookUp(server, server, RRType.A, 0) || ! lookUp(server, server, RRType.AAAA, 0)) {
+                            log.tracef("Sub-query budget exhausted resolving %s", query);
+                            break;
                         }
                     }
-                    final List<InetAddress> serversToTry = new ArrayList<InetAddress>();
-                    for (Record record : answer.getAuthorityRecords()) {
-                        if (record instanceof NsRecord) {
-                            final NsRecord nsRecord = (NsRecord) record;
-                            if (name.isSubdomainOf(record.getName())) {
-                                // try that server next!
-                                final Domain server = nsRecord.getServer();
-                                // but first, get the IP...
-                                final InetAddress address = possibleServers.get(server);
-                                if (address != null) {
-                                    serversToTry.add(address);
-                                }
+                }
+                final List<InetAddress> addresses;
+                synchronized (this) {
+                    if (start) pending --;
+                    if (ready.isEmpty()) {
+                        if (pending == 0) {
+                            addresses = null;
+                        } else {
+                            waiting = true;
+                            return;
+                        }
+                    } else {
+                        addresses = new ArrayList<InetAddress>(ready);
+                        ready.clear();
+                    }
+                }
+                if (addresses == null) {
+                    log.tracef("No glueless server of %s could be used", delegation.getZone());
+                    fail(ResultCode.SERVER_FAILURE);
+                } else {
+                    queryAddresses(delegation, addresses.iterator(), this);
+                }
+            }
+
+            /**
+             * Look up the addresses of a server name.
+             *
+             * @param server the server
+             * @param name the name to look up, which differs from the server name after a CNAME
+             * @param rrType the address type
+             * @param aliases the number of CNAMEs followed so far
+             * @return {@code false} if the sub-query budget is exhausted
+             */
+            boolean lookUp(final Domain server, final Domain name, final int rrType, final int aliases) {
+                final IoFuture<Answer> futureAddress = subQuery(query.subQuery(name, RRClass.IN, rrType, 0), depth + 1, budget);
+                if (futureAddress == null) {
+                    return false;
+                }
+                synchronized (this) {
+                    pending ++;
+                }
+                futureAddress.addNotifier(new IoFuture.HandlingNotifier<Answer, Domain>() {
+                    public void handleDone(final Answer answer, final Domain server) {
+                        final List<InetAddress> addresses = new ArrayList<InetAddress>();
+                        Domain target = name;
+                        for (Record record : answer.getAnswerRecords()) {
+                            if (record instanceof ARecord) {
+                                addresses.add(((ARecord) record).getAddress());
+                            } else if (record instanceof AaaaRecord) {
+                                addresses.add(((AaaaRecord) record).getAddress());
+                            } else if (record instanceof CNameRecord && record.getName().equals(target)) {
+                                target = ((CNameRecord) record).getCname();
                             }
                         }
+                        if (addresses.isEmpty() && ! target.equals(name) && aliases < MAX_GLUELESS_ALIASES) {
+                            // the answer ended at an alias whose target must be looked up separately
+                            lookUp(server, target, rrType, aliases + 1);
+                        }
+                        finished(server, addresses, answer.getEol());
                     }
-                    if (serversToTry.isEmpty()) {
-                        result.setResult(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.SERVER_FAILURE).create());
+
+                    public void handleFailed(final IOException exception, final Domain server) {
+                        finished(server, Collections.<InetAddress>emptyList(), 0L);
+                    }
+
+                    public void handleCancelled(final Domain server) {
+                        finished(server, Collections.<InetAddress>emptyList(), 0L);
+                    }
+                }, server);
+                return true;
+            }
+
+            void finished(final Domain server, final List<InetAddress> addresses, final long eol) {
+                final List<InetAddress> resume;
+                synchronized (this) {
+                    pending --;
+                    if (! addresses.isEmpty()) {
+                        log.tracef("Resolved glueless server %s of %s", server, delegation.getZone());
+                        // the A and AAAA lookups of a server each add to its list
+                        final List<InetAddress> list = new ArrayList<InetAddress>(resolved.getServers().get(server));
+                        list.addAll(addresses);
+                        resolved = resolved.withAddresses(server, list, eol);
+                        delegationCache.put(resolved);
+                        ready.addAll(addresses);
                     }
-                    // todo - use first server, but we should have a better algo
-                    final Resolver resolver = networkResolver.resolverFor(serversToTry.get(0));
-                    final IoFuture<Answer> recursion = resolver.resolve(name, rrClass, rrType);
-                    recursion.addNotifier(this, result);
-                    result.addCancelHandler(recursion);
+                    if (! waiting || ready.isEmpty() && pending > 0) {
+                        return;
+                    }
+                    waiting = false;
+                    resume = new ArrayList<InetAddress>(ready);
+                    ready.clear();
+                }
+                if (resume.isEmpty()) {
+                    log.tracef("No glueless server of %s could be used", delegation.getZone());
+                    fail(ResultCode.SERVER_FAILURE);
                 } else {
-                    // got an answer!
-                    result.setResult(answer);
+                    queryAddresses(delegation, resume.iterator(), this);
                 }
             }
-        }, futureResult);
-        futureResult.addCancelHandler(futureParentNs);
-        return futureResult.getIoFuture();
+        }
+
+        void handleResponse(final Delegation delegation, final Answer answer) {
+            if (answer.getResultCode() != ResultCode.NOERROR || ! answer.getAnswerRecords().isEmpty()) {
+                // got an answer!
+                result.setResult(answer);
+                return;
+            }
+            final Delegation referral = Delegation.findReferral(answer, query.getDomain(), delegation.getZone());
+            if (referral == null) {
+                // no data for this name and type
+                result.setResult(answer);
+                return;
+            }
+            log.tracef("Following referral to %s", referral);
+            delegationCache.put(referral);
+            if (-- referralsLeft == 0) {
+                fail(ResultCode.SERVER_FAILURE);
+                return;
+            }
+            queryServers(referral);
+        }
+
+        void fail(final int resultCode) {
+            result.setResult(Answer.builder().setHeaderInfo(query.getDomain(), query.getRRClass(), query.getRRType(), resultCode).create());
+        }
+
+        abstract class ResultNotifier<A> extends IoFuture.HandlingNotifier<Answer, A> {
+            public void handleCancelled(final A attachment) {
+                DeadlineTimer.cancelled(query, result);
+            }
+
+            public void handleFailed(final IOException exception, final A attachment) {
+                result.setException(exception);
+            }
+        }
     }
 }
@@ -18,15 +18,22 @@
 
 package org.xnio.dns;
 
+import org.wildfly.common.Assert;
 import org.xnio.IoFuture;
 import org.xnio.FinishedIoFuture;
 import org.xnio.FutureResult;
 import org.xnio.dns.record.PtrRecord;
 import org.xnio.dns.record.ARecord;
 import org.xnio.dns.record.AaaaRecord;
-import java.util.Set;
-import java.util.EnumSet;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.net.Inet4Address;
@@ -38,7 +45,11 @@ import java.net.Inet6Address;
  */
 public final class JDKResolver extends AbstractResolver {
 
+    // set while a thread looks a name up through the JDK, whose own resolver may be routed back into a resolver chain
+    private static final ThreadLocal<Boolean> jdkLookup = new ThreadLocal<Boolean>();
+
     private final Executor queryExecutor;
+    private final Map<Domain, Lookup> inFlight = new HashMap<Domain, Lookup>();
 
     /**
      * Construct a new instance.
@@ -46,54 +57,158 @@ public final class JDKResolver extends AbstractResolver {
      * @param queryExecutor the executor to use to execute asynchronous queries
      */
     public JDKResolver(final Executor queryExecutor) {
+        Assert.checkNotNullParam("queryExecutor", queryExecutor);
         this.queryExecutor = queryExecutor;
     }
 
-    /** {@inheritDoc} */
-    public IoFuture<Answer> resolve(final Domain name, final int rrClass, final int rrType, final Set<Query.Flag> flags) {
-        if (rrClass != RRClass.ANY && rrClass != RRClass.IN || rrType != RRType.ANY && rrType != RRType.A && rrType != RRType.AAAA) {
+    /**
+     * Create a new instance which runs each lookup on its own virtual thread, so that any number of concurrent
+     * lookups can block without a large platform thread pool.
+     *
+     * @return the new instance
+     * @throws UnsupportedOperationException if this JVM does not support virtual threads
+     */
+    public static JDKResolver createWithVirtualThreads() throws UnsupportedOperationException {
+        return new JDKResolver(newVirtualThreadExecutor());
+    }
+
+    static Executor newVirtualThreadExecutor() throws UnsupportedOperationException {
+        // looked up reflectively so that this class still loads on JVMs without virtual threads
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e.getCause());
+        }
+    }
+
+    /** {@inheritDoc}  Concurrent queries for the same name share a single blocking lookup. */
+    public IoFuture<Answer> resolve(final Query query) {
+        final Domain name = query.getDomain();
+        final int rrClass = query.getRRClass();
+        final int rrType = query.getRRType();
+        final boolean reverse = name.isReverseArpa();
+        if (rrClass != RRClass.ANY && rrClass != RRClass.IN || (reverse ? rrType != RRType.ANY && rrType != RRType.PTR : rrType != RRType.ANY && rrType != RRType.A && rrType != RRType.AAAA)) {
             return new FinishedIoFuture<Answer>(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.NOERROR).create());
         }
-        final Answer.Builder builder = Answer.builder();
-        builder.setHeaderInfo(name, rrClass, rrType, ResultCode.UNKNOWN);
         final FutureResult<Answer> answerManager = new FutureResult<Answer>();
-        queryExecutor.execute(new QueryTask(answerManager, builder, name));
+        final Waiter waiter = new Waiter(answerManager, rrClass, rrType);
+        final Lookup lookup;
+        synchronized (inFlight) {
+            final Lookup existing = inFlight.get(name);
+            if (existing != null) {
+                existing.waiters.add(waiter);
+                return answerManager.getIoFuture();
+            }
+            lookup = new Lookup(name);
+            lookup.waiters.add(waiter);
+            inFlight.put(name, lookup);
+        }
+        try {
+            queryExecutor.execute(lookup);
+        } catch (RejectedExecutionException e) {
+            lookup.complete(ResultCode.SERVER_FAILURE, Collections.<Record>emptyList());
+        }
         return answerManager.getIoFuture();
     }
 
-    private static class QueryTask implements Runnable {
+    /**
+     * Determine whether the current thread is looking a name up through the JDK on behalf of a resolver.  A JDK name
+     * service which routes lookups into a resolver must use its built-in resolver on such a thread, because the lookup
+     * would otherwise wait on itself.
+     *
+     * @return {@code true} if the current thread is in a JDK lookup
+     */
+    static boolean isJdkLookupThread() {
+        return jdkLookup.get() != null;
+    }
 
-        private final FutureResult<Answer> answerManager;
-        private final Answer.Builder builder;
-        private final Domain name;
+    static final class Waiter {
+        final FutureResult<Answer> answerManager;
+        final int rrClass;
+        final int rrType;
 
-        public QueryTask(final FutureResult<Answer> answerManager, final Answer.Builder builder, final Domain name) {
+        Waiter(final FutureResult<Answer> answerManager, final int rrClass, final int rrType) {
             this.answerManager = answerManager;
-            this.builder = builder;
+            this.rrClass = rrClass;
+            this.rrType = rrType;
+        }
+    }
+
+    /**
+     * A blocking lookup of one name, shared by every query for that name which arrives while it is in flight.  The
+     * lookup fetches all the addresses of the name, and each waiter receives those of the type it asked for.
+     */
+    final class Lookup implements Runnable {
+
+        private final Domain name;
+        // protected by {@code inFlight} until the lookup is removed from it
+        final List<Waiter> waiters = new ArrayList<Waiter>(2);
+
+        Lookup(final Domain name) {
             this.name = name;
         }
 
         public void run() {
+            jdkLookup.set(Boolean.TRUE);
+            try {
+                lookUp();
+            } finally {
+                jdkLookup.remove();
+            }
+        }
+
+        private void lookUp() {
+            final List<Record> records = new ArrayList<Record>();
+            int resultCode;
             if (name.isReverseArpa()) {
                 try {
-                    builder.addAnswerRecord(new PtrRecord(name, Domain.fromString(InetAddress.getByAddress(name.getReverseArpaBytes()).getHostAddress())));
+                    final InetAddress address = InetAddress.getByAddress(name.getReverseArpaBytes());
+                    final String hostName = address.getCanonicalHostName();
+                    // the JDK returns the literal address if there is no name
+                    if (! hostName.equals(address.getHostAddress())) {
+                        records.add(new PtrRecord(name, Domain.fromString(hostName)));
+                    }
+                    resultCode = ResultCode.NOERROR;
                 } catch (UnknownHostException e) {
+                    resultCode = ResultCode.NXDOMAIN;
                 } catch (IllegalArgumentException e) {
+                    resultCode = ResultCode.FORMAT_ERROR;
                 }
             } else {
                 try {
                     for (InetAddress address : InetAddress.getAllByName(name.getHostName())) {
                         if (address instanceof Inet4Address) {
-                            builder.addAnswerRecord(new ARecord(name, (Inet4Address) address));
+                            records.add(new ARecord(name, (Inet4Address) address));
                         } else if (address instanceof Inet6Address) {
-                            builder.addAnswerRecord(new AaaaRecord(name, (Inet6Address) address));
+                            records.add(new AaaaRecord(name, (Inet6Address) address));
                         }
                         // else ignore
                     }
+                    resultCode = ResultCode.NOERROR;
                 } catch (UnknownHostException e) {
+                    resultCode = ResultCode.NXDOMAIN;
+                }
+            }
+            complete(resultCode, records);
+        }
+
+        void complete(final int resultCode, final List<Record> records) {
+            synchronized (inFlight) {
+                inFlight.remove(name);
+            }
+            // no more waiters can be added now
+            for (Waiter waiter : waiters) {
+                final Answer.Builder builder = Answer.builder();
+                builder.setHeaderInfo(name, waiter.rrClass, waiter.rrType, resultCode);
+                for (Record record : records) {
+                    if (waiter.rrType == RRType.ANY || waiter.rrType == record.getRrType()) {
+                        builder.addAnswerRecord(record);
+                    }
                 }
+                waiter.answerManager.setResult(builder.create());
             }
-            answerManager.setResult(builder.create());
         }
     }
 }
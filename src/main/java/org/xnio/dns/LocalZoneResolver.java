@@ -18,90 +18,150 @@
 
 package org.xnio.dns;
 
+import org.wildfly.common.Assert;
 import org.xnio.IoFuture;
 import org.xnio.FinishedIoFuture;
-import org.xnio.dns.record.SoaRecord;
-import java.util.Set;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.NsRecord;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * A resolver which answers authoritatively from a set of local zones.  Queries for names outside of the local zones
+ * are passed to the next resolver; to answer only for the local zones, use an {@link EmptyResolver} which returns
+ * {@link ResultCode#REFUSED}.
+ */
 public final class LocalZoneResolver extends AbstractResolver {
 
+    private static final int MAX_CNAME_CHAIN = 8;
+
     private final Resolver nextResolver;
     private volatile Map<Domain, Zone> allZones = Collections.emptyMap();
 
+    /**
+     * Construct a new instance.
+     *
+     * @param nextResolver the resolver for names outside of the local zones
+     */
     public LocalZoneResolver(final Resolver nextResolver) {
+        Assert.checkNotNullParam("nextResolver", nextResolver);
         this.nextResolver = nextResolver;
     }
 
-    public IoFuture<Answer> resolve(final Domain name, final int rrClass, final int rrType, final Set<Query.Flag> flags) {
-        // search the local zones first
+    /**
+     * Add a zone, replacing any zone with the same origin.
+     *
+     * @param zone the zone
+     */
+    public void addZone(Zone zone) {
+        Assert.checkNotNullParam("zone", zone);
+        synchronized (this) {
+            final Map<Domain, Zone> newZones = new HashMap<Domain, Zone>(allZones);
+            newZones.put(zone.getOrigin(), zone);
+            allZones = Collections.unmodifiableMap(newZones);
+        }
+    }
+
+    /**
+     * Remove a zone.
+     *
+     * @param origin the zone origin
+     * @return the removed zone, or {@code null} if there was none
+     */
+    public Zone removeZone(Domain origin) {
+        Assert.checkNotNullParam("origin", origin);
+        synchronized (this) {
+            if (! allZones.containsKey(origin)) {
+                return null;
+            }
+            final Map<Domain, Zone> newZones = new HashMap<Domain, Zone>(allZones);
+            final Zone zone = newZones.remove(origin);
+            allZones = Collections.unmodifiableMap(newZones);
+            return zone;
+        }
+    }
+
+    /**
+     * Get the zone which contains the given name.
+     *
+     * @param name the domain name
+     * @return the zone with the longest matching origin, or {@code null} if the name is not in a local zone
+     */
+    public Zone findZone(Domain name) {
         final Map<Domain, Zone> allZones = this.allZones;
-        Zone zone = null;
-        for (Domain search = name; search != Domain.ROOT; search = search.getParent()) {
-            zone = allZones.get(name);
+        for (Domain search = name; search != null; search = search.getParent()) {
+            final Zone zone = allZones.get(search);
             if (zone != null) {
-                break;
+                return zone;
             }
         }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public IoFuture<Answer> resolve(final Query query) {
+        // search the local zones first
+        final Zone zone = findZone(query.getDomain());
         if (zone == null) {
-            return nextResolver.resolve(name, rrClass, rrType, flags);
+            return nextResolver.resolve(query);
         }
-        final Map<int, List<Record>> entries = zone.getInfo().get(name);
-        if (entries != null) {
-            // zone contains data for this question
-            // next, if the question is answered, return it; else return the authority (the NS records or our SOA) in the authority section
-            final Answer.Builder builder = Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.NOERROR);
-            boolean answered = false;
-            if (rrType == RRType.ANY) {
-                for (List<Record> records : entries.values()) {
-                    for (Record record : records) {
-                        if (rrClass == RRClass.ANY || rrClass == record.getRrClass()) {
-                            builder.addAnswerRecord(record);
-                            answered = true;
+        return new FinishedIoFuture<Answer>(answer(zone, query.getDomain(), query.getRRClass(), query.getRRType()));
+    }
+
+    private static Answer answer(final Zone zone, final Domain name, final int rrClass, final int rrType) {
+        final Answer.Builder builder = Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.NOERROR);
+        // a zone cut between the origin and the name means that the name is not ours; refer to the child zone
+        final Domain origin = zone.getOrigin();
+        for (Domain search = name; ! search.equals(origin); search = search.getParent()) {
+            final List<Record> nsRecords = zone.getRecords(search, RRType.NS, rrClass);
+            if (! nsRecords.isEmpty()) {
+                for (Record record : nsRecords) {
+                    builder.addAuthorityRecord(record);
+                    final Domain server = ((NsRecord) record).getServer();
+                    if (server.isSubdomainOf(search)) {
+                        // glue
+                        for (Record glue : zone.getRecords(server, RRType.A, rrClass)) {
+                            builder.addAdditionalRecord(glue);
+                        }
+                        for (Record glue : zone.getRecords(server, RRType.AAAA, rrClass)) {
+                            builder.addAdditionalRecord(glue);
                         }
                     }
                 }
-            } else {
-                final List<Record> records = entries.get(rrType);
-                if (records != null) for (Record record : records) {
-                    if (rrClass == RRClass.ANY || rrClass == record.getRrClass()) {
-                        builder.addAnswerRecord(record);
-                        answered = true;
-                    }
-                }
-            }
-            if (! answered) {
-                final List<Record> records = entries.get(int.NS);
-                if (records != null) {
-                    
-                } else {
-                    builder.addAuthorityRecord(zone.getSoa());
-                }
+                return builder.create();
             }
-            return new FinishedIoFuture<Answer>(builder.create());
-        } else {
-            // return our authority + NXDOMAIN
-            return new FinishedIoFuture<Answer>(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.NXDOMAIN).addAuthorityRecord(zone.getSoa()).create());
         }
-    }
-
-    private static final class Zone {
-        private final SoaRecord zoneSoa;
-        private final Map<Domain, Map<int, List<Record>>> info;
-
-        private Zone(final SoaRecord zoneSoa, final Map<Domain, Map<int, List<Record>>> info) {
-            this.zoneSoa = zoneSoa;
-            this.info = info;
+        builder.addFlag(Answer.Flag.AUTHORITATIVE);
+        if (! zone.containsName(name)) {
+            return builder.setResultCode(ResultCode.NXDOMAIN).addAuthorityRecord(zone.getSoaRecord()).create();
         }
-
-        public SoaRecord getSoa() {
-            return zoneSoa;
+        Domain current = name;
+        for (int i = 0; i < MAX_CNAME_CHAIN; i ++) {
+            final List<Record> records = zone.getRecords(current, rrType, rrClass);
+            if (! records.isEmpty()) {
+                for (Record record : records) {
+                    builder.addAnswerRecord(record);
+                }
+                return builder.create();
+            }
+            final List<Record> cnameRecords = rrType == RRType.CNAME ? Collections.<Record>emptyList() : zone.getRecords(current, RRType.CNAME, rrClass);
+            if (cnameRecords.isEmpty()) {
+                break;
+            }
+            final Record cnameRecord = cnameRecords.get(0);
+            builder.addAnswerRecord(cnameRecord);
+            current = ((CNameRecord) cnameRecord).getCname();
+            if (! current.isSubdomainOf(origin) || ! zone.containsName(current)) {
+                // the rest of the chain is for the client to follow
+                return builder.create();
+            }
         }
-
-        public Map<Domain, Map<int, List<Record>>> getInfo() {
-            return info;
+        if (current == name) {
+            // no data
+            builder.addAuthorityRecord(zone.getSoaRecord());
         }
+        return builder.create();
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The encoder for DNS response messages in wire format.  Names are compressed.
+ */
+final class MessageEncoder {
+
+    static final int HEADER_LENGTH = 12;
+
+    static final int FLAG_QR = 1 << 15;
+    static final int OPCODE_MASK = 0xf << 11;
+    static final int FLAG_AA = 1 << 10;
+    static final int FLAG_TC = 1 << 9;
+    static final int FLAG_RD = 1 << 8;
+    static final int FLAG_RA = 1 << 7;
+    static final int RCODE_MASK = 0xf;
+
+    static final int RR_TYPE_OPT = 41;
+    static final int EDNS_FLAG_DO = 1 << 15;
+    static final int OPT_RECORD_LENGTH = 11;
+
+    /** The largest UDP response for a client which does not use EDNS. */
+    static final int MAX_UDP_PAYLOAD = 512;
+    /** The largest UDP response we send to a client which uses EDNS, to avoid fragmentation. */
+    static final int EDNS_UDP_PAYLOAD = 1232;
+    static final int MAX_TCP_PAYLOAD = 0xffff;
+
+    private MessageEncoder() {
+    }
+
+    /**
+     * Write a response message.  The message is written from the current position of the buffer and may not extend
+     * past its limit; records which do not fit are left out and the response is marked as truncated if any answer or
+     * authority record was left out.
+     *
+     * @param buffer the target buffer
+     * @param context the compression context, which is reset for this message
+     * @param id the request ID
+     * @param requestFlags the request header flags
+     * @param question the question section of the request, which is copied verbatim so that the case of the name
+     *      is preserved, or {@code null} for none
+     * @param questionName the name in the question section, or {@code null} for none
+     * @param answer the answer
+     * @param recursionAvailable {@code true} to set the RA flag
+     * @param edns {@code true} to add an OPT record, which should be done only if the request had one
+     * @param ednsFlags the EDNS flags to send, such as {@link #EDNS_FLAG_DO}
+     */
+    static void writeResponse(final ByteBuffer buffer, final CompressionContext context, final int id, final int requestFlags, final ByteBuffer question, final Domain questionName, final Answer answer, final boolean recursionAvailable, final boolean edns, final int ednsFlags) {
+        final int start = buffer.position();
+        int flags = FLAG_QR | requestFlags & (OPCODE_MASK | FLAG_RD) | answer.getResultCode() & RCODE_MASK;
+        if ((answer.getFlags() & Answer.Flag.AUTHORITATIVE) != 0) flags |= FLAG_AA;
+        if (recursionAvailable) flags |= FLAG_RA;
+        writeHeader(buffer, id, flags, question);
+        context.reset(start);
+        // later names may point into the question, but only if it was not itself compressed
+        if (questionName != null && question.remaining() == questionName.getWireLength() + 4) {
+            context.add(questionName, start + HEADER_LENGTH);
+        }
+        final int limit = buffer.limit();
+        if (edns) {
+            buffer.limit(limit - OPT_RECORD_LENGTH);
+        }
+        final int ancount = writeRecords(buffer, context, answer.getAnswerRecords());
+        final int nscount = ancount < answer.getAnswerRecords().size() ? 0 : writeRecords(buffer, context, answer.getAuthorityRecords());
+        if (ancount < answer.getAnswerRecords().size() || nscount < answer.getAuthorityRecords().size()) {
+            flags |= FLAG_TC;
+            buffer.putShort(start + 2, (short) flags);
+        }
+        // a partial additional section does not make the response truncated (RFC 2181 section 9)
+        final int arcount = (flags & FLAG_TC) != 0 ? 0 : writeRecords(buffer, context, answer.getAdditionalRecords());
+        buffer.limit(limit);
+        buffer.putShort(start + 6, (short) ancount);
+        buffer.putShort(start + 8, (short) nscount);
+        buffer.putShort(start + 10, (short) (arcount + (edns ? 1 : 0)));
+        if (edns) {
+            writeOpt(buffer, ednsFlags);
+        }
+    }
+
+    /**
+     * Write a response with no records.
+     *
+     * @param buffer the target buffer
+     * @param id the request ID
+     * @param requestFlags the request header flags
+     * @param question the question section of the request, or {@code null} for none
+     * @param resultCode the result code
+     */
+    static void writeErrorResponse(final ByteBuffer buffer, final int id, final int requestFlags, final ByteBuffer question, final int resultCode) {
+        writeHeader(buffer, id, FLAG_QR | requestFlags & (OPCODE_MASK | FLAG_RD) | resultCode & RCODE_MASK, question);
+    }
+
+    private static void writeHeader(final ByteBuffer buffer, final int id, final int flags, final ByteBuffer question) {
+        buffer.putShort((short) id);
+        buffer.putShort((short) flags);
+        buffer.putShort((short) (question == null ? 0 : 1));
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        if (question != null) {
+            buffer.put(question.duplicate());
+        }
+    }
+
+    private static int writeRecords(final ByteBuffer buffer, final CompressionContext context, final List<Record> records) {
+        int count = 0;
+        for (Record record : records) {
+            final int position = buffer.position();
+            final int mark = context.mark();
+            try {
+                record.writeTo(buffer, context);
+            } catch (BufferOverflowException e) {
+                // names in the partial record must not be pointed to
+                buffer.position(position);
+                context.truncate(mark);
+                break;
+            }
+            count ++;
+        }
+        return count;
+    }
+
+    private static void writeOpt(final ByteBuffer buffer, final int ednsFlags) {
+        buffer.put((byte) 0);
+        buffer.putShort((short) RR_TYPE_OPT);
+        buffer.putShort((short) EDNS_UDP_PAYLOAD);
+        // extended RCODE and version are zero
+        buffer.putShort((short) 0);
+        buffer.putShort((short) ednsFlags);
+        buffer.putShort((short) 0);
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * A watcher which keeps the answers to queries fresh and tells listeners when they change.  Each watched query is
+ * resolved again when the smallest TTL of its answer expires, plus a little jitter so that answers which expire
+ * together are not all resolved at once; the refreshes of all watchers share a single timer wheel.  Subscriptions to
+ * the same query share one refresh.
+ * <p>
+ * Listeners are told of the records of an answer as a set, ignoring their TTLs and order, and only when that set
+ * changes.  A name which does not exist has no records.  Listeners are called in order for each query, from the
+ * thread which completed the lookup or from the thread which subscribed, and must not block.
+ */
+public final class NameWatcher implements Closeable {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.watch");
+
+    private static final int DEFAULT_TTL = 60;
+    private static final long MIN_REFRESH_MILLIS = 1000L;
+    private static final long MAX_RETRY_MILLIS = 60000L;
+    /** The RDATA length for which the key buffer is first sized; most records are far smaller. */
+    private static final int RDATA_ESTIMATE = 512;
+
+    private final Resolver resolver;
+    private final ConcurrentHashMap<Query, Entry> entries = new ConcurrentHashMap<Query, Entry>();
+    private volatile boolean closed;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the resolver with which to look up the watched queries
+     */
+    public NameWatcher(final Resolver resolver) {
+        Assert.checkNotNullParam("resolver", resolver);
+        this.resolver = resolver;
+    }
+
+    /**
+     * Watch the answer to a query.  If the answer is already known, the listener is told of its records before this
+     * method returns.
+     *
+     * @param query the query, whose deadline is ignored
+     * @param listener the listener
+     * @return the subscription, which must be closed when the answer is no longer of interest
+     */
+    public Subscription watch(final Query query, final Listener listener) {
+        Assert.checkNotNullParam("query", query);
+        Assert.checkNotNullParam("listener", listener);
+        // the deadline of the caller's query would stop every later lookup
+        final Query key = new Query(query.getDomain(), query.getRRClass(), query.getRRType(), query.getQueryFlags());
+        for (;;) {
+            if (closed) {
+                throw new IllegalStateException("Watcher is closed");
+            }
+            Entry entry = entries.get(key);
+            boolean created = false;
+            if (entry == null) {
+                final Entry newEntry = new Entry(key);
+                entry = entries.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    entry = newEntry;
+                    created = true;
+                }
+            }
+            final Subscription subscription = entry.subscribe(listener);
+            if (subscription != null) {
+                if (created) {
+                    entry.run();
+                }
+                return subscription;
+            }
+            // the entry was removed meanwhile
+        }
+    }
+
+    /**
+     * Get the number of distinct queries being watched.
+     *
+     * @return the number of queries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Close every subscription of this watcher.
+     */
+    public void close() {
+        closed = true;
+        for (Entry entry : entries.values()) {
+            entry.remove();
+        }
+    }
+
+    /**
+     * A listener for changes to the answer to a query.
+     */
+    public interface Listener {
+
+        /**
+         * Handle a change to the records of an answer.  The first call after subscribing has all the records as
+         * added.
+         *
+         * @param query the watched query
+         * @param records the current records, in canonical order
+         * @param added the records which were added
+         * @param removed the records which were removed
+         */
+        void changed(Query query, List<Record> records, List<Record> added, List<Record> removed);
+
+        /**
+         * Handle a failure to refresh an answer.  The previous records remain current, and the lookup is retried.
+         * The default implementation does nothing.
+         *
+         * @param query the watched query
+         * @param exception the failure
+         */
+        default void failed(Query query, IOException exception) {
+        }
+    }
+
+    /**
+     * A subscription to the answer to a query.
+     */
+    public final class Subscription implements Closeable {
+        private final Entry entry;
+        private final Listener listener;
+
+        Subscription(final Entry entry, final Listener listener) {
+            this.entry = entry;
+            this.listener = listener;
+        }
+
+        /**
+         * Get the watched query.
+         *
+         * @return the query
+         */
+        public Query getQuery() {
+            return entry.query;
+        }
+
+        /**
+         * Get the current records.
+         *
+         * @return the records in canonical order, or {@code null} if the answer is not yet known
+         */
+        public List<Record> getRecords() {
+            return entry.getRecords();
+        }
+
+        /**
+         * Stop watching.  The lookups for the query stop when its last subscription is closed.
+         */
+        public void close() {
+            entry.unsubscribe(this);
+        }
+    }
+
+    /**
+     * The state of one watched query, which is also its refresh timeout.
+     */
+    final class Entry extends TimerWheel.Timeout {
+        final Query query;
+        // these fields are protected by {@code this}
+        private final List<Subscription> subscriptions = new ArrayList<Subscription>(1);
+        private List<Record> records;
+        private byte[][] keys;
+        private IoFuture<Answer> pending;
+        private long retryMillis = MIN_REFRESH_MILLIS;
+        private boolean removed;
+
+        Entry(final Query query) {
+            this.query = query;
+        }
+
+        synchronized List<Record> getRecords() {
+            return records;
+        }
+
+        synchronized Subscription subscribe(final Listener listener) {
+            if (removed) {
+                return null;
+            }
+            final Subscription subscription = new Subscription(this, listener);
+            subscriptions.add(subscription);
+            if (records != null) {
+                notifyChanged(listener, records, records, Collections.<Record>emptyList());
+            }
+            return subscription;
+        }
+
+        void unsubscribe(final Subscription subscription) {
+            synchronized (this) {
+                if (! subscriptions.remove(subscription) || ! subscriptions.isEmpty()) {
+                    return;
+                }
+            }
+            remove();
+        }
+
+        void remove() {
+            final IoFuture<Answer> pending;
+            synchronized (this) {
+                if (removed) {
+                    return;
+                }
+                removed = true;
+                subscriptions.clear();
+                pending = this.pending;
+                this.pending = null;
+            }
+            entries.remove(query, this);
+            TimerWheel.INSTANCE.cancel(this);
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+
+        /**
+         * Look the query up again.
+         */
+        public void run() {
+            final IoFuture<Answer> future;
+            synchronized (this) {
+                if (removed) {
+                    return;
+                }
+                future = pending = resolver.resolve(query);
+            }
+            future.addNotifier(new IoFuture.Notifier<Answer, Void>() {
+                public void notify(final IoFuture<? extends Answer> future, final Void attachment) {
+                    if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                        complete(null, new IOException("Operation was cancelled"));
+                    } else try {
+                        complete(future.get(), null);
+                    } catch (IOException e) {
+                        complete(null, e);
+                    }
+                }
+            }, null);
+        }
+
+        void complete(final Answer answer, IOException exception) {
+            final List<Record> newRecords;
+            if (answer == null) {
+                newRecords = null;
+            } else if (answer.getResultCode() == ResultCode.NOERROR) {
+                newRecords = answer.getAnswerRecords();
+            } else if (answer.getResultCode() == ResultCode.NXDOMAIN) {
+                newRecords = Collections.emptyList();
+            } else {
+                newRecords = null;
+                exception = new DNSException(answer.getResultCode());
+            }
+            synchronized (this) {
+                if (removed) {
+                    return;
+                }
+                pending = null;
+                if (newRecords == null) {
+                    log.debugf(exception, "Failed to refresh %s; retrying in %d ms", query, Long.valueOf(retryMillis));
+                    for (Subscription subscription : subscriptions) {
+                        try {
+                            subscription.listener.failed(query, exception);
+                        } catch (Throwable t) {
+                            log.errorf(t, "Watch listener for %s failed", query);
+                        }
+                    }
+                    TimerWheel.INSTANCE.schedule(this, retryMillis, TimeUnit.MILLISECONDS);
+                    retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis << 1);
+                    return;
+                }
+                retryMillis = MIN_REFRESH_MILLIS;
+                update(newRecords);
+                final long ttlMillis = Math.max(MIN_REFRESH_MILLIS, minTtl(answer) * 1000L);
+                TimerWheel.INSTANCE.schedule(this, ttlMillis + ThreadLocalRandom.current().nextLong(ttlMillis / 10L + 1L), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void update(final List<Record> newRecords) {
+            assert Thread.holdsLock(this);
+            final int size = newRecords.size();
+            final RecordKey[] sorted = new RecordKey[size];
+            // size the buffer for the longest name and typical RDATA, growing it only for a record which overflows
+            int nameLength = 0;
+            for (int i = 0; i < size; i ++) {
+                nameLength = Math.max(nameLength, newRecords.get(i).getName().getWireLength());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(nameLength + 10 + RDATA_ESTIMATE);
+            for (int i = 0; i < size; i ++) {
+                final Record record = newRecords.get(i);
+                try {
+                    sorted[i] = new RecordKey(record, buffer);
+                } catch (BufferOverflowException e) {
+                    buffer = ByteBuffer.allocate(nameLength + 10 + 65535);
+                    sorted[i] = new RecordKey(record, buffer);
+                }
+            }
+            Arrays.sort(sorted, RecordKey.ORDER);
+            // merge the sorted old and new sets, dropping duplicates
+            final byte[][] oldKeys = keys;
+            final List<Record> oldRecords = records;
+            final List<Record> current = new ArrayList<Record>(size);
+            final List<byte[]> currentKeys = new ArrayList<byte[]>(size);
+            final List<Record> added = new ArrayList<Record>();
+            final List<Record> removedRecords = new ArrayList<Record>();
+            final int oldSize = oldKeys == null ? 0 : oldKeys.length;
+            int i = 0, j = 0;
+            while (i < oldSize || j < size) {
+                if (j > 0 && j < size && compare(sorted[j].key, sorted[j - 1].key) == 0) {
+                    j ++;
+                    continue;
+                }
+                final int cmp = i == oldSize ? 1 : j == size ? -1 : compare(oldKeys[i], sorted[j].key);
+                if (cmp < 0) {
+                    removedRecords.add(oldRecords.get(i ++));
+                } else {
+                    if (cmp > 0) {
+                        added.add(sorted[j].record);
+                    } else {
+                        i ++;
+                    }
+                    current.add(sorted[j].record);
+                    currentKeys.add(sorted[j ++].key);
+                }
+            }
+            if (oldKeys != null && added.isEmpty() && removedRecords.isEmpty()) {
+                return;
+            }
+            records = Collections.unmodifiableList(current);
+            keys = currentKeys.toArray(new byte[currentKeys.size()][]);
+            final List<Record> addedList = Collections.unmodifiableList(added);
+            final List<Record> removedList = Collections.unmodifiableList(removedRecords);
+            for (Subscription subscription : subscriptions) {
+                notifyChanged(subscription.listener, records, addedList, removedList);
+            }
+        }
+
+        private void notifyChanged(final Listener listener, final List<Record> records, final List<Record> added, final List<Record> removed) {
+            try {
+                listener.changed(query, records, added, removed);
+            } catch (Throwable t) {
+                log.errorf(t, "Watch listener for %s failed", query);
+            }
+        }
+
+        public String toString() {
+            return "watch of " + query;
+        }
+    }
+
+    /**
+     * Get the time for which an answer may be used, which for a negative answer is given by the SOA record in its
+     * authority section (RFC 2308, section 5).
+     *
+     * @param answer the answer
+     * @return the TTL in seconds
+     */
+    static int minTtl(final Answer answer) {
+        int minTtl = Integer.MAX_VALUE;
+        for (Record record : answer.getAnswerRecords()) {
+            minTtl = Math.min(minTtl, record.getTtlSpec().getTtl());
+        }
+        if (minTtl == Integer.MAX_VALUE) {
+            for (Record record : answer.getAuthorityRecords()) {
+                if (record instanceof SoaRecord) {
+                    minTtl = Math.min(minTtl, Math.min(record.getTtlSpec().getTtl(), ((SoaRecord) record).getMinimum().getTtl()));
+                }
+            }
+        }
+        return minTtl == Integer.MAX_VALUE ? DEFAULT_TTL : minTtl;
+    }
+
+    static int compare(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i ++) {
+            final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * A record with its uncompressed wire format, less the TTL, by which records are compared.
+     */
+    static final class RecordKey {
+        static final Comparator<RecordKey> ORDER = new Comparator<RecordKey>() {
+            public int compare(final RecordKey o1, final RecordKey o2) {
+                return NameWatcher.compare(o1.key, o2.key);
+            }
+        };
+
+        final Record record;
+        final byte[] key;
+
+        RecordKey(final Record record, final ByteBuffer buffer) {
+            this.record = record;
+            buffer.clear();
+            record.writeTo(buffer, null);
+            // the TTL follows the name, type and class
+            buffer.putInt(record.getName().getWireLength() + 4, 0);
+            key = Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+}
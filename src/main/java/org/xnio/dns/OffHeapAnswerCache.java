@@ -0,0 +1,425 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+
+/**
+ * An answer cache which stores answers as wire-format blobs in direct (off-heap) memory.  Answers are only decoded
+ * when they are hit, so a large population of cached answers costs the garbage collector nothing but the index arrays.
+ * This cache is intended to be used as a second tier behind a {@link CachingResolver}, which spills the entries
+ * evicted from its own (on-heap) cache into this one.
+ * <p>
+ * Each entry occupies a single block from a {@linkplain SlabAllocator slab allocator}; answers which do not fit into
+ * the largest block size are not cached.  When memory is exhausted, entries are evicted in approximate LRU order
+ * using a clock sweep.
+ */
+public final class OffHeapAnswerCache {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.cache");
+
+    // block header layout
+    private static final int STATE_OFFSET = 0;
+    private static final int REFERENCED_OFFSET = 1;
+    private static final int LENGTH_OFFSET = 2;
+    private static final int HASH_OFFSET = 4;
+    private static final int EOL_OFFSET = 8;
+    private static final int BASE_OFFSET = 16;
+    private static final int KEY_LENGTH_OFFSET = 24;
+    private static final int KEY_OFFSET = 26;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_LIVE = 1;
+
+    private static final int EMPTY = -1;
+
+    private final SlabAllocator allocator;
+    private final ByteBuffer scratch = ByteBuffer.allocate(SlabAllocator.MAX_BLOCK_SIZE);
+
+    private int[] hashes;
+    private int[] refs;
+    private int size;
+    private long evictions;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxBytes the maximum amount of direct memory to reserve for cache entries, in bytes
+     */
+    public OffHeapAnswerCache(final long maxBytes) {
+        Assert.checkMinimumParameter("maxBytes", SlabAllocator.SLAB_SIZE, maxBytes);
+        allocator = new SlabAllocator(maxBytes);
+        hashes = new int[1024];
+        refs = new int[1024];
+        Arrays.fill(refs, EMPTY);
+    }
+
+    /**
+     * Get a cached answer.  The answer is decoded from its wire form on every hit.
+     *
+     * @param name the query domain
+     * @param rrClass the query class
+     * @param rrType the query type
+     * @return the answer, or {@code null} if no unexpired answer is cached
+     */
+    public synchronized Answer get(final Domain name, final int rrClass, final int rrType) {
+        final int keyLength = encodeKey(name, rrClass, rrType);
+        final int hash = hash(keyLength);
+        final int slot = findSlot(hash, keyLength);
+        if (slot == -1) {
+            return null;
+        }
+        final int ref = refs[slot];
+        final ByteBuffer slab = allocator.slabOf(ref);
+        final int offs = SlabAllocator.offsetOf(ref);
+        if (slab.getLong(offs + EOL_OFFSET) <= System.currentTimeMillis()) {
+            removeSlot(slot);
+            return null;
+        }
+        slab.put(offs + REFERENCED_OFFSET, (byte) 1);
+        final ByteBuffer buffer = slab.duplicate();
+        buffer.limit(offs + (slab.getShort(offs + LENGTH_OFFSET) & 0xffff));
+        buffer.position(offs + KEY_OFFSET + keyLength);
+        try {
+            return Answer.fromBytes(buffer, name, rrClass, rrType, slab.getLong(offs + BASE_OFFSET));
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            // not expected, but do not let a corrupt entry linger
+            log.debugf(e, "Discarding undecodable cache entry for %s", name);
+            removeSlot(slot);
+            return null;
+        }
+    }
+
+    /**
+     * Store an answer in the cache, replacing any existing answer for the same question.  Answers which are too large
+     * to be stored or which are already expired are ignored.
+     *
+     * @param name the query domain
+     * @param rrClass the query class
+     * @param rrType the query type
+     * @param answer the answer to store
+     */
+    public synchronized void put(final Domain name, final int rrClass, final int rrType, final Answer answer) {
+        Assert.checkNotNullParam("answer", answer);
+        final long now = System.currentTimeMillis();
+        final long eol = answer.getEol();
+        if (eol <= now) {
+            return;
+        }
+        final int keyLength = encodeKey(name, rrClass, rrType);
+        final int hash = hash(keyLength);
+        final int existing = findSlot(hash, keyLength);
+        if (existing != -1) {
+            removeSlot(existing);
+        }
+        final ByteBuffer scratch = this.scratch;
+        final int length;
+        try {
+            scratch.limit(scratch.capacity());
+            scratch.position(KEY_OFFSET + keyLength);
+            answer.writeTo(scratch, now);
+            length = scratch.position();
+        } catch (BufferOverflowException e) {
+            // too big to cache
+            return;
+        }
+        scratch.put(STATE_OFFSET, STATE_LIVE);
+        scratch.put(REFERENCED_OFFSET, (byte) 0);
+        scratch.putShort(LENGTH_OFFSET, (short) length);
+        scratch.putInt(HASH_OFFSET, hash);
+        scratch.putLong(EOL_OFFSET, eol);
+        scratch.putLong(BASE_OFFSET, now);
+        scratch.putShort(KEY_LENGTH_OFFSET, (short) keyLength);
+        final int sizeClass = SlabAllocator.sizeClassFor(length);
+        final int ref = allocate(sizeClass);
+        if (ref == -1) {
+            return;
+        }
+        final ByteBuffer target = allocator.slabOf(ref).duplicate();
+        target.position(SlabAllocator.offsetOf(ref));
+        scratch.flip();
+        target.put(scratch);
+        insert(hash, ref);
+    }
+
+    /**
+     * Remove a cached answer.
+     *
+     * @param name the query domain
+     * @param rrClass the query class
+     * @param rrType the query type
+     */
+    public synchronized void remove(final Domain name, final int rrClass, final int rrType) {
+        final int keyLength = encodeKey(name, rrClass, rrType);
+        final int slot = findSlot(hash(keyLength), keyLength);
+        if (slot != -1) {
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * Get the number of cached entries, including those which have expired but have not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of entries which were evicted to make room for new entries.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the amount of direct memory currently reserved by this cache, in bytes.
+     *
+     * @return the reserved byte count
+     */
+    public synchronized long getReservedBytes() {
+        return allocator.getReservedBytes();
+    }
+
+    /**
+     * Get a copy of all of the unexpired entries of this cache.
+     *
+     * @return the entries
+     */
+    synchronized List<Map.Entry<RecordIdentifier, Answer>> entries() {
+        final long now = System.currentTimeMillis();
+        final List<Map.Entry<RecordIdentifier, Answer>> list = new ArrayList<Map.Entry<RecordIdentifier, Answer>>(size);
+        final int[] refs = this.refs;
+        for (int slot = 0; slot < refs.length; slot ++) {
+            final int ref = refs[slot];
+            if (ref == EMPTY) {
+                continue;
+            }
+            final ByteBuffer slab = allocator.slabOf(ref);
+            final int offs = SlabAllocator.offsetOf(ref);
+            if (slab.getLong(offs + EOL_OFFSET) <= now) {
+                continue;
+            }
+            final ByteBuffer buffer = slab.duplicate();
+            buffer.limit(offs + (slab.getShort(offs + LENGTH_OFFSET) & 0xffff));
+            buffer.position(offs + KEY_OFFSET);
+            try {
+                final Domain name = Domain.fromBytes(buffer);
+                final int rrType = buffer.getShort() & 0xffff;
+                final int rrClass = buffer.getShort() & 0xffff;
+                final Answer answer = Answer.fromBytes(buffer, name, rrClass, rrType, slab.getLong(offs + BASE_OFFSET));
+                list.add(new CacheSnapshot.SnapshotEntry(new RecordIdentifier(name, rrClass, rrType), answer));
+            } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+                log.debugf(e, "Skipping undecodable cache entry");
+            }
+        }
+        return list;
+    }
+
+    // encoding
+
+    private int encodeKey(final Domain name, final int rrClass, final int rrType) {
+        final ByteBuffer scratch = this.scratch;
+        scratch.clear();
+        scratch.position(KEY_OFFSET);
+        name.writeTo(scratch);
+        scratch.putShort((short) rrType);
+        scratch.putShort((short) rrClass);
+        return scratch.position() - KEY_OFFSET;
+    }
+
+    private int hash(final int keyLength) {
+        final ByteBuffer scratch = this.scratch;
+        // FNV-1a
+        int hash = 0x811c9dc5;
+        for (int i = KEY_OFFSET; i < KEY_OFFSET + keyLength; i ++) {
+            hash = (hash ^ scratch.get(i)) * 0x01000193;
+        }
+        return hash ^ hash >>> 16;
+    }
+
+    // allocation & eviction
+
+    private int allocate(final int sizeClass) {
+        int ref = allocator.allocate(sizeClass);
+        if (ref != -1) {
+            return ref;
+        }
+        if (allocator.slabCount(sizeClass) > 0) {
+            // clock sweep: clear referenced bits until an unreferenced victim is found
+            for (;;) {
+                final int victim = allocator.nextBlock(sizeClass);
+                final ByteBuffer slab = allocator.slabOf(victim);
+                final int offs = SlabAllocator.offsetOf(victim);
+                if (slab.get(offs + STATE_OFFSET) == STATE_LIVE) {
+                    if (slab.get(offs + REFERENCED_OFFSET) != 0) {
+                        slab.put(offs + REFERENCED_OFFSET, (byte) 0);
+                    } else {
+                        removeSlot(slotOf(slab.getInt(offs + HASH_OFFSET), victim));
+                        evictions ++;
+                        return allocator.allocate(sizeClass);
+                    }
+                } else {
+                    // a free block exists after all
+                    return allocator.allocate(sizeClass);
+                }
+            }
+        }
+        // no slabs of this size; steal one from the largest size class
+        final int slabIndex = allocator.chooseDonorSlab();
+        if (slabIndex == -1) {
+            return -1;
+        }
+        final int donorClass = allocator.sizeClassOf(slabIndex << SlabAllocator.SLAB_SHIFT);
+        final int blockSize = SlabAllocator.blockSize(donorClass);
+        final ByteBuffer slab = allocator.slabOf(slabIndex << SlabAllocator.SLAB_SHIFT);
+        for (int offs = 0; offs < SlabAllocator.SLAB_SIZE; offs += blockSize) {
+            if (slab.get(offs + STATE_OFFSET) == STATE_LIVE) {
+                final int victim = slabIndex << SlabAllocator.SLAB_SHIFT | offs;
+                removeSlot(slotOf(slab.getInt(offs + HASH_OFFSET), victim));
+                evictions ++;
+            }
+        }
+        allocator.reassignSlab(slabIndex, sizeClass);
+        return allocator.allocate(sizeClass);
+    }
+
+    // index (open addressing, linear probing)
+
+    private int findSlot(final int hash, final int keyLength) {
+        final int[] hashes = this.hashes;
+        final int[] refs = this.refs;
+        final int mask = refs.length - 1;
+        for (int slot = hash & mask;; slot = slot + 1 & mask) {
+            final int ref = refs[slot];
+            if (ref == EMPTY) {
+                return -1;
+            }
+            if (hashes[slot] == hash && keyEquals(ref, keyLength)) {
+                return slot;
+            }
+        }
+    }
+
+    private int slotOf(final int hash, final int ref) {
+        final int[] refs = this.refs;
+        final int mask = refs.length - 1;
+        for (int slot = hash & mask;; slot = slot + 1 & mask) {
+            final int found = refs[slot];
+            if (found == ref) {
+                return slot;
+            }
+            if (found == EMPTY) {
+                throw new IllegalStateException("Cache index is corrupt");
+            }
+        }
+    }
+
+    private boolean keyEquals(final int ref, final int keyLength) {
+        final ByteBuffer slab = allocator.slabOf(ref);
+        final int offs = SlabAllocator.offsetOf(ref);
+        if ((slab.getShort(offs + KEY_LENGTH_OFFSET) & 0xffff) != keyLength) {
+            return false;
+        }
+        final ByteBuffer scratch = this.scratch;
+        for (int i = 0; i < keyLength; i ++) {
+            if (slab.get(offs + KEY_OFFSET + i) != scratch.get(KEY_OFFSET + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(final int hash, final int ref) {
+        if (size + 1 > refs.length * 3 / 4) {
+            resize();
+        }
+        final int[] refs = this.refs;
+        final int mask = refs.length - 1;
+        int slot = hash & mask;
+        while (refs[slot] != EMPTY) {
+            slot = slot + 1 & mask;
+        }
+        hashes[slot] = hash;
+        refs[slot] = ref;
+        size ++;
+    }
+
+    private void resize() {
+        final int[] oldHashes = hashes;
+        final int[] oldRefs = refs;
+        final int newSize = oldRefs.length << 1;
+        final int mask = newSize - 1;
+        final int[] newHashes = new int[newSize];
+        final int[] newRefs = new int[newSize];
+        Arrays.fill(newRefs, EMPTY);
+        for (int i = 0; i < oldRefs.length; i ++) {
+            final int ref = oldRefs[i];
+            if (ref != EMPTY) {
+                int slot = oldHashes[i] & mask;
+                while (newRefs[slot] != EMPTY) {
+                    slot = slot + 1 & mask;
+                }
+                newHashes[slot] = oldHashes[i];
+                newRefs[slot] = ref;
+            }
+        }
+        hashes = newHashes;
+        refs = newRefs;
+    }
+
+    private void removeSlot(int slot) {
+        final int[] hashes = this.hashes;
+        final int[] refs = this.refs;
+        final int mask = refs.length - 1;
+        final int ref = refs[slot];
+        allocator.slabOf(ref).put(SlabAllocator.offsetOf(ref) + STATE_OFFSET, STATE_FREE);
+        allocator.free(ref);
+        size --;
+        // backward-shift deletion keeps probe sequences intact without tombstones
+        int next = slot;
+        for (;;) {
+            next = next + 1 & mask;
+            final int nextRef = refs[next];
+            if (nextRef == EMPTY) {
+                refs[slot] = EMPTY;
+                return;
+            }
+            final int home = hashes[next] & mask;
+            // move the entry back unless its home lies cyclically within (slot, next]
+            if (slot <= next ? slot >= home || home > next : slot >= home && home > next) {
+                hashes[slot] = hashes[next];
+                refs[slot] = nextRef;
+                slot = next;
+            }
+        }
+    }
+}
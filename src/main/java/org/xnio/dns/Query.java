@@ -18,22 +18,41 @@
 
 package org.xnio.dns;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.wildfly.common.Assert;
 import org.xnio.Bits;
 
 /**
- *
+ * A DNS query.  Besides the question itself, a query may carry a deadline and a {@linkplain Budget budget} of
+ * upstream queries; both are inherited by the {@linkplain #subQuery(Domain, int, int, int) sub-queries} which are
+ * sent on its behalf, and neither takes part in {@link #equals(Query)} or {@link #hashCode()}.
  */
 public final class Query {
+    /**
+     * The deadline value of a query which has no deadline.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private final Domain domain;
     private final int rrClass;
     private final int rrType;
     private final int queryFlags;
+    private final long deadline;
+    private final Budget budget;
 
     public Query(final Domain domain, final int rrClass, final int rrType, final int queryFlags) {
+        this(domain, rrClass, rrType, queryFlags, NO_DEADLINE, Budget.UNLIMITED);
+    }
+
+    private Query(final Domain domain, final int rrClass, final int rrType, final int queryFlags, final long deadline, final Budget budget) {
         this.domain = domain;
         this.rrClass = rrClass;
         this.rrType = rrType;
         this.queryFlags = queryFlags;
+        this.deadline = deadline;
+        this.budget = budget;
     }
 
     public Domain getDomain() {
@@ -52,6 +71,46 @@ public final class Query {
         return queryFlags;
     }
 
+    /**
+     * Get the deadline of this query, in terms of {@link System#nanoTime()}.
+     *
+     * @return the deadline, or {@link #NO_DEADLINE} if there is none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Get the time remaining until the deadline of this query.
+     *
+     * @param unit the time unit
+     * @return the remaining time (0 if the deadline has passed), or {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long getRemainingTime(TimeUnit unit) {
+        if (deadline == NO_DEADLINE) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Determine whether the deadline of this query has passed.
+     *
+     * @return {@code true} if the deadline has passed
+     */
+    public boolean isExpired() {
+        return deadline != NO_DEADLINE && deadline - System.nanoTime() <= 0L;
+    }
+
+    /**
+     * Get the upstream query budget of this query.
+     *
+     * @return the budget
+     */
+    public Budget getBudget() {
+        return budget;
+    }
+
     public int hashCode() {
         return ((domain.hashCode() * 19 + rrClass) * 19 + rrType) * 19 + queryFlags;
     }
@@ -70,7 +129,57 @@ public final class Query {
 
     public Query withFlags(int newFlags) {
         if (queryFlags == newFlags) return this;
-        return new Query(domain, rrClass, rrType, newFlags);
+        return new Query(domain, rrClass, rrType, newFlags, deadline, budget);
+    }
+
+    /**
+     * Get a copy of this query with the given deadline.  If this query already has an earlier deadline, it is kept.
+     *
+     * @param deadline the deadline, in terms of {@link System#nanoTime()}
+     * @return the query
+     */
+    public Query withDeadline(long deadline) {
+        if (this.deadline != NO_DEADLINE && this.deadline - deadline <= 0L) return this;
+        return new Query(domain, rrClass, rrType, queryFlags, deadline, budget);
+    }
+
+    /**
+     * Get a copy of this query with a deadline which is the given amount of time from now.  If this query already has
+     * an earlier deadline, it is kept.
+     *
+     * @param timeout the amount of time
+     * @param unit the time unit
+     * @return the query
+     */
+    public Query withTimeout(long timeout, TimeUnit unit) {
+        Assert.checkMinimumParameter("timeout", 0L, timeout);
+        Assert.checkNotNullParam("unit", unit);
+        return withDeadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Get a copy of this query with a new budget of upstream queries.
+     *
+     * @param maxUpstreamQueries the maximum number of upstream queries which may be sent on behalf of the query
+     * @return the query
+     */
+    public Query withBudget(int maxUpstreamQueries) {
+        Assert.checkMinimumParameter("maxUpstreamQueries", 0, maxUpstreamQueries);
+        return new Query(domain, rrClass, rrType, queryFlags, deadline, new Budget(maxUpstreamQueries));
+    }
+
+    /**
+     * Create a query which is sent on behalf of this query, sharing its deadline and budget.
+     *
+     * @param domain the domain of the sub-query
+     * @param rrClass the class of the sub-query
+     * @param rrType the type of the sub-query
+     * @param queryFlags the flags of the sub-query
+     * @return the sub-query
+     */
+    public Query subQuery(Domain domain, int rrClass, int rrType, int queryFlags) {
+        Assert.checkNotNullParam("domain", domain);
+        return new Query(domain, rrClass, rrType, queryFlags, deadline, budget);
     }
 
     /**
@@ -92,10 +201,69 @@ public final class Query {
         public static final int USE_TCP = 1 << 2;
 
         public static String toString(final int queryFlags) {
+            final StringBuilder b = new StringBuilder();
             if (Bits.allAreSet(queryFlags, BYPASS_CACHE)) {
+                b.append("BYPASS_CACHE");
+            }
+            if (Bits.allAreSet(queryFlags, NO_RECURSION)) {
+                if (b.length() > 0) b.append(' ');
+                b.append("NO_RECURSION");
+            }
+            if (Bits.allAreSet(queryFlags, USE_TCP)) {
+                if (b.length() > 0) b.append(' ');
+                b.append("USE_TCP");
+            }
+            return b.toString();
+        }
+    }
 
+    /**
+     * A budget of upstream queries which is shared by a query and all of its sub-queries.  Transports acquire one unit
+     * of the budget for each query they send to a server, and fail the query if the budget is exhausted; resolvers
+     * stop sending queries once it is.
+     */
+    public static final class Budget {
+        /**
+         * A budget which is never exhausted.
+         */
+        public static final Budget UNLIMITED = new Budget(Integer.MAX_VALUE);
+
+        private final AtomicInteger remaining;
+
+        Budget(final int remaining) {
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+        /**
+         * Try to acquire one unit of this budget.
+         *
+         * @return {@code true} if a unit was acquired, or {@code false} if the budget is exhausted
+         */
+        public boolean tryAcquire() {
+            if (this == UNLIMITED) {
+                return true;
             }
+            int oldVal;
+            do {
+                oldVal = remaining.get();
+                if (oldVal == 0) {
+                    return false;
+                }
+            } while (! remaining.compareAndSet(oldVal, oldVal - 1));
+            return true;
+        }
+
+        /**
+         * Get the number of units remaining.
+         *
+         * @return the number of units remaining
+         */
+        public int getRemaining() {
+            return remaining.get();
+        }
 
+        public String toString() {
+            return this == UNLIMITED ? "unlimited budget" : String.format("budget of %d queries", Integer.valueOf(getRemaining()));
         }
     }
 }
@@ -134,6 +134,10 @@ public final class RRType {
     public static final int HIP = 55;
     public static final int NINFO = 56;
     public static final int RKEY = 57;
+    /** {@rfc 9460} */
+    public static final int SVCB = 64;
+    /** {@rfc 9460} */
+    public static final int HTTPS = 65;
     /** {@rfc 4408} */
     public static final int SPF = 99;
     public static final int UINFO = 100;
@@ -216,6 +220,8 @@ public final class RRType {
             case HIP: return "HIP";
             case NINFO: return "NINFO";
             case RKEY: return "RKEY";
+            case SVCB: return "SVCB";
+            case HTTPS: return "HTTPS";
             case SPF: return "SPF";
             case UINFO: return "UINFO";
             case UID: return "UID";
@@ -290,6 +296,8 @@ public final class RRType {
             case "HIP": return HIP;
             case "NINFO": return NINFO;
             case "RKEY": return RKEY;
+            case "SVCB": return SVCB;
+            case "HTTPS": return HTTPS;
             case "SPF": return SPF;
             case "UINFO": return UINFO;
             case "UID": return UID;
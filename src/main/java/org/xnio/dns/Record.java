@@ -18,31 +18,12 @@
 
 package org.xnio.dns;
 
-import static org.xnio.dns.RRType.A;
-import static org.xnio.dns.RRType.AAAA;
-import static org.xnio.dns.RRType.CNAME;
-import static org.xnio.dns.RRType.HINFO;
-import static org.xnio.dns.RRType.MX;
-import static org.xnio.dns.RRType.NS;
-import static org.xnio.dns.RRType.PTR;
-import static org.xnio.dns.RRType.SOA;
-import static org.xnio.dns.RRType.TXT;
-import static org.xnio.dns.RRType.WKS;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import org.xnio.dns.record.AaaaRecord;
-import org.xnio.dns.record.ARecord;
-import org.xnio.dns.record.CNameRecord;
-import org.xnio.dns.record.HInfoRecord;
-import org.xnio.dns.record.MxRecord;
-import org.xnio.dns.record.NsRecord;
-import org.xnio.dns.record.PtrRecord;
-import org.xnio.dns.record.SoaRecord;
-import org.xnio.dns.record.TxtRecord;
-import org.xnio.dns.record.UnknownRecord;
-import org.xnio.dns.record.WksRecord;
-import org.xnio.Buffers;
 
 /**
  * A resource record.
@@ -115,6 +96,67 @@ public abstract class Record implements Serializable {
      */
     public abstract Record withTTLSpec(TTLSpec ttlSpec);
 
+    /**
+     * Write the record-specific RR data of this record to the given buffer in wire format.
+     *
+     * @param buffer the target buffer
+     */
+    protected abstract void writeRData(ByteBuffer buffer);
+
+    /**
+     * Write the record-specific RR data of this record to the given buffer in wire format, compressing any names
+     * which may be compressed.  Only the types defined in RFC 1035 may have compressed names in their data (RFC 3597,
+     * section 4), so the default implementation writes the data uncompressed.
+     *
+     * @param buffer the target buffer
+     * @param context the compression context of the message
+     */
+    protected void writeRData(ByteBuffer buffer, CompressionContext context) {
+        writeRData(buffer);
+    }
+
+    /**
+     * Write this record to the given buffer in wire format, with its remaining TTL.  If the buffer overflows, the
+     * caller should reset its position and {@linkplain CompressionContext#truncate(int) truncate} the context to
+     * the mark taken before the call.
+     *
+     * @param buffer the target buffer
+     * @param context the compression context of the message, or {@code null} to write the record uncompressed
+     */
+    public void writeTo(final ByteBuffer buffer, final CompressionContext context) {
+        name.writeTo(buffer, context);
+        buffer.putShort((short) rrType);
+        buffer.putShort((short) rrClass);
+        buffer.putInt(max(0, ttlSpec.getTtl()));
+        final int lengthPosition = buffer.position();
+        buffer.putShort((short) 0);
+        if (context == null) {
+            writeRData(buffer);
+        } else {
+            writeRData(buffer, context);
+        }
+        buffer.putShort(lengthPosition, (short) (buffer.position() - lengthPosition - 2));
+    }
+
+    /**
+     * Write this record to the given buffer in uncompressed wire format.  The TTL is written relative to the
+     * given base timestamp, so that reading it back with {@link #fromBytes(ByteBuffer, long)} using the same timestamp
+     * yields the same EOL (rounded down to the second).
+     *
+     * @param buffer the target buffer
+     * @param baseTimeStamp the timestamp (in milliseconds) to which the TTL is relative
+     */
+    void writeTo(final ByteBuffer buffer, final long baseTimeStamp) {
+        name.writeTo(buffer);
+        buffer.putShort((short) rrType);
+        buffer.putShort((short) rrClass);
+        buffer.putInt((int) min(0xffff_ffffL, max(0L, (ttlSpec.getEol() - baseTimeStamp) / 1000L)));
+        final int lengthPosition = buffer.position();
+        buffer.putShort((short) 0);
+        writeRData(buffer);
+        buffer.putShort(lengthPosition, (short) (buffer.position() - lengthPosition - 2));
+    }
+
     /**
      * Append any record-specific RR data to the string builder.
      *
@@ -135,30 +177,38 @@ public abstract class Record implements Serializable {
     }
 
     /**
-     * Construct an instance from bytes in a byte buffer.
+     * Construct an instance from bytes in a byte buffer, using the {@linkplain RecordCodecRegistry#getDefault() default
+     * codec registry}.  The message must start at position 0 of the buffer, which is where compression pointers are
+     * relative to.
      *
      * @param buffer the source buffer
      * @return the resource record
      */
     public static Record fromBytes(final ByteBuffer buffer, final long queryTimeStamp) {
+        return fromBytes(buffer, queryTimeStamp, RecordCodecRegistry.getDefault());
+    }
+
+    /**
+     * Construct an instance from bytes in a byte buffer.  The message must start at position 0 of the buffer, which
+     * is where compression pointers are relative to.
+     *
+     * @param buffer the source buffer
+     * @param registry the registry of codecs with which to decode the record data
+     * @return the resource record
+     */
+    public static Record fromBytes(final ByteBuffer buffer, final long queryTimeStamp, final RecordCodecRegistry registry) {
         final Domain name = Domain.fromBytes(buffer);
         final int rrType = buffer.getShort() & 0xffff;
         final int rrClass = buffer.getShort() & 0xffff;
-        final TTLSpec ttlSpec = TTLSpec.createVariable(queryTimeStamp + (buffer.getInt() & 0xffff_ffffL));
-        final ByteBuffer recordBuffer = Buffers.slice(buffer, buffer.getShort() & 0xffff);
-        switch (rrType) {
-            case AAAA:  return new AaaaRecord (name, rrClass, ttlSpec, recordBuffer);
-            case A:     return new ARecord    (name, rrClass, ttlSpec, recordBuffer);
-            case CNAME: return new CNameRecord(name, rrClass, ttlSpec, recordBuffer);
-            case HINFO: return new HInfoRecord(name, rrClass, ttlSpec, recordBuffer);
-            case MX:    return new MxRecord   (name, rrClass, ttlSpec, recordBuffer);
-            case NS:    return new NsRecord   (name, rrClass, ttlSpec, recordBuffer);
-            case PTR:   return new PtrRecord  (name, rrClass, ttlSpec, recordBuffer);
-            case SOA:   return new SoaRecord  (name, rrClass, ttlSpec, recordBuffer);
-            case TXT:   return new TxtRecord  (name, rrClass, ttlSpec, recordBuffer);
-            case WKS:   return new WksRecord  (name, rrClass, ttlSpec, recordBuffer);
-
-            default:    return new UnknownRecord(name, rrClass, rrType, ttlSpec, recordBuffer);
+        final TTLSpec ttlSpec = TTLSpec.createVariable(queryTimeStamp + (buffer.getInt() & 0xffff_ffffL) * 1000L);
+        final int length = buffer.getShort() & 0xffff;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
         }
+        // not a slice, so that compression pointers in the data still refer to the start of the message
+        final ByteBuffer recordBuffer = buffer.duplicate();
+        recordBuffer.limit(buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return registry.decode(name, rrClass, rrType, ttlSpec, recordBuffer);
     }
 }
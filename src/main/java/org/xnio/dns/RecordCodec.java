@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoder for the wire format of one or more record types.  Records encode themselves, so a codec for a new type
+ * typically decodes into a {@link Record} subclass which implements {@link Record#writeRData(ByteBuffer)}.
+ *
+ * @see RecordCodecRegistry
+ */
+public interface RecordCodec {
+
+    /**
+     * Decode a record.  The buffer holds the record data between its position and its limit, but the message starts
+     * at position 0, which is where compression pointers in the data are relative to.  The buffer belongs to the
+     * message, which may be reused once decoding is done, so the record must not keep a reference to it.
+     *
+     * @param name the record name
+     * @param rrClass the record class
+     * @param rrType the record type
+     * @param ttlSpec the TTL of the record
+     * @param recordBuffer the record data
+     * @return the record
+     */
+    Record decode(Domain name, int rrClass, int rrType, TTLSpec ttlSpec, ByteBuffer recordBuffer);
+}
@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+/**
+ * A provider of record codecs, which is found with {@link java.util.ServiceLoader} when the
+ * {@linkplain RecordCodecRegistry#getDefault() default registry} is created.  A provider may replace the built-in
+ * codecs, and may also leave types it does not care about undecoded.
+ */
+public interface RecordCodecProvider {
+
+    /**
+     * Add this provider's codecs to a registry being built.
+     *
+     * @param builder the registry builder
+     */
+    void addCodecs(RecordCodecRegistry.Builder builder);
+}
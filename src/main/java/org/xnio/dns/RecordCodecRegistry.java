@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.DNameRecord;
+import org.xnio.dns.record.HInfoRecord;
+import org.xnio.dns.record.HttpsRecord;
+import org.xnio.dns.record.MxRecord;
+import org.xnio.dns.record.NsRecord;
+import org.xnio.dns.record.PtrRecord;
+import org.xnio.dns.record.SoaRecord;
+import org.xnio.dns.record.SrvRecord;
+import org.xnio.dns.record.SvcbRecord;
+import org.xnio.dns.record.TxtRecord;
+import org.xnio.dns.record.UnknownRecord;
+import org.xnio.dns.record.WksRecord;
+
+/**
+ * An immutable mapping of record types to the {@linkplain RecordCodec codecs} which decode them.  Codecs are held in
+ * an array indexed by type, so finding one costs a single array access; types without a codec are decoded by the
+ * fallback codec, which by default keeps the data undecoded in an {@link UnknownRecord}.
+ */
+public final class RecordCodecRegistry {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.codec");
+
+    /**
+     * A codec which does not decode the record data, but copies it into an {@link UnknownRecord}.  It may be used for
+     * types which an application does not care about; note that compression pointers in the data of such a record
+     * are meaningless outside of its message.
+     */
+    public static final RecordCodec RAW = new RecordCodec() {
+        public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+            return new UnknownRecord(name, rrClass, rrType, ttlSpec, recordBuffer);
+        }
+    };
+
+    private final RecordCodec[] codecs;
+    private final RecordCodec fallback;
+
+    RecordCodecRegistry(final RecordCodec[] codecs, final RecordCodec fallback) {
+        this.codecs = codecs;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Get the default registry, which has the built-in codecs and those of any {@link RecordCodecProvider} found by
+     * the class loader of this class.
+     *
+     * @return the default registry
+     */
+    public static RecordCodecRegistry getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Get a builder for a new registry, which is initially empty.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the codec for a record type.
+     *
+     * @param rrType the record type
+     * @return the codec, which is the fallback codec if none was registered for the type
+     */
+    public RecordCodec getCodec(final int rrType) {
+        final RecordCodec[] codecs = this.codecs;
+        final RecordCodec codec;
+        return rrType >= 0 && rrType < codecs.length && (codec = codecs[rrType]) != null ? codec : fallback;
+    }
+
+    /**
+     * Decode a record with the codec for its type.
+     *
+     * @param name the record name
+     * @param rrClass the record class
+     * @param rrType the record type
+     * @param ttlSpec the TTL of the record
+     * @param recordBuffer the record data, as described for {@link RecordCodec#decode(Domain, int, int, TTLSpec, ByteBuffer)}
+     * @return the record
+     */
+    public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+        return getCodec(rrType).decode(name, rrClass, rrType, ttlSpec, recordBuffer);
+    }
+
+    /**
+     * A builder for a codec registry.
+     */
+    public static final class Builder {
+        private RecordCodec[] codecs = new RecordCodec[RRType.HTTPS + 1];
+        private RecordCodec fallback = RAW;
+
+        Builder() {
+        }
+
+        /**
+         * Add a codec for a record type, replacing any codec previously added for it.
+         *
+         * @param rrType the record type
+         * @param codec the codec
+         * @return this builder
+         */
+        public Builder add(final int rrType, final RecordCodec codec) {
+            Assert.checkMinimumParameter("rrType", 0, rrType);
+            Assert.checkMaximumParameter("rrType", 0xffff, rrType);
+            Assert.checkNotNullParam("codec", codec);
+            if (rrType >= codecs.length) {
+                codecs = Arrays.copyOf(codecs, rrType + 1);
+            }
+            codecs[rrType] = codec;
+            return this;
+        }
+
+        /**
+         * Leave records of a type undecoded, using the {@link #RAW} codec.
+         *
+         * @param rrType the record type
+         * @return this builder
+         */
+        public Builder addRaw(final int rrType) {
+            return add(rrType, RAW);
+        }
+
+        /**
+         * Set the codec for types which have no codec of their own.  The default is {@link #RAW}.
+         *
+         * @param fallback the fallback codec
+         * @return this builder
+         */
+        public Builder setFallback(final RecordCodec fallback) {
+            Assert.checkNotNullParam("fallback", fallback);
+            this.fallback = fallback;
+            return this;
+        }
+
+        /**
+         * Add the codecs for the record types which have classes in {@code org.xnio.dns.record}.
+         *
+         * @return this builder
+         */
+        public Builder addBuiltIns() {
+            add(RRType.A, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new ARecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.AAAA, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new AaaaRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.CNAME, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new CNameRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.DNAME, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new DNameRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.HINFO, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new HInfoRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.MX, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new MxRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.NS, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new NsRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.PTR, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new PtrRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.SOA, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new SoaRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.SRV, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new SrvRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.SVCB, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new SvcbRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.HTTPS, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new HttpsRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.TXT, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new TxtRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            add(RRType.WKS, new RecordCodec() {
+                public Record decode(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+                    return new WksRecord(name, rrClass, ttlSpec, recordBuffer);
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Let every {@link RecordCodecProvider} found by a class loader add its codecs.  A provider which cannot be
+         * loaded is logged and skipped.
+         *
+         * @param classLoader the class loader to search
+         * @return this builder
+         */
+        public Builder addProviders(final ClassLoader classLoader) {
+            final Iterator<RecordCodecProvider> iterator = ServiceLoader.load(RecordCodecProvider.class, classLoader).iterator();
+            for (;;) {
+                final RecordCodecProvider provider;
+                try {
+                    if (! iterator.hasNext()) {
+                        return this;
+                    }
+                    provider = iterator.next();
+                } catch (ServiceConfigurationError e) {
+                    log.warnf(e, "Failed to load a record codec provider");
+                    continue;
+                }
+                provider.addCodecs(this);
+            }
+        }
+
+        /**
+         * Build the registry.
+         *
+         * @return the registry
+         */
+        public RecordCodecRegistry build() {
+            int length = codecs.length;
+            while (length > 0 && codecs[length - 1] == null) {
+                length --;
+            }
+            return new RecordCodecRegistry(Arrays.copyOf(codecs, length), fallback);
+        }
+    }
+
+    static final class DefaultHolder {
+        static final RecordCodecRegistry DEFAULT = builder().addBuiltIns().addProviders(RecordCodecRegistry.class.getClassLoader()).build();
+
+        private DefaultHolder() {
+        }
+    }
+}
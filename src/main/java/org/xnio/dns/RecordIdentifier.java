@@ -34,6 +34,18 @@ final class RecordIdentifier {
         hashCode = result;
     }
 
+    Domain getDomain() {
+        return domain;
+    }
+
+    int getRRClass() {
+        return rrClass;
+    }
+
+    int getRRType() {
+        return rrType;
+    }
+
     public boolean equals(final Object o) {
         if (this == o) return true;
         if (! (o instanceof RecordIdentifier)) return false;
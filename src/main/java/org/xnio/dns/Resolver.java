@@ -21,7 +21,10 @@ package org.xnio.dns;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import org.xnio.IoFuture;
 
@@ -73,6 +76,80 @@ public interface Resolver {
         return resolve(new Query(name, RRClass.IN, rrType, 0));
     }
 
+    /**
+     * Execute a DNS query, returning a completion stage.  If the answer is already available, such as on a cache hit,
+     * the stage is complete when this method returns.  Otherwise the stage is completed on the thread which runs the
+     * notifiers of the resolver; a resolver chain constructed with {@link org.xnio.IoUtils#directExecutor()} completes
+     * it on the thread which finished the I/O, in which case dependent actions must not block.  Cancelling the stage
+     * cancels the query.
+     *
+     * @param query the DNS query (must not be {@code null})
+     * @return the answer completion stage
+     */
+    default CompletionStage<Answer> resolveStage(Query query) {
+        return IoFutureStages.toStage(resolve(query));
+    }
+
+    /**
+     * Get the answer to a query if it is available without waiting, for example from a cache.  This is a fast path
+     * for synchronous callers, which should fall back to {@link #resolve(Query)} if no answer is returned.  The
+     * default implementation always returns {@code null}.
+     *
+     * @param query the DNS query (must not be {@code null})
+     * @return the answer, or {@code null} if it is not immediately available
+     */
+    default Answer tryResolveCached(Query query) {
+        return null;
+    }
+
+    /**
+     * Get all the IP addresses (IPv4 or IPv6) for the given domain name if both the IPv6 and the IPv4 answers are
+     * {@linkplain #tryResolveCached(Query) available without waiting}.  The addresses are in the same order as
+     * those of {@link #resolveAllInet(Domain)}.
+     *
+     * @param name the domain name
+     * @return the list of IP addresses, or {@code null} if they are not immediately available or if both lookups failed
+     */
+    default List<InetAddress> tryResolveAllInetCached(Domain name) {
+        final Answer inet6Answer = tryResolveCached(new Query(name, RRClass.IN, RRType.AAAA, 0));
+        if (inet6Answer == null) {
+            return null;
+        }
+        final Answer inet4Answer = tryResolveCached(new Query(name, RRClass.IN, RRType.A, 0));
+        if (inet4Answer == null) {
+            return null;
+        }
+        List<Inet6Address> inet6 = null;
+        List<Inet4Address> inet4 = null;
+        try {
+            inet6 = AbstractResolver.inet6Addresses(inet6Answer);
+        } catch (DNSException ignored) {
+        }
+        try {
+            inet4 = AbstractResolver.inet4Addresses(inet4Answer);
+        } catch (DNSException ignored) {
+        }
+        if (inet6 == null && inet4 == null) {
+            // let the asynchronous path report the failure
+            return null;
+        }
+        final List<InetAddress> list = new ArrayList<InetAddress>();
+        if (inet6 != null) list.addAll(inet6);
+        if (inet4 != null) list.addAll(inet4);
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Watch the answer to a query, which is kept fresh by looking it up again as its TTL expires.  The listener is
+     * told only when the records of the answer change; subscriptions to the same query share their lookups.
+     *
+     * @param query the query, whose deadline is ignored
+     * @param listener the listener
+     * @return the subscription, which must be closed when the answer is no longer of interest
+     * @see NameWatcher
+     */
+    NameWatcher.Subscription watch(Query query, NameWatcher.Listener listener);
+
     /**
      * Get all the IP addresses (IPv4 or IPv6) for the given domain name.
      *
@@ -81,6 +158,15 @@ public interface Resolver {
      */
     IoFuture<List<InetAddress>> resolveAllInet(Domain name);
 
+    /**
+     * Get all the IP addresses (IPv4 or IPv6) for the given domain name, in the order given by the address sorter.
+     *
+     * @param name the domain name
+     * @param sorter the address sorter, e.g. {@link AddressSorter#getDefault()}
+     * @return the future sorted list of IP addresses
+     */
+    IoFuture<List<InetAddress>> resolveAllInet(Domain name, AddressSorter sorter);
+
     /**
      * Get an IP address (IPv4 or IPv6) for the given domain name.
      *
@@ -89,6 +175,25 @@ public interface Resolver {
      */
     IoFuture<InetAddress> resolveInet(Domain name);
 
+    /**
+     * Look up the IPv6 and IPv4 addresses for the given domain name concurrently, in the manner of RFC 8305.  The
+     * addresses of the first family to answer are available before the other lookup completes, so that connection
+     * attempts need not wait on the slower lookup.
+     *
+     * @param name the domain name
+     * @return the lookup
+     */
+    DualStackLookup resolveDualStack(Domain name);
+
+    /**
+     * Look up the {@link RRType#HTTPS} records of an origin on the default port concurrently with its IPv6 and IPv4
+     * addresses.  The address hints of the records let connection attempts start before the address lookups return.
+     *
+     * @param name the domain name of the origin
+     * @return the lookup
+     */
+    HttpsLookup resolveHttps(Domain name);
+
     /**
      * Get all the IPv4 addresses for the given domain name.
      *
@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.wildfly.common.Assert;
+import org.xnio.IoFuture;
+
+/**
+ * A Reactive Streams publisher of the answers to a stream of queries.  Queries are requested from the query
+ * publisher only as downstream demand allows, and no more than a fixed number are in flight at once, so a slow
+ * subscriber slows down the query traffic instead of causing answers to be buffered.  Answers are emitted in the
+ * order in which they complete.  A query which fails is answered with {@link ResultCode#SERVER_FAILURE} rather than
+ * terminating the stream; an error from the query publisher terminates the stream.
+ * <p>
+ * On Java 9 and later, {@code org.reactivestreams.FlowAdapters} converts to and from {@code java.util.concurrent.Flow}.
+ */
+public final class ResolverPublisher implements Publisher<Answer> {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final Resolver resolver;
+    private final Publisher<Query> queries;
+    private final int maxInFlight;
+
+    /**
+     * Construct a new instance with at most 256 queries in flight.
+     *
+     * @param resolver the resolver to send queries to
+     * @param queries the publisher of queries
+     */
+    public ResolverPublisher(final Resolver resolver, final Publisher<Query> queries) {
+        this(resolver, queries, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param resolver the resolver to send queries to
+     * @param queries the publisher of queries
+     * @param maxInFlight the maximum number of queries in flight for each subscriber
+     */
+    public ResolverPublisher(final Resolver resolver, final Publisher<Query> queries, final int maxInFlight) {
+        Assert.checkNotNullParam("resolver", resolver);
+        Assert.checkNotNullParam("queries", queries);
+        Assert.checkMinimumParameter("maxInFlight", 1, maxInFlight);
+        this.resolver = resolver;
+        this.queries = queries;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Subscribe to the answers.  Each subscriber gets its own subscription to the query publisher.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribe(final Subscriber<? super Answer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber is null");
+        }
+        queries.subscribe(new Resolution(subscriber));
+    }
+
+    private final class Resolution implements Subscriber<Query>, Subscription, IoFuture.Notifier<Answer, Query> {
+        private final Subscriber<? super Answer> subscriber;
+
+        // these fields are protected by {@code this}
+        private final ArrayDeque<Answer> ready = new ArrayDeque<Answer>();
+        private final Set<IoFuture<Answer>> inFlight = new HashSet<IoFuture<Answer>>();
+        private Subscription upstream;
+        private long demand;
+        private long upstreamPending;
+        private boolean upstreamDone;
+        private Throwable error;
+        private boolean terminated;
+        private int inFlightCount;
+        private boolean draining;
+
+        Resolution(final Subscriber<? super Answer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void onSubscribe(final Subscription subscription) {
+            synchronized (this) {
+                if (upstream != null) {
+                    subscription.cancel();
+                    return;
+                }
+                upstream = subscription;
+            }
+            subscriber.onSubscribe(this);
+        }
+
+        public void onNext(final Query query) {
+            synchronized (this) {
+                if (terminated) {
+                    return;
+                }
+                upstreamPending --;
+                inFlightCount ++;
+            }
+            final IoFuture<Answer> future = resolver.resolve(query);
+            synchronized (this) {
+                if (! terminated) {
+                    inFlight.add(future);
+                }
+            }
+            future.addNotifier(this, query);
+        }
+
+        public void onError(final Throwable throwable) {
+            synchronized (this) {
+                upstreamDone = true;
+                if (error == null) {
+                    error = throwable;
+                }
+            }
+            drain();
+        }
+
+        public void onComplete() {
+            synchronized (this) {
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        public void notify(final IoFuture<? extends Answer> future, final Query query) {
+            Answer answer;
+            if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                answer = null;
+            } else try {
+                answer = future.get();
+            } catch (IOException e) {
+                answer = Answer.builder().populateFromQuery(query).setResultCode(ResultCode.SERVER_FAILURE).create();
+            }
+            synchronized (this) {
+                inFlight.remove(future);
+                inFlightCount --;
+                if (answer != null && ! terminated) {
+                    ready.add(answer);
+                }
+            }
+            drain();
+        }
+
+        public void request(final long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    if (error == null) {
+                        error = new IllegalArgumentException("Non-positive request " + n);
+                    }
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        public void cancel() {
+            terminate();
+        }
+
+        private void terminate() {
+            final List<IoFuture<Answer>> futures;
+            final Subscription upstream;
+            synchronized (this) {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                ready.clear();
+                futures = new ArrayList<IoFuture<Answer>>(inFlight);
+                inFlight.clear();
+                upstream = upstreamDone ? null : this.upstream;
+            }
+            if (upstream != null) {
+                upstream.cancel();
+            }
+            for (IoFuture<Answer> future : futures) {
+                future.cancel();
+            }
+        }
+
+        /**
+         * Deliver ready answers, request more queries, and signal termination.  Only one thread drains at a time, so
+         * signals to the subscriber are serialized.  The draining thread re-reads the state
+         * on each pass, so a thread which finds another one draining can leave the work to it.
+         */
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            for (;;) {
+                Answer answer = null;
+                long request = 0;
+                Throwable failure = null;
+                boolean complete = false;
+                synchronized (this) {
+                    if (terminated) {
+                        draining = false;
+                        return;
+                    }
+                    if (error != null) {
+                        failure = error;
+                    } else if (demand > 0 && ! ready.isEmpty()) {
+                        answer = ready.poll();
+                        if (demand != Long.MAX_VALUE) {
+                            demand --;
+                        }
+                    } else if (upstreamDone && inFlightCount == 0 && ready.isEmpty()) {
+                        complete = true;
+                    } else if (! upstreamDone) {
+                        // every query requested, in flight, or ready becomes exactly one answer
+                        final long outstanding = upstreamPending + inFlightCount + ready.size();
+                        final long allowed = Math.min(demand, maxInFlight);
+                        if (allowed > outstanding) {
+                            request = allowed - outstanding;
+                            upstreamPending += request;
+                        }
+                    }
+                    if (answer == null && failure == null && ! complete && request == 0) {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (answer != null) {
+                    subscriber.onNext(answer);
+                } else if (failure != null) {
+                    terminate();
+                    subscriber.onError(failure);
+                    return;
+                } else if (complete) {
+                    terminate();
+                    subscriber.onComplete();
+                    return;
+                } else if (request > 0) {
+                    upstream.request(request);
+                }
+            }
+        }
+    }
+}
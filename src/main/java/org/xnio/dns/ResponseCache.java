@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.wildfly.common.Assert;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * A cache of encoded response messages for a {@link DnsServer}.  Responses are keyed by the question name, type and
+ * class and by the EDNS options of the request, so a hit only needs to copy the stored message and patch in the
+ * request ID, the RD flag and the question as the client spelled it, skipping both the lookup and the encoding.
+ * <p>
+ * Only complete responses whose records all have fixed TTLs, such as those for static zone data, are cached, and
+ * each one is kept for no longer than its smallest TTL.  A cache may be shared between servers, but it should be
+ * {@linkplain #clear() cleared} when the data being served changes.
+ */
+public final class ResponseCache {
+
+    /**
+     * The longest time in seconds for which a response is kept, however large its TTL.
+     */
+    private static final int MAX_TTL = 7 * 24 * 60 * 60;
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<Key, Entry>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxEntries the maximum number of responses to keep
+     */
+    public ResponseCache(final int maxEntries) {
+        Assert.checkMinimumParameter("maxEntries", 1, maxEntries);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the number of cached responses, including any which have expired but have not been removed yet.
+     *
+     * @return the number of cached responses
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * Write the cached response to a request, if there is one.
+     *
+     * @param request the successfully parsed request
+     * @param buffer the target buffer, whose limit is the maximum message size
+     * @return {@code true} if the response was written, {@code false} if there is no usable cached response
+     */
+    boolean writeCached(final DnsServer.Request request, final ByteBuffer buffer) {
+        final Key key = request.cacheKey;
+        key.set(request.name, request.rrType, request.rrClass, ednsBits(request));
+        final Entry entry = map.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.expiry - System.nanoTime() <= 0) {
+            map.remove(key, entry);
+            return false;
+        }
+        final byte[] message = entry.message;
+        final ByteBuffer question = request.question;
+        if (message.length > buffer.remaining() || question.remaining() != entry.questionLength) {
+            return false;
+        }
+        final int start = buffer.position();
+        buffer.put(message);
+        buffer.putShort(start, (short) request.id);
+        final int flags = message[2] << 8 & 0xff00 | message[3] & 0xff;
+        buffer.putShort(start + 2, (short) (flags & ~MessageEncoder.FLAG_RD | request.flags & MessageEncoder.FLAG_RD));
+        buffer.position(start + MessageEncoder.HEADER_LENGTH);
+        buffer.put(question.duplicate());
+        buffer.position(start + message.length);
+        return true;
+    }
+
+    /**
+     * Store the response to a request, if it can be cached.
+     *
+     * @param request the successfully parsed request
+     * @param answer the answer the response was encoded from
+     * @param response the encoded response, between the position and the limit of the buffer
+     */
+    void store(final DnsServer.Request request, final Answer answer, final ByteBuffer response) {
+        final int resultCode = answer.getResultCode();
+        if (resultCode != ResultCode.NOERROR && resultCode != ResultCode.NXDOMAIN) {
+            return;
+        }
+        final int start = response.position();
+        // only a response containing every record may be used for other clients, whatever their payload size
+        if ((response.getShort(start + 6) & 0xffff) != answer.getAnswerRecords().size()
+            || (response.getShort(start + 8) & 0xffff) != answer.getAuthorityRecords().size()
+            || (response.getShort(start + 10) & 0xffff) != answer.getAdditionalRecords().size() + (request.edns ? 1 : 0)) {
+            return;
+        }
+        int ttl = Integer.MAX_VALUE;
+        ttl = minimumTtl(answer.getAnswerRecords(), ttl);
+        ttl = minimumTtl(answer.getAuthorityRecords(), ttl);
+        ttl = minimumTtl(answer.getAdditionalRecords(), ttl);
+        if (resultCode == ResultCode.NXDOMAIN || answer.getAnswerRecords().isEmpty()) {
+            // a negative response lives no longer than the SOA allows, and is not cached without one (RFC 2308, section 5)
+            ttl = negativeTtl(answer.getAuthorityRecords(), ttl);
+        }
+        if (ttl <= 0 || ttl == Integer.MAX_VALUE) {
+            return;
+        }
+        final byte[] message = new byte[response.remaining()];
+        response.duplicate().get(message);
+        final Entry entry = new Entry(message, request.question.remaining(), System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.min(MAX_TTL, ttl)));
+        if (map.size() >= maxEntries) {
+            // evict whichever entry comes first; the table order is effectively arbitrary
+            final Iterator<Entry> iterator = map.values().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        map.put(new Key().set(request.name, request.rrType, request.rrClass, ednsBits(request)), entry);
+    }
+
+    private static int ednsBits(final DnsServer.Request request) {
+        return request.edns ? 1 | request.ednsFlags & MessageEncoder.EDNS_FLAG_DO : 0;
+    }
+
+    /**
+     * Get the smallest TTL of some records.
+     *
+     * @return the smallest TTL, or 0 if any record has a TTL which is not fixed and so cannot be reused
+     */
+    private static int minimumTtl(final List<Record> records, int ttl) {
+        for (Record record : records) {
+            final TTLSpec ttlSpec = record.getTtlSpec();
+            if (! ttlSpec.isFixed()) {
+                return 0;
+            }
+            ttl = Math.min(ttl, ttlSpec.getTtl());
+        }
+        return ttl;
+    }
+
+    /**
+     * Limit a TTL to the minimum field of the SOA record among some records.
+     *
+     * @return the limited TTL, or 0 if there is no SOA record
+     */
+    private static int negativeTtl(final List<Record> records, final int ttl) {
+        for (Record record : records) {
+            if (record instanceof SoaRecord) {
+                return Math.min(ttl, ((SoaRecord) record).getMinimum().getTtl());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A cache key.  Each request has one which is reused for lookups; stored keys are never modified.
+     */
+    static final class Key {
+        private Domain name;
+        private int rrType;
+        private int rrClass;
+        private int ednsBits;
+
+        Key set(final Domain name, final int rrType, final int rrClass, final int ednsBits) {
+            this.name = name;
+            this.rrType = rrType;
+            this.rrClass = rrClass;
+            this.ednsBits = ednsBits;
+            return this;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        private boolean equals(final Key other) {
+            return this == other || rrType == other.rrType && rrClass == other.rrClass && ednsBits == other.ednsBits && name.equals(other.name);
+        }
+
+        public int hashCode() {
+            return ((name.hashCode() * 31 + rrType) * 31 + rrClass) * 31 + ednsBits;
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] message;
+        private final int questionLength;
+        private final long expiry;
+
+        Entry(final byte[] message, final int questionLength, final long expiry) {
+            this.message = message;
+            this.questionLength = questionLength;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -28,6 +28,7 @@ public final class ResultCode {
     public static final int NXDOMAIN = 3;
     public static final int NOT_IMPLEMENTED = 4;
     public static final int REFUSED = 5;
+    public static final int YXDOMAIN = 6;
     public static final int UNKNOWN = -1;
 
     public static String toString(int resultCode) {
@@ -38,6 +39,7 @@ public final class ResultCode {
             case NXDOMAIN: return "NXDOMAIN";
             case NOT_IMPLEMENTED: return "NOT_IMPLEMENTED";
             case REFUSED: return "REFUSED";
+            case YXDOMAIN: return "YXDOMAIN";
             case UNKNOWN: return "UNKNOWN";
             default: return Integer.toString(resultCode);
         }
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.wildfly.common.Assert;
+import org.wildfly.common.net.Inet;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.NsRecord;
+
+/**
+ * The root name server hints used to start iterative resolution.  Hints are read from a file in the format of the
+ * {@code named.root} file published by IANA: one record per line, consisting of an owner name, an optional TTL, an
+ * optional class, a type, and the record data.  Only {@code NS} records of the root and {@code A} and {@code AAAA}
+ * records are used; comments start with {@code ;}.
+ */
+public final class RootHints {
+    private static final String DEFAULT_HINTS = "named.root";
+
+    private final List<Record> records;
+
+    private RootHints(final List<Record> records) {
+        this.records = records;
+    }
+
+    /**
+     * Get the built-in root hints.
+     *
+     * @return the built-in root hints
+     */
+    public static RootHints getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Read root hints.
+     *
+     * @param source the hints file source
+     * @return the root hints
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the hints are malformed or contain no root name servers
+     */
+    public static RootHints load(Reader source) throws IOException {
+        Assert.checkNotNullParam("source", source);
+        final BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        final List<Record> records = new ArrayList<Record>();
+        boolean hasNs = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int ci = line.indexOf(';');
+            if (ci != -1) {
+                line = line.substring(0, ci);
+            }
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            final String[] parts = line.split("\\s++");
+            if (parts.length < 3) {
+                throw new IllegalArgumentException("Invalid root hints line: " + line);
+            }
+            final Domain name = Domain.fromString(parts[0]);
+            int idx = 1;
+            int ttl = 0;
+            if (Character.isDigit(parts[idx].charAt(0))) {
+                ttl = Integer.parseInt(parts[idx++]);
+            }
+            if (idx < parts.length && parts[idx].equalsIgnoreCase("IN")) {
+                idx++;
+            }
+            if (idx + 2 != parts.length) {
+                throw new IllegalArgumentException("Invalid root hints line: " + line);
+            }
+            final String data = parts[idx + 1];
+            final TTLSpec ttlSpec = TTLSpec.createFixed(ttl);
+            switch (RRType.fromString(parts[idx].toUpperCase())) {
+                case RRType.NS: {
+                    if (name.equals(Domain.ROOT)) {
+                        records.add(new NsRecord(name, ttlSpec, Domain.fromString(data)));
+                        hasNs = true;
+                    }
+                    break;
+                }
+                case RRType.A: {
+                    records.add(new ARecord(name, ttlSpec, Inet.parseInet4AddressOrFail(data, name.getHostName())));
+                    break;
+                }
+                case RRType.AAAA: {
+                    records.add(new AaaaRecord(name, ttlSpec, Inet.parseInet6AddressOrFail(data, name.getHostName())));
+                    break;
+                }
+                default: {
+                    // ignore
+                    break;
+                }
+            }
+        }
+        if (! hasNs) {
+            throw new IllegalArgumentException("Root hints contain no root name servers");
+        }
+        return new RootHints(Collections.unmodifiableList(records));
+    }
+
+    /**
+     * Read root hints from a file.
+     *
+     * @param file the file
+     * @param encoding the file encoding, or {@code null} to use the platform encoding
+     * @return the root hints
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the hints are malformed or contain no root name servers
+     */
+    public static RootHints load(File file, String encoding) throws IOException {
+        try (FileInputStream is = new FileInputStream(file)) {
+            return load(encoding == null ? new InputStreamReader(is) : new InputStreamReader(is, encoding));
+        }
+    }
+
+    /**
+     * Get the hint records.
+     *
+     * @return the {@code NS} and address records
+     */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Get a delegation of the root zone to the hinted servers.
+     *
+     * @return the delegation
+     */
+    Delegation getDelegation() {
+        return Delegation.create(Domain.ROOT, records, records, Domain.ROOT);
+    }
+
+    public String toString() {
+        return String.format("Root hints %s", records);
+    }
+
+    static final class DefaultHolder {
+        static final RootHints DEFAULT;
+
+        static {
+            try (InputStream is = RootHints.class.getResourceAsStream(DEFAULT_HINTS)) {
+                if (is == null) {
+                    throw new IllegalStateException("Missing built-in root hints");
+                }
+                DEFAULT = load(new InputStreamReader(is, StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read built-in root hints", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A slab allocator over direct buffers.  Memory is carved into fixed-size slabs, each of which is dedicated to a single
+ * power-of-two block size class.  Blocks are identified by an integer reference which encodes the slab index and the
+ * offset within the slab.  This class is not thread-safe.
+ */
+final class SlabAllocator {
+    static final int SLAB_SHIFT = 20;
+    static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+    static final int MIN_BLOCK_SHIFT = 6;
+    static final int CLASS_COUNT = 8;
+    static final int MAX_BLOCK_SIZE = 1 << MIN_BLOCK_SHIFT + CLASS_COUNT - 1;
+    /**
+     * The maximum slab count, such that every block reference is a non-negative {@code int}.
+     */
+    static final int MAX_SLABS = 1 << 31 - SLAB_SHIFT;
+
+    private final int maxSlabs;
+    private final ByteBuffer[] slabs;
+    private final int[] slabClasses;
+    private int slabCount;
+
+    private final int[][] freeBlocks = new int[CLASS_COUNT][];
+    private final int[] freeCounts = new int[CLASS_COUNT];
+    private final int[][] classSlabs = new int[CLASS_COUNT][];
+    private final int[] classSlabCounts = new int[CLASS_COUNT];
+    private final int[] hands = new int[CLASS_COUNT];
+
+    SlabAllocator(final long maxBytes) {
+        maxSlabs = (int) Math.max(1L, Math.min(MAX_SLABS, maxBytes >> SLAB_SHIFT));
+        slabs = new ByteBuffer[maxSlabs];
+        slabClasses = new int[maxSlabs];
+        for (int i = 0; i < CLASS_COUNT; i ++) {
+            freeBlocks[i] = new int[16];
+            classSlabs[i] = new int[4];
+        }
+    }
+
+    /**
+     * Get the smallest size class which can hold the given number of bytes.
+     *
+     * @param size the size in bytes
+     * @return the size class, or -1 if the size is larger than {@link #MAX_BLOCK_SIZE}
+     */
+    static int sizeClassFor(final int size) {
+        if (size > MAX_BLOCK_SIZE) {
+            return -1;
+        }
+        final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1));
+        return Math.max(0, shift - MIN_BLOCK_SHIFT);
+    }
+
+    static int blockSize(final int sizeClass) {
+        return 1 << MIN_BLOCK_SHIFT + sizeClass;
+    }
+
+    static int offsetOf(final int ref) {
+        return ref & SLAB_SIZE - 1;
+    }
+
+    static int slabIndexOf(final int ref) {
+        return ref >>> SLAB_SHIFT;
+    }
+
+    ByteBuffer slabOf(final int ref) {
+        return slabs[ref >>> SLAB_SHIFT];
+    }
+
+    int sizeClassOf(final int ref) {
+        return slabClasses[ref >>> SLAB_SHIFT];
+    }
+
+    int slabCount(final int sizeClass) {
+        return classSlabCounts[sizeClass];
+    }
+
+    boolean isFull() {
+        return slabCount == maxSlabs;
+    }
+
+    long getReservedBytes() {
+        return (long) slabCount << SLAB_SHIFT;
+    }
+
+    /**
+     * Allocate a block of the given size class.  A new slab is reserved if no free block is available and
+     * the slab limit has not been reached.
+     *
+     * @param sizeClass the size class
+     * @return the block reference, or -1 if no block is available
+     */
+    int allocate(final int sizeClass) {
+        if (freeCounts[sizeClass] == 0) {
+            if (slabCount == maxSlabs) {
+                return -1;
+            }
+            final int slabIndex = slabCount ++;
+            slabs[slabIndex] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            assignSlab(slabIndex, sizeClass);
+        }
+        return freeBlocks[sizeClass][-- freeCounts[sizeClass]];
+    }
+
+    /**
+     * Return a block to its free list.
+     *
+     * @param ref the block reference
+     */
+    void free(final int ref) {
+        pushFree(sizeClassOf(ref), ref);
+    }
+
+    /**
+     * Get the next block of the given size class in round-robin order, for use by a clock eviction sweep.
+     *
+     * @param sizeClass the size class
+     * @return the block reference, or -1 if the size class has no slabs
+     */
+    int nextBlock(final int sizeClass) {
+        final int count = classSlabCounts[sizeClass];
+        if (count == 0) {
+            return -1;
+        }
+        final int blocksPerSlab = SLAB_SIZE >> MIN_BLOCK_SHIFT + sizeClass;
+        final int hand = hands[sizeClass] % (count * blocksPerSlab);
+        hands[sizeClass] = hand + 1;
+        final int slabIndex = classSlabs[sizeClass][hand / blocksPerSlab];
+        return slabIndex << SLAB_SHIFT | (hand % blocksPerSlab) << MIN_BLOCK_SHIFT + sizeClass;
+    }
+
+    /**
+     * Choose a slab to be taken away from the size class which currently owns the most slabs.
+     *
+     * @return the slab index, or -1 if there are no slabs
+     */
+    int chooseDonorSlab() {
+        int donorClass = -1;
+        for (int i = 0; i < CLASS_COUNT; i ++) {
+            if (donorClass == -1 ? classSlabCounts[i] > 0 : classSlabCounts[i] > classSlabCounts[donorClass]) {
+                donorClass = i;
+            }
+        }
+        if (donorClass == -1) {
+            return -1;
+        }
+        final int hand = hands[donorClass] ++;
+        return classSlabs[donorClass][(hand & Integer.MAX_VALUE) % classSlabCounts[donorClass]];
+    }
+
+    /**
+     * Move a slab to a different size class.  All of the blocks in the slab must have been freed already.
+     *
+     * @param slabIndex the slab index
+     * @param sizeClass the new size class
+     */
+    void reassignSlab(final int slabIndex, final int sizeClass) {
+        final int oldClass = slabClasses[slabIndex];
+        // purge the old blocks from the free list
+        final int[] free = freeBlocks[oldClass];
+        int j = 0;
+        for (int i = 0; i < freeCounts[oldClass]; i ++) {
+            if (slabIndexOf(free[i]) != slabIndex) {
+                free[j ++] = free[i];
+            }
+        }
+        freeCounts[oldClass] = j;
+        final int[] owned = classSlabs[oldClass];
+        final int ownedCount = classSlabCounts[oldClass];
+        for (int i = 0; i < ownedCount; i ++) {
+            if (owned[i] == slabIndex) {
+                owned[i] = owned[ownedCount - 1];
+                break;
+            }
+        }
+        classSlabCounts[oldClass] = ownedCount - 1;
+        // zero the block headers so that stale entries are not mistaken for live ones
+        final ByteBuffer slab = slabs[slabIndex];
+        for (int offs = 0; offs < SLAB_SIZE; offs += blockSize(sizeClass)) {
+            slab.put(offs, (byte) 0);
+        }
+        assignSlab(slabIndex, sizeClass);
+    }
+
+    private void assignSlab(final int slabIndex, final int sizeClass) {
+        slabClasses[slabIndex] = sizeClass;
+        int[] owned = classSlabs[sizeClass];
+        final int ownedCount = classSlabCounts[sizeClass];
+        if (ownedCount == owned.length) {
+            classSlabs[sizeClass] = owned = Arrays.copyOf(owned, ownedCount << 1);
+        }
+        owned[ownedCount] = slabIndex;
+        classSlabCounts[sizeClass] = ownedCount + 1;
+        final int blockSize = blockSize(sizeClass);
+        // push in reverse so that blocks are handed out in address order
+        for (int offs = SLAB_SIZE - blockSize; offs >= 0; offs -= blockSize) {
+            pushFree(sizeClass, slabIndex << SLAB_SHIFT | offs);
+        }
+    }
+
+    private void pushFree(final int sizeClass, final int ref) {
+        int[] free = freeBlocks[sizeClass];
+        final int count = freeCounts[sizeClass];
+        if (count == free.length) {
+            freeBlocks[sizeClass] = free = Arrays.copyOf(free, count << 1);
+        }
+        free[count] = ref;
+        freeCounts[sizeClass] = count + 1;
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.wildfly.common.Assert;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.SrvRecord;
+
+/**
+ * A pool of the endpoints of a service, discovered through its {@link RRType#SRV} records ({@rfc 2782}).  The
+ * addresses of all the targets are looked up in parallel, and the pool is refreshed in the background shortly before
+ * the smallest TTL of the records expires, so that {@link #pick()} chooses an endpoint from memory.  If a refresh
+ * fails, the previous endpoints are kept and the refresh is retried.
+ */
+public final class SrvEndpointPool implements Closeable {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.srv");
+
+    private static final long MIN_REFRESH_MILLIS = 1000L;
+    private static final long MAX_LEAD_MILLIS = 5000L;
+    private static final long MAX_RETRY_MILLIS = 60000L;
+    private static final int PARTIAL_TTL = 10;
+
+    private static final Comparator<SrvRecord> PRIORITY_ORDER = new Comparator<SrvRecord>() {
+        public int compare(final SrvRecord o1, final SrvRecord o2) {
+            return Integer.compare(o1.getPriority(), o2.getPriority());
+        }
+    };
+
+    private final Resolver resolver;
+    private final Domain name;
+    private final FutureResult<SrvEndpointPool> ready = new FutureResult<SrvEndpointPool>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // these fields are protected by {@code this}
+    private boolean closed;
+    private Load load;
+    private ScheduledFuture<?> refreshTask;
+    private long retryMillis = MIN_REFRESH_MILLIS;
+
+    private SrvEndpointPool(final Resolver resolver, final Domain name) {
+        this.resolver = resolver;
+        this.name = name;
+    }
+
+    /**
+     * Create a pool and start looking up its endpoints.
+     *
+     * @param resolver the resolver to use
+     * @param name the service name, for example {@code _ldap._tcp.example.com.}
+     * @return the pool
+     */
+    public static SrvEndpointPool create(final Resolver resolver, final Domain name) {
+        Assert.checkNotNullParam("resolver", resolver);
+        Assert.checkNotNullParam("name", name);
+        final SrvEndpointPool pool = new SrvEndpointPool(resolver, name);
+        pool.refresh();
+        return pool;
+    }
+
+    /**
+     * Get the service name.
+     *
+     * @return the service name
+     */
+    public Domain getName() {
+        return name;
+    }
+
+    /**
+     * Get a future which completes when the endpoints have first been looked up.  It fails if the first lookup fails,
+     * though the pool keeps retrying.
+     *
+     * @return the future pool
+     */
+    public IoFuture<SrvEndpointPool> getReady() {
+        return ready.getIoFuture();
+    }
+
+    /**
+     * Get the current endpoints, in order of priority.
+     *
+     * @return the endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot.endpoints));
+    }
+
+    /**
+     * Pick an endpoint from the most preferred priority.
+     *
+     * @return the endpoint, or {@code null} if there are none
+     */
+    public Endpoint pick() {
+        return snapshot.pick(0);
+    }
+
+    /**
+     * Pick an endpoint from the most preferred priority no less than the given one.  A caller which cannot reach an
+     * endpoint may fail over to the next priority by passing one more than the priority of that endpoint.
+     *
+     * @param minPriority the minimum priority
+     * @return the endpoint, or {@code null} if there are none
+     */
+    public Endpoint pick(final int minPriority) {
+        return snapshot.pick(minPriority);
+    }
+
+    /**
+     * Stop refreshing the pool.  The current endpoints remain available.
+     */
+    public void close() {
+        final Load load;
+        final ScheduledFuture<?> refreshTask;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            load = this.load;
+            refreshTask = this.refreshTask;
+            this.load = null;
+            this.refreshTask = null;
+        }
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        if (load != null) {
+            load.cancel();
+        }
+        ready.setCancelled();
+    }
+
+    void refresh() {
+        final Load load;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            refreshTask = null;
+            load = this.load = new Load();
+        }
+        load.start();
+    }
+
+    void loaded(final Load load, final Snapshot snapshot, final int minTtl) {
+        synchronized (this) {
+            if (this.load != load) {
+                return;
+            }
+            this.load = null;
+            this.snapshot = snapshot;
+            retryMillis = MIN_REFRESH_MILLIS;
+            final long ttlMillis = minTtl * 1000L;
+            schedule(Math.max(MIN_REFRESH_MILLIS, ttlMillis - Math.min(MAX_LEAD_MILLIS, ttlMillis / 10L)));
+        }
+        ready.setResult(this);
+    }
+
+    void failed(final Load load, final IOException exception) {
+        synchronized (this) {
+            if (this.load != load) {
+                return;
+            }
+            this.load = null;
+            log.debugf(exception, "Failed to look up the endpoints of %s; retrying in %d ms", name, Long.valueOf(retryMillis));
+            schedule(retryMillis);
+            retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis << 1);
+        }
+        ready.setException(exception);
+    }
+
+    private void schedule(final long delayMillis) {
+        assert Thread.holdsLock(this);
+        refreshTask = DeadlineTimer.schedule(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One lookup of the records and of the addresses of their targets.
+     */
+    final class Load {
+        private final List<IoFuture<Answer>> futures = new ArrayList<IoFuture<Answer>>();
+        // these fields are protected by {@code this}
+        private List<SrvRecord> records;
+        private final Map<Domain, List<InetAddress>> addresses = new HashMap<Domain, List<InetAddress>>();
+        private final Set<Domain> failedInet6 = new HashSet<Domain>();
+        private final Set<Domain> failedInet4 = new HashSet<Domain>();
+        private int minTtl;
+        private int pending;
+        private boolean done;
+
+        void start() {
+            final IoFuture<Answer> future = resolver.resolve(name, RRClass.IN, RRType.SRV);
+            track(future);
+            future.addNotifier(new IoFuture.Notifier<Answer, Void>() {
+                public void notify(final IoFuture<? extends Answer> future, final Void attachment) {
+                    if (future.getStatus() == IoFuture.Status.CANCELLED) {
+                        fail(new IOException("Operation was cancelled"));
+                    } else try {
+                        srvComplete(future.get());
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            }, null);
+        }
+
+        void srvComplete(final Answer answer) {
+            final int resultCode = answer.getResultCode();
+            if (resultCode != ResultCode.NOERROR) {
+                fail(new DNSException(resultCode));
+                return;
+            }
+            final List<SrvRecord> records = new ArrayList<SrvRecord>();
+            int minTtl = Integer.MAX_VALUE;
+            for (Record record : answer.getAnswerRecords()) {
+                if (record instanceof SrvRecord) {
+                    final SrvRecord srvRecord = (SrvRecord) record;
+                    minTtl = Math.min(minTtl, srvRecord.getTtlSpec().getTtl());
+                    // a target of "." means that the service is not available at all
+                    if (! srvRecord.getTarget().equals(Domain.ROOT)) {
+                        records.add(srvRecord);
+                    }
+                }
+            }
+            if (minTtl == Integer.MAX_VALUE) {
+                fail(new DNSException(ResultCode.NOERROR, "No SRV records for " + name));
+                return;
+            }
+            Collections.sort(records, PRIORITY_ORDER);
+            // use the addresses of the additional section, and look up the rest
+            final Map<Domain, List<InetAddress>> glue = new HashMap<Domain, List<InetAddress>>();
+            for (Record record : answer.getAdditionalRecords()) {
+                if (record instanceof AaaaRecord || record instanceof ARecord) {
+                    List<InetAddress> list = glue.get(record.getName());
+                    if (list == null) {
+                        glue.put(record.getName(), list = new ArrayList<InetAddress>());
+                    }
+                    list.add(record instanceof AaaaRecord ? ((AaaaRecord) record).getAddress() : ((ARecord) record).getAddress());
+                    minTtl = Math.min(minTtl, record.getTtlSpec().getTtl());
+                }
+            }
+            final List<Domain> targets = new ArrayList<Domain>();
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                this.records = records;
+                this.minTtl = minTtl;
+                for (SrvRecord record : records) {
+                    final Domain target = record.getTarget();
+                    if (addresses.containsKey(target)) {
+                        continue;
+                    }
+                    final List<InetAddress> list = glue.get(target);
+                    if (list != null) {
+                        sortInet6First(list);
+                        addresses.put(target, list);
+                    } else {
+                        addresses.put(target, new ArrayList<InetAddress>());
+                        targets.add(target);
+                    }
+                }
+                pending = targets.size() << 1;
+                if (pending == 0) {
+                    complete();
+                    return;
+                }
+            }
+            for (Domain target : targets) {
+                lookUp(target, RRType.AAAA);
+                lookUp(target, RRType.A);
+            }
+        }
+
+        private void lookUp(final Domain target, final int rrType) {
+            final IoFuture<Answer> future = resolver.resolve(target, RRClass.IN, rrType);
+            track(future);
+            future.addNotifier(new IoFuture.Notifier<Answer, Domain>() {
+                public void notify(final IoFuture<? extends Answer> future, final Domain target) {
+                    Answer answer = null;
+                    if (future.getStatus() == IoFuture.Status.DONE) try {
+                        answer = future.get();
+                    } catch (IOException ignored) {
+                    }
+                    addressComplete(target, rrType, answer);
+                }
+            }, target);
+        }
+
+        void addressComplete(final Domain target, final int rrType, final Answer answer) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (answer == null || answer.getResultCode() != ResultCode.NOERROR && answer.getResultCode() != ResultCode.NXDOMAIN) {
+                    // unlike a name without addresses, a failed lookup says nothing about the target
+                    (rrType == RRType.AAAA ? failedInet6 : failedInet4).add(target);
+                } else if (answer.getResultCode() == ResultCode.NOERROR) {
+                    final List<InetAddress> list = addresses.get(target);
+                    for (Record record : answer.getAnswerRecords()) {
+                        final InetAddress address;
+                        if (record instanceof AaaaRecord) {
+                            address = ((AaaaRecord) record).getAddress();
+                        } else if (record instanceof ARecord) {
+                            address = ((ARecord) record).getAddress();
+                        } else {
+                            continue;
+                        }
+                        list.add(address);
+                        minTtl = Math.min(minTtl, record.getTtlSpec().getTtl());
+                    }
+                }
+                if (-- pending == 0) {
+                    for (List<InetAddress> list : addresses.values()) {
+                        sortInet6First(list);
+                    }
+                    complete();
+                }
+            }
+        }
+
+        private void complete() {
+            assert Thread.holdsLock(this);
+            done = true;
+            if (! failedInet6.isEmpty() || ! failedInet4.isEmpty()) {
+                // keep the previous addresses of the families whose lookups failed, and try them again soon
+                for (Endpoint endpoint : snapshot.endpoints) {
+                    final Domain target = endpoint.getTarget();
+                    final List<InetAddress> list = addresses.get(target);
+                    if (list == null) {
+                        continue;
+                    }
+                    for (InetAddress address : endpoint.getAddresses()) {
+                        if ((address instanceof Inet4Address ? failedInet4 : failedInet6).contains(target) && ! list.contains(address)) {
+                            list.add(address);
+                        }
+                    }
+                    sortInet6First(list);
+                }
+                minTtl = Math.min(minTtl, PARTIAL_TTL);
+            }
+            final List<Endpoint> endpoints = new ArrayList<Endpoint>(records.size());
+            for (SrvRecord record : records) {
+                final List<InetAddress> list = addresses.get(record.getTarget());
+                if (list.isEmpty()) {
+                    log.debugf("No addresses for target %s of %s", record.getTarget(), name);
+                } else {
+                    endpoints.add(new Endpoint(record, Collections.unmodifiableList(list)));
+                }
+            }
+            if (endpoints.isEmpty() && ! records.isEmpty() && (! failedInet6.isEmpty() || ! failedInet4.isEmpty())) {
+                failed(this, new IOException("Failed to look up the addresses of the targets of " + name));
+                return;
+            }
+            loaded(this, new Snapshot(endpoints.toArray(new Endpoint[endpoints.size()])), minTtl);
+        }
+
+        void fail(final IOException exception) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            failed(this, exception);
+        }
+
+        private void track(final IoFuture<Answer> future) {
+            synchronized (this) {
+                if (! done) {
+                    futures.add(future);
+                    return;
+                }
+            }
+            future.cancel();
+        }
+
+        void cancel() {
+            final List<IoFuture<Answer>> futures;
+            synchronized (this) {
+                done = true;
+                futures = new ArrayList<IoFuture<Answer>>(this.futures);
+            }
+            for (IoFuture<Answer> future : futures) {
+                future.cancel();
+            }
+        }
+    }
+
+    static void sortInet6First(final List<InetAddress> list) {
+        Collections.sort(list, new Comparator<InetAddress>() {
+            public int compare(final InetAddress o1, final InetAddress o2) {
+                return Boolean.compare(o1 instanceof Inet4Address, o2 instanceof Inet4Address);
+            }
+        });
+    }
+
+    /**
+     * An immutable set of endpoints, grouped by priority, with the cumulative weights of each group for selection by
+     * binary search.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new Endpoint[0]);
+
+        final Endpoint[] endpoints;
+        // the priority and first index of each group, with the end of the last group at the end of groupStarts
+        final int[] groupPriorities;
+        final int[] groupStarts;
+        // the cumulative weight of each endpoint within its group
+        final long[] cumulativeWeights;
+
+        Snapshot(final Endpoint[] endpoints) {
+            this.endpoints = endpoints;
+            int groups = 0;
+            for (int i = 0; i < endpoints.length; i ++) {
+                if (i == 0 || endpoints[i].priority != endpoints[i - 1].priority) {
+                    groups ++;
+                }
+            }
+            groupPriorities = new int[groups];
+            groupStarts = new int[groups + 1];
+            cumulativeWeights = new long[endpoints.length];
+            int group = -1;
+            long sum = 0;
+            for (int i = 0; i < endpoints.length; i ++) {
+                if (i == 0 || endpoints[i].priority != endpoints[i - 1].priority) {
+                    group ++;
+                    groupPriorities[group] = endpoints[i].priority;
+                    groupStarts[group] = i;
+                    sum = 0;
+                }
+                // a weight of zero gets a very small chance of being picked (RFC 2782)
+                final int weight = endpoints[i].weight;
+                sum += weight == 0 ? 1 : (long) weight << 8;
+                cumulativeWeights[i] = sum;
+            }
+            groupStarts[groups] = endpoints.length;
+        }
+
+        Endpoint pick(final int minPriority) {
+            int group = Arrays.binarySearch(groupPriorities, minPriority);
+            if (group < 0) {
+                group = -group - 1;
+            }
+            if (group == groupPriorities.length) {
+                return null;
+            }
+            final int start = groupStarts[group];
+            final int end = groupStarts[group + 1];
+            final long r = ThreadLocalRandom.current().nextLong(cumulativeWeights[end - 1]);
+            // find the first endpoint whose cumulative weight exceeds r
+            int low = start, high = end - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (cumulativeWeights[mid] > r) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return endpoints[low];
+        }
+    }
+
+    /**
+     * An endpoint of a service.
+     */
+    public static final class Endpoint {
+        private final Domain target;
+        private final int priority;
+        private final int weight;
+        private final int port;
+        private final List<InetAddress> addresses;
+        private final InetSocketAddress socketAddress;
+
+        Endpoint(final SrvRecord record, final List<InetAddress> addresses) {
+            target = record.getTarget();
+            priority = record.getPriority();
+            weight = record.getWeight();
+            port = record.getPort();
+            this.addresses = addresses;
+            socketAddress = new InetSocketAddress(addresses.get(0), port);
+        }
+
+        /**
+         * Get the target host.
+         *
+         * @return the target host
+         */
+        public Domain getTarget() {
+            return target;
+        }
+
+        /**
+         * Get the priority.
+         *
+         * @return the priority, lower values being preferred
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Get the weight.
+         *
+         * @return the relative weight among endpoints of the same priority
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Get the port.
+         *
+         * @return the port
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Get the addresses of the target, IPv6 first.
+         *
+         * @return the addresses, of which there is at least one
+         */
+        public List<InetAddress> getAddresses() {
+            return addresses;
+        }
+
+        /**
+         * Get the socket address of the first address of the target.
+         *
+         * @return the socket address
+         */
+        public InetSocketAddress getSocketAddress() {
+            return socketAddress;
+        }
+
+        public String toString() {
+            return priority + " " + weight + " " + target + ":" + port + " " + addresses;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A hashed timer wheel, for large numbers of long timeouts which are frequently rescheduled.  Scheduling and
+ * cancelling cost constant time, at the price of firing up to one tick late.  The wheel ticks on the deadline timer,
+ * and only while it has timeouts.
+ */
+final class TimerWheel {
+
+    private static final Logger log = Logger.getLogger("org.xnio.dns.timer");
+
+    /**
+     * The wheel shared by the whole library.
+     */
+    static final TimerWheel INSTANCE = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(100L), 1024);
+
+    private final long tickNanos;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    private final Runnable tickTask = new Runnable() {
+        public void run() {
+            tick();
+        }
+    };
+
+    // these fields are protected by {@code this}
+    private final Timeout[] slots;
+    private long processedTick;
+    private int count;
+    private boolean ticking;
+
+    TimerWheel(final long tickNanos, final int slotCount) {
+        assert Integer.bitCount(slotCount) == 1;
+        this.tickNanos = tickNanos;
+        slots = new Timeout[slotCount];
+        mask = slotCount - 1;
+    }
+
+    /**
+     * Schedule a timeout, which must not already be scheduled.
+     *
+     * @param timeout the timeout
+     * @param delay the delay
+     * @param unit the delay unit
+     */
+    void schedule(final Timeout timeout, final long delay, final TimeUnit unit) {
+        final long tick = (System.nanoTime() - startNanos + unit.toNanos(Math.max(0L, delay)) + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            assert ! timeout.scheduled;
+            // never schedule into a tick which has already been processed
+            final long deadlineTick = Math.max(tick, processedTick + 1);
+            final int slot = (int) deadlineTick & mask;
+            timeout.deadlineTick = deadlineTick;
+            timeout.slot = slot;
+            timeout.prev = null;
+            timeout.next = slots[slot];
+            if (timeout.next != null) {
+                timeout.next.prev = timeout;
+            }
+            slots[slot] = timeout;
+            timeout.scheduled = true;
+            count ++;
+            if (! ticking) {
+                ticking = true;
+                scheduleTick();
+            }
+        }
+    }
+
+    /**
+     * Cancel a timeout.
+     *
+     * @param timeout the timeout
+     * @return {@code true} if the timeout was scheduled, or {@code false} if it has fired or was never scheduled
+     */
+    synchronized boolean cancel(final Timeout timeout) {
+        if (! timeout.scheduled) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(final Timeout timeout) {
+        assert Thread.holdsLock(this);
+        if (timeout.prev == null) {
+            slots[timeout.slot] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.scheduled = false;
+        count --;
+    }
+
+    private void scheduleTick() {
+        assert Thread.holdsLock(this);
+        final long nextTickNanos = startNanos + (processedTick + 1) * tickNanos;
+        DeadlineTimer.schedule(tickTask, nextTickNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    void tick() {
+        Timeout expired = null;
+        synchronized (this) {
+            final long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+            // visit each slot at most once, even if the timer fell more than a whole round behind
+            final long last = Math.min(nowTick, processedTick + slots.length);
+            for (long tick = processedTick + 1; tick <= last; tick ++) {
+                Timeout timeout = slots[(int) tick & mask];
+                while (timeout != null) {
+                    final Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= nowTick) {
+                        unlink(timeout);
+                        timeout.next = expired;
+                        expired = timeout;
+                    }
+                    timeout = next;
+                }
+            }
+            processedTick = Math.max(processedTick, nowTick);
+            if (count > 0) {
+                scheduleTick();
+            } else {
+                ticking = false;
+            }
+        }
+        while (expired != null) {
+            final Timeout timeout = expired;
+            expired = timeout.next;
+            timeout.next = null;
+            try {
+                timeout.run();
+            } catch (Throwable t) {
+                log.errorf(t, "Timeout task %s failed", timeout);
+            }
+        }
+    }
+
+    /**
+     * A timeout, which may be scheduled on one wheel at a time.  The links are protected by the wheel.
+     */
+    abstract static class Timeout implements Runnable {
+        Timeout prev;
+        Timeout next;
+        long deadlineTick;
+        int slot;
+        boolean scheduled;
+    }
+}
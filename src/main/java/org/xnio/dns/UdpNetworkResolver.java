@@ -20,37 +20,70 @@ package org.xnio.dns;
 
 import java.net.SocketAddress;
 import java.net.InetSocketAddress;
-import java.util.Set;
+import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.ByteBuffer;
 import java.nio.BufferUnderflowException;
 import java.nio.channels.Channel;
+import java.io.Closeable;
 import java.io.IOException;
+import org.wildfly.common.Assert;
 import org.xnio.BufferAllocator;
+import org.xnio.Bits;
 import org.xnio.IoFuture;
 import org.xnio.ChannelListener;
 import org.xnio.Pool;
 import org.xnio.Buffers;
+import org.xnio.Cancellable;
+import org.xnio.FinishedIoFuture;
 import org.xnio.IoUtils;
 import org.xnio.ChannelSource;
 import org.xnio.FutureResult;
 import org.jboss.logging.Logger;
+import org.xnio.OptionMap;
 import org.xnio.Pooled;
+import org.xnio.XnioWorker;
 import org.xnio.channels.MulticastMessageChannel;
 import org.xnio.channels.SocketAddressBuffer;
 
 /**
  * A network resolver which uses UDP to contact a remote server.
+ * <p>
+ * By default each query is sent from a new channel, which gives every query a fresh source port.  Alternatively the
+ * resolver can keep a fixed number of long-lived channels and multiplex queries over them by request ID, which avoids
+ * opening a socket per query; this suits a forwarder talking to a trusted upstream server.  Queries on shared
+ * channels are retransmitted if no reply arrives.
  */
-public final class UdpNetworkResolver extends AbstractNetworkResolver {
+public final class UdpNetworkResolver extends AbstractNetworkResolver implements Closeable {
 
     private static final Logger log = Logger.getLogger("org.xnio.dns.resolver.udp");
 
+    private static final int FLAG_QR = 1 << 15;
+    private static final int FLAG_AA = 1 << 10;
+    private static final int FLAG_TC = 1 << 9;
+    private static final int FLAG_RD = 1 << 8;
+    private static final int FLAG_RA = 1 << 7;
+    private static final int RCODE_MASK = 0xf;
+
+    /** The time to wait for a reply on a shared channel before the first retransmission. */
+    private static final long RETRANSMIT_MILLIS = 1000L;
+    /** The number of times a query on a shared channel is sent before it fails; the wait doubles each time. */
+    private static final int MAX_ATTEMPTS = 3;
+    /** The maximum number of outstanding queries per shared channel, which keeps request IDs easy to find. */
+    private static final int MAX_EXCHANGES = 0x8000;
+
     private final Pool<ByteBuffer> bufferPool;
     private final ChannelSource<MulticastMessageChannel> channelSource;
     private final Executor executor;
     private final Random random;
+    private final SharedChannel[] sharedChannels;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private volatile boolean closed;
 
     /**
      * Construct a new UDP network resolver.  In order to provide resilient security, the given channel source
@@ -78,6 +111,63 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
         this.channelSource = channelSource;
         this.executor = executor;
         this.random = random;
+        sharedChannels = null;
+    }
+
+    /**
+     * Construct a new UDP network resolver which multiplexes queries over a fixed number of shared channels.  The
+     * channels are opened on first use and reopened if they are closed.
+     *
+     * @param executor the executor to use for asynchronous notifications
+     * @param channelSource the channel source to use to create the shared channels
+     * @param random the RNG to use to generate request IDs
+     * @param channelCount the number of shared channels
+     */
+    public UdpNetworkResolver(final Executor executor, final ChannelSource<MulticastMessageChannel> channelSource, final Random random, final int channelCount) {
+        Assert.checkMinimumParameter("channelCount", 1, channelCount);
+        bufferPool = Buffers.allocatedBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 512);
+        this.channelSource = channelSource;
+        this.executor = executor;
+        this.random = random;
+        sharedChannels = new SharedChannel[channelCount];
+        for (int i = 0; i < channelCount; i ++) {
+            sharedChannels[i] = new SharedChannel();
+        }
+    }
+
+    /**
+     * Construct a new UDP network resolver which multiplexes queries over a fixed number of shared channels, bound to
+     * random ports of the wildcard address by the given worker.
+     *
+     * @param worker the worker to open channels and deliver notifications with
+     * @param channelCount the number of shared channels
+     */
+    public UdpNetworkResolver(final XnioWorker worker, final int channelCount) {
+        this(worker, new ChannelSource<MulticastMessageChannel>() {
+            public IoFuture<MulticastMessageChannel> open(final ChannelListener<? super MulticastMessageChannel> openListener) {
+                try {
+                    return new FinishedIoFuture<MulticastMessageChannel>(worker.createUdpServer(new InetSocketAddress(0), openListener, OptionMap.EMPTY));
+                } catch (IOException e) {
+                    final FutureResult<MulticastMessageChannel> result = new FutureResult<MulticastMessageChannel>();
+                    result.setException(e);
+                    return result.getIoFuture();
+                }
+            }
+        }, new SecureRandom(), channelCount);
+    }
+
+    /**
+     * Close the shared channels of this resolver, failing any queries in progress on them.  Queries made after this
+     * method is called fail.  Does nothing if this resolver does not use shared channels.
+     */
+    public void close() {
+        if (sharedChannels == null) {
+            return;
+        }
+        closed = true;
+        for (SharedChannel sharedChannel : sharedChannels) {
+            sharedChannel.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -92,49 +182,60 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
             this.serverAddress = serverAddress;
         }
 
-        public IoFuture<Answer> resolve(final Domain name, final RRClass rrClass, final RRType rrType, final Set<Query.Flag> flags) {
-            final int id = random.nextInt() & 0xffff;
+        protected Executor getNotifierExecutor() {
+            return executor;
+        }
+
+        public IoFuture<Answer> resolve(final Query query) {
             final FutureResult<Answer> manager = new FutureResult<Answer>(executor);
+            if (query.isExpired()) {
+                manager.setException(DeadlineTimer.deadlineExceeded(query));
+                return manager.getIoFuture();
+            }
+            if (! query.getBudget().tryAcquire()) {
+                manager.setException(new IOException("Upstream query budget exhausted for " + query));
+                return manager.getIoFuture();
+            }
+            DeadlineTimer.schedule(query, manager);
+            if (sharedChannels != null) {
+                resolveShared(query, serverAddress, manager);
+                return manager.getIoFuture();
+            }
+            final Domain name = query.getDomain();
+            final int id = random.nextInt() & 0xffff;
             final IoFuture<? extends MulticastMessageChannel> futureChannel = channelSource.open(new ChannelListener<MulticastMessageChannel>() {
                 public void handleEvent(final MulticastMessageChannel channel) {
                     channel.getCloseSetter().set(new ChannelListener<Channel>() {
                         public void handleEvent(final Channel channel) {
                             // cancel request if it isn't done
-                            manager.setCancelled();
+                            DeadlineTimer.cancelled(query, manager);
                         }
                     });
                     manager.addCancelHandler(IoUtils.closingCancellable(channel));
-                    channel.getReadSetter().set(new ReadListener(id, manager, name, rrClass, rrType));
+                    channel.getReadSetter().set(new ReadListener(id, manager, name, query.getRRClass(), query.getRRType()));
                     channel.resumeReads();
                     final Pooled<ByteBuffer> pooled = bufferPool.allocate();
-                    final ByteBuffer buffer = pooled.getResource();
-                    buffer.putShort((short) id);
-                    buffer.putShort((short) (flags.contains(Query.Flag.NO_RECURSION) ? 0 : 1 << 7));
-                    buffer.putShort((short) 1);
-                    buffer.putShort((short) 0);
-                    buffer.putShort((short) 0);
-                    buffer.putShort((short) 0);
-                    for (Domain.Label label : name.getParts()) {
-                        final byte[] bytes = label.getBytes();
-                        buffer.put((byte) bytes.length);
-                        buffer.put(bytes);
-                    }
-                    buffer.put((byte) 0);
-                    buffer.putShort((short) rrType.getId());
-                    buffer.putShort((short) rrClass.getId());
-                    buffer.flip();
                     try {
+                        final ByteBuffer buffer = pooled.getResource();
+                        writeQuery(buffer, id, query);
+                        buffer.flip();
                         channel.sendTo(serverAddress, buffer);
                     } catch (IOException e) {
                         manager.setException(e);
                         IoUtils.safeClose(channel);
+                    } finally {
+                        pooled.free();
                     }
                 }
             });
             manager.addCancelHandler(futureChannel);
             futureChannel.addNotifier(new IoFuture.HandlingNotifier<Channel, FutureResult<Answer>>() {
                 public void handleCancelled(final FutureResult<Answer> attachment) {
-                    attachment.setCancelled();
+                    DeadlineTimer.cancelled(query, attachment);
+                }
+
+                public void handleFailed(final IOException exception, final FutureResult<Answer> attachment) {
+                    attachment.setException(exception);
                 }
             }, manager);
             return manager.getIoFuture();
@@ -145,11 +246,11 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
 
         private final int id;
         private final Domain name;
-        private final RRClass rrClass;
-        private final RRType rrType;
+        private final int rrClass;
+        private final int rrType;
         private final FutureResult<Answer> request;
 
-        ReadListener(final int id, final FutureResult<Answer> request, final Domain name, final RRClass rrClass, final RRType rrType) {
+        ReadListener(final int id, final FutureResult<Answer> request, final Domain name, final int rrClass, final int rrType) {
             this.id = id;
             this.request = request;
             this.name = name;
@@ -169,11 +270,16 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
                 }
                 final SocketAddressBuffer addressBuffer = new SocketAddressBuffer();
                 try {
-                    channel.receiveFrom(addressBuffer, buffer);
+                    if (channel.receiveFrom(addressBuffer, buffer) == 0) {
+                        return;
+                    }
                 } catch (IOException e) {
-                    log.error("Closing channel '%s' due to I/O error on read: %s", channel, e);
+                    log.errorf("Closing channel '%s' due to I/O error on read: %s", channel, e);
+                    request.setException(e);
                     IoUtils.safeClose(channel);
+                    return;
                 }
+                final long receiveTimeStamp = System.currentTimeMillis();
                 buffer.flip();
                 try {
                     final int id = buffer.getShort() & 0xffff;
@@ -183,45 +289,26 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
                         return;
                     }
                     final int flags = buffer.getShort() & 0xffff;
-                    if ((flags & 1 << 0) == 0) {
+                    if ((flags & FLAG_QR) == 0) {
                         // ignore query
                         channel.resumeReads();
                         return;
                     }
-                    final Answer.Builder builder = Answer.builder();
-                    if (((flags & 1 << 6) != 0)) {
+                    if ((flags & FLAG_TC) != 0) {
                         // todo truncation request - handle via TCP some other time
-                        request.setResult(builder.setHeaderInfo(name, rrClass, rrType, ResultCode.FORMAT_ERROR).create());
+                        request.setResult(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.FORMAT_ERROR).create());
                         IoUtils.safeClose(channel);
                         return;
                     }
-                    builder.setResultCode(ResultCode.fromInt(flags >> 12));
-                    if (((flags & 1 << 5) != 0)) builder.addFlag(Answer.Flag.AUTHORITATIVE);
-                    if (((flags & 1 << 8) != 0)) builder.addFlag(Answer.Flag.RECURSION_AVAILABLE);
-                    final int qcnt = buffer.getShort() & 0xffff;
-                    if (qcnt != 1) {
+                    final Answer answer = readAnswer(buffer, flags, receiveTimeStamp);
+                    if (answer == null) {
                         // ignore bogus reply
                         channel.resumeReads();
                         return;
                     }
-                    final int ancnt = buffer.getShort() & 0xffff;
-                    final int nscnt = buffer.getShort() & 0xffff;
-                    final int arcnt = buffer.getShort() & 0xffff;
-                    builder.setQueryDomain(Domain.fromBytes(buffer));
-                    builder.setQueryRRType(RRType.fromInt(buffer.getShort() & 0xffff));
-                    builder.setQueryRRClass(RRClass.fromInt(buffer.getShort() & 0xffff));
-                    for (int i = 0; i < ancnt; i ++) {
-                        builder.addAnswerRecord(Record.fromBytes(buffer));
-                    }
-                    for (int i = 0; i < nscnt; i ++) {
-                        builder.addAuthorityRecord(Record.fromBytes(buffer));
-                    }
-                    for (int i = 0; i < arcnt; i ++) {
-                        builder.addAdditionalRecord(Record.fromBytes(buffer));
-                    }
-                    request.setResult(builder.create());
+                    request.setResult(answer);
                     IoUtils.safeClose(channel);
-                } catch (BufferUnderflowException e) {
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
                     request.setResult(Answer.builder().setHeaderInfo(name, rrClass, rrType, ResultCode.FORMAT_ERROR).create());
                     IoUtils.safeClose(channel);
                 }
@@ -230,4 +317,316 @@ public final class UdpNetworkResolver extends AbstractNetworkResolver {
             }
         }
     }
+
+    private static void writeQuery(final ByteBuffer buffer, final int id, final Query query) {
+        buffer.putShort((short) id);
+        buffer.putShort((short) (Bits.allAreSet(query.getQueryFlags(), Query.Flag.NO_RECURSION) ? 0 : FLAG_RD));
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        query.getDomain().writeTo(buffer);
+        buffer.putShort((short) query.getRRType());
+        buffer.putShort((short) query.getRRClass());
+    }
+
+    /**
+     * Read the rest of a reply whose ID and flags have been read.
+     *
+     * @param buffer the reply
+     * @param flags the reply flags
+     * @param receiveTimeStamp the time the reply was received
+     * @return the answer, or {@code null} if the reply does not have exactly one question
+     */
+    private static Answer readAnswer(final ByteBuffer buffer, final int flags, final long receiveTimeStamp) {
+        final Answer.Builder builder = Answer.builder();
+        builder.setResultCode(flags & RCODE_MASK);
+        if ((flags & FLAG_AA) != 0) builder.addFlag(Answer.Flag.AUTHORITATIVE);
+        if ((flags & FLAG_RD) != 0) builder.addFlag(Answer.Flag.RECURSION_DESIRED);
+        if ((flags & FLAG_RA) != 0) builder.addFlag(Answer.Flag.RECURSION_AVAILABLE);
+        final int qcnt = buffer.getShort() & 0xffff;
+        if (qcnt != 1) {
+            return null;
+        }
+        final int ancnt = buffer.getShort() & 0xffff;
+        final int nscnt = buffer.getShort() & 0xffff;
+        final int arcnt = buffer.getShort() & 0xffff;
+        builder.setQueryDomain(Domain.fromBytes(buffer));
+        builder.setQueryRRType(buffer.getShort() & 0xffff);
+        builder.setQueryRRClass(buffer.getShort() & 0xffff);
+        for (int i = 0; i < ancnt; i ++) {
+            builder.addAnswerRecord(Record.fromBytes(buffer, receiveTimeStamp));
+        }
+        for (int i = 0; i < nscnt; i ++) {
+            builder.addAuthorityRecord(Record.fromBytes(buffer, receiveTimeStamp));
+        }
+        for (int i = 0; i < arcnt; i ++) {
+            builder.addAdditionalRecord(Record.fromBytes(buffer, receiveTimeStamp));
+        }
+        return builder.create();
+    }
+
+    void resolveShared(final Query query, final InetSocketAddress server, final FutureResult<Answer> manager) {
+        if (closed) {
+            manager.setException(new IOException("Resolver is closed"));
+            return;
+        }
+        final SharedChannel sharedChannel = sharedChannels[(nextChannel.getAndIncrement() & Integer.MAX_VALUE) % sharedChannels.length];
+        final Exchange exchange = sharedChannel.register(query, server, manager);
+        if (exchange == null) {
+            manager.setException(new IOException("Too many outstanding queries"));
+            return;
+        }
+        manager.addCancelHandler(exchange);
+        final IoFuture<? extends MulticastMessageChannel> futureChannel = sharedChannel.getChannel();
+        if (futureChannel.getStatus() == IoFuture.Status.DONE) {
+            // the usual case; skip the notifier dispatch
+            try {
+                exchange.start(futureChannel.get());
+            } catch (IOException e) {
+                // not possible
+            }
+            return;
+        }
+        futureChannel.addNotifier(new IoFuture.HandlingNotifier<MulticastMessageChannel, Exchange>() {
+            public void handleCancelled(final Exchange attachment) {
+                attachment.cancel();
+            }
+
+            public void handleFailed(final IOException exception, final Exchange attachment) {
+                attachment.fail(exception);
+            }
+
+            public void handleDone(final MulticastMessageChannel channel, final Exchange attachment) {
+                attachment.start(channel);
+            }
+        }, exchange);
+    }
+
+    /**
+     * A long-lived channel which carries many queries, told apart by request ID.
+     */
+    private final class SharedChannel implements ChannelListener<MulticastMessageChannel> {
+        private final ConcurrentHashMap<Integer, Exchange> exchanges = new ConcurrentHashMap<Integer, Exchange>();
+        // protected by {@code this}
+        private IoFuture<? extends MulticastMessageChannel> futureChannel;
+
+        Exchange register(final Query query, final InetSocketAddress server, final FutureResult<Answer> result) {
+            if (exchanges.size() >= MAX_EXCHANGES) {
+                return null;
+            }
+            for (;;) {
+                final Exchange exchange = new Exchange(this, random.nextInt() & 0xffff, query, server, result);
+                if (exchanges.putIfAbsent(Integer.valueOf(exchange.id), exchange) == null) {
+                    return exchange;
+                }
+            }
+        }
+
+        boolean remove(final Exchange exchange) {
+            return exchanges.remove(Integer.valueOf(exchange.id), exchange);
+        }
+
+        IoFuture<? extends MulticastMessageChannel> getChannel() {
+            synchronized (this) {
+                IoFuture<? extends MulticastMessageChannel> futureChannel = this.futureChannel;
+                if (futureChannel == null || futureChannel.getStatus() == IoFuture.Status.FAILED || futureChannel.getStatus() == IoFuture.Status.CANCELLED) {
+                    this.futureChannel = futureChannel = channelSource.open(new ChannelListener<MulticastMessageChannel>() {
+                        public void handleEvent(final MulticastMessageChannel channel) {
+                            channel.getCloseSetter().set(new ChannelListener<MulticastMessageChannel>() {
+                                public void handleEvent(final MulticastMessageChannel channel) {
+                                    closed(channel);
+                                }
+                            });
+                            channel.getReadSetter().set(SharedChannel.this);
+                            channel.resumeReads();
+                        }
+                    });
+                }
+                return futureChannel;
+            }
+        }
+
+        void closed(final MulticastMessageChannel channel) {
+            synchronized (this) {
+                final IoFuture<? extends MulticastMessageChannel> futureChannel = this.futureChannel;
+                if (futureChannel != null && futureChannel.getStatus() == IoFuture.Status.DONE) try {
+                    if (futureChannel.get() == channel) {
+                        // the next query opens a new channel
+                        this.futureChannel = null;
+                    }
+                } catch (IOException e) {
+                    // not possible
+                }
+            }
+            for (Exchange exchange : exchanges.values()) {
+                if (exchange.channel == channel) {
+                    exchange.fail(new IOException("Channel closed"));
+                }
+            }
+        }
+
+        void close() {
+            final IoFuture<? extends MulticastMessageChannel> futureChannel;
+            synchronized (this) {
+                futureChannel = this.futureChannel;
+                this.futureChannel = null;
+            }
+            if (futureChannel != null) {
+                futureChannel.cancel();
+                IoUtils.safeClose(futureChannel);
+            }
+            for (Exchange exchange : exchanges.values()) {
+                exchange.fail(new IOException("Resolver is closed"));
+            }
+        }
+
+        public void handleEvent(final MulticastMessageChannel channel) {
+            final Pooled<ByteBuffer> pooled = bufferPool.allocate();
+            try {
+                final ByteBuffer buffer = pooled.getResource();
+                final SocketAddressBuffer addressBuffer = new SocketAddressBuffer();
+                for (;;) {
+                    buffer.clear();
+                    try {
+                        if (channel.receiveFrom(addressBuffer, buffer) == 0) {
+                            return;
+                        }
+                    } catch (IOException e) {
+                        log.errorf("Closing channel '%s' due to I/O error on read: %s", channel, e);
+                        IoUtils.safeClose(channel);
+                        return;
+                    }
+                    final long receiveTimeStamp = System.currentTimeMillis();
+                    buffer.flip();
+                    handleReply(buffer, addressBuffer.getSourceAddress(), receiveTimeStamp);
+                }
+            } finally {
+                pooled.free();
+            }
+        }
+
+        private void handleReply(final ByteBuffer buffer, final SocketAddress source, final long receiveTimeStamp) {
+            if (buffer.remaining() < 4) {
+                return;
+            }
+            final int id = buffer.getShort() & 0xffff;
+            final int flags = buffer.getShort() & 0xffff;
+            final Exchange exchange = exchanges.get(Integer.valueOf(id));
+            if (exchange == null || (flags & FLAG_QR) == 0 || ! exchange.server.equals(source)) {
+                // late, duplicated or forged
+                return;
+            }
+            final Query query = exchange.query;
+            Answer answer;
+            if ((flags & FLAG_TC) != 0) {
+                answer = Answer.builder().setHeaderInfo(query.getDomain(), query.getRRClass(), query.getRRType(), ResultCode.FORMAT_ERROR).create();
+            } else try {
+                answer = readAnswer(buffer, flags, receiveTimeStamp);
+                if (answer == null || ! answer.getQueryDomain().equals(query.getDomain()) || answer.getQueryRRType() != query.getRRType() || answer.getQueryRRClass() != query.getRRClass()) {
+                    // not the reply to this question; keep waiting
+                    return;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                answer = Answer.builder().setHeaderInfo(query.getDomain(), query.getRRClass(), query.getRRType(), ResultCode.FORMAT_ERROR).create();
+            }
+            exchange.complete(answer);
+        }
+    }
+
+    /**
+     * A query in progress on a shared channel.
+     */
+    private final class Exchange implements Cancellable, Runnable {
+        private final SharedChannel sharedChannel;
+        private final int id;
+        private final Query query;
+        private final InetSocketAddress server;
+        private final FutureResult<Answer> result;
+        private volatile MulticastMessageChannel channel;
+        // these fields are protected by {@code this}
+        private int attempts;
+        private boolean done;
+        private ScheduledFuture<?> retransmitTask;
+
+        Exchange(final SharedChannel sharedChannel, final int id, final Query query, final InetSocketAddress server, final FutureResult<Answer> result) {
+            this.sharedChannel = sharedChannel;
+            this.id = id;
+            this.query = query;
+            this.server = server;
+            this.result = result;
+        }
+
+        void start(final MulticastMessageChannel channel) {
+            this.channel = channel;
+            run();
+        }
+
+        /**
+         * Send the query, or fail it if it has been sent too often.  Runs again from the timer until a reply arrives.
+         */
+        public void run() {
+            final long delay;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (attempts == MAX_ATTEMPTS) {
+                    fail(new IOException("No reply from " + server + " to " + query));
+                    return;
+                }
+                delay = RETRANSMIT_MILLIS << attempts ++;
+            }
+            final Pooled<ByteBuffer> pooled = bufferPool.allocate();
+            try {
+                final ByteBuffer buffer = pooled.getResource();
+                writeQuery(buffer, id, query);
+                buffer.flip();
+                // if the send buffer is full, the retransmission takes care of it
+                channel.sendTo(server, buffer);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            } finally {
+                pooled.free();
+            }
+            synchronized (this) {
+                if (! done) {
+                    retransmitTask = DeadlineTimer.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private boolean finish() {
+            if (! sharedChannel.remove(this)) {
+                return false;
+            }
+            synchronized (this) {
+                done = true;
+                if (retransmitTask != null) {
+                    retransmitTask.cancel(false);
+                }
+            }
+            return true;
+        }
+
+        void complete(final Answer answer) {
+            if (finish()) {
+                result.setResult(answer);
+            }
+        }
+
+        void fail(final IOException exception) {
+            if (finish()) {
+                result.setException(exception);
+            }
+        }
+
+        public Cancellable cancel() {
+            if (finish()) {
+                DeadlineTimer.cancelled(query, result);
+            }
+            return this;
+        }
+    }
 }
@@ -47,6 +47,15 @@ public final class XnioNameService implements NameService {
         resolverRef.set(resolver);
     }
 
+    /**
+     * Get the global resolver that the name service uses.
+     *
+     * @return the resolver, which is an {@link EmptyResolver} if none was set
+     */
+    public static Resolver getGlobalResolver() {
+        return resolverRef.get();
+    }
+
     /**
      * Look up all hosts by name.
      *
@@ -57,7 +66,11 @@ public final class XnioNameService implements NameService {
     public InetAddress[] lookupAllHostAddr(final String hostName) throws UnknownHostException {
         try {
             final Resolver resolver = resolverRef.get();
-            final List<InetAddress> addressList = resolver.resolveAllInet(Domain.fromString(hostName)).get();
+            final Domain name = Domain.fromString(hostName);
+            List<InetAddress> addressList = resolver.tryResolveAllInetCached(name);
+            if (addressList == null) {
+                addressList = resolver.resolveAllInet(name).get();
+            }
             final int len = addressList.size();
             if (len == 0) {
                 throw new UnknownHostException(hostName + ": no valid DNS records");
@@ -80,7 +93,9 @@ public final class XnioNameService implements NameService {
     public String getHostByAddr(final byte[] bytes) throws UnknownHostException {
         final Resolver resolver = resolverRef.get();
         try {
-            final Domain domain = resolver.resolveReverse(InetAddress.getByAddress("unresolved", bytes)).get();
+            final InetAddress address = InetAddress.getByAddress("unresolved", bytes);
+            final Answer cached = resolver.tryResolveCached(new Query(Domain.reverseArpa(address), RRClass.IN, RRType.PTR, 0));
+            final Domain domain = cached != null ? AbstractResolver.ptrDomain(cached) : resolver.resolveReverse(address).get();
             if (domain == null) {
                 throw new UnknownHostException();
             }
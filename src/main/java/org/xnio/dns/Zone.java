@@ -18,27 +18,140 @@
 
 package org.xnio.dns;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.wildfly.common.Assert;
 import org.xnio.dns.record.SoaRecord;
 
 /**
- *
+ * The data of an authoritative zone: its SOA record and all the records at or below its origin.  Instances are
+ * immutable.
  */
 public final class Zone {
     private final SoaRecord soaRecord;
-    private final Map<RecordIdentifier, Record> recordMap;
+    private final Map<Domain, Map<Integer, List<Record>>> recordMap;
 
-    Zone(final SoaRecord soaRecord, final Map<RecordIdentifier, Record> recordMap) {
+    Zone(final SoaRecord soaRecord, final Map<Domain, Map<Integer, List<Record>>> recordMap) {
         this.soaRecord = soaRecord;
         this.recordMap = recordMap;
     }
 
+    /**
+     * Create a zone.  The zone origin is the owner of the SOA record.
+     *
+     * @param soaRecord the SOA record of the zone
+     * @param records the other records of the zone
+     * @return the zone
+     * @throws IllegalArgumentException if a record lies outside of the zone
+     */
+    public static Zone create(SoaRecord soaRecord, Collection<? extends Record> records) {
+        Assert.checkNotNullParam("soaRecord", soaRecord);
+        Assert.checkNotNullParam("records", records);
+        final Domain origin = soaRecord.getName();
+        final Map<Domain, Map<Integer, List<Record>>> recordMap = new HashMap<Domain, Map<Integer, List<Record>>>();
+        add(recordMap, origin, soaRecord);
+        for (Record record : records) {
+            Assert.checkNotNullParam("record", record);
+            final Domain name = record.getName();
+            if (! name.isSubdomainOf(origin)) {
+                throw new IllegalArgumentException("Record " + record + " is not in zone " + origin);
+            }
+            if (record.getRrType() != RRType.SOA || ! name.equals(origin)) {
+                add(recordMap, name, record);
+            }
+            // names between the origin and the owner exist even if they own no records
+            for (Domain parent = name.getParent(); parent != null && ! parent.equals(origin) && parent.isSubdomainOf(origin); parent = parent.getParent()) {
+                if (recordMap.putIfAbsent(parent, Collections.<Integer, List<Record>>emptyMap()) != null) {
+                    break;
+                }
+            }
+        }
+        for (Map.Entry<Domain, Map<Integer, List<Record>>> entry : recordMap.entrySet()) {
+            final Map<Integer, List<Record>> byType = entry.getValue();
+            for (Map.Entry<Integer, List<Record>> typeEntry : byType.entrySet()) {
+                typeEntry.setValue(Collections.unmodifiableList(typeEntry.getValue()));
+            }
+            entry.setValue(Collections.unmodifiableMap(byType));
+        }
+        return new Zone(soaRecord, Collections.unmodifiableMap(recordMap));
+    }
+
+    private static void add(final Map<Domain, Map<Integer, List<Record>>> recordMap, final Domain name, final Record record) {
+        Map<Integer, List<Record>> byType = recordMap.get(name);
+        if (byType == null || byType.isEmpty()) {
+            recordMap.put(name, byType = new HashMap<Integer, List<Record>>());
+        }
+        List<Record> list = byType.get(Integer.valueOf(record.getRrType()));
+        if (list == null) {
+            byType.put(Integer.valueOf(record.getRrType()), list = new ArrayList<Record>(2));
+        }
+        list.add(record);
+    }
+
+    /**
+     * Get the origin of this zone.
+     *
+     * @return the origin
+     */
+    public Domain getOrigin() {
+        return soaRecord.getName();
+    }
+
     public SoaRecord getSoaRecord() {
         return soaRecord;
     }
 
-    public Record getRecord(Domain name, int rrType, int rrClass) {
+    /**
+     * Determine whether a name exists in this zone, either because it owns records or because a name below it does.
+     *
+     * @param name the domain name
+     * @return {@code true} if the name exists
+     */
+    public boolean containsName(Domain name) {
+        return recordMap.containsKey(name);
+    }
+
+    /**
+     * Get the records of the given name, type, and class.
+     *
+     * @param name the domain name
+     * @param rrType the record type, or {@link RRType#ANY} for all types
+     * @param rrClass the record class, or {@link RRClass#ANY} for all classes
+     * @return the records (not {@code null})
+     */
+    public List<Record> getRecords(Domain name, int rrType, int rrClass) {
+        final Map<Integer, List<Record>> byType = recordMap.get(name);
+        if (byType == null) {
+            return Collections.emptyList();
+        }
+        final List<Record> list = new ArrayList<Record>();
+        if (rrType == RRType.ANY) {
+            for (List<Record> records : byType.values()) {
+                addMatching(list, records, rrClass);
+            }
+        } else {
+            final List<Record> records = byType.get(Integer.valueOf(rrType));
+            if (records != null) {
+                addMatching(list, records, rrClass);
+            }
+        }
+        return list;
+    }
+
+    private static void addMatching(final List<Record> list, final List<Record> records, final int rrClass) {
+        for (Record record : records) {
+            if (rrClass == RRClass.ANY || rrClass == record.getRrClass()) {
+                list.add(record);
+            }
+        }
+    }
 
+    public String toString() {
+        return String.format("Zone %s (%d names)", getOrigin(), Integer.valueOf(recordMap.size()));
     }
 }
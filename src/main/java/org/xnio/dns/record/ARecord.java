@@ -119,6 +119,11 @@ public class ARecord extends Record {
         return new ARecord(getName(), getRrClass(), ttlSpec, address);
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.put(address.getAddress());
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(address.getHostAddress());
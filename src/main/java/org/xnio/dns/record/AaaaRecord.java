@@ -114,6 +114,11 @@ public class AaaaRecord extends Record {
         return address;
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.put(address.getAddress());
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(address.getHostAddress());
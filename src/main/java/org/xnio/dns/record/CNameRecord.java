@@ -18,6 +18,7 @@
 
 package org.xnio.dns.record;
 
+import org.xnio.dns.CompressionContext;
 import org.xnio.dns.Record;
 import org.xnio.dns.RRClass;
 import org.xnio.dns.RRType;
@@ -101,6 +102,20 @@ public class CNameRecord extends Record {
         return cname;
     }
 
+    public CNameRecord withTTLSpec(final TTLSpec ttlSpec) {
+        return new CNameRecord(getName(), getRrClass(), ttlSpec, cname);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        cname.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer, final CompressionContext context) {
+        cname.writeTo(buffer, context);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(cname);
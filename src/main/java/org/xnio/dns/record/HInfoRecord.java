@@ -42,6 +42,12 @@ public class HInfoRecord extends Record {
         return new String(Buffers.take(buffer, buffer.get() & 0xff), LATIN_1);
     }
 
+    private static void writeCharString(ByteBuffer buffer, String string) {
+        final byte[] bytes = string.getBytes(LATIN_1);
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
     /**
      * Construct a new instance.
      *
@@ -128,6 +134,12 @@ public class HInfoRecord extends Record {
         return os;
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        writeCharString(buffer, cpu);
+        writeCharString(buffer, os);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(" \"").append(cpu).append("\" \"").append(os).append('"');
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns.record;
+
+import java.nio.ByteBuffer;
+
+import org.xnio.dns.Domain;
+import org.xnio.dns.RRClass;
+import org.xnio.dns.RRType;
+import org.xnio.dns.TTLSpec;
+
+/**
+ * A record of type {@link RRType#HTTPS} ({@rfc 9460}), which is an {@link SvcbRecord} for HTTP origins.
+ */
+public class HttpsRecord extends SvcbRecord {
+
+    private static final long serialVersionUID = -2157403410254957372L;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the resource record class
+     * @param ttlSpec the TTL spec
+     * @param recordBuffer the buffer from which the record data should be built
+     */
+    public HttpsRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+        super(name, rrClass, RRType.HTTPS, ttlSpec, recordBuffer);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the record class
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, which is zero for alias mode
+     * @param target the target name
+     * @param params the service parameters
+     */
+    public HttpsRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final int priority, final Domain target, final SvcParams params) {
+        super(name, rrClass, RRType.HTTPS, ttlSpec, priority, target, params);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, which is zero for alias mode
+     * @param target the target name
+     * @param params the service parameters
+     */
+    public HttpsRecord(final Domain name, final TTLSpec ttlSpec, final int priority, final Domain target, final SvcParams params) {
+        this(name, RRClass.IN, ttlSpec, priority, target, params);
+    }
+
+    public HttpsRecord withTTLSpec(final TTLSpec ttlSpec) {
+        return new HttpsRecord(getName(), getRrClass(), ttlSpec, getPriority(), getTarget(), getParams());
+    }
+}
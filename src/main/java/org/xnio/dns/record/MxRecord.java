@@ -18,6 +18,7 @@
 
 package org.xnio.dns.record;
 
+import org.xnio.dns.CompressionContext;
 import org.xnio.dns.Record;
 import org.xnio.dns.RRClass;
 import org.xnio.dns.RRType;
@@ -103,6 +104,18 @@ public class MxRecord extends Record {
         this(name, TTLSpec.ZERO, preference, exchanger);
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.putShort((short) preference);
+        exchanger.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer, final CompressionContext context) {
+        buffer.putShort((short) preference);
+        exchanger.writeTo(buffer, context);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(preference).append(' ').append(exchanger);
@@ -18,6 +18,7 @@
 
 package org.xnio.dns.record;
 
+import org.xnio.dns.CompressionContext;
 import org.xnio.dns.Record;
 import org.xnio.dns.RRClass;
 import org.xnio.dns.RRType;
@@ -101,6 +102,16 @@ public class NsRecord extends Record {
         return server;
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        server.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer, final CompressionContext context) {
+        server.writeTo(buffer, context);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(server);
@@ -18,6 +18,7 @@
 
 package org.xnio.dns.record;
 
+import org.xnio.dns.CompressionContext;
 import org.xnio.dns.Record;
 import org.xnio.dns.RRClass;
 import org.xnio.dns.RRType;
@@ -92,6 +93,16 @@ public class PtrRecord extends Record {
         this(name, TTLSpec.ZERO, target);
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        target.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer, final CompressionContext context) {
+        target.writeTo(buffer, context);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(target);
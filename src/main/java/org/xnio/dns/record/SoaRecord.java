@@ -18,6 +18,7 @@
 
 package org.xnio.dns.record;
 
+import org.xnio.dns.CompressionContext;
 import org.xnio.dns.Record;
 import org.xnio.dns.Domain;
 import org.xnio.dns.RRClass;
@@ -206,6 +207,28 @@ public class SoaRecord extends Record {
         return minimum;
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        mName.writeTo(buffer);
+        rName.writeTo(buffer);
+        buffer.putInt(serial);
+        buffer.putInt(refresh);
+        buffer.putInt(retry);
+        buffer.putInt(expire);
+        buffer.putInt(minimum.getTtl());
+    }
+
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer, final CompressionContext context) {
+        mName.writeTo(buffer, context);
+        rName.writeTo(buffer, context);
+        buffer.putInt(serial);
+        buffer.putInt(refresh);
+        buffer.putInt(retry);
+        buffer.putInt(expire);
+        buffer.putInt(minimum.getTtl());
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(mName).append(' ').append(rName).append(" ( ").append(serial & 0xffffffffL);
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns.record;
+
+import org.xnio.dns.Record;
+import org.xnio.dns.RRClass;
+import org.xnio.dns.RRType;
+import org.xnio.dns.Domain;
+import org.xnio.dns.TTLSpec;
+import java.nio.ByteBuffer;
+
+/**
+ * A record of type {@link RRType#SRV} ({@rfc 2782}).
+ */
+public class SrvRecord extends Record {
+
+    private static final long serialVersionUID = 4270311934427005317L;
+
+    private final int priority;
+    private final int weight;
+    private final int port;
+    private final Domain target;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the resource record class
+     * @param ttlSpec the TTL spec
+     * @param recordBuffer the buffer from which the record data should be built
+     */
+    public SrvRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+        this(name, rrClass, ttlSpec, recordBuffer.getShort() & 0xffff, recordBuffer.getShort() & 0xffff, recordBuffer.getShort() & 0xffff, Domain.fromBytes(recordBuffer));
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the resource record class
+     * @param ttlSpec the TTL spec
+     * @param recordString the string from which the record data should be built
+     */
+    public SrvRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final String recordString) {
+        super(name, rrClass, RRType.SRV, ttlSpec);
+        final String[] parts = recordString.trim().split("\\s+");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid record data format");
+        }
+        priority = Integer.parseInt(parts[0]);
+        weight = Integer.parseInt(parts[1]);
+        port = Integer.parseInt(parts[2]);
+        target = Domain.fromString(parts[3]);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the record class
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, lower values being preferred
+     * @param weight the relative weight among records of the same priority
+     * @param port the port of the service on the target
+     * @param target the target host, or {@link Domain#ROOT} if the service is not available
+     */
+    public SrvRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final int priority, final int weight, final int port, final Domain target) {
+        super(name, rrClass, RRType.SRV, ttlSpec);
+        this.priority = priority;
+        this.weight = weight;
+        this.port = port;
+        this.target = target;
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, lower values being preferred
+     * @param weight the relative weight among records of the same priority
+     * @param port the port of the service on the target
+     * @param target the target host, or {@link Domain#ROOT} if the service is not available
+     */
+    public SrvRecord(final Domain name, final TTLSpec ttlSpec, final int priority, final int weight, final int port, final Domain target) {
+        this(name, RRClass.IN, ttlSpec, priority, weight, port, target);
+    }
+
+    public SrvRecord withTTLSpec(final TTLSpec ttlSpec) {
+        return new SrvRecord(getName(), getRrClass(), ttlSpec, priority, weight, port, target);
+    }
+
+    /**
+     * {@inheritDoc}  The target name is never compressed ({@rfc 2782}), so there is no compressing variant of this
+     * method.
+     */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.putShort((short) priority);
+        buffer.putShort((short) weight);
+        buffer.putShort((short) port);
+        target.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void appendRData(final StringBuilder builder) {
+        builder.append(' ').append(priority).append(' ').append(weight).append(' ').append(port).append(' ').append(target);
+    }
+
+    /**
+     * Get the priority.
+     *
+     * @return the priority, lower values being preferred
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get the weight.
+     *
+     * @return the relative weight among records of the same priority
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Get the port.
+     *
+     * @return the port of the service on the target
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the target host.
+     *
+     * @return the target host, or {@link Domain#ROOT} if the service is not available
+     */
+    public Domain getTarget() {
+        return target;
+    }
+}
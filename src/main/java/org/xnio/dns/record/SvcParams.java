@@ -0,0 +1,573 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns.record;
+
+import java.io.Serializable;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.wildfly.common.Assert;
+
+/**
+ * The service parameters of an {@link SvcbRecord} ({@rfc 9460}).  The parameters are kept in wire format, and each is
+ * decoded only when it is asked for.
+ */
+public final class SvcParams implements Serializable {
+
+    private static final long serialVersionUID = 3904402536712361520L;
+
+    /** The keys which must be understood by a client using the record. */
+    public static final int MANDATORY = 0;
+    /** The supported application protocol IDs. */
+    public static final int ALPN = 1;
+    /** That the default application protocol is not supported. */
+    public static final int NO_DEFAULT_ALPN = 2;
+    /** The TCP or UDP port. */
+    public static final int PORT = 3;
+    /** IPv4 addresses of the target. */
+    public static final int IPV4HINT = 4;
+    /** The encrypted client hello configuration. */
+    public static final int ECH = 5;
+    /** IPv6 addresses of the target. */
+    public static final int IPV6HINT = 6;
+
+    /**
+     * The empty parameter list.
+     */
+    public static final SvcParams EMPTY = new SvcParams(new byte[0], new int[0], new int[0]);
+
+    private static final String[] KEY_NAMES = { "mandatory", "alpn", "no-default-alpn", "port", "ipv4hint", "ech", "ipv6hint" };
+
+    private final byte[] data;
+    // the keys in increasing order, and the offset in data of the value of each
+    private final int[] keys;
+    private final int[] offsets;
+
+    private SvcParams(final byte[] data, final int[] keys, final int[] offsets) {
+        this.data = data;
+        this.keys = keys;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Read parameters from the remainder of a record buffer.
+     *
+     * @param recordBuffer the record buffer
+     * @return the parameters
+     * @throws IllegalArgumentException if the parameters are malformed
+     */
+    static SvcParams fromBytes(final ByteBuffer recordBuffer) {
+        final int length = recordBuffer.remaining();
+        if (length == 0) {
+            return EMPTY;
+        }
+        final byte[] data = new byte[length];
+        recordBuffer.get(data);
+        // each parameter takes at least four bytes
+        int[] keys = new int[length >> 2];
+        int[] offsets = new int[length >> 2];
+        int count = 0;
+        int prevKey = -1;
+        int idx = 0;
+        while (idx < length) {
+            if (length - idx < 4) {
+                throw new IllegalArgumentException("Truncated service parameter");
+            }
+            final int key = (data[idx] & 0xff) << 8 | data[idx + 1] & 0xff;
+            final int valueLength = (data[idx + 2] & 0xff) << 8 | data[idx + 3] & 0xff;
+            idx += 4;
+            if (key <= prevKey) {
+                throw new IllegalArgumentException("Service parameter keys are not in increasing order");
+            }
+            if (valueLength > length - idx) {
+                throw new IllegalArgumentException("Truncated service parameter");
+            }
+            checkValue(key, valueLength);
+            keys[count] = key;
+            offsets[count] = idx;
+            count ++;
+            prevKey = key;
+            idx += valueLength;
+        }
+        if (count < keys.length) {
+            keys = Arrays.copyOf(keys, count);
+            offsets = Arrays.copyOf(offsets, count);
+        }
+        return new SvcParams(data, keys, offsets);
+    }
+
+    private static void checkValue(final int key, final int valueLength) {
+        final boolean valid;
+        switch (key) {
+            case MANDATORY:       valid = valueLength > 0 && (valueLength & 1) == 0; break;
+            case ALPN:            valid = valueLength > 0; break;
+            case NO_DEFAULT_ALPN: valid = valueLength == 0; break;
+            case PORT:            valid = valueLength == 2; break;
+            case IPV4HINT:        valid = valueLength > 0 && (valueLength & 3) == 0; break;
+            case IPV6HINT:        valid = valueLength > 0 && (valueLength & 15) == 0; break;
+            default:              valid = true; break;
+        }
+        if (! valid) {
+            throw new IllegalArgumentException("Invalid value length " + valueLength + " for service parameter " + keyName(key));
+        }
+    }
+
+    /**
+     * Write these parameters in wire format.
+     *
+     * @param buffer the target buffer
+     */
+    void writeTo(final ByteBuffer buffer) {
+        buffer.put(data);
+    }
+
+    /**
+     * Get a builder for a parameter list.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the number of parameters.
+     *
+     * @return the number of parameters
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key of a parameter.
+     *
+     * @param index the index of the parameter, which are in increasing order of key
+     * @return the key
+     */
+    public int getKey(final int index) {
+        return keys[index];
+    }
+
+    /**
+     * Determine whether a parameter is present.
+     *
+     * @param key the parameter key
+     * @return {@code true} if the parameter is present
+     */
+    public boolean contains(final int key) {
+        return Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    /**
+     * Get the value of a parameter in wire format.
+     *
+     * @param key the parameter key
+     * @return a copy of the value, or {@code null} if the parameter is not present
+     */
+    public byte[] getValue(final int key) {
+        final int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            return null;
+        }
+        final int offset = offsets[index];
+        return Arrays.copyOfRange(data, offset, offset + valueLength(index));
+    }
+
+    /**
+     * Get the keys which a client must understand in order to use the record.
+     *
+     * @return the keys, which are empty if the parameter is not present
+     */
+    public int[] getMandatoryKeys() {
+        final int index = Arrays.binarySearch(keys, MANDATORY);
+        if (index < 0) {
+            return new int[0];
+        }
+        final int offset = offsets[index];
+        final int[] mandatory = new int[valueLength(index) >> 1];
+        for (int i = 0; i < mandatory.length; i ++) {
+            mandatory[i] = getShort(offset + (i << 1));
+        }
+        return mandatory;
+    }
+
+    /**
+     * Get the supported application protocol IDs.
+     *
+     * @return the protocol IDs, which are empty if the parameter is not present
+     */
+    public List<String> getAlpn() {
+        final int index = Arrays.binarySearch(keys, ALPN);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        final List<String> list = new ArrayList<String>(2);
+        int idx = offsets[index];
+        final int end = idx + valueLength(index);
+        while (idx < end) {
+            final int length = data[idx ++] & 0xff;
+            if (length > end - idx) {
+                throw new IllegalArgumentException("Truncated protocol ID");
+            }
+            list.add(new String(data, idx, length, StandardCharsets.ISO_8859_1));
+            idx += length;
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Determine whether the default application protocol of the scheme is unsupported.
+     *
+     * @return {@code true} if the default protocol is not supported
+     */
+    public boolean isNoDefaultAlpn() {
+        return contains(NO_DEFAULT_ALPN);
+    }
+
+    /**
+     * Get the port.
+     *
+     * @return the port, or -1 if the parameter is not present
+     */
+    public int getPort() {
+        final int index = Arrays.binarySearch(keys, PORT);
+        return index < 0 ? -1 : getShort(offsets[index]);
+    }
+
+    /**
+     * Get the IPv4 address hints.
+     *
+     * @return the addresses, which are empty if the parameter is not present
+     */
+    public List<Inet4Address> getIpv4Hints() {
+        final int index = Arrays.binarySearch(keys, IPV4HINT);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        final int offset = offsets[index];
+        final Inet4Address[] addresses = new Inet4Address[valueLength(index) >> 2];
+        for (int i = 0; i < addresses.length; i ++) {
+            final int start = offset + (i << 2);
+            try {
+                addresses[i] = (Inet4Address) InetAddress.getByAddress(Arrays.copyOfRange(data, start, start + 4));
+            } catch (UnknownHostException e) {
+                // not possible
+                throw new IllegalStateException(e);
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(addresses));
+    }
+
+    /**
+     * Get the IPv6 address hints.
+     *
+     * @return the addresses, which are empty if the parameter is not present
+     */
+    public List<Inet6Address> getIpv6Hints() {
+        final int index = Arrays.binarySearch(keys, IPV6HINT);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        final int offset = offsets[index];
+        final Inet6Address[] addresses = new Inet6Address[valueLength(index) >> 4];
+        for (int i = 0; i < addresses.length; i ++) {
+            final int start = offset + (i << 4);
+            try {
+                // not InetAddress.getByAddress, which would turn a mapped address into an IPv4 address
+                addresses[i] = Inet6Address.getByAddress(null, Arrays.copyOfRange(data, start, start + 16), -1);
+            } catch (UnknownHostException e) {
+                // not possible
+                throw new IllegalStateException(e);
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(addresses));
+    }
+
+    /**
+     * Get the encrypted client hello configuration list.
+     *
+     * @return the configuration list, or {@code null} if the parameter is not present
+     */
+    public byte[] getEch() {
+        return getValue(ECH);
+    }
+
+    private int valueLength(final int index) {
+        return getShort(offsets[index] - 2);
+    }
+
+    private int getShort(final int offset) {
+        return (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+    }
+
+    /**
+     * Get the presentation name of a parameter key.
+     *
+     * @param key the key
+     * @return the name
+     */
+    public static String keyName(final int key) {
+        return key < KEY_NAMES.length ? KEY_NAMES[key] : "key" + key;
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof SvcParams && Arrays.equals(data, ((SvcParams) obj).data);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+
+    /**
+     * Get the presentation format of these parameters.
+     *
+     * @return the parameters as a string
+     */
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < keys.length; i ++) {
+            if (i > 0) builder.append(' ');
+            final int key = keys[i];
+            builder.append(keyName(key));
+            final int offset = offsets[i];
+            final int length = valueLength(i);
+            switch (key) {
+                case MANDATORY: {
+                    final int[] mandatory = getMandatoryKeys();
+                    for (int j = 0; j < mandatory.length; j ++) {
+                        builder.append(j == 0 ? '=' : ',').append(keyName(mandatory[j]));
+                    }
+                    break;
+                }
+                case ALPN: {
+                    builder.append("=\"");
+                    boolean first = true;
+                    for (String id : getAlpn()) {
+                        if (! first) builder.append(',');
+                        first = false;
+                        for (int j = 0; j < id.length(); j ++) {
+                            final char c = id.charAt(j);
+                            // commas within an ID are escaped twice (RFC 9460, appendix A.1)
+                            if (c == ',') builder.append("\\\\,");
+                            else appendChar(builder, c);
+                        }
+                    }
+                    builder.append('"');
+                    break;
+                }
+                case NO_DEFAULT_ALPN: break;
+                case PORT: builder.append('=').append(getPort()); break;
+                case IPV4HINT: {
+                    final List<Inet4Address> hints = getIpv4Hints();
+                    for (int j = 0; j < hints.size(); j ++) {
+                        builder.append(j == 0 ? '=' : ',').append(hints.get(j).getHostAddress());
+                    }
+                    break;
+                }
+                case IPV6HINT: {
+                    final List<Inet6Address> hints = getIpv6Hints();
+                    for (int j = 0; j < hints.size(); j ++) {
+                        builder.append(j == 0 ? '=' : ',').append(hints.get(j).getHostAddress());
+                    }
+                    break;
+                }
+                case ECH: {
+                    builder.append('=').append(Base64.getEncoder().encodeToString(getEch()));
+                    break;
+                }
+                default: {
+                    if (length > 0) {
+                        builder.append("=\"");
+                        for (int j = offset; j < offset + length; j ++) {
+                            appendChar(builder, (char) (data[j] & 0xff));
+                        }
+                        builder.append('"');
+                    }
+                    break;
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendChar(final StringBuilder builder, final char c) {
+        if (c == '"' || c == '\\') {
+            builder.append('\\').append(c);
+        } else if (c < 0x21 || c > 0x7e) {
+            builder.append('\\').append((char) ('0' + c / 100)).append((char) ('0' + c / 10 % 10)).append((char) ('0' + c % 10));
+        } else {
+            builder.append(c);
+        }
+    }
+
+    /**
+     * A builder for service parameters.  Parameters may be set in any order.
+     */
+    public static final class Builder {
+        private final Map<Integer, byte[]> values = new TreeMap<Integer, byte[]>();
+
+        Builder() {
+        }
+
+        /**
+         * Set a parameter to a value in wire format.
+         *
+         * @param key the parameter key
+         * @param value the value
+         * @return this builder
+         */
+        public Builder set(final int key, final byte[] value) {
+            Assert.checkMinimumParameter("key", 0, key);
+            Assert.checkMaximumParameter("key", 0xffff, key);
+            Assert.checkNotNullParam("value", value);
+            Assert.checkMaximumParameter("value.length", 0xffff, value.length);
+            checkValue(key, value.length);
+            values.put(Integer.valueOf(key), value.clone());
+            return this;
+        }
+
+        /**
+         * Set the keys which a client must understand.
+         *
+         * @param keys the keys
+         * @return this builder
+         */
+        public Builder setMandatory(final int... keys) {
+            final int[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            final ByteBuffer buffer = ByteBuffer.allocate(sorted.length << 1);
+            for (int key : sorted) {
+                buffer.putShort((short) key);
+            }
+            return set(MANDATORY, buffer.array());
+        }
+
+        /**
+         * Set the supported application protocol IDs.
+         *
+         * @param ids the protocol IDs
+         * @return this builder
+         */
+        public Builder setAlpn(final String... ids) {
+            final ByteBuffer buffer = ByteBuffer.allocate(0xffff);
+            for (String id : ids) {
+                final byte[] bytes = id.getBytes(StandardCharsets.ISO_8859_1);
+                if (bytes.length == 0 || bytes.length > 255) {
+                    throw new IllegalArgumentException("Invalid protocol ID length");
+                }
+                buffer.put((byte) bytes.length).put(bytes);
+            }
+            return set(ALPN, Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+
+        /**
+         * Indicate that the default application protocol is not supported.
+         *
+         * @return this builder
+         */
+        public Builder setNoDefaultAlpn() {
+            return set(NO_DEFAULT_ALPN, new byte[0]);
+        }
+
+        /**
+         * Set the port.
+         *
+         * @param port the port
+         * @return this builder
+         */
+        public Builder setPort(final int port) {
+            Assert.checkMinimumParameter("port", 0, port);
+            Assert.checkMaximumParameter("port", 0xffff, port);
+            return set(PORT, new byte[] { (byte) (port >> 8), (byte) port });
+        }
+
+        /**
+         * Set the IPv4 address hints.
+         *
+         * @param addresses the addresses
+         * @return this builder
+         */
+        public Builder setIpv4Hints(final Inet4Address... addresses) {
+            final byte[] value = new byte[addresses.length << 2];
+            for (int i = 0; i < addresses.length; i ++) {
+                System.arraycopy(addresses[i].getAddress(), 0, value, i << 2, 4);
+            }
+            return set(IPV4HINT, value);
+        }
+
+        /**
+         * Set the IPv6 address hints.
+         *
+         * @param addresses the addresses
+         * @return this builder
+         */
+        public Builder setIpv6Hints(final Inet6Address... addresses) {
+            final byte[] value = new byte[addresses.length << 4];
+            for (int i = 0; i < addresses.length; i ++) {
+                System.arraycopy(addresses[i].getAddress(), 0, value, i << 4, 16);
+            }
+            return set(IPV6HINT, value);
+        }
+
+        /**
+         * Set the encrypted client hello configuration list.
+         *
+         * @param echConfigList the configuration list
+         * @return this builder
+         */
+        public Builder setEch(final byte[] echConfigList) {
+            return set(ECH, echConfigList);
+        }
+
+        /**
+         * Build the parameter list.
+         *
+         * @return the parameters
+         */
+        public SvcParams build() {
+            if (values.isEmpty()) {
+                return EMPTY;
+            }
+            int length = 0;
+            for (byte[] value : values.values()) {
+                length += 4 + value.length;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+                buffer.putShort((short) entry.getKey().intValue());
+                buffer.putShort((short) entry.getValue().length);
+                buffer.put(entry.getValue());
+            }
+            buffer.flip();
+            return fromBytes(buffer);
+        }
+    }
+}
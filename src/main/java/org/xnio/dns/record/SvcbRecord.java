@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2014 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns.record;
+
+import java.nio.ByteBuffer;
+
+import org.wildfly.common.Assert;
+import org.xnio.dns.Domain;
+import org.xnio.dns.RRClass;
+import org.xnio.dns.RRType;
+import org.xnio.dns.Record;
+import org.xnio.dns.TTLSpec;
+
+/**
+ * A record of type {@link RRType#SVCB} ({@rfc 9460}).  A record with a priority of zero is in alias mode, and names
+ * another domain at which the service records can be found; otherwise it is in service mode, and describes an
+ * endpoint of the service.  A target of {@link Domain#ROOT} stands for the owner name of a service mode record.
+ */
+public class SvcbRecord extends Record {
+
+    private static final long serialVersionUID = 6370153916245364788L;
+
+    private final int priority;
+    private final Domain target;
+    private final SvcParams params;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the resource record class
+     * @param ttlSpec the TTL spec
+     * @param recordBuffer the buffer from which the record data should be built
+     */
+    public SvcbRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+        this(name, rrClass, RRType.SVCB, ttlSpec, recordBuffer);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param rrClass the record class
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, which is zero for alias mode
+     * @param target the target name
+     * @param params the service parameters
+     */
+    public SvcbRecord(final Domain name, final int rrClass, final TTLSpec ttlSpec, final int priority, final Domain target, final SvcParams params) {
+        this(name, rrClass, RRType.SVCB, ttlSpec, priority, target, params);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the domain name
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, which is zero for alias mode
+     * @param target the target name
+     * @param params the service parameters
+     */
+    public SvcbRecord(final Domain name, final TTLSpec ttlSpec, final int priority, final Domain target, final SvcParams params) {
+        this(name, RRClass.IN, ttlSpec, priority, target, params);
+    }
+
+    /**
+     * Construct a new instance of a type which shares this format.
+     *
+     * @param name the domain name
+     * @param rrClass the resource record class
+     * @param rrType the resource record type
+     * @param ttlSpec the TTL spec
+     * @param recordBuffer the buffer from which the record data should be built
+     */
+    protected SvcbRecord(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final ByteBuffer recordBuffer) {
+        this(name, rrClass, rrType, ttlSpec, recordBuffer.getShort() & 0xffff, Domain.fromBytes(recordBuffer), SvcParams.fromBytes(recordBuffer));
+    }
+
+    /**
+     * Construct a new instance of a type which shares this format.
+     *
+     * @param name the domain name
+     * @param rrClass the record class
+     * @param rrType the resource record type
+     * @param ttlSpec the TTL spec
+     * @param priority the priority, which is zero for alias mode
+     * @param target the target name
+     * @param params the service parameters
+     */
+    protected SvcbRecord(final Domain name, final int rrClass, final int rrType, final TTLSpec ttlSpec, final int priority, final Domain target, final SvcParams params) {
+        super(name, rrClass, rrType, ttlSpec);
+        Assert.checkMinimumParameter("priority", 0, priority);
+        Assert.checkMaximumParameter("priority", 0xffff, priority);
+        Assert.checkNotNullParam("target", target);
+        Assert.checkNotNullParam("params", params);
+        this.priority = priority;
+        this.target = target;
+        this.params = params;
+    }
+
+    public SvcbRecord withTTLSpec(final TTLSpec ttlSpec) {
+        return new SvcbRecord(getName(), getRrClass(), getRrType(), ttlSpec, priority, target, params);
+    }
+
+    /**
+     * {@inheritDoc}  The target name is never compressed ({@rfc 9460}, section 2.2), so there is no compressing
+     * variant of this method.
+     */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.putShort((short) priority);
+        target.writeTo(buffer);
+        params.writeTo(buffer);
+    }
+
+    /** {@inheritDoc} */
+    protected void appendRData(final StringBuilder builder) {
+        builder.append(' ').append(priority).append(' ').append(target);
+        if (params.size() > 0) {
+            builder.append(' ').append(params);
+        }
+    }
+
+    /**
+     * Get the priority.  Lower values are preferred.
+     *
+     * @return the priority, which is zero for alias mode
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Determine whether this record is in alias mode.
+     *
+     * @return {@code true} if the priority is zero
+     */
+    public boolean isAliasMode() {
+        return priority == 0;
+    }
+
+    /**
+     * Get the target name.
+     *
+     * @return the target name
+     */
+    public Domain getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the name of the endpoint, which is the target name unless the target of a service mode record is the root.
+     *
+     * @return the endpoint name
+     */
+    public Domain getEffectiveTarget() {
+        return priority != 0 && target.equals(Domain.ROOT) ? getName() : target;
+    }
+
+    /**
+     * Get the service parameters.
+     *
+     * @return the service parameters
+     */
+    public SvcParams getParams() {
+        return params;
+    }
+}
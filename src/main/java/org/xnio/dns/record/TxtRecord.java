@@ -143,7 +143,7 @@ public class TxtRecord extends Record {
         super(name, rrClass, RRType.TXT, ttlSpec);
         final StringBuilder builder = new StringBuilder(recordBuffer.remaining());
         while (recordBuffer.hasRemaining()) {
-            for (int len = recordBuffer.get() & 0xff; len >= 0; len --) {
+            for (int len = recordBuffer.get() & 0xff; len > 0; len --) {
                 // Latin-1
                 builder.append((char) recordBuffer.get());
             }
@@ -198,6 +198,22 @@ public class TxtRecord extends Record {
         return builder.toString();
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        final String text = this.text;
+        final int len = text.length();
+        int i = 0;
+        do {
+            // split into character-strings of at most 255 bytes each
+            final int chunk = Math.min(255, len - i);
+            buffer.put((byte) chunk);
+            for (int j = 0; j < chunk; j ++) {
+                // Latin-1
+                buffer.put((byte) text.charAt(i ++));
+            }
+        } while (i < len);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(getDeparsedText());
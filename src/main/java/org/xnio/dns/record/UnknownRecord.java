@@ -85,6 +85,11 @@ public class UnknownRecord extends Record {
         data = Buffers.take(recordBuffer, recordBuffer.remaining());
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        buffer.put(data);
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         for (byte b : data) {
@@ -184,6 +184,28 @@ public class WksRecord extends Record {
         return protocol;
     }
 
+    /** {@inheritDoc} */
+    protected void writeRData(final ByteBuffer buffer) {
+        switch (protocol) {
+            case TCP: buffer.put((byte) 6); break;
+            case UDP: buffer.put((byte) 17); break;
+            default: buffer.put((byte) 0); break;
+        }
+        final int[] ports = this.ports;
+        if (ports.length > 0) {
+            // build the bitmap in place
+            final int start = buffer.position();
+            final int length = (ports[ports.length - 1] >> 3) + 1;
+            for (int i = 0; i < length; i ++) {
+                buffer.put((byte) 0);
+            }
+            for (int port : ports) {
+                final int index = start + (port >> 3);
+                buffer.put(index, (byte) (buffer.get(index) | 1 << (port & 7)));
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     protected void appendRData(final StringBuilder builder) {
         builder.append(' ').append(protocol);
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * An {@link InetAddressResolverProvider} which routes the host name lookups of the JDK through the
+ * {@linkplain XnioNameService#getGlobalResolver() global resolver}.  Cached answers are returned without blocking;
+ * otherwise the lookup waits for at most the number of milliseconds given by the {@code org.xnio.dns.provider.timeout}
+ * system property (10 seconds by default).  Until a global resolver is set, and for the lookups of a
+ * {@link JDKResolver}, lookups go to the built-in JDK resolver.
+ * <p>
+ * This provider is installed automatically on Java 18 and later when this library is on the class path.
+ */
+public final class XnioInetAddressResolverProvider extends InetAddressResolverProvider {
+
+    private static final long TIMEOUT = Long.getLong("org.xnio.dns.provider.timeout", 10000L).longValue();
+
+    /** {@inheritDoc} */
+    public InetAddressResolver get(final Configuration configuration) {
+        return new XnioInetAddressResolver(configuration.builtinResolver());
+    }
+
+    /** {@inheritDoc} */
+    public String name() {
+        return "XNIO DNS";
+    }
+
+    static final class XnioInetAddressResolver implements InetAddressResolver {
+        private final InetAddressResolver builtinResolver;
+
+        XnioInetAddressResolver(final InetAddressResolver builtinResolver) {
+            this.builtinResolver = builtinResolver;
+        }
+
+        public Stream<InetAddress> lookupByName(final String host, final LookupPolicy lookupPolicy) throws UnknownHostException {
+            final Resolver resolver = XnioNameService.getGlobalResolver();
+            // a JDKResolver in the global chain looks names up through this provider
+            if (resolver instanceof EmptyResolver || JDKResolver.isJdkLookupThread()) {
+                return builtinResolver.lookupByName(host, lookupPolicy);
+            }
+            final BlockingResolver blockingResolver = new BlockingResolver(resolver);
+            final int characteristics = lookupPolicy.characteristics();
+            final List<InetAddress> addresses;
+            try {
+                final Domain name = Domain.fromString(host);
+                if ((characteristics & LookupPolicy.IPV6) == 0) {
+                    addresses = new ArrayList<InetAddress>(blockingResolver.resolveAllInet4(name, TIMEOUT, TimeUnit.MILLISECONDS));
+                } else if ((characteristics & LookupPolicy.IPV4) == 0) {
+                    addresses = new ArrayList<InetAddress>(blockingResolver.resolveAllInet6(name, TIMEOUT, TimeUnit.MILLISECONDS));
+                } else {
+                    addresses = new ArrayList<InetAddress>(blockingResolver.resolveAllInet(name, TIMEOUT, TimeUnit.MILLISECONDS));
+                    if ((characteristics & LookupPolicy.IPV4_FIRST) != 0) {
+                        // stable, so the order within each family is kept
+                        addresses.sort((a, b) -> Boolean.compare(! (a instanceof Inet4Address), ! (b instanceof Inet4Address)));
+                    } else if ((characteristics & LookupPolicy.IPV6_FIRST) != 0) {
+                        addresses.sort((a, b) -> Boolean.compare(! (a instanceof Inet6Address), ! (b instanceof Inet6Address)));
+                    }
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                final UnknownHostException uhe = new UnknownHostException(host);
+                uhe.initCause(e);
+                throw uhe;
+            }
+            if (addresses.isEmpty()) {
+                throw new UnknownHostException(host + ": no valid DNS records");
+            }
+            return addresses.stream();
+        }
+
+        public String lookupByAddress(final byte[] addr) throws UnknownHostException {
+            final Resolver resolver = XnioNameService.getGlobalResolver();
+            // a JDKResolver in the global chain looks names up through this provider
+            if (resolver instanceof EmptyResolver || JDKResolver.isJdkLookupThread()) {
+                return builtinResolver.lookupByAddress(addr);
+            }
+            final InetAddress address = InetAddress.getByAddress(addr);
+            final Domain domain;
+            try {
+                domain = new BlockingResolver(resolver).resolveReverse(address, TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                final UnknownHostException uhe = new UnknownHostException(address.getHostAddress());
+                uhe.initCause(e);
+                throw uhe;
+            }
+            if (domain == null) {
+                throw new UnknownHostException(address.getHostAddress());
+            }
+            return domain.getHostName();
+        }
+    }
+}
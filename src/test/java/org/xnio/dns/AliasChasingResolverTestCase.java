@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.DNameRecord;
+
+/**
+ * Tests for {@link AliasChasingResolver}.
+ */
+public final class AliasChasingResolverTestCase {
+
+    private static final TTLSpec TTL = TTLSpec.createFixed(300);
+
+    /**
+     * A resolver which answers from a fixed table of answer records by query name, and logs the names it is asked for.
+     */
+    static final class TableResolver extends AbstractResolver {
+        final Map<Domain, List<Record>> table = new HashMap<Domain, List<Record>>();
+        final List<Domain> log = Collections.synchronizedList(new ArrayList<Domain>());
+
+        void add(final String name, final Record... records) {
+            final List<Record> list = new ArrayList<Record>();
+            Collections.addAll(list, records);
+            table.put(Domain.fromString(name), list);
+        }
+
+        public IoFuture<Answer> resolve(final Query query) {
+            log.add(query.getDomain());
+            final List<Record> records = table.get(query.getDomain());
+            final Answer.Builder builder = Answer.builder().populateFromQuery(query);
+            if (records == null) {
+                builder.setResultCode(ResultCode.NXDOMAIN);
+            } else {
+                builder.setResultCode(ResultCode.NOERROR).setAnswerRecords(records);
+            }
+            return new FinishedIoFuture<Answer>(builder.create());
+        }
+    }
+
+    private static Domain name(final String name) {
+        return Domain.fromString(name);
+    }
+
+    private static ARecord a(final String name) throws Exception {
+        return new ARecord(name(name), TTL, (Inet4Address) InetAddress.getByName("192.0.2.1"));
+    }
+
+    private static CNameRecord cname(final String name, final String target) {
+        return new CNameRecord(name(name), TTL, name(target));
+    }
+
+    private static Answer resolve(final Resolver resolver, final String name) throws Exception {
+        final IoFuture<Answer> future = resolver.resolve(new Query(name(name), RRClass.IN, RRType.A, 0));
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+        return future.get();
+    }
+
+    @Test
+    public void testChainFollowedAcrossQueries() throws Exception {
+        final TableResolver next = new TableResolver();
+        next.add("www.example.com", cname("www.example.com", "cdn.example.net"));
+        next.add("cdn.example.net", cname("cdn.example.net", "edge.example.org"));
+        next.add("edge.example.org", a("edge.example.org"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor()), "www.example.com");
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        assertEquals(name("www.example.com"), answer.getQueryDomain());
+        assertEquals(3, answer.getAnswerRecords().size());
+        assertEquals(name("edge.example.org"), answer.getAnswerRecords().get(2).getName());
+        assertEquals(3, next.log.size());
+    }
+
+    @Test
+    public void testCompleteChainCostsOneQuery() throws Exception {
+        final TableResolver next = new TableResolver();
+        next.add("www.example.com", cname("www.example.com", "cdn.example.net"), a("cdn.example.net"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor()), "www.example.com");
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        assertEquals(2, answer.getAnswerRecords().size());
+        assertEquals(1, next.log.size());
+    }
+
+    @Test
+    public void testDNameIsSynthesized() throws Exception {
+        final TableResolver next = new TableResolver();
+        next.add("www.example.com", new DNameRecord(name("example.com"), TTL, name("example.net")));
+        next.add("www.example.net", a("www.example.net"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor()), "www.example.com");
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        final List<Record> records = answer.getAnswerRecords();
+        assertEquals(3, records.size());
+        final CNameRecord synthesized = (CNameRecord) records.get(1);
+        assertEquals(name("www.example.com"), synthesized.getName());
+        assertEquals(name("www.example.net"), synthesized.getCname());
+        assertEquals(name("www.example.net"), records.get(2).getName());
+    }
+
+    @Test
+    public void testLoopFails() throws Exception {
+        final TableResolver next = new TableResolver();
+        next.add("a.example.com", cname("a.example.com", "b.example.com"));
+        next.add("b.example.com", cname("b.example.com", "a.example.com"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor()), "a.example.com");
+        assertEquals(ResultCode.SERVER_FAILURE, answer.getResultCode());
+        assertEquals(2, next.log.size());
+    }
+
+    @Test
+    public void testChainLengthIsLimited() throws Exception {
+        final TableResolver next = new TableResolver();
+        for (int i = 0; i < 5; i ++) {
+            next.add("h" + i + ".example.com", cname("h" + i + ".example.com", "h" + (i + 1) + ".example.com"));
+        }
+        next.add("h5.example.com", a("h5.example.com"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor(), 3), "h0.example.com");
+        assertEquals(ResultCode.SERVER_FAILURE, answer.getResultCode());
+        // three aliases were followed, and the answer with the fourth one ended the chase
+        assertEquals(4, answer.getAnswerRecords().size());
+        assertEquals(4, next.log.size());
+    }
+
+    @Test
+    public void testNameErrorAtTargetIsReturned() throws Exception {
+        final TableResolver next = new TableResolver();
+        next.add("www.example.com", cname("www.example.com", "missing.example.net"));
+        final Answer answer = resolve(new AliasChasingResolver(next, IoUtils.directExecutor()), "www.example.com");
+        assertEquals(ResultCode.NXDOMAIN, answer.getResultCode());
+        assertEquals(name("www.example.com"), answer.getQueryDomain());
+        assertEquals(1, answer.getAnswerRecords().size());
+        assertEquals(name("www.example.com"), answer.getAnswerRecords().get(0).getName());
+    }
+}
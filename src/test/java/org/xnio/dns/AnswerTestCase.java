@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * Tests for {@link Answer}.
+ */
+public final class AnswerTestCase {
+
+    private static final Domain ZONE = Domain.fromString("example.com");
+
+    private static Answer negative(final int soaTtl, final int minimum) {
+        final SoaRecord soa = new SoaRecord(ZONE, TTLSpec.createFixed(soaTtl), ZONE, ZONE, 1, 3600, 600, 86400, TTLSpec.createFixed(minimum));
+        return Answer.builder().setQueryDomain(Domain.fromString("missing.example.com")).setQueryRRClass(RRClass.IN).setQueryRRType(RRType.A)
+            .setResultCode(ResultCode.NXDOMAIN).addAuthorityRecord(soa).create();
+    }
+
+    @Test
+    public void testNegativeAnswerUsesSoaMinimum() {
+        final long now = System.currentTimeMillis();
+        final long eol = negative(3600, 60).getEol();
+        assertTrue(eol > now + 50000L);
+        assertTrue(eol <= now + 61000L);
+    }
+
+    @Test
+    public void testNegativeAnswerUsesSoaTtl() {
+        final long now = System.currentTimeMillis();
+        final long eol = negative(30, 3600).getEol();
+        assertTrue(eol > now + 20000L);
+        assertTrue(eol <= now + 31000L);
+    }
+}
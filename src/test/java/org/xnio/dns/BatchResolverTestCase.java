@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xnio.FinishedIoFuture;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.ARecord;
+
+/**
+ * Tests for {@link BatchResolver}.
+ */
+public final class BatchResolverTestCase {
+
+    static Query query(final String name) {
+        return new Query(Domain.fromString(name), RRClass.IN, RRType.A, 0);
+    }
+
+    static Answer answer(final Query query, final int ttl) throws IOException {
+        final Inet4Address address = (Inet4Address) InetAddress.getByName("192.0.2.1");
+        return Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NOERROR)
+            .addAnswerRecord(new ARecord(query.getDomain(), TTLSpec.createFixed(ttl), address)).create();
+    }
+
+    /**
+     * A resolver which answers every query at once with the given TTL, and counts the queries.
+     */
+    static final class CountingResolver extends AbstractResolver {
+        final AtomicInteger queries = new AtomicInteger();
+        final int ttl;
+
+        CountingResolver(final int ttl) {
+            this.ttl = ttl;
+        }
+
+        public IoFuture<Answer> resolve(final Query query) {
+            queries.incrementAndGet();
+            try {
+                return new FinishedIoFuture<Answer>(answer(query, ttl));
+            } catch (IOException e) {
+                return new FinishedIoFuture<Answer>(null);
+            }
+        }
+    }
+
+    static final class CollectingListener implements BatchResolver.Listener {
+        final List<Query> answered = Collections.synchronizedList(new ArrayList<Query>());
+        final List<Query> failed = Collections.synchronizedList(new ArrayList<Query>());
+
+        public void handleAnswer(final Query query, final Answer answer) {
+            answered.add(query);
+        }
+
+        public void handleFailed(final Query query, final IOException exception) {
+            failed.add(query);
+        }
+    }
+
+    @Test
+    public void testDuplicatesAndRecentAnswers() throws Exception {
+        final CountingResolver resolver = new CountingResolver(300);
+        final CollectingListener listener = new CollectingListener();
+        final List<Query> queries = Arrays.asList(query("a.example.com"), query("b.example.com"), query("a.example.com"), query("a.example.com"));
+        final IoFuture<Long> future = new BatchResolver(resolver, 1).resolveAll(queries, listener);
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(4L), future.get());
+        assertEquals(4, listener.answered.size());
+        assertEquals(2, resolver.queries.get());
+    }
+
+    @Test
+    public void testExpiredRecentAnswersAreNotReused() throws Exception {
+        final CountingResolver resolver = new CountingResolver(0);
+        final CollectingListener listener = new CollectingListener();
+        final List<Query> queries = Arrays.asList(query("a.example.com"), query("a.example.com"));
+        final IoFuture<Long> future = new BatchResolver(resolver, 1).resolveAll(queries, listener);
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+        assertEquals(2, listener.answered.size());
+        assertEquals(2, resolver.queries.get());
+    }
+
+    @Test
+    public void testCompletesAfterLastDelivery() throws Exception {
+        final Query query = query("a.example.com");
+        final FutureResult<Answer> pending = new FutureResult<Answer>();
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        final Resolver resolver = new AbstractResolver() {
+            public IoFuture<Answer> resolve(final Query query) {
+                return pending.getIoFuture();
+            }
+        };
+        final BatchResolver.Listener listener = new BatchResolver.Listener() {
+            public void handleAnswer(final Query query, final Answer answer) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.incrementAndGet();
+            }
+
+            public void handleFailed(final Query query, final IOException exception) {
+            }
+        };
+        // the batch is found to be exhausted while the answer to its only query is being delivered
+        final Iterable<Query> queries = new Iterable<Query>() {
+            public Iterator<Query> iterator() {
+                return new Iterator<Query>() {
+                    boolean taken;
+
+                    public boolean hasNext() {
+                        if (! taken) {
+                            return true;
+                        }
+                        final Thread thread = new Thread(new Runnable() {
+                            public void run() {
+                                try {
+                                    pending.setResult(answer(query, 300));
+                                } catch (IOException e) {
+                                    pending.setException(e);
+                                }
+                            }
+                        });
+                        thread.start();
+                        try {
+                            assertTrue(delivering.await(5L, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return false;
+                    }
+
+                    public Query next() {
+                        taken = true;
+                        return query;
+                    }
+                };
+            }
+        };
+        final IoFuture<Long> future = new BatchResolver(resolver, 4).resolveAll(queries, listener);
+        assertEquals(IoFuture.Status.WAITING, future.getStatus());
+        release.countDown();
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+        assertEquals(1, delivered.get());
+        assertEquals(Long.valueOf(1L), future.get());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.dns.record.ARecord;
+
+/**
+ * A benchmark which compares the heap footprint and GC cost of a {@link CachingResolver} holding all of its entries
+ * on the heap with one which spills them to an {@link OffHeapAnswerCache}.  The cache is filled with {@code -entries}
+ * answers, after which a full collection is timed and the retained heap and reserved direct memory are reported.
+ * Then {@code -lookups} random lookups are made while the collections which occur are counted and timed.
+ * <p>
+ * Run each tier in its own JVM with the same heap settings, for example {@code -Xmx4g -XX:MaxDirectMemorySize=1g}.
+ * Options: {@code -tier heap|offheap}, {@code -entries n}, {@code -lookups n}, {@code -heapEntries n} (entries kept
+ * on the heap in front of the off-heap tier) and {@code -offHeapBytes n} (off-heap tier capacity).
+ */
+public final class CacheFootprintBenchmark {
+
+    private static final Domain ORIGIN = Domain.fromString("bench.test.");
+
+    private CacheFootprintBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean offHeap = true;
+        int entries = 1000000;
+        int lookups = 10000000;
+        int heapEntries = 10000;
+        long offHeapBytes = 512L << 20;
+        for (int i = 0; i < args.length; i ++) {
+            final String arg = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            final String value = args[++ i];
+            switch (arg) {
+                case "-tier": offHeap = value.equals("offheap"); break;
+                case "-entries": entries = Integer.parseInt(value); break;
+                case "-lookups": lookups = Integer.parseInt(value); break;
+                case "-heapEntries": heapEntries = Integer.parseInt(value); break;
+                case "-offHeapBytes": offHeapBytes = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        final Resolver upstream = new AbstractResolver() {
+            public IoFuture<Answer> resolve(final Query query) {
+                return new FinishedIoFuture<Answer>(answer(query));
+            }
+        };
+        final OffHeapAnswerCache secondTier = offHeap ? new OffHeapAnswerCache(offHeapBytes) : null;
+        final CachingResolver resolver = new CachingResolver(upstream, IoUtils.directExecutor(), offHeap ? heapEntries : entries, secondTier);
+        final Query[] queries = new Query[entries];
+        for (int i = 0; i < entries; i ++) {
+            queries[i] = new Query(Domain.fromString("host" + i + "." + ORIGIN), RRClass.IN, RRType.A, 0);
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final long baseline = memory.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        for (Query query : queries) {
+            resolver.resolve(query);
+        }
+        System.out.printf("Filled %s tier with %d entries in %.2f s%n", offHeap ? "off-heap" : "heap", Integer.valueOf(entries), Double.valueOf((System.nanoTime() - start) / 1e9));
+
+        start = System.nanoTime();
+        System.gc();
+        final long fullGc = System.nanoTime() - start;
+        final long retained = memory.getHeapMemoryUsage().getUsed() - baseline;
+        System.out.printf("Full GC: %.1f ms, retained heap: %d MiB, reserved direct memory: %d MiB%n", Double.valueOf(fullGc / 1e6), Long.valueOf(retained >> 20), Long.valueOf(secondTier == null ? 0L : secondTier.getReservedBytes() >> 20));
+
+        final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        final long[] counts = new long[collectors.size()];
+        final long[] times = new long[collectors.size()];
+        for (int i = 0; i < counts.length; i ++) {
+            counts[i] = collectors.get(i).getCollectionCount();
+            times[i] = collectors.get(i).getCollectionTime();
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i ++) {
+            resolver.resolve(queries[random.nextInt(entries)]);
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("Made %d lookups in %.2f s: %.0f lookups/s%n", Integer.valueOf(lookups), Double.valueOf(elapsed / 1e9), Double.valueOf(lookups / (elapsed / 1e9)));
+        for (int i = 0; i < counts.length; i ++) {
+            final GarbageCollectorMXBean collector = collectors.get(i);
+            final long count = collector.getCollectionCount() - counts[i];
+            final long time = collector.getCollectionTime() - times[i];
+            System.out.printf("%s: %d collections, %d ms total, %.2f ms average%n", collector.getName(), Long.valueOf(count), Long.valueOf(time), Double.valueOf(count == 0 ? 0.0 : (double) time / count));
+        }
+        System.out.println("Cache: " + resolver.getStatistics());
+    }
+
+    private static Answer answer(final Query query) {
+        final int i = query.getDomain().hashCode();
+        final Answer.Builder builder = Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NOERROR);
+        try {
+            builder.addAnswerRecord(new ARecord(query.getDomain(), TTLSpec.createFixed(86400), (Inet4Address) InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i })));
+            builder.addAnswerRecord(new ARecord(query.getDomain(), TTLSpec.createFixed(86400), (Inet4Address) InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 24), (byte) (i >> 8), (byte) i })));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return builder.create();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.FailedIoFuture;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.dns.record.ARecord;
+
+/**
+ * Tests for {@link CachingResolver}.
+ */
+public final class CachingResolverTestCase {
+
+    private Path dir;
+
+    @Before
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("xnio-dns-cache");
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        final File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(dir);
+    }
+
+    static Query query(final String name) {
+        return new Query(Domain.fromString(name), RRClass.IN, RRType.A, 0);
+    }
+
+    /**
+     * A resolver which answers every query at once with the given TTL, and counts the queries.
+     */
+    static final class CountingResolver extends AbstractResolver {
+        final AtomicInteger queries = new AtomicInteger();
+        final int ttl;
+
+        CountingResolver(final int ttl) {
+            this.ttl = ttl;
+        }
+
+        public IoFuture<Answer> resolve(final Query query) {
+            queries.incrementAndGet();
+            try {
+                final Inet4Address address = (Inet4Address) InetAddress.getByName("192.0.2.1");
+                return new FinishedIoFuture<Answer>(Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NOERROR)
+                    .addAnswerRecord(new ARecord(query.getDomain(), TTLSpec.createFixed(ttl), address)).create());
+            } catch (IOException e) {
+                return new FailedIoFuture<Answer>(e);
+            }
+        }
+    }
+
+    static void resolve(final Resolver resolver, final String name) throws Exception {
+        final IoFuture<Answer> future = resolver.resolve(query(name));
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        final CountingResolver upstream = new CountingResolver(300);
+        final OffHeapAnswerCache secondTier = new OffHeapAnswerCache(SlabAllocator.SLAB_SIZE);
+        final CachingResolver resolver = new CachingResolver(upstream, IoUtils.directExecutor(), 1, secondTier);
+        resolve(resolver, "a.example.com");
+        resolve(resolver, "a.example.com");
+        resolve(resolver, "b.example.com");
+        // a.example.com was moved to the second tier, and moves back, pushing b.example.com out
+        resolve(resolver, "a.example.com");
+        CacheStatistics statistics = resolver.getStatistics();
+        assertEquals(1L, statistics.getHitCount());
+        assertEquals(2L, statistics.getMissCount());
+        assertEquals(1L, statistics.getSecondTierHitCount());
+        assertEquals(2L, statistics.getEvictionCount());
+        assertEquals(0L, statistics.getSecondTierEvictionCount());
+        assertEquals(1, statistics.getSize());
+        assertEquals(2, statistics.getSecondTierSize());
+        assertEquals(2, upstream.queries.get());
+
+        // fill the only slab of the second tier until it has to evict
+        for (int i = 0; i < 40000; i ++) {
+            resolve(resolver, "host" + i + ".example.com");
+        }
+        statistics = resolver.getStatistics();
+        assertTrue(statistics.getSecondTierEvictionCount() > 0L);
+        assertEquals(secondTier.getEvictionCount(), statistics.getSecondTierEvictionCount());
+    }
+
+    @Test
+    public void testSnapshotIncludesSecondTier() throws Exception {
+        final CountingResolver upstream = new CountingResolver(300);
+        final CachingResolver resolver = new CachingResolver(upstream, IoUtils.directExecutor(), 1, new OffHeapAnswerCache(1L << 20));
+        resolve(resolver, "a.example.com");
+        resolve(resolver, "b.example.com");
+        assertEquals(1, resolver.getStatistics().getSecondTierSize());
+        final Path snapshot = dir.resolve("cache.snapshot");
+        assertEquals(2, resolver.writeSnapshot(snapshot));
+
+        final CountingResolver restoredUpstream = new CountingResolver(300);
+        final CachingResolver restored = new CachingResolver(restoredUpstream, IoUtils.directExecutor(), 10);
+        assertEquals(2, restored.readSnapshot(snapshot));
+        assertNotNull(restored.tryResolveCached(query("a.example.com")));
+        assertNotNull(restored.tryResolveCached(query("b.example.com")));
+        assertEquals(0, restoredUpstream.queries.get());
+    }
+
+    @Test
+    public void testSnapshotReplacesPreviousFile() throws Exception {
+        final CachingResolver resolver = new CachingResolver(new CountingResolver(300), IoUtils.directExecutor(), 10);
+        final Path snapshot = dir.resolve("cache.snapshot");
+        resolve(resolver, "a.example.com");
+        assertEquals(1, resolver.writeSnapshot(snapshot));
+        resolve(resolver, "b.example.com");
+        assertEquals(2, resolver.writeSnapshot(snapshot));
+        // the temporary file has been moved into place
+        assertEquals(1, dir.toFile().list().length);
+        final CachingResolver restored = new CachingResolver(new CountingResolver(300), IoUtils.directExecutor(), 10);
+        assertEquals(2, restored.readSnapshot(snapshot));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * A UDP load generator for DNS servers.  Unless a server is given, it starts a caching forwarder (a {@link DnsServer}
+ * over a {@link CachingResolver} over a {@link UdpNetworkResolver} with shared channels) in front of a stand-in
+ * upstream server (a {@link DnsServer} over a {@link LocalZoneResolver} with a generated zone), both on the loopback
+ * address, and measures the forwarder.  It runs on the test class path, which has the {@code xnio-nio} provider.
+ * <p>
+ * Options: {@code -server host:port}, {@code -queries n}, {@code -concurrency n} (queries in flight),
+ * {@code -names n} (distinct names asked for), {@code -channels n} (forwarder upstream channels) and
+ * {@code -threads n} (worker I/O threads).
+ */
+public final class DnsLoadGenerator {
+
+    private static final Domain ORIGIN = Domain.fromString("load.test.");
+    /** The time after which an unanswered query counts as lost. */
+    private static final long LOSS_TIMEOUT_MILLIS = 2000L;
+
+    private DnsLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String server = null;
+        int queries = 1000000;
+        int concurrency = 256;
+        int names = 1000;
+        int channels = 4;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (int i = 0; i < args.length; i ++) {
+            final String arg = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            final String value = args[++ i];
+            switch (arg) {
+                case "-server": server = value; break;
+                case "-queries": queries = Integer.parseInt(value); break;
+                case "-concurrency": concurrency = Math.min(0x8000, Integer.parseInt(value)); break;
+                case "-names": names = Integer.parseInt(value); break;
+                case "-channels": channels = Integer.parseInt(value); break;
+                case "-threads": threads = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (server != null) {
+            final int idx = server.lastIndexOf(':');
+            final InetSocketAddress address = idx == -1 ? new InetSocketAddress(server, 53) : new InetSocketAddress(server.substring(0, idx), Integer.parseInt(server.substring(idx + 1)));
+            run(address, queries, concurrency, names);
+            return;
+        }
+        final XnioWorker worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, threads));
+        final InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        final LocalZoneResolver zoneResolver = new LocalZoneResolver(new EmptyResolver());
+        zoneResolver.addZone(createZone(names));
+        final DnsServer upstream = new DnsServer(worker, zoneResolver, false);
+        final UdpNetworkResolver networkResolver = new UdpNetworkResolver(worker, channels);
+        final CachingResolver cachingResolver = new CachingResolver(networkResolver.resolverFor(upstream.bindUdp(loopback)), worker, names * 2);
+        final DnsServer forwarder = new DnsServer(worker, cachingResolver, true);
+        try {
+            run(forwarder.bindUdp(loopback), queries, concurrency, names);
+            System.out.println("Forwarder cache: " + cachingResolver.getStatistics());
+        } finally {
+            IoUtils.safeClose(forwarder, networkResolver, upstream);
+            worker.shutdown();
+        }
+    }
+
+    private static Zone createZone(final int names) {
+        final SoaRecord soa = new SoaRecord(ORIGIN, TTLSpec.createFixed(3600), ORIGIN, ORIGIN, 1, 3600, 600, 86400, TTLSpec.createFixed(60));
+        final List<Record> records = new ArrayList<Record>(names);
+        for (int i = 0; i < names; i ++) {
+            final byte[] address = { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+            try {
+                records.add(new ARecord(name(i), TTLSpec.createFixed(3600), (Inet4Address) InetAddress.getByAddress(address)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Zone.create(soa, records);
+    }
+
+    private static Domain name(final int i) {
+        return Domain.fromString("host" + i + "." + ORIGIN);
+    }
+
+    private static void run(final InetSocketAddress server, final int queries, final int concurrency, final int names) throws Exception {
+        // encode every question up front so that the client does as little work as possible
+        final byte[][] messages = new byte[names][];
+        for (int i = 0; i < names; i ++) {
+            final ByteBuffer buffer = ByteBuffer.allocate(512);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) MessageEncoder.FLAG_RD);
+            buffer.putShort((short) 1);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            name(i).writeTo(buffer);
+            buffer.putShort((short) RRType.A);
+            buffer.putShort((short) RRClass.IN);
+            messages[i] = Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        final DatagramSocket socket = new DatagramSocket();
+        socket.setSoTimeout(100);
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicLongArray sentAt = new AtomicLongArray(0x10000);
+        final int[] latencies = new int[queries];
+        final AtomicInteger answered = new AtomicInteger();
+        final LongAdder lost = new LongAdder();
+        final Thread receiver = new Thread(new Runnable() {
+            public void run() {
+                final byte[] bytes = new byte[4096];
+                final DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+                while (answered.get() + lost.sum() < queries) {
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    } catch (IOException e) {
+                        return;
+                    }
+                    final long now = System.nanoTime();
+                    final long sent = sentAt.getAndSet((bytes[0] & 0xff) << 8 | bytes[1] & 0xff, 0L);
+                    if (sent != 0L) {
+                        latencies[answered.getAndIncrement()] = (int) Math.min(Integer.MAX_VALUE, (now - sent) / 1000L);
+                        permits.release();
+                    }
+                }
+            }
+        }, "DNS load receiver");
+        receiver.start();
+        final long start = System.nanoTime();
+        final DatagramPacket packet = new DatagramPacket(new byte[0], 0, server);
+        for (int i = 0; i < queries; i ++) {
+            while (! permits.tryAcquire(LOSS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                expire(sentAt, permits, lost);
+            }
+            final int id = i & 0xffff;
+            final byte[] message = messages[i % names].clone();
+            message[0] = (byte) (id >> 8);
+            message[1] = (byte) id;
+            if (sentAt.getAndSet(id, System.nanoTime()) != 0L) {
+                // the previous query with this ID was never answered
+                lost.increment();
+                permits.release();
+            }
+            packet.setData(message);
+            socket.send(packet);
+        }
+        while (answered.get() + lost.sum() < queries) {
+            if (! permits.tryAcquire(concurrency, LOSS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                expire(sentAt, permits, lost);
+            } else {
+                permits.release(concurrency);
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        receiver.join();
+        socket.close();
+        final int count = answered.get();
+        Arrays.sort(latencies, 0, count);
+        System.out.printf("Sent %d queries to %s in %.2f s: %.0f queries/s, %d answered, %d lost%n", Integer.valueOf(queries), server, Double.valueOf(elapsed / 1e9), Double.valueOf(count / (elapsed / 1e9)), Integer.valueOf(count), Long.valueOf(lost.sum()));
+        if (count > 0) {
+            System.out.printf("Latency (us): p50 %d, p99 %d, p99.9 %d, max %d%n", Integer.valueOf(latencies[count / 2]), Integer.valueOf(latencies[(int) (count * 0.99)]), Integer.valueOf(latencies[(int) (count * 0.999)]), Integer.valueOf(latencies[count - 1]));
+        }
+    }
+
+    private static void expire(final AtomicLongArray sentAt, final Semaphore permits, final LongAdder lost) {
+        final long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(LOSS_TIMEOUT_MILLIS);
+        for (int id = 0; id < sentAt.length(); id ++) {
+            final long sent = sentAt.get(id);
+            if (sent != 0L && sent - cutoff < 0L && sentAt.compareAndSet(id, sent, 0L)) {
+                lost.increment();
+                permits.release();
+            }
+        }
+    }
+}
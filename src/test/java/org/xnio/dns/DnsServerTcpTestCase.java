@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+/**
+ * Tests for the TCP connection handling of {@link DnsServer}, over the loopback address.
+ */
+public final class DnsServerTcpTestCase {
+
+    private XnioWorker worker;
+    private DnsServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void startServer() throws Exception {
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+        server = new DnsServer(worker, new EmptyResolver(), false);
+        server.setTcpIdleTimeout(200L, TimeUnit.MILLISECONDS);
+        server.setMaxTcpConnections(1);
+        address = server.bindTcp(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void stopServer() {
+        IoUtils.safeClose(server);
+        worker.shutdown();
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws Exception {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testConnectionsBeyondLimitAreClosed() throws Exception {
+        server.setTcpIdleTimeout(1L, TimeUnit.MINUTES);
+        try (Socket first = new Socket(address.getAddress(), address.getPort())) {
+            try (Socket second = new Socket(address.getAddress(), address.getPort())) {
+                second.setSoTimeout(5000);
+                assertEquals(-1, second.getInputStream().read());
+            }
+            first.setSoTimeout(500);
+            try {
+                first.getInputStream().read();
+                fail("The first connection was closed");
+            } catch (SocketTimeoutException expected) {
+            }
+        }
+    }
+}
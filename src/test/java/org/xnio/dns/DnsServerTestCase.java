@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.xnio.Bits;
+
+/**
+ * Tests for the request handling of {@link DnsServer}.
+ */
+public final class DnsServerTestCase {
+
+    static ByteBuffer request(final int id, final int flags, final String name, final int rrType) {
+        final ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.putShort((short) id);
+        buffer.putShort((short) flags);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        Domain.fromString(name).writeTo(buffer);
+        buffer.putShort((short) rrType);
+        buffer.putShort((short) RRClass.IN);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testRecursiveRequest() {
+        final DnsServer.Request request = new DnsServer.Request();
+        assertEquals(ResultCode.NOERROR, request.parse(request(1, MessageEncoder.FLAG_RD, "www.example.com", RRType.A)));
+        final Query query = request.toQuery();
+        assertEquals(Domain.fromString("www.example.com"), query.getDomain());
+        assertEquals(RRType.A, query.getRRType());
+        assertEquals(0, query.getQueryFlags());
+    }
+
+    @Test
+    public void testNonRecursiveRequestBypassesCache() {
+        final DnsServer.Request request = new DnsServer.Request();
+        assertEquals(ResultCode.NOERROR, request.parse(request(1, 0, "www.example.com", RRType.A)));
+        final int flags = request.toQuery().getQueryFlags();
+        assertTrue(Bits.allAreSet(flags, Query.Flag.NO_RECURSION | Query.Flag.BYPASS_CACHE));
+    }
+}
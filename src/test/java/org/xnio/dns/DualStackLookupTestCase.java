@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+
+/**
+ * Tests for {@link DualStackLookup}.
+ */
+public final class DualStackLookupTestCase {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final FutureResult<List<Inet6Address>> inet6 = new FutureResult<List<Inet6Address>>();
+    private final FutureResult<List<Inet4Address>> inet4 = new FutureResult<List<Inet4Address>>();
+    private final DualStackLookup lookup = new DualStackLookup(inet6.getIoFuture(), inet4.getIoFuture(), executor);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static Inet4Address inet4(final String address) throws IOException {
+        return (Inet4Address) InetAddress.getByName(address);
+    }
+
+    private static Inet6Address inet6(final String address) throws IOException {
+        return (Inet6Address) InetAddress.getByName(address);
+    }
+
+    @Test
+    public void testInet6First() throws Exception {
+        final List<Inet6Address> v6 = Arrays.asList(inet6("2001:db8::1"));
+        final List<Inet4Address> v4 = Arrays.asList(inet4("192.0.2.1"));
+        inet6.setResult(v6);
+        assertEquals(IoFuture.Status.DONE, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(v6, lookup.getFirstAddresses().get());
+        inet4.setResult(v4);
+        assertEquals(IoFuture.Status.DONE, lookup.getAllAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(Arrays.<InetAddress>asList(v6.get(0), v4.get(0)), lookup.getAllAddresses().get());
+    }
+
+    @Test
+    public void testInet4AfterResolutionDelay() throws Exception {
+        final List<Inet4Address> v4 = Arrays.asList(inet4("192.0.2.1"));
+        inet4.setResult(v4);
+        assertEquals(IoFuture.Status.DONE, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(v4, lookup.getFirstAddresses().get());
+        inet6.setResult(Collections.<Inet6Address>emptyList());
+        assertEquals(IoFuture.Status.DONE, lookup.getAllAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(v4, lookup.getAllAddresses().get());
+    }
+
+    @Test
+    public void testBothFailed() throws Exception {
+        final IOException v6Failure = new IOException("inet6");
+        final IOException v4Failure = new IOException("inet4");
+        inet6.setException(v6Failure);
+        inet4.setException(v4Failure);
+        assertEquals(IoFuture.Status.FAILED, lookup.getAllAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(IoFuture.Status.FAILED, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        final IOException failure = lookup.getAllAddresses().getException();
+        assertSame(v4Failure, failure);
+        assertSame(failure, lookup.getFirstAddresses().getException());
+        assertEquals(Arrays.asList(v6Failure), Arrays.asList(failure.getSuppressed()));
+    }
+
+    @Test
+    public void testNotifierMayWaitForAllAddresses() throws Exception {
+        final AtomicReference<Object> seen = new AtomicReference<Object>();
+        lookup.getFirstAddresses().addNotifier(new IoFuture.HandlingNotifier<List<InetAddress>, Void>() {
+            public void handleDone(final List<InetAddress> result, final Void attachment) {
+                try {
+                    seen.set(lookup.getAllAddresses().get());
+                } catch (IOException e) {
+                    seen.set(e);
+                }
+            }
+        }, null);
+        inet6.setResult(Arrays.asList(inet6("2001:db8::1")));
+        // the notifier must not be holding up the thread which completes the other lookup
+        inet4.setResult(Collections.<Inet4Address>emptyList());
+        assertEquals(IoFuture.Status.DONE, lookup.getAllAddresses().await(5L, TimeUnit.SECONDS));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (seen.get() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(lookup.getAllAddresses().get(), seen.get());
+        assertTrue(seen.get() instanceof List);
+    }
+}
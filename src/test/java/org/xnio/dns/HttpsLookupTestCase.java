@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.HttpsRecord;
+import org.xnio.dns.record.SvcParams;
+
+/**
+ * Tests for {@link HttpsLookup}.
+ */
+public final class HttpsLookupTestCase {
+
+    private static final Domain ORIGIN = Domain.fromString("www.example.com");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final FutureResult<List<HttpsRecord>> records = new FutureResult<List<HttpsRecord>>();
+    private final FutureResult<List<Inet6Address>> inet6 = new FutureResult<List<Inet6Address>>();
+    private final FutureResult<List<Inet4Address>> inet4 = new FutureResult<List<Inet4Address>>();
+    private final HttpsLookup lookup = new HttpsLookup(records.getIoFuture(), new DualStackLookup(inet6.getIoFuture(), inet4.getIoFuture(), executor), executor);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static HttpsRecord serviceRecord(final Inet4Address hint) {
+        return new HttpsRecord(ORIGIN, TTLSpec.createFixed(300), 1, Domain.ROOT, SvcParams.builder().setAlpn("h2").setIpv4Hints(hint).build());
+    }
+
+    @Test
+    public void testHintsFirst() throws Exception {
+        final Inet4Address hint = (Inet4Address) InetAddress.getByName("192.0.2.7");
+        records.setResult(Arrays.asList(serviceRecord(hint)));
+        assertEquals(IoFuture.Status.DONE, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(Arrays.<InetAddress>asList(hint), lookup.getFirstAddresses().get());
+    }
+
+    @Test
+    public void testAddressesWithoutRecords() throws Exception {
+        final List<Inet6Address> v6 = Arrays.asList((Inet6Address) InetAddress.getByName("2001:db8::1"));
+        records.setResult(Collections.<HttpsRecord>emptyList());
+        inet6.setResult(v6);
+        assertEquals(IoFuture.Status.DONE, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        assertEquals(v6, lookup.getFirstAddresses().get());
+    }
+
+    @Test
+    public void testNotifierMayWaitForRecords() throws Exception {
+        final AtomicReference<Object> seen = new AtomicReference<Object>();
+        lookup.getFirstAddresses().addNotifier(new IoFuture.HandlingNotifier<List<InetAddress>, Void>() {
+            public void handleDone(final List<InetAddress> result, final Void attachment) {
+                try {
+                    seen.set(lookup.getRecords().get());
+                } catch (IOException e) {
+                    seen.set(e);
+                }
+            }
+        }, null);
+        inet6.setResult(Arrays.asList((Inet6Address) InetAddress.getByName("2001:db8::1")));
+        inet4.setResult(Collections.<Inet4Address>emptyList());
+        assertEquals(IoFuture.Status.DONE, lookup.getFirstAddresses().await(5L, TimeUnit.SECONDS));
+        // the notifier must not be holding up the thread which completes the records
+        records.setResult(Collections.<HttpsRecord>emptyList());
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (seen.get() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(Collections.emptyList(), seen.get());
+    }
+}
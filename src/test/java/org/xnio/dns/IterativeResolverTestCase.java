@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.NsRecord;
+
+/**
+ * Tests for {@link IterativeResolver} against a scripted set of name servers.
+ */
+public final class IterativeResolverTestCase {
+
+    private static final TTLSpec TTL = TTLSpec.createFixed(300);
+
+    private static final String ROOT_HINTS = ".  3600000  NS  a.root-servers.test.\na.root-servers.test.  3600000  A  198.51.100.1\n";
+
+    static Domain domain(final String name) {
+        return Domain.fromString(name);
+    }
+
+    static InetAddress address(final String address) throws Exception {
+        return InetAddress.getByName(address);
+    }
+
+    /**
+     * A scripted name server.
+     */
+    abstract static class Server {
+        abstract Answer respond(Query query, Answer.Builder builder) throws Exception;
+    }
+
+    /**
+     * A network of scripted name servers, which records each query sent to each of them as the server address, the
+     * absolute name and the type.
+     */
+    static final class FakeNetwork implements NetworkResolver {
+        final Map<InetAddress, Server> servers = new HashMap<InetAddress, Server>();
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+        public Resolver resolverFor(final SocketAddress server) {
+            final InetAddress address = ((InetSocketAddress) server).getAddress();
+            return new AbstractResolver() {
+                public IoFuture<Answer> resolve(final Query query) {
+                    log.add(address.getHostAddress() + " " + query.getDomain() + " " + RRType.toString(query.getRRType()));
+                    final Answer.Builder builder = Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NOERROR);
+                    final Server handler = servers.get(address);
+                    try {
+                        return new FinishedIoFuture<Answer>(handler == null ? builder.setResultCode(ResultCode.REFUSED).create() : handler.respond(query, builder));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+
+        int count(final String prefix) {
+            int count = 0;
+            synchronized (log) {
+                for (String entry : log) {
+                    if (entry.startsWith(prefix)) count ++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The root refers {@code example.net} to a server with glue, and {@code example.com} to two servers without glue:
+     * {@code ns1.example.net}, which refuses every query, and {@code ns2.example.net}, which only has an IPv6 address
+     * and is reached through a CNAME.
+     */
+    static FakeNetwork network() throws Exception {
+        final FakeNetwork network = new FakeNetwork();
+        network.servers.put(address("198.51.100.1"), new Server() {
+            Answer respond(final Query query, final Answer.Builder builder) throws Exception {
+                final Domain name = query.getDomain();
+                if (name.equals(Domain.ROOT)) {
+                    return builder.addAnswerRecord(new NsRecord(Domain.ROOT, TTL, domain("a.root-servers.test")))
+                        .addAdditionalRecord(new ARecord(domain("a.root-servers.test"), TTL, (Inet4Address) address("198.51.100.1")))
+                        .create();
+                } else if (name.isSubdomainOf(domain("example.net"))) {
+                    return builder.addAuthorityRecord(new NsRecord(domain("example.net"), TTL, domain("ns.example.net")))
+                        .addAdditionalRecord(new ARecord(domain("ns.example.net"), TTL, (Inet4Address) address("198.51.100.2")))
+                        .create();
+                } else if (name.isSubdomainOf(domain("example.com"))) {
+                    return builder.addAuthorityRecord(new NsRecord(domain("example.com"), TTL, domain("ns1.example.net")))
+                        .addAuthorityRecord(new NsRecord(domain("example.com"), TTL, domain("ns2.example.net")))
+                        .create();
+                }
+                return builder.setResultCode(ResultCode.NXDOMAIN).create();
+            }
+        });
+        network.servers.put(address("198.51.100.2"), new Server() {
+            Answer respond(final Query query, final Answer.Builder builder) throws Exception {
+                final Domain name = query.getDomain();
+                final int rrType = query.getRRType();
+                if (name.equals(domain("ns1.example.net")) && rrType == RRType.A) {
+                    builder.addAnswerRecord(new ARecord(name, TTL, (Inet4Address) address("192.0.2.1")));
+                } else if (name.equals(domain("ns2.example.net"))) {
+                    builder.addAnswerRecord(new CNameRecord(name, TTL, domain("host.example.net")));
+                } else if (name.equals(domain("host.example.net")) && rrType == RRType.AAAA) {
+                    builder.addAnswerRecord(new AaaaRecord(name, TTL, (Inet6Address) address("2001:db8::53")));
+                }
+                return builder.create();
+            }
+        });
+        network.servers.put(address("2001:db8::53"), new Server() {
+            Answer respond(final Query query, final Answer.Builder builder) throws Exception {
+                final Domain name = query.getDomain();
+                if (query.getRRType() == RRType.A && name.isSubdomainOf(domain("example.com"))) {
+                    builder.addAnswerRecord(new ARecord(name, TTL, (Inet4Address) address("203.0.113.1")));
+                }
+                return builder.create();
+            }
+        });
+        // 192.0.2.1 has no handler, so it refuses every query
+        return network;
+    }
+
+    static Answer resolve(final Resolver resolver, final String name) throws Exception {
+        final IoFuture<Answer> future = resolver.resolve(domain(name), RRClass.IN, RRType.A);
+        assertEquals(IoFuture.Status.DONE, future.await(5L, TimeUnit.SECONDS));
+        return future.get();
+    }
+
+    static IterativeResolver resolver(final FakeNetwork network) throws Exception {
+        return new IterativeResolver(network, RootHints.load(new StringReader(ROOT_HINTS)), IoUtils.directExecutor());
+    }
+
+    @Test
+    public void testPriming() throws Exception {
+        final FakeNetwork network = network();
+        final IterativeResolver resolver = resolver(network);
+        final Answer answer = resolver.prime().get();
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        assertEquals(1, network.count("198.51.100.1 . NS"));
+    }
+
+    @Test
+    public void testGluelessServerWithIpv6AddressOnly() throws Exception {
+        final FakeNetwork network = network();
+        final Answer answer = resolve(resolver(network), "www.example.com");
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        assertEquals(address("203.0.113.1"), ((ARecord) answer.getAnswerRecords().get(0)).getAddress());
+        // the first glueless server refused, so the second was tried through its alias and AAAA record
+        assertEquals(1, network.count("192.0.2.1 www.example.com."));
+        assertEquals(1, network.count("198.51.100.2 host.example.net. AAAA"));
+        assertEquals(1, network.count("2001:db8:0:0:0:0:0:53 www.example.com."));
+    }
+
+    @Test
+    public void testGluelessAddressesAreCachedTogether() throws Exception {
+        final FakeNetwork network = network();
+        final IterativeResolver resolver = resolver(network);
+        resolve(resolver, "www.example.com");
+        final int lookups = network.count("198.51.100.2 ");
+        assertTrue(lookups > 0);
+        final Answer answer = resolve(resolver, "mail.example.com");
+        assertEquals(ResultCode.NOERROR, answer.getResultCode());
+        // both servers' addresses came from the cached delegation
+        assertEquals(lookups, network.count("198.51.100.2 "));
+        assertEquals(1, network.count("192.0.2.1 mail.example.com."));
+        assertEquals(1, network.count("2001:db8:0:0:0:0:0:53 mail.example.com."));
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * Tests for {@link NameWatcher}.
+ */
+public final class NameWatcherTestCase {
+
+    private static final Domain NAME = Domain.fromString("www.example.com");
+    private static final Query QUERY = new Query(NAME, RRClass.IN, RRType.A, 0);
+
+    /**
+     * A resolver which answers with records which the test may change, and counts the lookups.
+     */
+    static final class ChangingResolver extends AbstractResolver {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile int resultCode = ResultCode.NOERROR;
+        volatile List<Record> records = Collections.emptyList();
+
+        public IoFuture<Answer> resolve(final Query query) {
+            lookups.incrementAndGet();
+            return new FinishedIoFuture<Answer>(Answer.builder().populateFromQuery(query).setResultCode(resultCode).setAnswerRecords(records).create());
+        }
+    }
+
+    /**
+     * A change seen by a listener.
+     */
+    static final class Change {
+        final List<Record> records;
+        final List<Record> added;
+        final List<Record> removed;
+        final IOException failure;
+
+        Change(final List<Record> records, final List<Record> added, final List<Record> removed, final IOException failure) {
+            this.records = records;
+            this.added = added;
+            this.removed = removed;
+            this.failure = failure;
+        }
+    }
+
+    static final class QueueListener implements NameWatcher.Listener {
+        final BlockingQueue<Change> changes = new LinkedBlockingQueue<Change>();
+
+        public void changed(final Query query, final List<Record> records, final List<Record> added, final List<Record> removed) {
+            changes.add(new Change(records, added, removed, null));
+        }
+
+        public void failed(final Query query, final IOException exception) {
+            changes.add(new Change(null, null, null, exception));
+        }
+
+        Change next() throws InterruptedException {
+            final Change change = changes.poll(5L, TimeUnit.SECONDS);
+            assertNotNull(change);
+            return change;
+        }
+    }
+
+    private static ARecord a(final int i, final int ttl) throws Exception {
+        return new ARecord(NAME, TTLSpec.createFixed(ttl), (Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, (byte) i }));
+    }
+
+    private static List<Record> records(final Record... records) {
+        return new ArrayList<Record>(Arrays.asList(records));
+    }
+
+    private static List<InetAddress> addresses(final List<Record> records) {
+        final List<InetAddress> addresses = new ArrayList<InetAddress>();
+        for (Record record : records) {
+            addresses.add(((ARecord) record).getAddress());
+        }
+        return addresses;
+    }
+
+    private static List<InetAddress> addresses(final int... hosts) throws Exception {
+        final List<InetAddress> addresses = new ArrayList<InetAddress>();
+        for (int host : hosts) {
+            addresses.add(InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, (byte) host }));
+        }
+        return addresses;
+    }
+
+    @Test
+    public void testChangesAreDiffed() throws Exception {
+        final ChangingResolver resolver = new ChangingResolver();
+        resolver.records = records(a(2, 0), a(1, 0));
+        final NameWatcher watcher = new NameWatcher(resolver);
+        final QueueListener listener = new QueueListener();
+        final NameWatcher.Subscription subscription = watcher.watch(QUERY, listener);
+        try {
+            Change change = listener.next();
+            assertEquals(addresses(1, 2), addresses(change.records));
+            assertEquals(addresses(1, 2), addresses(change.added));
+            assertEquals(0, change.removed.size());
+
+            resolver.records = records(a(3, 0), a(2, 0));
+            change = listener.next();
+            assertEquals(addresses(2, 3), addresses(change.records));
+            assertEquals(addresses(3), addresses(change.added));
+            assertEquals(addresses(1), addresses(change.removed));
+
+            // the same set in another order and with other TTLs is no change
+            resolver.records = records(a(2, 1), a(3, 1), a(3, 1));
+            final int lookups = resolver.lookups.get();
+            assertNull(listener.changes.poll(2500L, TimeUnit.MILLISECONDS));
+            assertTrue(resolver.lookups.get() > lookups);
+
+            resolver.resultCode = ResultCode.NXDOMAIN;
+            resolver.records = Collections.emptyList();
+            change = listener.next();
+            assertEquals(0, change.records.size());
+            assertEquals(addresses(2, 3), addresses(change.removed));
+        } finally {
+            subscription.close();
+        }
+        assertEquals(0, watcher.size());
+    }
+
+    @Test
+    public void testFailureKeepsRecords() throws Exception {
+        final ChangingResolver resolver = new ChangingResolver();
+        resolver.records = records(a(1, 0));
+        final NameWatcher watcher = new NameWatcher(resolver);
+        final QueueListener listener = new QueueListener();
+        final NameWatcher.Subscription subscription = watcher.watch(QUERY, listener);
+        try {
+            listener.next();
+            resolver.resultCode = ResultCode.SERVER_FAILURE;
+            final Change change = listener.next();
+            assertTrue(change.failure instanceof DNSException);
+            assertEquals(addresses(1), addresses(subscription.getRecords()));
+        } finally {
+            subscription.close();
+        }
+    }
+
+    @Test
+    public void testSubscriptionsShareOneEntry() throws Exception {
+        final ChangingResolver resolver = new ChangingResolver();
+        resolver.records = records(a(1, 300));
+        final NameWatcher watcher = new NameWatcher(resolver);
+        final QueueListener first = new QueueListener();
+        final QueueListener second = new QueueListener();
+        final NameWatcher.Subscription firstSubscription = watcher.watch(QUERY, first);
+        final NameWatcher.Subscription secondSubscription = watcher.watch(QUERY, second);
+        assertEquals(1, watcher.size());
+        assertEquals(1, resolver.lookups.get());
+        // the second subscriber is told of the known records at once
+        assertEquals(addresses(1), addresses(second.next().added));
+        firstSubscription.close();
+        assertEquals(1, watcher.size());
+        secondSubscription.close();
+        assertEquals(0, watcher.size());
+    }
+
+    @Test
+    public void testMinTtl() {
+        final Domain zone = Domain.fromString("example.com");
+        final SoaRecord soa = new SoaRecord(zone, TTLSpec.createFixed(3600), zone, zone, 1, 3600, 600, 86400, TTLSpec.createFixed(30));
+        final Answer negative = Answer.builder().populateFromQuery(QUERY).setResultCode(ResultCode.NXDOMAIN).addAuthorityRecord(soa).create();
+        assertEquals(30, NameWatcher.minTtl(negative));
+        final Answer empty = Answer.builder().populateFromQuery(QUERY).setResultCode(ResultCode.NXDOMAIN).create();
+        // without a SOA record the default applies
+        assertEquals(60, NameWatcher.minTtl(empty));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.UnknownRecord;
+
+/**
+ * Tests for the eviction behavior of {@link OffHeapAnswerCache}.
+ */
+public final class OffHeapAnswerCacheTestCase {
+
+    private static final TTLSpec TTL = TTLSpec.createFixed(300);
+
+    private static Domain name(final int i) {
+        return Domain.fromString("host" + i + ".example.com");
+    }
+
+    private static Answer answer(final Domain name, final Record record) {
+        return Answer.builder().setHeaderInfo(name, RRClass.IN, RRType.A, ResultCode.NOERROR).addAnswerRecord(record).create();
+    }
+
+    private static Answer addressAnswer(final int i) throws Exception {
+        final Inet4Address address = (Inet4Address) InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+        return answer(name(i), new ARecord(name(i), TTL, address));
+    }
+
+    @Test
+    public void testClockEviction() throws Exception {
+        final OffHeapAnswerCache cache = new OffHeapAnswerCache(SlabAllocator.SLAB_SIZE);
+        final int count = 40000;
+        for (int i = 0; i < count; i ++) {
+            cache.put(name(i), RRClass.IN, RRType.A, addressAnswer(i));
+            // keep the first entry referenced, so that the sweep always spares it
+            assertNotNull(cache.get(name(0), RRClass.IN, RRType.A));
+        }
+        assertEquals(SlabAllocator.SLAB_SIZE, cache.getReservedBytes());
+        assertTrue(cache.size() < count);
+        assertEquals(count - cache.size(), cache.getEvictionCount());
+        final Answer last = cache.get(name(count - 1), RRClass.IN, RRType.A);
+        assertNotNull(last);
+        assertEquals(name(count - 1), last.getAnswerRecords().get(0).getName());
+        assertNull(cache.get(name(1), RRClass.IN, RRType.A));
+    }
+
+    @Test
+    public void testSlabStolenForNewSizeClass() throws Exception {
+        final OffHeapAnswerCache cache = new OffHeapAnswerCache(SlabAllocator.SLAB_SIZE);
+        for (int i = 0; i < 100; i ++) {
+            cache.put(name(i), RRClass.IN, RRType.A, addressAnswer(i));
+        }
+        assertEquals(100, cache.size());
+        // the only slab holds small blocks, so storing a large answer evicts everything in it
+        final Domain big = Domain.fromString("big.example.com");
+        cache.put(big, RRClass.IN, RRType.A, answer(big, new UnknownRecord(big, 65280, TTL, new byte[4000])));
+        assertEquals(1, cache.size());
+        assertEquals(100L, cache.getEvictionCount());
+        assertNull(cache.get(name(0), RRClass.IN, RRType.A));
+        assertNotNull(cache.get(big, RRClass.IN, RRType.A));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.CNameRecord;
+import org.xnio.dns.record.MxRecord;
+import org.xnio.dns.record.UnknownRecord;
+
+/**
+ * Tests for encoding records with name compression and decoding them again.
+ */
+public final class RecordEncodingTestCase {
+
+    private static final int HEADER_LENGTH = 12;
+    private static final TTLSpec TTL = TTLSpec.createFixed(300);
+
+    private static Domain domain(final String name) {
+        return Domain.fromString(name);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        final Inet4Address address = (Inet4Address) InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, 1 });
+        final Record[] records = {
+            new ARecord(domain("www.example.com"), TTL, address),
+            new CNameRecord(domain("alias.example.com"), TTL, domain("www.example.com")),
+            new MxRecord(domain("example.com"), TTL, 10, domain("mail.example.com")),
+        };
+        final ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.position(HEADER_LENGTH);
+        final CompressionContext context = new CompressionContext();
+        for (Record record : records) {
+            record.writeTo(buffer, context);
+        }
+        final ByteBuffer uncompressed = ByteBuffer.allocate(512);
+        for (Record record : records) {
+            record.writeTo(uncompressed, null);
+        }
+        assertTrue("names were not compressed", buffer.position() - HEADER_LENGTH < uncompressed.position());
+
+        buffer.flip();
+        buffer.position(HEADER_LENGTH);
+        final long now = System.currentTimeMillis();
+        final ARecord a = (ARecord) Record.fromBytes(buffer, now);
+        assertEquals(domain("www.example.com"), a.getName());
+        assertEquals(address, a.getAddress());
+        assertEquals(300, a.getTtlSpec().getTtl(), 1);
+        final CNameRecord cname = (CNameRecord) Record.fromBytes(buffer, now);
+        assertEquals(domain("alias.example.com"), cname.getName());
+        assertEquals(domain("www.example.com"), cname.getCname());
+        final MxRecord mx = (MxRecord) Record.fromBytes(buffer, now);
+        assertEquals(domain("example.com"), mx.getName());
+        assertEquals(10, mx.getPreference());
+        assertEquals(domain("mail.example.com"), mx.getExchanger());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testTruncateAfterOverflow() {
+        final ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.position(HEADER_LENGTH);
+        final CompressionContext context = new CompressionContext();
+        new CNameRecord(domain("www.example.com"), TTL, domain("example.com")).writeTo(buffer, context);
+
+        // the name of this record is recorded before its data overflows the message
+        final int mark = context.mark();
+        final int start = buffer.position();
+        buffer.limit(start + 100);
+        try {
+            new UnknownRecord(domain("x.other.org"), 65280, TTL, new byte[200]).writeTo(buffer, context);
+            fail("expected overflow");
+        } catch (BufferOverflowException expected) {
+        }
+        buffer.limit(buffer.capacity());
+        buffer.position(start);
+        context.truncate(mark);
+
+        // without the truncation, other.org would be compressed to a pointer into the discarded record
+        new CNameRecord(domain("y.other.org"), TTL, domain("www.example.com")).writeTo(buffer, context);
+        buffer.flip();
+        buffer.position(HEADER_LENGTH);
+        final long now = System.currentTimeMillis();
+        final CNameRecord first = (CNameRecord) Record.fromBytes(buffer, now);
+        assertEquals(domain("www.example.com"), first.getName());
+        assertEquals(domain("example.com"), first.getCname());
+        final CNameRecord second = (CNameRecord) Record.fromBytes(buffer, now);
+        assertEquals(domain("y.other.org"), second.getName());
+        assertEquals(domain("www.example.com"), second.getCname());
+        assertFalse(buffer.hasRemaining());
+    }
+}
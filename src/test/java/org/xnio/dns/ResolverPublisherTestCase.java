@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.xnio.Cancellable;
+import org.xnio.FailedIoFuture;
+import org.xnio.FinishedIoFuture;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+
+/**
+ * Tests for {@link ResolverPublisher}.
+ */
+public final class ResolverPublisherTestCase {
+
+    static Query query(final int i) {
+        return new Query(Domain.fromString("host" + i + ".example.com"), RRClass.IN, RRType.A, 0);
+    }
+
+    static Answer answer(final Query query) {
+        return Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NOERROR).create();
+    }
+
+    /**
+     * A publisher of a fixed number of queries, which records how many were requested.
+     */
+    static final class QueryPublisher implements Publisher<Query>, Subscription {
+        final int count;
+        Subscriber<? super Query> subscriber;
+        long requested;
+        int emitted;
+        boolean cancelled;
+        private boolean emitting;
+
+        QueryPublisher(final int count) {
+            this.count = count;
+        }
+
+        public void subscribe(final Subscriber<? super Query> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        public void request(final long n) {
+            requested += n;
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (! cancelled && emitted < count && emitted < requested) {
+                subscriber.onNext(query(emitted ++));
+            }
+            emitting = false;
+            if (! cancelled && emitted == count) {
+                cancelled = true;
+                subscriber.onComplete();
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * A resolver whose answers are completed by the test.
+     */
+    static final class PendingResolver extends AbstractResolver {
+        final List<FutureResult<Answer>> pending = Collections.synchronizedList(new ArrayList<FutureResult<Answer>>());
+        final List<Query> queries = Collections.synchronizedList(new ArrayList<Query>());
+
+        public IoFuture<Answer> resolve(final Query query) {
+            final FutureResult<Answer> result = new FutureResult<Answer>();
+            result.addCancelHandler(new Cancellable() {
+                public Cancellable cancel() {
+                    result.setCancelled();
+                    return this;
+                }
+            });
+            queries.add(query);
+            pending.add(result);
+            return result.getIoFuture();
+        }
+
+        void answer(final int i) {
+            pending.get(i).setResult(ResolverPublisherTestCase.answer(queries.get(i)));
+        }
+    }
+
+    static final class RecordingSubscriber implements Subscriber<Answer> {
+        final List<Answer> answers = new ArrayList<Answer>();
+        Subscription subscription;
+        Throwable error;
+        boolean complete;
+
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(final Answer answer) {
+            answers.add(answer);
+        }
+
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    @Test
+    public void testQueriesInFlightAreLimited() {
+        final QueryPublisher queries = new QueryPublisher(5);
+        final PendingResolver resolver = new PendingResolver();
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new ResolverPublisher(resolver, queries, 2).subscribe(subscriber);
+        subscriber.subscription.request(10L);
+        assertEquals(2L, queries.requested);
+        assertEquals(2, resolver.queries.size());
+        resolver.answer(1);
+        assertEquals(1, subscriber.answers.size());
+        assertEquals(resolver.queries.get(1).getDomain(), subscriber.answers.get(0).getQueryDomain());
+        assertEquals(3, resolver.queries.size());
+        for (int i = 0; i < 5; i ++) {
+            if (i != 1) {
+                resolver.answer(i);
+            }
+        }
+        assertEquals(5, subscriber.answers.size());
+        assertTrue(subscriber.complete);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testAnswersFollowDemand() {
+        final QueryPublisher queries = new QueryPublisher(3);
+        final Resolver resolver = new AbstractResolver() {
+            public IoFuture<Answer> resolve(final Query query) {
+                return new FinishedIoFuture<Answer>(answer(query));
+            }
+        };
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new ResolverPublisher(resolver, queries).subscribe(subscriber);
+        subscriber.subscription.request(1L);
+        assertEquals(1, subscriber.answers.size());
+        assertEquals(1L, queries.requested);
+        subscriber.subscription.request(1L);
+        assertEquals(2, subscriber.answers.size());
+        assertFalse(subscriber.complete);
+        subscriber.subscription.request(1L);
+        assertEquals(3, subscriber.answers.size());
+        assertTrue(subscriber.complete);
+    }
+
+    @Test
+    public void testFailedQueryIsAnsweredWithServerFailure() {
+        final QueryPublisher queries = new QueryPublisher(1);
+        final Resolver resolver = new AbstractResolver() {
+            public IoFuture<Answer> resolve(final Query query) {
+                return new FailedIoFuture<Answer>(new IOException("Test failure"));
+            }
+        };
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new ResolverPublisher(resolver, queries).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(1, subscriber.answers.size());
+        assertEquals(ResultCode.SERVER_FAILURE, subscriber.answers.get(0).getResultCode());
+        assertTrue(subscriber.complete);
+    }
+
+    @Test
+    public void testCancelCancelsQueries() {
+        final QueryPublisher queries = new QueryPublisher(5);
+        final PendingResolver resolver = new PendingResolver();
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new ResolverPublisher(resolver, queries, 2).subscribe(subscriber);
+        subscriber.subscription.request(5L);
+        subscriber.subscription.cancel();
+        assertTrue(queries.cancelled);
+        assertEquals(IoFuture.Status.CANCELLED, resolver.pending.get(0).getIoFuture().getStatus());
+        assertEquals(IoFuture.Status.CANCELLED, resolver.pending.get(1).getIoFuture().getStatus());
+        assertEquals(0, subscriber.answers.size());
+        assertFalse(subscriber.complete);
+    }
+
+    @Test
+    public void testNonPositiveRequestIsAnError() {
+        final QueryPublisher queries = new QueryPublisher(5);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new ResolverPublisher(new PendingResolver(), queries).subscribe(subscriber);
+        subscriber.subscription.request(0L);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(queries.cancelled);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.SoaRecord;
+
+/**
+ * Tests for {@link ResponseCache}.
+ */
+public final class ResponseCacheTestCase {
+
+    private static final Domain ZONE = Domain.fromString("example.com");
+
+    /**
+     * Parse a request for the given name, spelled exactly as given.
+     */
+    static DnsServer.Request request(final int id, final int flags, final String name) {
+        final ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.putShort((short) id);
+        buffer.putShort((short) flags);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        for (String label : name.split("\\.")) {
+            buffer.put((byte) label.length());
+            buffer.put(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.put((byte) 0);
+        buffer.putShort((short) RRType.A);
+        buffer.putShort((short) RRClass.IN);
+        buffer.flip();
+        final DnsServer.Request request = new DnsServer.Request();
+        assertEquals(ResultCode.NOERROR, request.parse(buffer));
+        return request;
+    }
+
+    static Answer addressAnswer(final DnsServer.Request request, final TTLSpec ttl) throws Exception {
+        return Answer.builder().setHeaderInfo(request.name, RRClass.IN, RRType.A, ResultCode.NOERROR)
+            .addAnswerRecord(new ARecord(request.name, ttl, (Inet4Address) InetAddress.getByName("192.0.2.1"))).create();
+    }
+
+    static Answer negativeAnswer(final DnsServer.Request request, final int minimum) {
+        final SoaRecord soa = new SoaRecord(ZONE, TTLSpec.createFixed(3600), ZONE, ZONE, 1, 3600, 600, 86400, TTLSpec.createFixed(minimum));
+        return Answer.builder().setHeaderInfo(request.name, RRClass.IN, RRType.A, ResultCode.NXDOMAIN).addAuthorityRecord(soa).create();
+    }
+
+    static void store(final ResponseCache cache, final DnsServer.Request request, final Answer answer) {
+        final ByteBuffer buffer = ByteBuffer.allocate(MessageEncoder.MAX_UDP_PAYLOAD);
+        request.writeResponse(buffer, ResultCode.NOERROR, answer, true);
+        buffer.flip();
+        cache.store(request, answer, buffer);
+    }
+
+    @Test
+    public void testHitIsPatchedForRequest() throws Exception {
+        final ResponseCache cache = new ResponseCache(10);
+        final DnsServer.Request first = request(1, MessageEncoder.FLAG_RD, "www.example.com");
+        store(cache, first, addressAnswer(first, TTLSpec.createFixed(300)));
+        assertEquals(1, cache.size());
+
+        final DnsServer.Request second = request(0x1234, 0, "WwW.ExAmple.COM");
+        final ByteBuffer buffer = ByteBuffer.allocate(MessageEncoder.MAX_UDP_PAYLOAD);
+        assertTrue(cache.writeCached(second, buffer));
+        buffer.flip();
+        assertEquals(0x1234, buffer.getShort(0) & 0xffff);
+        assertEquals(0, buffer.getShort(2) & MessageEncoder.FLAG_RD);
+        assertEquals(1, buffer.getShort(6) & 0xffff);
+        final byte[] question = new byte[second.question.remaining()];
+        buffer.position(MessageEncoder.HEADER_LENGTH);
+        buffer.get(question);
+        assertEquals("WwW", new String(question, 1, 3, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testMissForOtherName() throws Exception {
+        final ResponseCache cache = new ResponseCache(10);
+        final DnsServer.Request first = request(1, MessageEncoder.FLAG_RD, "www.example.com");
+        store(cache, first, addressAnswer(first, TTLSpec.createFixed(300)));
+        assertFalse(cache.writeCached(request(2, MessageEncoder.FLAG_RD, "mail.example.com"), ByteBuffer.allocate(MessageEncoder.MAX_UDP_PAYLOAD)));
+    }
+
+    @Test
+    public void testVariableTtlIsNotCached() throws Exception {
+        final ResponseCache cache = new ResponseCache(10);
+        final DnsServer.Request request = request(1, MessageEncoder.FLAG_RD, "www.example.com");
+        store(cache, request, addressAnswer(request, TTLSpec.createVariable(System.currentTimeMillis() + 300000L)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNegativeAnswerNeedsSoaMinimum() {
+        final ResponseCache cache = new ResponseCache(10);
+        final DnsServer.Request request = request(1, MessageEncoder.FLAG_RD, "missing.example.com");
+        store(cache, request, negativeAnswer(request, 0));
+        assertEquals(0, cache.size());
+        store(cache, request, negativeAnswer(request, 60));
+        assertEquals(1, cache.size());
+        final ByteBuffer buffer = ByteBuffer.allocate(MessageEncoder.MAX_UDP_PAYLOAD);
+        assertTrue(cache.writeCached(request(2, MessageEncoder.FLAG_RD, "missing.example.com"), buffer));
+        assertEquals(ResultCode.NXDOMAIN, buffer.getShort(2) & 0xf);
+    }
+
+    @Test
+    public void testServerFailureIsNotCached() {
+        final ResponseCache cache = new ResponseCache(10);
+        final DnsServer.Request request = request(1, MessageEncoder.FLAG_RD, "www.example.com");
+        store(cache, request, Answer.builder().setHeaderInfo(request.name, RRClass.IN, RRType.A, ResultCode.SERVER_FAILURE).create());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeIsLimited() throws Exception {
+        final ResponseCache cache = new ResponseCache(2);
+        for (int i = 0; i < 5; i ++) {
+            final DnsServer.Request request = request(i, MessageEncoder.FLAG_RD, "host" + i + ".example.com");
+            store(cache, request, addressAnswer(request, TTLSpec.createFixed(300)));
+        }
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SlabAllocator}.
+ */
+public final class SlabAllocatorTestCase {
+
+    private static final int LARGEST = SlabAllocator.CLASS_COUNT - 1;
+    private static final int BLOCKS_PER_SLAB = SlabAllocator.SLAB_SIZE / SlabAllocator.MAX_BLOCK_SIZE;
+
+    @Test
+    public void testSizeClasses() {
+        assertEquals(0, SlabAllocator.sizeClassFor(1));
+        assertEquals(0, SlabAllocator.sizeClassFor(64));
+        assertEquals(1, SlabAllocator.sizeClassFor(65));
+        assertEquals(LARGEST, SlabAllocator.sizeClassFor(SlabAllocator.MAX_BLOCK_SIZE));
+        assertEquals(-1, SlabAllocator.sizeClassFor(SlabAllocator.MAX_BLOCK_SIZE + 1));
+    }
+
+    @Test
+    public void testExhaustion() {
+        final SlabAllocator allocator = new SlabAllocator(SlabAllocator.SLAB_SIZE);
+        final Set<Integer> refs = new HashSet<Integer>();
+        for (int i = 0; i < BLOCKS_PER_SLAB; i ++) {
+            final int ref = allocator.allocate(LARGEST);
+            assertNotEquals(-1, ref);
+            assertEquals(0, SlabAllocator.offsetOf(ref) % SlabAllocator.MAX_BLOCK_SIZE);
+            assertTrue(refs.add(Integer.valueOf(ref)));
+        }
+        assertTrue(allocator.isFull());
+        assertEquals(SlabAllocator.SLAB_SIZE, allocator.getReservedBytes());
+        assertEquals(-1, allocator.allocate(LARGEST));
+        // a freed block is handed out again
+        final int ref = refs.iterator().next().intValue();
+        allocator.free(ref);
+        assertEquals(ref, allocator.allocate(LARGEST));
+    }
+
+    @Test
+    public void testClockSweep() {
+        final SlabAllocator allocator = new SlabAllocator(SlabAllocator.SLAB_SIZE);
+        assertEquals(-1, allocator.nextBlock(LARGEST));
+        allocator.allocate(LARGEST);
+        final Set<Integer> swept = new HashSet<Integer>();
+        final int first = allocator.nextBlock(LARGEST);
+        swept.add(Integer.valueOf(first));
+        for (int i = 1; i < BLOCKS_PER_SLAB; i ++) {
+            assertTrue(swept.add(Integer.valueOf(allocator.nextBlock(LARGEST))));
+        }
+        // the hand wraps around to the first block
+        assertEquals(first, allocator.nextBlock(LARGEST));
+    }
+
+    @Test
+    public void testReassignSlab() {
+        final SlabAllocator allocator = new SlabAllocator(SlabAllocator.SLAB_SIZE);
+        allocator.free(allocator.allocate(LARGEST));
+        assertTrue(allocator.isFull());
+        final int slabIndex = allocator.chooseDonorSlab();
+        assertEquals(0, slabIndex);
+        allocator.reassignSlab(slabIndex, 0);
+        assertEquals(0, allocator.slabCount(LARGEST));
+        assertEquals(1, allocator.slabCount(0));
+        // none of the old blocks survive on the free list of the old class
+        assertEquals(-1, allocator.allocate(LARGEST));
+        final int ref = allocator.allocate(0);
+        assertNotEquals(-1, ref);
+        assertEquals(0, allocator.sizeClassOf(ref));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.dns.record.ARecord;
+import org.xnio.dns.record.AaaaRecord;
+import org.xnio.dns.record.SrvRecord;
+
+/**
+ * Tests for {@link SrvEndpointPool}.
+ */
+public final class SrvEndpointPoolTestCase {
+
+    private static final Domain SERVICE = Domain.fromString("_ldap._tcp.example.com");
+    private static final TTLSpec TTL = TTLSpec.createFixed(300);
+
+    /**
+     * A resolver which answers from a table of answers by query name and type, which the test may change.
+     */
+    static final class TableResolver extends AbstractResolver {
+        final Map<String, Answer> table = Collections.synchronizedMap(new HashMap<String, Answer>());
+
+        void put(final Domain name, final int rrType, final Answer answer) {
+            table.put(name + " " + rrType, answer);
+        }
+
+        public IoFuture<Answer> resolve(final Query query) {
+            final Answer answer = table.get(query.getDomain() + " " + query.getRRType());
+            if (answer != null) {
+                return new FinishedIoFuture<Answer>(answer);
+            }
+            return new FinishedIoFuture<Answer>(Answer.builder().populateFromQuery(query).setResultCode(ResultCode.NXDOMAIN).create());
+        }
+    }
+
+    private static Domain name(final String name) {
+        return Domain.fromString(name);
+    }
+
+    private static SrvRecord srv(final int priority, final int weight, final String target) {
+        return new SrvRecord(SERVICE, TTL, priority, weight, 389, name(target));
+    }
+
+    private static ARecord a(final String name, final String address) throws Exception {
+        return new ARecord(name(name), TTL, (Inet4Address) InetAddress.getByName(address));
+    }
+
+    private static AaaaRecord aaaa(final String name, final String address) throws Exception {
+        return new AaaaRecord(name(name), TTL, (Inet6Address) InetAddress.getByName(address));
+    }
+
+    private static Answer answer(final Domain name, final int rrType, final int resultCode, final Record... records) {
+        final Answer.Builder builder = Answer.builder().setHeaderInfo(name, RRClass.IN, rrType, resultCode);
+        for (Record record : records) {
+            builder.addAnswerRecord(record);
+        }
+        return builder.create();
+    }
+
+    private static SrvEndpointPool.Endpoint endpoint(final int priority, final int weight, final String target) throws Exception {
+        return new SrvEndpointPool.Endpoint(srv(priority, weight, target), Collections.<InetAddress>singletonList(InetAddress.getByName("192.0.2.1")));
+    }
+
+    private static SrvEndpointPool ready(final SrvEndpointPool pool) throws Exception {
+        assertEquals(IoFuture.Status.DONE, pool.getReady().await(5L, TimeUnit.SECONDS));
+        return pool;
+    }
+
+    @Test
+    public void testPickPrefersLowestPriority() throws Exception {
+        final SrvEndpointPool.Snapshot snapshot = new SrvEndpointPool.Snapshot(new SrvEndpointPool.Endpoint[] {
+            endpoint(10, 5, "a.example.com"), endpoint(10, 5, "b.example.com"), endpoint(20, 5, "c.example.com")
+        });
+        for (int i = 0; i < 1000; i ++) {
+            assertEquals(10, snapshot.pick(0).getPriority());
+            assertEquals(name("c.example.com"), snapshot.pick(11).getTarget());
+        }
+        assertNull(snapshot.pick(21));
+        assertNull(SrvEndpointPool.Snapshot.EMPTY.pick(0));
+    }
+
+    @Test
+    public void testPickFollowsWeights() throws Exception {
+        final SrvEndpointPool.Snapshot snapshot = new SrvEndpointPool.Snapshot(new SrvEndpointPool.Endpoint[] {
+            endpoint(10, 10, "a.example.com"), endpoint(10, 30, "b.example.com"), endpoint(10, 0, "c.example.com")
+        });
+        final int picks = 40000;
+        int a = 0, b = 0, c = 0;
+        for (int i = 0; i < picks; i ++) {
+            final Domain target = snapshot.pick(0).getTarget();
+            if (target.equals(name("a.example.com"))) {
+                a ++;
+            } else if (target.equals(name("b.example.com"))) {
+                b ++;
+            } else {
+                c ++;
+            }
+        }
+        // expect 1:3, with a weight of zero picked very rarely
+        assertTrue(a > picks / 5 && a < picks * 3 / 10);
+        assertTrue(b > picks * 7 / 10 && b < picks * 4 / 5);
+        assertTrue(c < picks / 100);
+    }
+
+    @Test
+    public void testLoadUsesGlueAndLooksUpTheRest() throws Exception {
+        final TableResolver resolver = new TableResolver();
+        resolver.put(SERVICE, RRType.SRV, Answer.builder().setHeaderInfo(SERVICE, RRClass.IN, RRType.SRV, ResultCode.NOERROR)
+            .addAnswerRecord(srv(20, 1, "b.example.com")).addAnswerRecord(srv(10, 1, "a.example.com")).addAnswerRecord(srv(30, 1, "."))
+            .addAdditionalRecord(a("a.example.com", "192.0.2.1")).create());
+        resolver.put(name("b.example.com"), RRType.A, answer(name("b.example.com"), RRType.A, ResultCode.NOERROR, a("b.example.com", "192.0.2.2")));
+        resolver.put(name("b.example.com"), RRType.AAAA, answer(name("b.example.com"), RRType.AAAA, ResultCode.NOERROR, aaaa("b.example.com", "2001:db8::2")));
+        final SrvEndpointPool pool = ready(SrvEndpointPool.create(resolver, SERVICE));
+        try {
+            final List<SrvEndpointPool.Endpoint> endpoints = pool.getEndpoints();
+            // the "." target means no service there
+            assertEquals(2, endpoints.size());
+            assertEquals(name("a.example.com"), endpoints.get(0).getTarget());
+            assertEquals(Collections.singletonList(InetAddress.getByName("192.0.2.1")), endpoints.get(0).getAddresses());
+            assertEquals(name("b.example.com"), endpoints.get(1).getTarget());
+            assertEquals(Arrays.asList(InetAddress.getByName("2001:db8::2"), InetAddress.getByName("192.0.2.2")), endpoints.get(1).getAddresses());
+            assertEquals(name("a.example.com"), pool.pick().getTarget());
+            assertEquals(name("b.example.com"), pool.pick(11).getTarget());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        final TableResolver resolver = new TableResolver();
+        resolver.put(SERVICE, RRType.SRV, answer(SERVICE, RRType.SRV, ResultCode.NOERROR, srv(10, 1, "a.example.com")));
+        resolver.put(name("a.example.com"), RRType.A, answer(name("a.example.com"), RRType.A, ResultCode.NOERROR, a("a.example.com", "192.0.2.1")));
+        resolver.put(name("b.example.com"), RRType.A, answer(name("b.example.com"), RRType.A, ResultCode.NOERROR, a("b.example.com", "192.0.2.2")));
+        final SrvEndpointPool pool = ready(SrvEndpointPool.create(resolver, SERVICE));
+        try {
+            assertEquals(1, pool.getEndpoints().size());
+            resolver.put(SERVICE, RRType.SRV, answer(SERVICE, RRType.SRV, ResultCode.NOERROR, srv(10, 1, "a.example.com"), srv(10, 1, "b.example.com")));
+            pool.refresh();
+            assertEquals(2, pool.getEndpoints().size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testFailedRefreshKeepsEndpoints() throws Exception {
+        final TableResolver resolver = new TableResolver();
+        resolver.put(SERVICE, RRType.SRV, answer(SERVICE, RRType.SRV, ResultCode.NOERROR, srv(10, 1, "a.example.com")));
+        resolver.put(name("a.example.com"), RRType.A, answer(name("a.example.com"), RRType.A, ResultCode.NOERROR, a("a.example.com", "192.0.2.1")));
+        resolver.put(name("a.example.com"), RRType.AAAA, answer(name("a.example.com"), RRType.AAAA, ResultCode.NOERROR, aaaa("a.example.com", "2001:db8::1")));
+        final SrvEndpointPool pool = ready(SrvEndpointPool.create(resolver, SERVICE));
+        try {
+            assertEquals(2, pool.pick().getAddresses().size());
+            // the IPv6 lookup fails, so the previous IPv6 address is kept
+            resolver.put(name("a.example.com"), RRType.AAAA, answer(name("a.example.com"), RRType.AAAA, ResultCode.SERVER_FAILURE));
+            pool.refresh();
+            assertEquals(Arrays.asList(InetAddress.getByName("2001:db8::1"), InetAddress.getByName("192.0.2.1")), pool.pick().getAddresses());
+            // the SRV lookup fails, so the endpoints are kept
+            resolver.put(SERVICE, RRType.SRV, answer(SERVICE, RRType.SRV, ResultCode.SERVER_FAILURE));
+            pool.refresh();
+            assertEquals(1, pool.getEndpoints().size());
+            assertEquals(name("a.example.com"), pool.pick().getTarget());
+        } finally {
+            pool.close();
+        }
+    }
+}
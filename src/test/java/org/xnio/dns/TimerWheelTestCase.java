@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TimerWheel}.
+ */
+public final class TimerWheelTestCase {
+
+    private static final long TICK_MILLIS = 10L;
+
+    private static TimerWheel createWheel() {
+        return new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS), 16);
+    }
+
+    static final class LatchTimeout extends TimerWheel.Timeout {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile long firedNanos;
+
+        public void run() {
+            firedNanos = System.nanoTime();
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testFires() throws Exception {
+        final TimerWheel wheel = createWheel();
+        final LatchTimeout timeout = new LatchTimeout();
+        wheel.schedule(timeout, 20L, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.latch.await(5L, TimeUnit.SECONDS));
+        // a timeout which has fired is no longer scheduled
+        assertFalse(wheel.cancel(timeout));
+    }
+
+    @Test
+    public void testFiresAfterWholeRounds() throws Exception {
+        final TimerWheel wheel = createWheel();
+        final LatchTimeout timeout = new LatchTimeout();
+        final long start = System.nanoTime();
+        // more than two rounds of the 16-slot wheel
+        wheel.schedule(timeout, 400L, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.latch.await(5L, TimeUnit.SECONDS));
+        assertTrue(timeout.firedNanos - start >= TimeUnit.MILLISECONDS.toNanos(400L - TICK_MILLIS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final TimerWheel wheel = createWheel();
+        final LatchTimeout cancelled = new LatchTimeout();
+        final LatchTimeout later = new LatchTimeout();
+        wheel.schedule(cancelled, 50L, TimeUnit.MILLISECONDS);
+        wheel.schedule(later, 150L, TimeUnit.MILLISECONDS);
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertTrue(later.latch.await(5L, TimeUnit.SECONDS));
+        assertEquals(1L, cancelled.latch.getCount());
+        // a cancelled timeout may be scheduled again
+        wheel.schedule(cancelled, 0L, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.latch.await(5L, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xnio.dns.record;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for decoding and validating {@link SvcParams}.
+ */
+public final class SvcParamsTestCase {
+
+    /**
+     * Encode parameters from alternating keys and values.
+     */
+    private static ByteBuffer params(final Object... keysAndValues) {
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            final byte[] value = (byte[]) keysAndValues[i + 1];
+            buffer.putShort(((Integer) keysAndValues[i]).shortValue());
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i ++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static void assertMalformed(final ByteBuffer buffer) {
+        try {
+            SvcParams.fromBytes(buffer);
+            fail("Expected malformed parameters to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Inet4Address hint = (Inet4Address) InetAddress.getByAddress(bytes(192, 0, 2, 1));
+        final SvcParams params = SvcParams.builder().setAlpn("h2", "h3").setPort(8443).setIpv4Hints(hint).build();
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+        params.writeTo(buffer);
+        buffer.flip();
+        final SvcParams decoded = SvcParams.fromBytes(buffer);
+        assertEquals(params, decoded);
+        assertEquals(Arrays.asList("h2", "h3"), decoded.getAlpn());
+        assertEquals(8443, decoded.getPort());
+        assertEquals(Arrays.asList(hint), decoded.getIpv4Hints());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(SvcParams.EMPTY, SvcParams.fromBytes(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void testUnknownKeyAccepted() {
+        final SvcParams params = SvcParams.fromBytes(params(Integer.valueOf(65000), bytes(1, 2, 3)));
+        assertArrayEquals(bytes(1, 2, 3), params.getValue(65000));
+    }
+
+    @Test
+    public void testTruncatedKey() {
+        assertMalformed(ByteBuffer.wrap(bytes(0, SvcParams.PORT, 0)));
+    }
+
+    @Test
+    public void testTruncatedValue() {
+        assertMalformed(ByteBuffer.wrap(bytes(0, SvcParams.PORT, 0, 2, 1)));
+    }
+
+    @Test
+    public void testKeysOutOfOrder() {
+        assertMalformed(params(Integer.valueOf(SvcParams.PORT), bytes(1, 187), Integer.valueOf(SvcParams.ALPN), bytes(2, 'h', '2')));
+    }
+
+    @Test
+    public void testDuplicateKey() {
+        assertMalformed(params(Integer.valueOf(SvcParams.PORT), bytes(1, 187), Integer.valueOf(SvcParams.PORT), bytes(1, 188)));
+    }
+
+    @Test
+    public void testInvalidValueLengths() {
+        assertMalformed(params(Integer.valueOf(SvcParams.MANDATORY), bytes(0, 1, 0)));
+        assertMalformed(params(Integer.valueOf(SvcParams.ALPN), bytes()));
+        assertMalformed(params(Integer.valueOf(SvcParams.NO_DEFAULT_ALPN), bytes(0)));
+        assertMalformed(params(Integer.valueOf(SvcParams.PORT), bytes(1, 187, 0)));
+        assertMalformed(params(Integer.valueOf(SvcParams.IPV4HINT), bytes(192, 0, 2, 1, 0)));
+        assertMalformed(params(Integer.valueOf(SvcParams.IPV6HINT), new byte[15]));
+    }
+
+    @Test
+    public void testTruncatedProtocolId() {
+        final SvcParams params = SvcParams.fromBytes(params(Integer.valueOf(SvcParams.ALPN), bytes(3, 'h', '2')));
+        try {
+            params.getAlpn();
+            fail("Expected a truncated protocol ID to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}